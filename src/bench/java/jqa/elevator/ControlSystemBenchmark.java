@@ -0,0 +1,71 @@
+package jqa.elevator;
+
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures the stimulus queue of the control system: adding a batch
+ * of stimuli, then stepping through them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ControlSystemBenchmark
+{
+	private static final int BATCH = 4096;
+
+	@Param({"calendar", "heap"})
+	public String queue;
+
+	private SyntheticTrace        trace;
+	private ElevatorControlSystem controlSystem;
+
+
+	@Setup
+	public void setUp()
+	{
+		SyntheticTrace.silenceOutput();
+		this.trace = new SyntheticTrace(52, 16, BATCH, 2);
+		StimulusQueue stimuliQueue = this.queue.equals("heap")
+				? new HeapStimulusQueue()
+				: new CalendarStimulusQueue();
+		this.controlSystem = this.trace.createBuilding(stimuliQueue).controlSystem;
+	}
+
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public int addStimulus()
+	{
+		for (Stimulus stimulus: this.trace.stimuli) {
+			this.controlSystem.addStimulus(stimulus);
+		}
+		int count = 0;
+		while (this.controlSystem.hasStimuli()) {
+			this.controlSystem.stepStimulus();
+			++count;
+		}
+		return count;
+	}
+
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public int stepStimulus()
+	{
+		ElevatorControlSystem controlSystem = this.controlSystem;
+		int count = 0;
+		for (Stimulus stimulus: this.trace.stimuli) {
+			controlSystem.addStimulus(stimulus);
+			controlSystem.stepStimulus();
+			++count;
+		}
+		return count;
+	}
+}
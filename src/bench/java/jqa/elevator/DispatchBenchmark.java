@@ -0,0 +1,72 @@
+package jqa.elevator;
+
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures the latency of choosing an elevator for a floor call,
+ * during a morning up-peak in a 16-car, 52-floor bank: most calls are
+ * from the lobby, going up, and the cars are spread over the building
+ * with car calls scheduled above them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DispatchBenchmark
+{
+	private static final int FLOORS = 52;
+	private static final int CARS = 16;
+	private static final int LOBBY_PERCENT = 85;
+
+	private Dispatcher  dispatcher;
+	private int[]       floors;
+	private Direction[] directions;
+	private int         next;
+
+
+	@Setup
+	public void setUp()
+	{
+		Random random = new Random(5);
+
+		SyntheticTrace.silenceOutput();
+		ElevatorControlSystem controlSystem = new Building(FLOORS, CARS, new CalendarStimulusQueue()).controlSystem;
+		for (Elevator elevator: controlSystem.elevators) {
+			elevator.setCurrentFloor(1 + random.nextInt(FLOORS));
+			elevator.currentDirection = Direction.kUP;
+			for (int stop = 0; stop < 4; ++stop) {
+				elevator.setIsFloorSchedule(1 + random.nextInt(FLOORS), true);
+			}
+		}
+		this.dispatcher = new CostDispatcher(controlSystem);
+		this.floors = new int[1024];
+		this.directions = new Direction[this.floors.length];
+		for (int j = 0; j < this.floors.length; ++j) {
+			if (random.nextInt(100) < LOBBY_PERCENT) {
+				this.floors[j] = 1;
+				this.directions[j] = Direction.kUP;
+			}
+			else {
+				this.floors[j] = 2 + random.nextInt(FLOORS - 1);
+				this.directions[j] = Direction.kDOWN;
+			}
+		}
+		this.next = 0;
+	}
+
+
+	@Benchmark
+	public Elevator assignCall()
+	{
+		int call = this.next;
+		this.next = (call + 1) & (this.floors.length - 1);
+		return this.dispatcher.assignCall(this.floors[call], this.directions[call]);
+	}
+}
@@ -0,0 +1,82 @@
+package jqa.elevator;
+
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures the per-car queries made by status reporting and dispatch.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ElevatorBenchmark
+{
+	@Param({"50", "200"})
+	public int floors;
+
+	private Elevator elevator;
+	private int[]    targets;
+	private int      next;
+
+
+	@Setup
+	public void setUp()
+	{
+		Random random = new Random(3);
+
+		SyntheticTrace.silenceOutput();
+		ElevatorControlSystem controlSystem = new Building(this.floors, 1, new CalendarStimulusQueue()).controlSystem;
+		this.elevator = controlSystem.elevators.get(0);
+		this.elevator.currentDirection = Direction.kUP;
+		for (int j = 0; j < this.floors / 5; ++j) {
+			this.elevator.setIsFloorSchedule(1 + random.nextInt(this.floors), true);
+		}
+		this.targets = new int[1024];
+		for (int j = 0; j < this.targets.length; ++j) {
+			this.targets[j] = 1 + random.nextInt(this.floors);
+		}
+		this.next = 0;
+	}
+
+
+	@Benchmark
+	public ArrayList<Integer> getFloorSchedule()
+	{
+		return this.elevator.getFloorSchedule();
+	}
+
+
+	@Benchmark
+	public int forEachScheduledFloor(Blackhole blackhole)
+	{
+		this.elevator.forEachScheduledFloor(blackhole::consume);
+		return this.elevator.getStopCount();
+	}
+
+
+	@Benchmark
+	public int getNextStop()
+	{
+		this.elevator.setCurrentFloor(this.targets[this.next]);
+		this.next = (this.next + 1) & (this.targets.length - 1);
+		return this.elevator.getNextStop();
+	}
+
+
+	@Benchmark
+	public int computeFloorCost()
+	{
+		int floor = this.targets[this.next];
+		this.next = (this.next + 1) & (this.targets.length - 1);
+		return this.elevator.computeFloorCost(floor);
+	}
+}
@@ -0,0 +1,70 @@
+package jqa.elevator;
+
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Replays a synthetic trace end to end, from building construction
+ * until the cars have served the last call and come to rest, for a
+ * range of building sizes.  The controller steps from event to event,
+ * as the {@code Driver} runs it, so the cars move and serve the calls.
+ * The trace is either queued up front or streamed through the
+ * look-ahead window.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ReplayBenchmark
+{
+	private static final int LENGTH = 100000;
+
+	@Param({"16", "64", "256"})
+	public int cars;
+
+	@Param({"50", "200"})
+	public int floors;
+
+	@Param({"queue", "stream"})
+	public String ingest;
+
+	private SyntheticTrace trace;
+
+
+	@Setup
+	public void setUp()
+	{
+		SyntheticTrace.silenceOutput();
+		this.trace = new SyntheticTrace(this.floors, this.cars, LENGTH, 4);
+	}
+
+
+	@Benchmark
+	@OperationsPerInvocation(LENGTH)
+	public Building replay()
+	{
+		Building building = this.trace.createBuilding(new CalendarStimulusQueue());
+		ElevatorControlSystem controlSystem = building.controlSystem;
+
+		if (this.ingest.equals("stream")) {
+			/* The trace is in time order, but a tick's stimuli are not
+			 * in type order; a window of a tick's worth puts them in it.
+			 */
+			controlSystem.setStimulusSource(new SyntheticTrace.Source(this.trace.stimuli), this.cars);
+		}
+		else {
+			for (Stimulus stimulus: this.trace.stimuli) {
+				controlSystem.addStimulus(stimulus);
+			}
+		}
+		while (controlSystem.isActive()) {
+			controlSystem.tickToNextEvent();
+		}
+		return building;
+	}
+}
@@ -0,0 +1,54 @@
+package jqa.elevator;
+
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures the parsing of text simulation lines.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StimulusBenchmark
+{
+	private String[] lines;
+	private int      next;
+
+
+	@Setup
+	public void setUp()
+	{
+		this.lines = new SyntheticTrace(52, 16, 4096, 1).toLines();
+		this.next = 0;
+	}
+
+
+	@Benchmark
+	public Stimulus createFromString()
+			throws IOException
+	{
+		String line = this.lines[this.next];
+		this.next = (this.next + 1) % this.lines.length;
+		return Stimulus.createFromString(line);
+	}
+
+
+	@Benchmark
+	public void parseInto(Blackhole blackhole)
+			throws IOException
+	{
+		Stimulus stimulus = new Stimulus();
+		String line = this.lines[this.next];
+		this.next = (this.next + 1) % this.lines.length;
+		Stimulus.parseInto(line, stimulus);
+		blackhole.consume(stimulus);
+	}
+}
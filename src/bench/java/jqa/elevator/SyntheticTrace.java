@@ -0,0 +1,130 @@
+package jqa.elevator;
+
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+
+
+/**
+ * Generates reproducible stimulus traces for the benchmarks: a mix of
+ * floor calls and car calls, spread over the cars and floors of a
+ * building, in timestamp order.
+ */
+class SyntheticTrace
+{
+	/**
+	 * The share of stimuli that are floor calls, in percent.
+	 * The rest are {@link Stimulus.StimulusType#GoToFloor} car calls.
+	 */
+	private static final int FLOOR_CALL_PERCENT = 30;
+
+	final int        floorCount;
+	final int        elevatorCount;
+	final Stimulus[] stimuli;
+
+
+	SyntheticTrace(int floorCount, int elevatorCount, int length, long seed)
+	{
+		Random random = new Random(seed);
+		int perTick = Math.max(elevatorCount / 4, 1);
+
+		this.floorCount = floorCount;
+		this.elevatorCount = elevatorCount;
+		this.stimuli = new Stimulus[length];
+		for (int j = 0; j < length; ++j) {
+			Stimulus stimulus = new Stimulus();
+			stimulus.timestamp = 1 + j / perTick;
+			stimulus.floor = 1 + random.nextInt(floorCount);
+			if (random.nextInt(100) < FLOOR_CALL_PERCENT) {
+				stimulus.deviceIdentity = "FCB-" + stimulus.floor;
+				stimulus.type = random.nextBoolean()
+						? Stimulus.StimulusType.ButtonUp
+						: Stimulus.StimulusType.ButtonDown;
+			}
+			else {
+				stimulus.deviceIdentity = "E-" + random.nextInt(elevatorCount);
+				stimulus.type = Stimulus.StimulusType.GoToFloor;
+			}
+			this.stimuli[j] = stimulus;
+		}
+	}
+
+
+	/**
+	 * Formats the trace as lines of the text simulation file.
+	 *
+	 * @return One line per stimulus.
+	 */
+	String[] toLines()
+	{
+		String[] lines = new String[this.stimuli.length];
+		for (int j = 0; j < lines.length; ++j) {
+			Stimulus stimulus = this.stimuli[j];
+			lines[j] = String.format("%d\t%s\t%s\t%d",
+					stimulus.timestamp,
+					stimulus.deviceIdentity,
+					stimulus.type,
+					stimulus.floor
+			);
+		}
+		return lines;
+	}
+
+
+	Building createBuilding(StimulusQueue stimuliQueue)
+	{
+		return new Building(this.floorCount, this.elevatorCount, stimuliQueue);
+	}
+
+
+	/**
+	 * Discards the device trace output, so the benchmarks measure
+	 * the controller rather than the console.
+	 */
+	static void silenceOutput()
+	{
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+	}
+
+
+	/**
+	 * Streams a trace to the controller, as a {@link StimulusSource}
+	 * reading from memory.
+	 */
+	static class Source
+		implements StimulusSource
+	{
+		private Stimulus[] stimuli;
+		private int        next;
+
+
+		Source(Stimulus[] stimuli)
+		{
+			this.stimuli = stimuli;
+			this.next = 0;
+		}
+
+
+		@Override
+		public void close()
+		{
+		}
+
+
+		@Override
+		public boolean next(Stimulus stimulus)
+		{
+			if (this.next >= this.stimuli.length) {
+				return false;
+			}
+			Stimulus from = this.stimuli[this.next++];
+			stimulus.timestamp = from.timestamp;
+			stimulus.deviceIdentity = from.deviceIdentity;
+			stimulus.deviceHandle = from.deviceHandle;
+			stimulus.type = from.type;
+			stimulus.floor = from.floor;
+			return true;
+		}
+	}
+}
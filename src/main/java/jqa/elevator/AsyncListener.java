@@ -0,0 +1,261 @@
+package jqa.elevator;
+
+
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Passes the changes published on an {@link EventBus} to a slower
+ * listener on a thread of its own, so that the simulation does not wait
+ * for it.  Each change is copied into a ring buffer of primitive columns
+ * (kind, device handle, floor, value); publishing allocates nothing.
+ * The listener's thread reads the buffer in order and calls the listener
+ * with the devices looked up by handle.
+ *
+ * <p>
+ *     There is one writer, the simulation thread (the coordinator, under
+ *     a {@link ConcurrentRuntime}), and one reader.  When
+ *     the buffer is full, a lossy listener drops the change and counts
+ *     it; otherwise the simulation waits for room.  The listener sees the
+ *     values as they were published, but a device's other fields may
+ *     have moved on by the time it looks.
+ * </p>
+ */
+public class AsyncListener
+	implements BuildingListener, AutoCloseable
+{
+	private static final int KIND_CAR_FLOOR = 0;
+	private static final int KIND_CAR_STATE = 1;
+	private static final int KIND_SCHEDULE = 2;
+	private static final int KIND_FLOOR_ENABLED = 3;
+	private static final int KIND_CALL_LAMP = 4;
+	private static final int KIND_DESTINATION = 5;
+	private static final int KIND_CALL_REASSIGNED = 6;
+
+	private static final CarState[]  CAR_STATES = CarState.values();
+	private static final Direction[] DIRECTIONS = Direction.values();
+
+	private BuildingListener target;
+	private DeviceRegistry   registry;
+	private boolean          isLossy;
+
+	private byte[] kinds;
+	private int[]  handles;
+	private int[]  floors;
+	private int[]  values;
+	private int    mask;
+
+	/**
+	 * The count of changes written (by the simulation) and read (by the
+	 * listener's thread).  A change is visible to the reader once the
+	 * written count passes it.
+	 */
+	private volatile long written;
+	private volatile long read;
+	private long          droppedCount;
+	private volatile boolean isClosed;
+	private Thread        thread;
+
+
+	/**
+	 * Creates the listener and starts its thread.
+	 *
+	 * @param controlSystem
+	 * The system whose devices the changes refer to.
+	 *
+	 * @param target
+	 * The listener to call on the new thread.
+	 *
+	 * @param capacity
+	 * The number of changes the buffer holds, rounded up to a power of two.
+	 *
+	 * @param isLossy
+	 * True to drop changes when the buffer is full, false to wait.
+	 */
+	public AsyncListener(ElevatorControlSystem controlSystem, BuildingListener target, int capacity, boolean isLossy)
+	{
+		int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+
+		this.target = target;
+		this.registry = controlSystem.deviceRegistry;
+		this.isLossy = isLossy;
+		this.kinds = new byte[size];
+		this.handles = new int[size];
+		this.floors = new int[size];
+		this.values = new int[size];
+		this.mask = size - 1;
+		this.written = 0;
+		this.read = 0;
+		this.droppedCount = 0;
+		this.isClosed = false;
+		this.thread = new Thread(this::drain, "AsyncListener");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+
+	/**
+	 * Gives the number of changes dropped because the buffer was full.
+	 *
+	 * @return The count of lost changes.
+	 */
+	public long getDroppedCount()
+	{
+		return this.droppedCount;
+	}
+
+
+	/**
+	 * Delivers the changes still in the buffer, then stops the thread.
+	 * If the caller is interrupted, it stops waiting for the thread and
+	 * keeps the interrupt.
+	 */
+	@Override
+	public void close()
+	{
+		this.isClosed = true;
+		LockSupport.unpark(this.thread);
+		try {
+			this.thread.join();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+	@Override
+	public void carFloorChanged(Elevator car, int floor)
+	{
+		this.put(KIND_CAR_FLOOR, car.getDeviceHandle(), floor, 0);
+	}
+
+
+	@Override
+	public void carStateChanged(Elevator car, CarState state)
+	{
+		this.put(KIND_CAR_STATE, car.getDeviceHandle(), car.currentFloor, state.ordinal());
+	}
+
+
+	@Override
+	public void scheduleChanged(Elevator car, int floor, boolean isScheduled)
+	{
+		this.put(KIND_SCHEDULE, car.getDeviceHandle(), floor, isScheduled ? 1 : 0);
+	}
+
+
+	@Override
+	public void floorEnabledChanged(Elevator car, int floor, boolean isEnabled)
+	{
+		this.put(KIND_FLOOR_ENABLED, car.getDeviceHandle(), floor, isEnabled ? 1 : 0);
+	}
+
+
+	@Override
+	public void callLampChanged(FloorCallButton button, Direction direction, boolean isOn)
+	{
+		this.put(KIND_CALL_LAMP, button.getDeviceHandle(), direction.ordinal(), isOn ? 1 : 0);
+	}
+
+
+	@Override
+	public void callReassigned(FloorCallButton button, Direction direction, Elevator car)
+	{
+		this.put(KIND_CALL_REASSIGNED, button.getDeviceHandle(), direction.ordinal(), car.getDeviceHandle());
+	}
+
+
+	@Override
+	public void destinationAssigned(DestinationKiosk kiosk, int destination, Elevator car)
+	{
+		this.put(KIND_DESTINATION, kiosk.getDeviceHandle(), destination, car.getDeviceHandle());
+	}
+
+
+	private void put(int kind, int handle, int floor, int value)
+	{
+		long position = this.written;
+
+		while (position - this.read > this.mask) {
+			if (this.isLossy) {
+				++this.droppedCount;
+				return;
+			}
+			LockSupport.unpark(this.thread);
+			Thread.onSpinWait();
+		}
+		int slot = (int)position & this.mask;
+		this.kinds[slot] = (byte)kind;
+		this.handles[slot] = handle;
+		this.floors[slot] = floor;
+		this.values[slot] = value;
+		this.written = position + 1;
+	}
+
+
+	/**
+	 * Runs on the listener's thread, calling the listener for each
+	 * change in the buffer until closed.
+	 */
+	private void drain()
+	{
+		long position = this.read;
+
+		for (;;) {
+			boolean isLast = this.isClosed;
+			long end = this.written;
+			if (position == end) {
+				if (isLast) {
+					return;
+				}
+				LockSupport.parkNanos(100_000L);
+				continue;
+			}
+			for (; position < end; ++position) {
+				int slot = (int)position & this.mask;
+				this.deliver(this.kinds[slot], this.handles[slot], this.floors[slot], this.values[slot]);
+			}
+			this.read = position;
+		}
+	}
+
+
+	private void deliver(int kind, int handle, int floor, int value)
+	{
+		StandaloneDevice device = this.registry.get(handle);
+
+		switch (kind) {
+		case KIND_CAR_FLOOR:
+			this.target.carFloorChanged((Elevator)device, floor);
+			break;
+
+		case KIND_CAR_STATE:
+			this.target.carStateChanged((Elevator)device, CAR_STATES[value]);
+			break;
+
+		case KIND_SCHEDULE:
+			this.target.scheduleChanged((Elevator)device, floor, value != 0);
+			break;
+
+		case KIND_FLOOR_ENABLED:
+			this.target.floorEnabledChanged((Elevator)device, floor, value != 0);
+			break;
+
+		case KIND_CALL_LAMP:
+			this.target.callLampChanged((FloorCallButton)device, DIRECTIONS[floor], value != 0);
+			break;
+
+		case KIND_CALL_REASSIGNED:
+			this.target.callReassigned((FloorCallButton)device, DIRECTIONS[floor], (Elevator)this.registry.get(value));
+			break;
+
+		case KIND_DESTINATION:
+			this.target.destinationAssigned((DestinationKiosk)device, floor, (Elevator)this.registry.get(value));
+			break;
+
+		default:
+			break;
+		}
+	}
+}
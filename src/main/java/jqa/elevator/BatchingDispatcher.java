@@ -0,0 +1,96 @@
+package jqa.elevator;
+
+
+/**
+ * Dispatches destination calls so that passengers going to the same or
+ * nearby floors share a car.  The cost of a car is an estimate of the
+ * passenger's time to destination: the car's time of arrival at the
+ * passenger's floor, the ride, and a stop for each floor the car is to
+ * stop at on the way.  To that is added the delay to the others: if the
+ * car does not stop at the destination already, each passenger bound
+ * beyond it loses a stop.  So a car already stopping at the destination
+ * costs least, and each car's stops stay few.
+ *
+ * <p>
+ *     A car with as many passengers in it and waiting for it as it can
+ *     hold is passed over, unless every car is in the same state.  On a tie,
+ *     the elevator with the lowest index wins.
+ * </p>
+ */
+public class BatchingDispatcher
+	implements DestinationDispatcher
+{
+	private ElevatorControlSystem controlSystem;
+
+
+	public BatchingDispatcher(ElevatorControlSystem controlSystem)
+	{
+		this.controlSystem = controlSystem;
+	}
+
+
+	@Override
+	public Elevator assignPassenger(int origin, int destination)
+	{
+		Direction direction = destination > origin ? Direction.kUP : Direction.kDOWN;
+		Elevator best = null;
+		Elevator bestFull = null;
+		long bestCost = Long.MAX_VALUE;
+		long bestFullCost = Long.MAX_VALUE;
+
+		for (Elevator elevator: this.controlSystem.elevators) {
+			if (!elevator.isFloorEnabled(destination)) {
+				continue;
+			}
+			int arrival = elevator.computeFloorCost(origin, direction);
+			if (arrival == Integer.MAX_VALUE) {
+				continue;
+			}
+			long cost = arrival + this.computeTripTime(elevator, origin, destination, direction);
+			if (elevator.getLoad() + elevator.waitingPassengers.size() >= elevator.capacity) {
+				if (cost < bestFullCost) {
+					bestFull = elevator;
+					bestFullCost = cost;
+				}
+			}
+			else if (cost < bestCost) {
+				best = elevator;
+				bestCost = cost;
+			}
+		}
+		return best != null ? best : bestFull;
+	}
+
+
+	/**
+	 * Estimates the time from boarding to the destination, plus the
+	 * delay to the other passengers.  The car's stops, and the
+	 * passengers in it and waiting for it, are taken to be on the way,
+	 * in the direction of the trip.
+	 */
+	private long computeTripTime(Elevator elevator, int origin, int destination, Direction direction)
+	{
+		int step = direction == Direction.kUP ? 1 : -1;
+		boolean isPlanned = false;
+		int stopsBefore = 0;
+		int passengersBeyond = 0;
+
+		for (int floor = origin + step; floor >= this.controlSystem.getFloorBottom()
+				&& floor <= this.controlSystem.getFloorTop(); floor += step) {
+			int passengers = elevator.passengerDestinations[floor];
+			boolean isStop = passengers > 0 || elevator.isFloorScheduled(floor);
+			if (floor == destination) {
+				isPlanned = isStop;
+			}
+			else if ((floor - destination) * step < 0) {
+				stopsBefore += isStop ? 1 : 0;
+			}
+			else {
+				passengersBeyond += isStop ? Math.max(passengers, 1) : 0;
+			}
+		}
+
+		long ride = (long)Math.abs(destination - origin) * elevator.floorTime + (long)stopsBefore * elevator.stopTime;
+		return isPlanned ? ride : ride + (long)passengersBeyond * elevator.stopTime;
+	}
+}
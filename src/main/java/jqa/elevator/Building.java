@@ -1,7 +1,6 @@
 package jqa.elevator;
 
 
-import java.util.ArrayList;
 import java.util.Collection;
 
 
@@ -9,10 +8,9 @@ import java.util.Collection;
  * Constructs all the objects for a proper building.
  *
  * <p>
- *     Normally, this could be driven by a configuration file,
- *     giving the number of floors, elevators, etc.  To simplify
- *     things for now, this is done with code and would be
- *     replaced later.
+ *     The layout comes from a {@link BuildingDescription}, normally
+ *     read from a file.  Without one, the building has 52 floors and
+ *     10 elevators that serve every floor.
  * </p>
  */
 public class Building
@@ -24,49 +22,99 @@ public class Building
 
 	public Building()
 	{
-		this.controlSystem = new ElevatorControlSystem(FLOOR_COUNT);
+		this(new CalendarStimulusQueue());
+	}
 
-		for (int j = 0; j < ELEVATOR_COUNT; ++j) {
-			Elevator elevator = new Elevator(this.controlSystem);
-			this.controlSystem.addElevator(elevator);
-		}
 
-		/* Put a call button on every floor.  We could provide multiple
-		 * buttons, without affecting much.  But that's unnecessary for now.
-		 */
-		for (int floor = 1; floor <= FLOOR_COUNT; ++floor) {
-			FloorCallButton floorCallButton = new FloorCallButton(this.controlSystem, floor);
-			floorCallButton.setDeviceIdentity(String.format("FCB-%d", floor));
-			this.controlSystem.addFloorCallButton(floorCallButton);
+	/**
+	 * Constructs the building around a specific kind of stimulus queue.
+	 *
+	 * @param stimuliQueue
+	 * The empty queue for the control system.
+	 */
+	public Building(StimulusQueue stimuliQueue)
+	{
+		this(FLOOR_COUNT, ELEVATOR_COUNT, stimuliQueue);
+	}
+
+
+	/**
+	 * Constructs a building of a given size, with every elevator
+	 * serving every floor.
+	 *
+	 * @param floorCount
+	 * The number of floors.
+	 *
+	 * @param elevatorCount
+	 * The number of elevators.
+	 *
+	 * @param stimuliQueue
+	 * The empty queue for the control system.
+	 */
+	public Building(int floorCount, int elevatorCount, StimulusQueue stimuliQueue)
+	{
+		this(BuildingDescription.create(floorCount, elevatorCount), stimuliQueue);
+	}
+
+
+	/**
+	 * Constructs a building from its description.
+	 *
+	 * @param description
+	 * The layout of the building.
+	 *
+	 * @param stimuliQueue
+	 * The empty queue for the control system.
+	 */
+	public Building(BuildingDescription description, StimulusQueue stimuliQueue)
+	{
+		this.controlSystem = description.createControlSystem(stimuliQueue);
+	}
+
+
+	/**
+	 * Logs the status of the cars and the floor calls, when the trace is
+	 * at {@link Trace.Level#kSTATUS}.  The status is built as one piece of
+	 * text, and formatted on the trace's thread.
+	 */
+	void traceStatus()
+	{
+		Trace trace = this.controlSystem.getTrace();
+
+		if (Trace.ENABLED && trace != null && trace.isEnabled(Trace.Level.kSTATUS)) {
+			StringBuilder status = new StringBuilder(1024);
+			this.appendElevatorStatus(status);
+			this.appendFloorCallStatus(status);
+			trace.text(status.toString());
 		}
 	}
 
 
-	void printElevatorStatus()
+	private void appendElevatorStatus(StringBuilder status)
 	{
 		Collection<Elevator> elevators;
 
 		elevators = this.controlSystem.getElevators();
 		for (Elevator elevator: elevators) {
-			System.out.printf("%-10s", elevator.getDeviceIdentity());
-			System.out.printf(
-					"  %2d:%s",
-					elevator.getCurrentFloor(),
-					elevator.currentDirection.status
-			);
-			ArrayList<Integer> schedule = elevator.getFloorSchedule();
-			System.out.printf("  => [");
+			padRight(status, elevator.getDeviceIdentity(), 10);
+			status.append("  ");
+			padLeft(status, Integer.toString(elevator.getCurrentFloor()), 2);
+			status.append(':')
+					.append(elevator.currentDirection.status)
+					.append(elevator.carState.status)
+					.append("  => [");
 			String separator = "";
-			for (int floor: schedule) {
-				System.out.printf("%s%d", separator, floor);
+			for (int floor = elevator.nextScheduledFloor(this.controlSystem.getFloorBottom());
+					floor >= 0; floor = elevator.nextScheduledFloor(floor + 1)) {
+				status.append(separator).append(floor);
 				separator = ", ";
 			}
-			System.out.printf("]%n");
+			status.append(']').append(System.lineSeparator());
 		}
 	}
 
 
-	void printFloorCallStatus()
+	private void appendFloorCallStatus(StringBuilder status)
 	{
 		Collection<FloorCallButton> buttons;
 		int index = 0;
@@ -75,19 +123,40 @@ public class Building
 		buttons = this.controlSystem.getFloorCallButtons();
 		for (FloorCallButton button: buttons) {
 			if (index % 10 == 0) {
-				System.out.printf("%s%-10s", separator, "Calls");
+				status.append(separator);
+				padRight(status, "Calls", 10);
 				separator = "\n";
 			}
-			String status = "";
+			String lamps = "";
 			if (button.isDown()) {
-				status += "D";
+				lamps += "D";
 			}
 			if (button.isUp()) {
-				status += "U";
+				lamps += "U";
 			}
-			System.out.printf("  %2d:%2s", button.getFloor(), status);
+			status.append("  ");
+			padLeft(status, Integer.toString(button.getFloor()), 2);
+			status.append(':');
+			padLeft(status, lamps, 2);
 			++index;
 		}
-		System.out.printf("%n");
+	}
+
+
+	private static void padLeft(StringBuilder status, String text, int width)
+	{
+		for (int j = text.length(); j < width; ++j) {
+			status.append(' ');
+		}
+		status.append(text);
+	}
+
+
+	private static void padRight(StringBuilder status, String text, int width)
+	{
+		status.append(text);
+		for (int j = text.length(); j < width; ++j) {
+			status.append(' ');
+		}
 	}
 }
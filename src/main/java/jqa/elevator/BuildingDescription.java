@@ -0,0 +1,734 @@
+package jqa.elevator;
+
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+
+/**
+ * Describes the layout of a building: its floors, and its banks of
+ * elevators with their speeds and the floors they serve.  A description
+ * is read once from a text file and can then construct any number of
+ * {@link Building} objects.
+ *
+ * <p>
+ *     The file holds one statement per line, with fields separated by
+ *     white space.  Blank lines and everything after a {@code #} are
+ *     ignored.  Floors are numbered from 1.
+ * </p>
+ *
+ * <pre>
+ *     floors 120                  # the number of floors; must come first
+ *     floor-height 3500           # the distance between floors, in mm
+ *     bank A 6 serves 1-40        # six cars, A-0 to A-5
+ *     bank X 4 speed 600 acceleration 15 serves 1,81-120
+ *     bank S 1 doors 30 50 30     # door open, dwell and close ticks
+ *     bank F 2 capacity 26        # passengers a car holds
+ *     disable A-2 13              # floors that one car does not serve
+ *     kiosks 1,60                 # destination kiosks, DK- and the floor
+ *     population 2-40 120         # people per floor, for generated traffic
+ *     park 07:00 lobby 1          # where idle cars wait, by time of day
+ *     park 11:30 demand 600       # half-life of the demand, in seconds
+ *     park 18:00 zoned
+ *     park 22:00 forecast         # where calls are expected at this time
+ *     forecast 15 7               # 15-minute buckets, a half-life of 7 days
+ *     optimize 10 2000            # reassign calls every 10 ticks, in 2000 us
+ *     rollout 60 4                # try 4 cars per call, 60 seconds ahead
+ * </pre>
+ *
+ * <p>
+ *     A bank takes the default {@link MotionProfile} for anything it
+ *     does not give, and serves every floor unless it says otherwise.
+ *     Speeds are in millimeters per tick.  The cars of a bank are named
+ *     after it, with a number from 0; the floor call buttons are named
+ *     {@code FCB-} and the floor, and the destination kiosks
+ *     {@code DK-} and the floor.  A car holds
+ *     {@link Elevator#DEFAULT_CAPACITY} passengers unless its bank
+ *     says otherwise.
+ * </p>
+ *
+ * <p>
+ *     Each {@code park} statement gives a {@link Scheduler} for idle cars
+ *     ({@link LobbyScheduler}, {@link ZonedScheduler},
+ *     {@link DemandScheduler} or {@link ForecastScheduler}) and the time
+ *     of day it takes over.  One
+ *     {@code park} statement without a time applies all day.  Without
+ *     any, idle cars stay where they stop.
+ * </p>
+ *
+ * <p>
+ *     An {@code optimize} statement adds a {@link CallOptimizer}, with
+ *     the ticks between runs and, if given, the time budget of a run in
+ *     microseconds.  A {@code rollout} statement dispatches the floor
+ *     calls with a {@link RolloutDispatcher}, with its horizon in
+ *     seconds and, if given, the number of cars to try.
+ * </p>
+ *
+ * <p>
+ *     A {@code forecast} statement gives the controller a
+ *     {@link DemandForecast}, with the length of its buckets in minutes
+ *     and, if given, its half-life in days.  Parking by forecast, or
+ *     rollouts, use it; parking by forecast without the statement gets
+ *     a forecast of 15-minute buckets and a half-life of a week.
+ * </p>
+ */
+public class BuildingDescription
+{
+	/**
+	 * A bank of identical cars.
+	 */
+	private static class Bank
+	{
+		String   name;
+		int      carCount;
+		int      maxSpeed;
+		int      acceleration;
+		int      doorOpenTicks;
+		int      doorDwellTicks;
+		int      doorCloseTicks;
+		int      capacity;
+		FloorSet servedFloors;
+	}
+
+
+	/**
+	 * A scheduler for idle cars, and when it starts.
+	 */
+	private static class Parking
+	{
+		int    timeOfDay;
+		String policy;
+		int    value;
+	}
+
+
+	/**
+	 * The default half-life of the calls a demand scheduler learns
+	 * from, in seconds.
+	 */
+	private static final int DEFAULT_HALF_LIFE = 900;
+
+
+	private int                       floorCount;
+	private int                       floorHeight;
+	private ArrayList<Bank>           banks;
+	private HashMap<String, FloorSet> disabledFloors;
+	private ArrayList<Parking>        parkings;
+	private FloorSet                  kioskFloors;
+	private int[]                     population;
+	private int                       optimizeInterval;
+	private int                       optimizeBudget;
+	private int                       rolloutHorizon;
+	private int                       rolloutCandidates;
+	private int                       forecastMinutes;
+	private int                       forecastHalfLife;
+	private int                       lineNumber;
+
+
+	private BuildingDescription()
+	{
+		this.floorCount = 0;
+		this.floorHeight = MotionProfile.DEFAULT.floorHeight;
+		this.banks = new ArrayList<>();
+		this.disabledFloors = new HashMap<>();
+		this.parkings = new ArrayList<>();
+		this.kioskFloors = null;
+		this.population = null;
+		this.optimizeInterval = 0;
+		this.optimizeBudget = 0;
+		this.rolloutHorizon = 0;
+		this.rolloutCandidates = 0;
+		this.forecastMinutes = 0;
+		this.forecastHalfLife = 0;
+		this.lineNumber = 0;
+	}
+
+
+	/**
+	 * Creates the description of a simple building, with one bank of
+	 * cars that serve every floor.  The cars are named {@code E-0} and
+	 * up.
+	 *
+	 * @param floorCount
+	 * The number of floors.
+	 *
+	 * @param elevatorCount
+	 * The number of elevators.
+	 *
+	 * @return The description.
+	 */
+	public static BuildingDescription create(int floorCount, int elevatorCount)
+	{
+		BuildingDescription description = new BuildingDescription();
+
+		description.floorCount = floorCount;
+		description.banks.add(description.createBank("E", elevatorCount));
+		return description;
+	}
+
+
+	/**
+	 * Puts a destination kiosk on every floor, in addition to the call
+	 * buttons.
+	 */
+	public void addKiosks()
+	{
+		this.kioskFloors = new FloorSet(this.floorCount);
+		for (int floor = 1; floor <= this.floorCount; ++floor) {
+			this.kioskFloors.add(floor);
+		}
+	}
+
+
+	/**
+	 * Reads a description from a file.
+	 *
+	 * @param path
+	 * The name of the file.
+	 *
+	 * @return The description.
+	 *
+	 * @throws IOException If the file cannot be read, or is not a
+	 * proper description.  The message gives the line at fault.
+	 */
+	public static BuildingDescription load(String path)
+			throws IOException
+	{
+		try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+			return parse(reader);
+		}
+	}
+
+
+	/**
+	 * Reads a description.
+	 *
+	 * @param reader
+	 * The source of the text, which is read to the end but not closed.
+	 *
+	 * @return The description.
+	 *
+	 * @throws IOException If the text cannot be read, or is not a
+	 * proper description.
+	 */
+	public static BuildingDescription parse(BufferedReader reader)
+			throws IOException
+	{
+		BuildingDescription description = new BuildingDescription();
+		String line;
+
+		while ((line = reader.readLine()) != null) {
+			++description.lineNumber;
+			int comment = line.indexOf('#');
+			if (comment >= 0) {
+				line = line.substring(0, comment);
+			}
+			line = line.trim();
+			if (line.isEmpty()) {
+				continue;
+			}
+			description.parseStatement(line.split("\\s+"));
+		}
+		if (description.banks.isEmpty()) {
+			throw new IOException("No elevator banks");
+		}
+		return description;
+	}
+
+
+	public int getFloorCount()
+	{
+		return this.floorCount;
+	}
+
+
+	/**
+	 * Gives the total number of cars in all the banks.
+	 *
+	 * @return The number of cars.
+	 */
+	public int getElevatorCount()
+	{
+		int count = 0;
+
+		for (Bank bank: this.banks) {
+			count += bank.carCount;
+		}
+		return count;
+	}
+
+
+	/**
+	 * Constructs the control system for a building of this description,
+	 * with all its cars and call buttons.
+	 *
+	 * @param stimuliQueue
+	 * The empty queue for the control system.
+	 *
+	 * @return The control system.
+	 */
+	ElevatorControlSystem createControlSystem(StimulusQueue stimuliQueue)
+	{
+		ElevatorControlSystem controlSystem = new ElevatorControlSystem(this.floorCount, stimuliQueue);
+		int bottom = controlSystem.getFloorBottom();
+		int top = controlSystem.getFloorTop();
+
+		for (Bank bank: this.banks) {
+			MotionProfile profile = new MotionProfile(this.floorHeight, bank.maxSpeed, bank.acceleration,
+					bank.doorOpenTicks, bank.doorDwellTicks, bank.doorCloseTicks);
+			String prefix = bank.name + "-";
+			for (int j = 0; j < bank.carCount; ++j) {
+				Elevator elevator = new Elevator(controlSystem);
+				elevator.setDeviceIdentity(prefix + j);
+				elevator.setMotionProfile(profile);
+				elevator.setCapacity(bank.capacity);
+				FloorSet disabled = this.disabledFloors.get(elevator.getDeviceIdentity());
+				for (int floor = bottom; floor <= top; ++floor) {
+					if (!bank.servedFloors.contains(floor) || disabled != null && disabled.contains(floor)) {
+						elevator.setIsFloorEnabled(floor, false);
+					}
+				}
+				controlSystem.addElevator(elevator);
+			}
+		}
+
+		/* Put a call button on every floor.
+		 */
+		for (int floor = bottom; floor <= top; ++floor) {
+			FloorCallButton floorCallButton = new FloorCallButton(controlSystem, floor);
+			floorCallButton.setDeviceIdentity("FCB-" + floor);
+			controlSystem.addFloorCallButton(floorCallButton);
+		}
+		if (this.kioskFloors != null) {
+			for (int floor = bottom; floor <= top; ++floor) {
+				if (this.kioskFloors.contains(floor)) {
+					DestinationKiosk kiosk = new DestinationKiosk(controlSystem, floor);
+					kiosk.setDeviceIdentity("DK-" + floor);
+					controlSystem.addDestinationKiosk(kiosk);
+				}
+			}
+		}
+
+		if (this.forecastMinutes > 0) {
+			controlSystem.setDemandForecast(new DemandForecast(top,
+					this.forecastMinutes * 60 * MotionProfile.TICKS_PER_SECOND, this.forecastHalfLife));
+		}
+		else if (this.parkings.stream().anyMatch(parking -> parking.policy.equals("forecast"))) {
+			controlSystem.setDemandForecast(new DemandForecast(top));
+		}
+		for (Parking parking: this.parkings) {
+			Scheduler scheduler = this.createScheduler(parking, controlSystem);
+			if (parking.timeOfDay < 0) {
+				controlSystem.setScheduler(scheduler);
+			}
+			else {
+				controlSystem.setScheduler(parking.timeOfDay, scheduler);
+			}
+		}
+		if (this.optimizeInterval > 0) {
+			CallOptimizer optimizer = new CallOptimizer(controlSystem);
+			optimizer.setInterval(this.optimizeInterval);
+			optimizer.setBudgetNanos(this.optimizeBudget * 1000L);
+			controlSystem.setCallOptimizer(optimizer);
+		}
+		if (this.rolloutHorizon > 0) {
+			RolloutDispatcher dispatcher = new RolloutDispatcher(controlSystem, this,
+					Runtime.getRuntime().availableProcessors());
+			dispatcher.setHorizon(this.rolloutHorizon * MotionProfile.TICKS_PER_SECOND);
+			if (this.rolloutCandidates > 0) {
+				dispatcher.setCandidateCount(this.rolloutCandidates);
+			}
+			controlSystem.setDispatcher(dispatcher);
+		}
+		return controlSystem;
+	}
+
+
+	/**
+	 * Creates a generator of passengers for a building of this
+	 * description, weighted by the population of each floor, if given.
+	 * The lobby is floor 1.
+	 *
+	 * @param passengerCount
+	 * The number of passengers to generate.
+	 *
+	 * @param ratePerTick
+	 * The mean number of passengers arriving in a tick.
+	 *
+	 * @param seed
+	 * The seed of the stream.
+	 *
+	 * @return The generator, set for inter-floor traffic.
+	 */
+	public TrafficGenerator createTrafficGenerator(long passengerCount, double ratePerTick, long seed)
+	{
+		TrafficGenerator generator = new TrafficGenerator(this.floorCount, passengerCount, ratePerTick, seed);
+
+		if (this.population != null) {
+			for (int floor = 1; floor <= this.floorCount; ++floor) {
+				generator.setPopulation(floor, this.population[floor]);
+			}
+		}
+		return generator;
+	}
+
+
+	private Scheduler createScheduler(Parking parking, ElevatorControlSystem controlSystem)
+	{
+		int carCount = controlSystem.elevators.size();
+
+		switch (parking.policy) {
+		case "lobby":
+			return new LobbyScheduler(parking.value);
+
+		case "zoned":
+			return new ZonedScheduler(controlSystem.getFloorBottom(), controlSystem.getFloorTop(), carCount);
+
+		case "forecast":
+			return new ForecastScheduler(controlSystem);
+
+		default:
+			return new DemandScheduler(this.floorCount, carCount, parking.value * MotionProfile.TICKS_PER_SECOND);
+		}
+	}
+
+
+	private Bank createBank(String name, int carCount)
+	{
+		Bank bank = new Bank();
+		MotionProfile profile = MotionProfile.DEFAULT;
+
+		bank.name = name;
+		bank.carCount = carCount;
+		bank.maxSpeed = profile.maxSpeed;
+		bank.acceleration = profile.acceleration;
+		bank.doorOpenTicks = profile.doorOpenTicks;
+		bank.doorDwellTicks = profile.doorDwellTicks;
+		bank.doorCloseTicks = profile.doorCloseTicks;
+		bank.capacity = Elevator.DEFAULT_CAPACITY;
+		bank.servedFloors = new FloorSet(this.floorCount);
+		for (int floor = 1; floor <= this.floorCount; ++floor) {
+			bank.servedFloors.add(floor);
+		}
+		return bank;
+	}
+
+
+	private void parseStatement(String[] fields)
+			throws IOException
+	{
+		String keyword = fields[0];
+
+		if (keyword.equals("floors")) {
+			this.expectFields(fields, 2);
+			if (this.floorCount != 0) {
+				throw this.error("Floors given twice");
+			}
+			this.floorCount = this.parseNumber(fields[1], 2);
+			return;
+		}
+		if (this.floorCount == 0) {
+			throw this.error("Floors must come first");
+		}
+		switch (keyword) {
+		case "floor-height":
+			this.expectFields(fields, 2);
+			this.floorHeight = this.parseNumber(fields[1], 1);
+			break;
+
+		case "bank":
+			this.parseBank(fields);
+			break;
+
+		case "disable":
+			this.parseDisable(fields);
+			break;
+
+		case "park":
+			this.parsePark(fields);
+			break;
+
+		case "kiosks":
+			this.expectFields(fields, 2);
+			if (this.kioskFloors == null) {
+				this.kioskFloors = this.parseFloors(fields[1]);
+			}
+			else {
+				this.parseFloors(fields[1]).forEach(this.kioskFloors::add);
+			}
+			break;
+
+		case "population":
+			this.expectFields(fields, 3);
+			if (this.population == null) {
+				this.population = new int[this.floorCount + 1];
+				Arrays.fill(this.population, 1, this.floorCount + 1, 1);
+			}
+			int people = this.parseNumber(fields[2], 0);
+			this.parseFloors(fields[1]).forEach(floor -> this.population[floor] = people);
+			break;
+
+		case "optimize":
+			if (fields.length != 3) {
+				this.expectFields(fields, 2);
+			}
+			this.optimizeInterval = this.parseNumber(fields[1], 1);
+			this.optimizeBudget = fields.length == 3 ? this.parseNumber(fields[2], 0) : 0;
+			break;
+
+		case "rollout":
+			if (fields.length != 3) {
+				this.expectFields(fields, 2);
+			}
+			this.rolloutHorizon = this.parseNumber(fields[1], 1);
+			this.rolloutCandidates = fields.length == 3 ? this.parseNumber(fields[2], 2) : 0;
+			break;
+
+		case "forecast":
+			if (fields.length != 3) {
+				this.expectFields(fields, 2);
+			}
+			this.forecastMinutes = this.parseNumber(fields[1], 1);
+			if ((24 * 60) % this.forecastMinutes != 0) {
+				throw this.error("Forecast bucket does not divide a day: " + fields[1]);
+			}
+			this.forecastHalfLife = fields.length == 3 ? this.parseNumber(fields[2], 1) : (int)DemandForecast.DEFAULT_HALF_LIFE_DAYS;
+			break;
+
+		default:
+			throw this.error("Unknown statement: " + keyword);
+		}
+	}
+
+
+	private void parseBank(String[] fields)
+			throws IOException
+	{
+		if (fields.length < 3) {
+			throw this.error("Bank needs a name and a car count");
+		}
+		for (Bank other: this.banks) {
+			if (other.name.equals(fields[1])) {
+				throw this.error("Bank given twice: " + fields[1]);
+			}
+		}
+
+		Bank bank = this.createBank(fields[1], this.parseNumber(fields[2], 1));
+		int index = 3;
+		while (index < fields.length) {
+			String option = fields[index++];
+			int needed = option.equals("doors") ? 3 : 1;
+			if (index + needed > fields.length) {
+				throw this.error("Bank option needs a value: " + option);
+			}
+			switch (option) {
+			case "speed":
+				bank.maxSpeed = this.parseNumber(fields[index], 1);
+				break;
+
+			case "acceleration":
+				bank.acceleration = this.parseNumber(fields[index], 1);
+				break;
+
+			case "doors":
+				bank.doorOpenTicks = this.parseNumber(fields[index], 0);
+				bank.doorDwellTicks = this.parseNumber(fields[index + 1], 0);
+				bank.doorCloseTicks = this.parseNumber(fields[index + 2], 0);
+				break;
+
+			case "serves":
+				bank.servedFloors = this.parseFloors(fields[index]);
+				break;
+
+			case "capacity":
+				bank.capacity = this.parseNumber(fields[index], 1);
+				break;
+
+			default:
+				throw this.error("Unknown bank option: " + option);
+			}
+			index += needed;
+		}
+		if (bank.maxSpeed < bank.acceleration) {
+			throw this.error("Speed is less than acceleration");
+		}
+		this.banks.add(bank);
+	}
+
+
+	private void parseDisable(String[] fields)
+			throws IOException
+	{
+		this.expectFields(fields, 3);
+
+		String identity = fields[1];
+		int separator = identity.lastIndexOf('-');
+		Bank bank = null;
+		int car = -1;
+		if (separator > 0) {
+			String name = identity.substring(0, separator);
+			for (Bank other: this.banks) {
+				if (other.name.equals(name)) {
+					bank = other;
+				}
+			}
+			try {
+				car = Integer.parseInt(identity.substring(separator + 1));
+			}
+			catch (NumberFormatException e) {
+				// fall through
+			}
+		}
+		if (bank == null || car < 0 || car >= bank.carCount) {
+			throw this.error("Unknown car: " + identity);
+		}
+
+		FloorSet floors = this.parseFloors(fields[2]);
+		FloorSet disabled = this.disabledFloors.get(identity);
+		if (disabled == null) {
+			this.disabledFloors.put(identity, floors);
+		}
+		else {
+			floors.forEach(disabled::add);
+		}
+	}
+
+
+	private void parsePark(String[] fields)
+			throws IOException
+	{
+		Parking parking = new Parking();
+		int index = 1;
+
+		parking.timeOfDay = -1;
+		if (index < fields.length && fields[index].indexOf(':') > 0) {
+			parking.timeOfDay = this.parseTimeOfDay(fields[index++]);
+		}
+		if (index >= fields.length) {
+			throw this.error("Park needs a policy");
+		}
+		parking.policy = fields[index++];
+		switch (parking.policy) {
+		case "lobby":
+			this.expectFields(fields, index + 1);
+			parking.value = this.parseFloor(fields[index]);
+			break;
+
+		case "zoned":
+		case "forecast":
+			this.expectFields(fields, index);
+			break;
+
+		case "demand":
+			if (index < fields.length) {
+				this.expectFields(fields, index + 1);
+				parking.value = this.parseNumber(fields[index], 1);
+			}
+			else {
+				parking.value = DEFAULT_HALF_LIFE;
+			}
+			break;
+
+		default:
+			throw this.error("Unknown parking policy: " + parking.policy);
+		}
+
+		for (Parking other: this.parkings) {
+			if (other.timeOfDay < 0 || parking.timeOfDay < 0) {
+				throw this.error("Park without a time must be the only one");
+			}
+			if (other.timeOfDay == parking.timeOfDay) {
+				throw this.error("Park time given twice");
+			}
+		}
+		this.parkings.add(parking);
+	}
+
+
+	/**
+	 * Parses a time of day, {@code HH:MM}, into ticks from midnight.
+	 */
+	private int parseTimeOfDay(String text)
+			throws IOException
+	{
+		int colon = text.indexOf(':');
+		int hours = this.parseNumber(text.substring(0, colon), 0);
+		int minutes = this.parseNumber(text.substring(colon + 1), 0);
+
+		if (hours > 23 || minutes > 59) {
+			throw this.error("Bad time of day: " + text);
+		}
+		return (hours * 60 + minutes) * 60 * MotionProfile.TICKS_PER_SECOND;
+	}
+
+
+	/**
+	 * Parses a list of floors and floor ranges, such as
+	 * {@code 1,5-9,12}.
+	 */
+	private FloorSet parseFloors(String text)
+			throws IOException
+	{
+		FloorSet floors = new FloorSet(this.floorCount);
+
+		for (String range: text.split(",")) {
+			int dash = range.indexOf('-', 1);
+			int first = this.parseFloor(dash < 0 ? range : range.substring(0, dash));
+			int last = dash < 0 ? first : this.parseFloor(range.substring(dash + 1));
+			if (last < first) {
+				throw this.error("Bad floor range: " + range);
+			}
+			for (int floor = first; floor <= last; ++floor) {
+				floors.add(floor);
+			}
+		}
+		return floors;
+	}
+
+
+	private int parseFloor(String text)
+			throws IOException
+	{
+		int floor = this.parseNumber(text, 1);
+
+		if (floor > this.floorCount) {
+			throw this.error("No such floor: " + floor);
+		}
+		return floor;
+	}
+
+
+	private int parseNumber(String text, int minimum)
+			throws IOException
+	{
+		try {
+			int value = Integer.parseInt(text);
+			if (value >= minimum) {
+				return value;
+			}
+		}
+		catch (NumberFormatException e) {
+			// fall through
+		}
+		throw this.error("Bad number: " + text);
+	}
+
+
+	private void expectFields(String[] fields, int count)
+			throws IOException
+	{
+		if (fields.length != count) {
+			throw this.error(String.format("%s needs %d fields, not %d", fields[0], count, fields.length));
+		}
+	}
+
+
+	private IOException error(String message)
+	{
+		return new IOException(String.format("line %d: %s", this.lineNumber, message));
+	}
+}
@@ -0,0 +1,134 @@
+package jqa.elevator;
+
+
+/**
+ * Specifies the interface for observing changes to the devices of a
+ * building, as published by its {@link EventBus}.  Each kind of change
+ * has a method of its own, with typed arguments; a listener overrides
+ * only the ones it cares about.
+ *
+ * <p>
+ *     The methods are called on the simulation thread, as the changes
+ *     happen, so they must be quick.  A slow listener should be wrapped
+ *     in an {@link AsyncListener}.  Under a {@link ConcurrentRuntime} the
+ *     cars move on threads of their own, but their changes are published
+ *     afterwards by the coordinator, so listeners are only ever called on
+ *     that one thread.
+ * </p>
+ */
+public interface BuildingListener
+{
+	/**
+	 * Reports a car passing or stopping at a floor.
+	 *
+	 * @param car
+	 * The car.
+	 *
+	 * @param floor
+	 * The car's new floor.
+	 */
+	default void carFloorChanged(Elevator car, int floor)
+	{
+	}
+
+
+	/**
+	 * Reports a car starting to move, stopping, or moving its doors.
+	 *
+	 * @param car
+	 * The car.
+	 *
+	 * @param state
+	 * The car's new state.
+	 */
+	default void carStateChanged(Elevator car, CarState state)
+	{
+	}
+
+
+	/**
+	 * Reports a floor added to or removed from a car's schedule.
+	 *
+	 * @param car
+	 * The car.
+	 *
+	 * @param floor
+	 * The floor.
+	 *
+	 * @param isScheduled
+	 * True if the car is now to stop at the floor.
+	 */
+	default void scheduleChanged(Elevator car, int floor, boolean isScheduled)
+	{
+	}
+
+
+	/**
+	 * Reports a car allowed or forbidden to serve a floor.
+	 *
+	 * @param car
+	 * The car.
+	 *
+	 * @param floor
+	 * The floor.
+	 *
+	 * @param isEnabled
+	 * True if the car may now serve the floor.
+	 */
+	default void floorEnabledChanged(Elevator car, int floor, boolean isEnabled)
+	{
+	}
+
+
+	/**
+	 * Reports a floor call lamp turning on or off.
+	 *
+	 * @param button
+	 * The call button.
+	 *
+	 * @param direction
+	 * The direction of the lamp, up or down.
+	 *
+	 * @param isOn
+	 * True if the lamp is now lit.
+	 */
+	default void callLampChanged(FloorCallButton button, Direction direction, boolean isOn)
+	{
+	}
+
+
+	/**
+	 * Reports a floor call moved to another car, after it was first
+	 * assigned.
+	 *
+	 * @param button
+	 * The call button.
+	 *
+	 * @param direction
+	 * The direction of the call, up or down.
+	 *
+	 * @param car
+	 * The car now answering the call.
+	 */
+	default void callReassigned(FloorCallButton button, Direction direction, Elevator car)
+	{
+	}
+
+
+	/**
+	 * Reports the car chosen for a passenger at a destination kiosk,
+	 * for the kiosk to show.
+	 *
+	 * @param kiosk
+	 * The kiosk.
+	 *
+	 * @param destination
+	 * The floor the passenger entered.
+	 *
+	 * @param car
+	 * The car the passenger should take.
+	 */
+	default void destinationAssigned(DestinationKiosk kiosk, int destination, Elevator car)
+	{
+	}
+}
@@ -0,0 +1,295 @@
+package jqa.elevator;
+
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+
+/**
+ * A {@link StimulusQueue} organized as a calendar (or timing wheel):
+ * an array of buckets, one per timestamp, covering a window of time
+ * that moves forward as the simulation runs.  Simulation timestamps
+ * are small, dense integers, so nearly every stimulus lands in the
+ * window, where insertion and removal take constant time.
+ *
+ * <p>
+ *     Each bucket keeps one FIFO list per {@link Stimulus.StimulusType},
+ *     which preserves the tie-break of {@link Stimulus#compareTo} on the
+ *     type ordinal.  Stimuli of the same timestamp and type come out in
+ *     the order they were added.  A bitmap of the occupied buckets finds
+ *     the next non-empty bucket a word at a time.
+ * </p>
+ *
+ * <p>
+ *     A stimulus outside the window (too far in the future, or earlier
+ *     than the window) goes to a small overflow heap.  Future items move
+ *     into the buckets once the window reaches them.
+ * </p>
+ *
+ * <p>
+ *     The list nodes live in parallel arrays, reused through a free
+ *     list, so the queue allocates only when it grows.
+ * </p>
+ */
+public class CalendarStimulusQueue
+	implements StimulusQueue
+{
+	/**
+	 * The default window, in timestamp units.
+	 */
+	public static final int DEFAULT_WINDOW = 1024;
+
+	private static final int NONE = -1;
+
+	private int typeCount;
+	private int mask;
+
+	/**
+	 * The earliest timestamp covered by the buckets.  The window runs
+	 * from here up to (not including) {@code base + mask + 1}.
+	 */
+	private int base;
+
+	/**
+	 * The list heads and tails, indexed by bucket and type:
+	 * {@code bucket * typeCount + ordinal}.
+	 */
+	private int[] heads;
+	private int[] tails;
+
+	/**
+	 * One bit per bucket, set if the bucket holds any stimulus.
+	 */
+	private long[] occupied;
+
+	/**
+	 * The list nodes: the stimulus and the index of the next node.
+	 * Unused nodes are chained from {@link #freeNode}.
+	 */
+	private Stimulus[] nodeItems;
+	private int[]      nodeLinks;
+	private int        freeNode;
+
+	private int                     bucketCount;
+	private PriorityQueue<Stimulus> overflow;
+
+
+	public CalendarStimulusQueue()
+	{
+		this(DEFAULT_WINDOW);
+	}
+
+
+	/**
+	 * Creates an empty queue.
+	 *
+	 * @param window
+	 * The number of timestamps covered by the buckets.  Rounded up
+	 * to a power of two, at least 64.
+	 */
+	public CalendarStimulusQueue(int window)
+	{
+		int size = Math.max(Integer.highestOneBit(Math.max(window, 64) - 1) << 1, 64);
+
+		this.typeCount = Stimulus.StimulusType.values().length;
+		this.mask = size - 1;
+		this.base = 0;
+		this.heads = new int[size * this.typeCount];
+		this.tails = new int[size * this.typeCount];
+		Arrays.fill(this.heads, NONE);
+		Arrays.fill(this.tails, NONE);
+		this.occupied = new long[size / Long.SIZE];
+		this.nodeItems = new Stimulus[0];
+		this.nodeLinks = new int[0];
+		this.freeNode = NONE;
+		this.bucketCount = 0;
+		this.overflow = new PriorityQueue<>();
+	}
+
+
+	@Override
+	public void add(Stimulus stimulus)
+	{
+		if (this.bucketCount == 0) {
+			/* The overflow goes in first: an item there at the same time
+			 * and of the same type was added earlier, so it comes first.
+			 */
+			this.base = stimulus.timestamp;
+			this.drainOverflow();
+			this.addToBucket(stimulus);
+		}
+		else if (this.isInWindow(stimulus.timestamp)) {
+			this.addToBucket(stimulus);
+		}
+		else {
+			this.overflow.add(stimulus);
+		}
+	}
+
+
+	private void addToBucket(Stimulus stimulus)
+	{
+		int bucket = stimulus.timestamp & this.mask;
+		int list = bucket * this.typeCount + stimulus.type.ordinal();
+		int node = this.allocateNode(stimulus);
+
+		if (this.tails[list] == NONE) {
+			this.heads[list] = node;
+		}
+		else {
+			this.nodeLinks[this.tails[list]] = node;
+		}
+		this.tails[list] = node;
+		this.occupied[bucket >>> 6] |= 1L << bucket;
+		++this.bucketCount;
+	}
+
+
+	private int allocateNode(Stimulus stimulus)
+	{
+		if (this.freeNode == NONE) {
+			int oldSize = this.nodeItems.length;
+			int newSize = Math.max(oldSize * 2, 64);
+			this.nodeItems = Arrays.copyOf(this.nodeItems, newSize);
+			this.nodeLinks = Arrays.copyOf(this.nodeLinks, newSize);
+			for (int node = newSize - 1; node >= oldSize; --node) {
+				this.nodeLinks[node] = this.freeNode;
+				this.freeNode = node;
+			}
+		}
+		int node = this.freeNode;
+		this.freeNode = this.nodeLinks[node];
+		this.nodeItems[node] = stimulus;
+		this.nodeLinks[node] = NONE;
+		return node;
+	}
+
+
+	/**
+	 * Moves overflow items that now fall in the window into the buckets.
+	 * Items earlier than the window stay in the overflow heap, where
+	 * they sort ahead of everything in the buckets.
+	 */
+	private void drainOverflow()
+	{
+		Stimulus next;
+
+		while ((next = this.overflow.peek()) != null && this.isInWindow(next.timestamp)) {
+			this.addToBucket(this.overflow.poll());
+		}
+	}
+
+
+	/**
+	 * Finds the first occupied bucket, in time order from the base.
+	 *
+	 * @return The bucket index, or {@link #NONE} if all are empty.
+	 */
+	private int findBucket()
+	{
+		if (this.bucketCount == 0) {
+			return NONE;
+		}
+		int start = this.base & this.mask;
+		int wordMask = this.occupied.length - 1;
+		int word = start >>> 6;
+		long bits = this.occupied[word] & (-1L << start);
+		for (int j = 0; j <= this.occupied.length; ++j) {
+			if (bits != 0) {
+				return (word << 6) + Long.numberOfTrailingZeros(bits);
+			}
+			word = (word + 1) & wordMask;
+			bits = this.occupied[word];
+		}
+		return NONE;
+	}
+
+
+	/**
+	 * Gives the first non-empty list of a bucket: the one with the
+	 * lowest type ordinal.
+	 */
+	private int findList(int bucket)
+	{
+		int list = bucket * this.typeCount;
+		while (this.heads[list] == NONE) {
+			++list;
+		}
+		return list;
+	}
+
+
+	private boolean isInWindow(int timestamp)
+	{
+		return timestamp - this.base >= 0 && timestamp - this.base <= this.mask;
+	}
+
+
+	@Override
+	public Stimulus peek()
+	{
+		int bucket = this.findBucket();
+		Stimulus early = this.overflow.peek();
+		if (bucket == NONE) {
+			return early;
+		}
+		Stimulus next = this.nodeItems[this.heads[this.findList(bucket)]];
+		if (early != null && early.compareTo(next) < 0) {
+			return early;
+		}
+		return next;
+	}
+
+
+	@Override
+	public Stimulus poll()
+	{
+		int bucket = this.findBucket();
+		Stimulus early = this.overflow.peek();
+		if (bucket == NONE) {
+			return this.overflow.poll();
+		}
+		int list = this.findList(bucket);
+		int node = this.heads[list];
+		Stimulus next = this.nodeItems[node];
+		if (early != null && early.compareTo(next) < 0) {
+			return this.overflow.poll();
+		}
+
+		this.heads[list] = this.nodeLinks[node];
+		if (this.heads[list] == NONE) {
+			this.tails[list] = NONE;
+			int first = bucket * this.typeCount;
+			boolean isEmpty = true;
+			for (int type = 0; type < this.typeCount; ++type) {
+				if (this.heads[first + type] != NONE) {
+					isEmpty = false;
+					break;
+				}
+			}
+			if (isEmpty) {
+				this.occupied[bucket >>> 6] &= ~(1L << bucket);
+			}
+		}
+		this.nodeItems[node] = null;
+		this.nodeLinks[node] = this.freeNode;
+		this.freeNode = node;
+		--this.bucketCount;
+
+		/* Nothing earlier is left in the buckets, so the window can move
+		 * up to this timestamp and take in more of the overflow.
+		 */
+		if (next.timestamp != this.base) {
+			this.base = next.timestamp;
+			this.drainOverflow();
+		}
+		return next;
+	}
+
+
+	@Override
+	public int size()
+	{
+		return this.bucketCount + this.overflow.size();
+	}
+}
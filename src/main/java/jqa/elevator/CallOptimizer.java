@@ -0,0 +1,477 @@
+package jqa.elevator;
+
+
+import java.util.Arrays;
+
+
+/**
+ * Moves the outstanding floor calls, every few ticks, to the cars that
+ * together answer them soonest.  The {@link Dispatcher} places each call
+ * alone, as it comes, and under heavy traffic the cars it chose early
+ * are often no longer the best.  The optimizer weighs all the calls
+ * against all the cars at once, as a minimum-cost assignment.
+ *
+ * <p>
+ *     The cost of a car answering a call is its estimated time of
+ *     arrival, as for {@link Elevator#computeFloorCost(int, Direction)},
+ *     but reckoned from the car's stops without the calls that may move,
+ *     since those depend on the answer.  Each call a car takes delays
+ *     the others by a stop, so a car's {@code k}-th call costs a further
+ *     {@code k - 1} stop times.  A car takes many calls, and its cost
+ *     grows with its load, so this is a transportation problem rather
+ *     than a one-to-one assignment.
+ * </p>
+ *
+ * <p>
+ *     It is solved as a minimum-cost flow, on a graph with a node for
+ *     each car and one for the source of the calls.  An arc from one car
+ *     to another is the cheapest move of one of its calls there, and the
+ *     arcs to and from the source change the cars' loads.  The search
+ *     starts from the assignment in force, which changes between runs
+ *     only by the calls placed and answered since, and cancels negative
+ *     cycles, found by Bellman-Ford, until none are left: the assignment
+ *     is then optimal.  Each cycle leaves a valid and cheaper assignment,
+ *     so a run cut short by its time budget still applies what it found.
+ *     With 16 cars a cycle costs a few thousand steps, however many calls
+ *     there are, and nothing is allocated.
+ * </p>
+ *
+ * <p>
+ *     A call close at hand is committed and does not move: its car is at
+ *     the floor, or due within {@link #setCommitTicks} ticks.  Runs come
+ *     at multiples of {@link #setInterval}, so stepping every tick and
+ *     jumping between events give the same results.  A time budget
+ *     depends on the machine, though, and a run it cuts short cannot be
+ *     reproduced.  The optimizer keeps nothing between runs but its
+ *     counts; its warm start is the controller's own assignment, which a
+ *     {@link Checkpoint} already holds.
+ * </p>
+ *
+ * @see ElevatorControlSystem#setCallOptimizer
+ */
+public class CallOptimizer
+{
+	public static final int DEFAULT_INTERVAL = 10;
+	public static final int DEFAULT_COMMIT_TICKS = 30;
+
+	private static final int  UNSERVED = Integer.MAX_VALUE;
+	private static final long NO_ARC = Long.MAX_VALUE;
+
+	private ElevatorControlSystem controlSystem;
+	private int                   carCount;
+	private int                   interval;
+	private long                  budgetNanos;
+	private int                   commitTicks;
+
+	/**
+	 * The calls that may move in the current run: the floor and
+	 * direction of each, and its car (by index) at the start and now.
+	 */
+	private int[]       callFloors;
+	private Direction[] callDirections;
+	private int[]       startCars;
+	private int[]       callCars;
+	private int         callCount;
+
+	/**
+	 * The cost of each car answering each call, a row of cars per call,
+	 * or {@link #UNSERVED}.
+	 */
+	private int[] costs;
+
+	/**
+	 * For each car: its stops without the calls that may move, and the
+	 * number of calls it has in all.
+	 */
+	private FloorSet[] baseStops;
+	private int[]      loads;
+
+	/**
+	 * The graph, as a matrix over the cars and then the source: the
+	 * weight of each arc, or {@link #NO_ARC}, and the call that an arc
+	 * between cars moves.  Then the workspace of Bellman-Ford.
+	 */
+	private long[] weights;
+	private int[]  arcCalls;
+	private long[] distances;
+	private int[]  parents;
+
+	private long runCount;
+	private long moveCount;
+	private long cutCount;
+	private long savedTotal;
+
+
+	/**
+	 * Creates an optimizer for the calls of a controller, to run every
+	 * {@link #DEFAULT_INTERVAL} ticks without a time budget.
+	 *
+	 * @param controlSystem
+	 * The controller, with all its cars.
+	 */
+	public CallOptimizer(ElevatorControlSystem controlSystem)
+	{
+		int callLimit = 2 * (controlSystem.getFloorTop() + 1);
+		int nodeCount;
+
+		this.controlSystem = controlSystem;
+		this.carCount = controlSystem.elevators.size();
+		this.interval = DEFAULT_INTERVAL;
+		this.budgetNanos = 0;
+		this.commitTicks = DEFAULT_COMMIT_TICKS;
+		this.callFloors = new int[callLimit];
+		this.callDirections = new Direction[callLimit];
+		this.startCars = new int[callLimit];
+		this.callCars = new int[callLimit];
+		this.costs = new int[callLimit * this.carCount];
+		this.baseStops = new FloorSet[this.carCount];
+		for (int j = 0; j < this.carCount; ++j) {
+			this.baseStops[j] = new FloorSet(controlSystem.getFloorTop());
+		}
+		this.loads = new int[this.carCount];
+		nodeCount = this.carCount + 1;
+		this.weights = new long[nodeCount * nodeCount];
+		this.arcCalls = new int[nodeCount * nodeCount];
+		this.distances = new long[nodeCount];
+		this.parents = new int[nodeCount];
+	}
+
+
+	/**
+	 * Sets how often the optimizer runs.
+	 *
+	 * @param interval
+	 * The ticks between runs, at least 1.
+	 */
+	public void setInterval(int interval)
+	{
+		if (interval < 1) {
+			throw new IllegalArgumentException("Bad interval: " + interval);
+		}
+		this.interval = interval;
+	}
+
+
+	public int getInterval()
+	{
+		return this.interval;
+	}
+
+
+	/**
+	 * Sets the time a run may take, in wall-clock time.
+	 *
+	 * @param budgetNanos
+	 * The budget, in nanoseconds, or 0 for a run to go on until the
+	 * assignment is optimal.
+	 */
+	public void setBudgetNanos(long budgetNanos)
+	{
+		this.budgetNanos = Math.max(budgetNanos, 0);
+	}
+
+
+	/**
+	 * Sets how near a car must be to a call for the call to stay with it.
+	 *
+	 * @param commitTicks
+	 * The estimated time of arrival, in ticks, at or under which a call
+	 * is committed to its car.
+	 */
+	public void setCommitTicks(int commitTicks)
+	{
+		this.commitTicks = commitTicks;
+	}
+
+
+	/**
+	 * Tells whether a run is due at a time.
+	 */
+	boolean isDue(int now)
+	{
+		return now % this.interval == 0;
+	}
+
+
+	/**
+	 * Gives the time of the next run, at or after a time.
+	 */
+	int getNextRun(int now)
+	{
+		int late = now % this.interval;
+
+		return late == 0 ? now : now - late + this.interval;
+	}
+
+
+	public long getRunCount()
+	{
+		return this.runCount;
+	}
+
+
+	/**
+	 * Gives the number of calls moved to another car, in all runs.
+	 */
+	public long getMoveCount()
+	{
+		return this.moveCount;
+	}
+
+
+	/**
+	 * Gives the number of runs cut short by the time budget.
+	 */
+	public long getCutCount()
+	{
+		return this.cutCount;
+	}
+
+
+	/**
+	 * Gives the total of the estimated waits saved, in ticks, by the
+	 * calls moved.
+	 */
+	public long getSavedTotal()
+	{
+		return this.savedTotal;
+	}
+
+
+	/**
+	 * Reassigns the outstanding floor calls that are not committed, as
+	 * described above.  The calls that change cars are moved on the
+	 * controller.
+	 *
+	 * @return The number of calls moved.
+	 */
+	public int optimize()
+	{
+		long start = System.nanoTime();
+		long saved = 0;
+		int moved = 0;
+
+		this.collectCalls();
+		if (this.callCount == 0) {
+			return 0;
+		}
+		++this.runCount;
+		this.computeCosts();
+		for (;;) {
+			this.buildGraph();
+			int node = this.findNegativeCycle();
+			if (node < 0) {
+				break;
+			}
+			long weight = this.cancelCycle(node);
+			if (weight >= 0) {
+				break;
+			}
+			saved -= weight;
+			if (this.budgetNanos > 0 && System.nanoTime() - start >= this.budgetNanos) {
+				++this.cutCount;
+				break;
+			}
+		}
+
+		for (int call = 0; call < this.callCount; ++call) {
+			if (this.callCars[call] != this.startCars[call]) {
+				this.controlSystem.reassignCall(this.callFloors[call], this.callDirections[call],
+						this.controlSystem.elevators.get(this.callCars[call]));
+				++moved;
+			}
+		}
+		this.moveCount += moved;
+		this.savedTotal += saved;
+		return moved;
+	}
+
+
+	/**
+	 * Counts the calls on each car, and gathers those that may move.
+	 */
+	private void collectCalls()
+	{
+		Arrays.fill(this.loads, 0);
+		this.callCount = 0;
+		for (int floor = this.controlSystem.getFloorBottom(); floor <= this.controlSystem.getFloorTop(); ++floor) {
+			this.collectCall(floor, Direction.kUP);
+			this.collectCall(floor, Direction.kDOWN);
+		}
+	}
+
+
+	private void collectCall(int floor, Direction direction)
+	{
+		Elevator car = this.controlSystem.getAssignedElevator(floor, direction);
+
+		if (car == null) {
+			return;
+		}
+		++this.loads[car.getIndex()];
+		if (this.isCommitted(car, floor, direction)) {
+			return;
+		}
+		int call = this.callCount++;
+		this.callFloors[call] = floor;
+		this.callDirections[call] = direction;
+		this.startCars[call] = car.getIndex();
+		this.callCars[call] = car.getIndex();
+	}
+
+
+	private boolean isCommitted(Elevator car, int floor, Direction direction)
+	{
+		return car.currentFloor == floor || car.computeFloorCost(floor, direction) <= this.commitTicks;
+	}
+
+
+	/**
+	 * Takes the calls that may move off each car's stops, unless the car
+	 * must stop there anyway, then fills in the cost of every car for
+	 * every call.  A full car takes no calls but its own.
+	 */
+	private void computeCosts()
+	{
+		int top = this.controlSystem.getFloorTop();
+
+		for (int j = 0; j < this.carCount; ++j) {
+			this.controlSystem.elevators.get(j).copyScheduledFloors(this.baseStops[j]);
+		}
+		for (int call = 0; call < this.callCount; ++call) {
+			Elevator car = this.controlSystem.elevators.get(this.startCars[call]);
+			int floor = this.callFloors[call];
+			Direction other = this.callDirections[call] == Direction.kUP ? Direction.kDOWN : Direction.kUP;
+			if (!this.controlSystem.hasOwnStop(car, floor)
+					&& !(this.controlSystem.getAssignedElevator(floor, other) == car
+						&& this.isCommitted(car, floor, other))) {
+				this.baseStops[car.getIndex()].remove(floor);
+			}
+		}
+
+		for (int j = 0; j < this.carCount; ++j) {
+			Elevator car = this.controlSystem.elevators.get(j);
+			FloorSet stops = this.baseStops[j];
+			Direction heading = Elevator.findHeading(stops, car.currentFloor, car.currentDirection);
+			boolean isFull = car.isFull();
+			for (int call = 0; call < this.callCount; ++call) {
+				int floor = this.callFloors[call];
+				this.costs[call * this.carCount + j] = !car.isFloorEnabled(floor) || isFull && this.startCars[call] != j
+						? UNSERVED
+						: Elevator.estimateArrival(stops, car.currentFloor, heading, top, car.floorTime, car.stopTime,
+								floor, this.callDirections[call]);
+			}
+		}
+	}
+
+
+	/**
+	 * Builds the graph of the moves from the current assignment.  A car
+	 * with {@code n} calls saves {@code (n - 1)} stop times by giving one
+	 * up (the arc from the source), and costs a further {@code n} by
+	 * taking one more (the arc to the source).
+	 */
+	private void buildGraph()
+	{
+		int nodeCount = this.carCount + 1;
+		int source = this.carCount;
+
+		Arrays.fill(this.weights, NO_ARC);
+		for (int call = 0; call < this.callCount; ++call) {
+			int row = call * this.carCount;
+			int from = this.callCars[call];
+			long own = this.costs[row + from];
+			for (int to = 0; to < this.carCount; ++to) {
+				int cost = this.costs[row + to];
+				if (to == from || cost == UNSERVED) {
+					continue;
+				}
+				int arc = from * nodeCount + to;
+				if (cost - own < this.weights[arc]) {
+					this.weights[arc] = cost - own;
+					this.arcCalls[arc] = call;
+				}
+			}
+		}
+		for (int j = 0; j < this.carCount; ++j) {
+			long stopTime = this.controlSystem.elevators.get(j).stopTime;
+			this.weights[j * nodeCount + source] = stopTime * this.loads[j];
+			if (this.loads[j] > 0) {
+				this.weights[source * nodeCount + j] = -stopTime * (this.loads[j] - 1);
+			}
+		}
+	}
+
+
+	/**
+	 * Looks for a cycle of negative weight, by Bellman-Ford from every
+	 * node at once.
+	 *
+	 * @return A node on the cycle, or -1 if there is none.
+	 */
+	private int findNegativeCycle()
+	{
+		int nodeCount = this.carCount + 1;
+		int changed = -1;
+
+		Arrays.fill(this.distances, 0L);
+		Arrays.fill(this.parents, -1);
+		for (int pass = 0; pass < nodeCount; ++pass) {
+			changed = -1;
+			for (int from = 0; from < nodeCount; ++from) {
+				long distance = this.distances[from];
+				for (int to = 0; to < nodeCount; ++to) {
+					long weight = this.weights[from * nodeCount + to];
+					if (weight != NO_ARC && distance + weight < this.distances[to]) {
+						this.distances[to] = distance + weight;
+						this.parents[to] = from;
+						changed = to;
+					}
+				}
+			}
+			if (changed < 0) {
+				return -1;
+			}
+		}
+
+		int node = changed;
+		for (int j = 0; j < nodeCount; ++j) {
+			node = this.parents[node];
+		}
+		return node;
+	}
+
+
+	/**
+	 * Moves the calls around a cycle found by {@link #findNegativeCycle},
+	 * if its weight is negative.
+	 *
+	 * @return The weight of the cycle: the change in the total cost.
+	 */
+	private long cancelCycle(int start)
+	{
+		int nodeCount = this.carCount + 1;
+		long weight = 0;
+		int node = start;
+
+		do {
+			int from = this.parents[node];
+			weight += this.weights[from * nodeCount + node];
+			node = from;
+		} while (node != start);
+		if (weight >= 0) {
+			return weight;
+		}
+
+		do {
+			int from = this.parents[node];
+			if (from < this.carCount && node < this.carCount) {
+				this.callCars[this.arcCalls[from * nodeCount + node]] = node;
+				--this.loads[from];
+				++this.loads[node];
+			}
+			node = from;
+		} while (node != start);
+		return weight;
+	}
+}
@@ -0,0 +1,115 @@
+package jqa.elevator;
+
+
+/**
+ * An unchanging copy of the state of one car, taken at the end of a
+ * step.  The {@link ConcurrentRuntime} publishes a new snapshot for each
+ * car as it moves; any thread can read the latest one without locking,
+ * and see a consistent view of the car.
+ */
+public final class CarSnapshot
+{
+	final Elevator  car;
+	final int       time;
+	final int       currentFloor;
+	final Direction currentDirection;
+	final Direction heading;
+	final CarState  carState;
+	final int       position;
+	final int       speed;
+	final int       floorBottom;
+	final int       floorTop;
+	final int       floorTime;
+	final int       stopTime;
+	final int       modificationCount;
+	final FloorSet  scheduledFloors;
+	final FloorSet  enabledFloors;
+
+
+	/**
+	 * Copies the state of a car.  Only the thread that changes the car
+	 * may take its snapshot.
+	 *
+	 * @param car
+	 * The car.
+	 *
+	 * @param time
+	 * The time of the copy.
+	 */
+	CarSnapshot(Elevator car, int time)
+	{
+		this.car = car;
+		this.time = time;
+		this.currentFloor = car.currentFloor;
+		this.currentDirection = car.currentDirection;
+		this.heading = car.getHeading();
+		this.carState = car.carState;
+		this.position = car.position;
+		this.speed = car.speed;
+		this.floorBottom = car.controlSystem.getFloorBottom();
+		this.floorTop = car.controlSystem.getFloorTop();
+		this.floorTime = car.floorTime;
+		this.stopTime = car.stopTime;
+		this.modificationCount = car.modificationCount;
+		this.scheduledFloors = car.copyScheduledFloors();
+		this.enabledFloors = car.copyEnabledFloors();
+	}
+
+
+	public String getDeviceIdentity()
+	{
+		return this.car.getDeviceIdentity();
+	}
+
+
+	public int getTime()
+	{
+		return this.time;
+	}
+
+
+	public int getCurrentFloor()
+	{
+		return this.currentFloor;
+	}
+
+
+	public Direction getHeading()
+	{
+		return this.heading;
+	}
+
+
+	public CarState getCarState()
+	{
+		return this.carState;
+	}
+
+
+	public int getStopCount()
+	{
+		return this.scheduledFloors.size();
+	}
+
+
+	public boolean isFloorScheduled(int floor)
+	{
+		return floor >= this.floorBottom && floor <= this.floorTop && this.scheduledFloors.contains(floor);
+	}
+
+
+	/**
+	 * Computes the cost of answering a floor call, as the car stood at
+	 * the time of the snapshot.
+	 *
+	 * @see Elevator#computeFloorCost(int, Direction)
+	 */
+	public int computeFloorCost(int floor, Direction direction)
+	{
+		if (floor < this.floorBottom || floor > this.floorTop || !this.enabledFloors.contains(floor)) {
+			return Integer.MAX_VALUE;
+		}
+		return Elevator.estimateArrival(this.scheduledFloors, this.currentFloor, this.heading,
+				this.floorTop, this.floorTime, this.stopTime, floor, direction);
+	}
+}
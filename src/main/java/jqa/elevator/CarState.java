@@ -0,0 +1,26 @@
+package jqa.elevator;
+
+
+/**
+ * Indicates what an elevator car is physically doing.
+ *
+ * @see MotionEngine
+ */
+public enum CarState
+{
+	kIDLE("idle", "-"),
+	kMOVING("moving", "M"),
+	kDOORS_OPENING("opening", "<"),
+	kDOORS_OPEN("open", "O"),
+	kDOORS_CLOSING("closing", ">"),
+	;
+
+	final String mnemonic;
+	final String status;
+
+	CarState(String mnemonic, String status)
+	{
+		this.mnemonic = mnemonic;
+		this.status = status;
+	}
+}
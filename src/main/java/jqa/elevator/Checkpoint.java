@@ -0,0 +1,306 @@
+package jqa.elevator;
+
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+
+/**
+ * The state of a running {@link ElevatorControlSystem} at one moment,
+ * in a compact binary form: the clock, the pending stimuli, the floor
+ * calls and their lamps, the passengers waiting, and each car's place,
+ * motion, doors, schedule and load.  A checkpoint is restored into a
+ * controller of the same layout, which then carries on exactly as the
+ * original would have.
+ *
+ * <p>
+ *     The layout itself is not saved: the floors, the cars with their
+ *     motion profiles, the kiosks, the dispatchers and the scheduler
+ *     timetable come from whoever builds the controller, usually a
+ *     {@link BuildingDescription}.  Of the schedulers, only what they
+ *     have learnt is saved, as a {@link DemandScheduler} learns where
+ *     calls come from.  Nor is the stimulus source saved: the stimuli
+ *     already read from it are, and the restored controller reads from
+ *     whatever source it is given next.
+ * </p>
+ *
+ * <p>
+ *     A checkpoint never changes once taken, so any number of threads
+ *     can restore it at once.  To explore many futures from one moment,
+ *     {@link #fork} a new controller for each, or {@link #restore} the
+ *     checkpoint into a controller that is done with, which reuses the
+ *     controller's objects.  Restoring publishes nothing on the event
+ *     bus; listeners should be attached afterwards.
+ * </p>
+ *
+ * <pre>
+ * header:  magic, version, floor count, car count, device count, time, state length
+ * state:   as written by the controller, big-endian
+ * </pre>
+ */
+public final class Checkpoint
+{
+	static final int MAGIC = 0x4a514350;	// "JQCP"
+	static final int VERSION = 1;
+
+	private final int    floorCount;
+	private final int    carCount;
+	private final int    deviceCount;
+	private final int    time;
+	private final byte[] state;
+
+
+	private Checkpoint(int floorCount, int carCount, int deviceCount, int time, byte[] state)
+	{
+		this.floorCount = floorCount;
+		this.carCount = carCount;
+		this.deviceCount = deviceCount;
+		this.time = time;
+		this.state = state;
+	}
+
+
+	/**
+	 * Takes a checkpoint of a controller between ticks.  The controller
+	 * is left as it was.
+	 *
+	 * @param controlSystem
+	 * The controller.
+	 *
+	 * @return The checkpoint.
+	 */
+	public static Checkpoint capture(ElevatorControlSystem controlSystem)
+	{
+		StateWriter bytes = new StateWriter();
+
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			controlSystem.writeState(out);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return new Checkpoint(
+				controlSystem.getFloorTop(),
+				controlSystem.elevators.size(),
+				controlSystem.deviceRegistry.size(),
+				controlSystem.getCurrentTime(),
+				bytes.toByteArray()
+		);
+	}
+
+
+	/**
+	 * Puts a controller in the state of this checkpoint, whatever state
+	 * it was in.  Any stimulus source is dropped.
+	 *
+	 * @param controlSystem
+	 * The controller, with the same floors, cars and devices as the one
+	 * the checkpoint was taken of.
+	 *
+	 * @throws IllegalArgumentException If the controller has a different
+	 * layout.
+	 */
+	public void restore(ElevatorControlSystem controlSystem)
+	{
+		if (controlSystem.getFloorTop() != this.floorCount
+				|| controlSystem.elevators.size() != this.carCount
+				|| controlSystem.deviceRegistry.size() != this.deviceCount) {
+			throw new IllegalArgumentException(String.format(
+					"Checkpoint of %d floors, %d cars and %d devices does not fit %d floors, %d cars and %d devices",
+					this.floorCount, this.carCount, this.deviceCount,
+					controlSystem.getFloorTop(), controlSystem.elevators.size(),
+					controlSystem.deviceRegistry.size()
+			));
+		}
+		try (DataInputStream in = new DataInputStream(new StateReader(this.state))) {
+			controlSystem.readState(in);
+		}
+		catch (IOException e) {
+			throw new IllegalArgumentException("Corrupt checkpoint", e);
+		}
+	}
+
+
+	/**
+	 * Builds a new controller from a building description, in the state
+	 * of this checkpoint.  The new controller logs nothing.
+	 *
+	 * @param description
+	 * The layout of the building the checkpoint was taken of.
+	 *
+	 * @return The new controller.
+	 */
+	public ElevatorControlSystem fork(BuildingDescription description)
+	{
+		ElevatorControlSystem controlSystem = description.createControlSystem(new CalendarStimulusQueue());
+
+		this.restore(controlSystem);
+		return controlSystem;
+	}
+
+
+	/**
+	 * Gives the simulation time of the checkpoint.
+	 *
+	 * @return The time of the controller's next tick when it was taken.
+	 */
+	public int getTime()
+	{
+		return this.time;
+	}
+
+
+	/**
+	 * Gives the size of the saved state.
+	 *
+	 * @return The number of bytes, not counting the header.
+	 */
+	public int getSize()
+	{
+		return this.state.length;
+	}
+
+
+	/**
+	 * Writes the checkpoint to a stream.
+	 *
+	 * @param stream
+	 * The stream, which is left open.
+	 *
+	 * @throws IOException If the stream fails.
+	 */
+	public void write(OutputStream stream)
+			throws IOException
+	{
+		DataOutputStream out = new DataOutputStream(stream);
+
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(this.floorCount);
+		out.writeInt(this.carCount);
+		out.writeInt(this.deviceCount);
+		out.writeInt(this.time);
+		out.writeInt(this.state.length);
+		out.write(this.state);
+		out.flush();
+	}
+
+
+	/**
+	 * Reads a checkpoint written by {@link #write}.
+	 *
+	 * @param stream
+	 * The stream, which is left open after the checkpoint.
+	 *
+	 * @return The checkpoint.
+	 *
+	 * @throws IOException If the stream fails, or does not hold a
+	 * checkpoint of this version.
+	 */
+	public static Checkpoint read(InputStream stream)
+			throws IOException
+	{
+		DataInputStream in = new DataInputStream(stream);
+
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not a checkpoint");
+		}
+		int version = in.readInt();
+		if (version != VERSION) {
+			throw new IOException(String.format("Unsupported checkpoint version %d", version));
+		}
+		int floorCount = in.readInt();
+		int carCount = in.readInt();
+		int deviceCount = in.readInt();
+		int time = in.readInt();
+		int length = in.readInt();
+		if (length < 0) {
+			throw new IOException("Bad checkpoint length");
+		}
+		byte[] state = new byte[length];
+		in.readFully(state);
+		return new Checkpoint(floorCount, carCount, deviceCount, time, state);
+	}
+
+
+	/**
+	 * Collects the state as it is written.  Unlike a
+	 * {@code ByteArrayOutputStream}, it takes no lock for each byte.
+	 */
+	private static final class StateWriter
+		extends OutputStream
+	{
+		private byte[] bytes = new byte[1024];
+		private int    size;
+
+
+		@Override
+		public void write(int value)
+		{
+			if (this.size == this.bytes.length) {
+				this.bytes = Arrays.copyOf(this.bytes, 2 * this.size);
+			}
+			this.bytes[this.size++] = (byte)value;
+		}
+
+
+		@Override
+		public void write(byte[] values, int offset, int length)
+		{
+			if (this.size + length > this.bytes.length) {
+				this.bytes = Arrays.copyOf(this.bytes, Math.max(2 * this.bytes.length, this.size + length));
+			}
+			System.arraycopy(values, offset, this.bytes, this.size, length);
+			this.size += length;
+		}
+
+
+		byte[] toByteArray()
+		{
+			return Arrays.copyOf(this.bytes, this.size);
+		}
+	}
+
+
+	/**
+	 * Reads the state back, without a lock for each byte.  Restores
+	 * on many threads at once each have their own.
+	 */
+	private static final class StateReader
+		extends InputStream
+	{
+		private final byte[] bytes;
+		private int          position;
+
+
+		StateReader(byte[] bytes)
+		{
+			this.bytes = bytes;
+		}
+
+
+		@Override
+		public int read()
+		{
+			return this.position < this.bytes.length ? this.bytes[this.position++] & 0xff : -1;
+		}
+
+
+		@Override
+		public int read(byte[] values, int offset, int length)
+		{
+			if (this.position >= this.bytes.length) {
+				return length == 0 ? 0 : -1;
+			}
+			length = Math.min(length, this.bytes.length - this.position);
+			System.arraycopy(this.bytes, this.position, values, offset, length);
+			this.position += length;
+			return length;
+		}
+	}
+}
@@ -0,0 +1,419 @@
+package jqa.elevator;
+
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Runs a control system live, taking stimuli from any number of threads
+ * and moving the cars in parallel.
+ *
+ * <p>
+ *     Stimuli enter through a lock-free queue: {@link #submit} never
+ *     blocks and takes no lock, so producers do not contend beyond the
+ *     queue itself.  A coordinator thread drains the queue and runs the
+ *     ticks.  In each tick the coordinator first handles the stimuli
+ *     due, which is where floor calls are dispatched.  Then each car is
+ *     stepped by an actor of its own, a task on a fork-join pool that is
+ *     the only writer of the car while it runs.  The actions of a step
+ *     that reach beyond the car (serving floor calls, reporting events)
+ *     are deferred and carried out by the coordinator afterwards, in car
+ *     order, so the results do not depend on the scheduling of threads.
+ * </p>
+ *
+ * <p>
+ *     After each step the actor publishes a {@link CarSnapshot} of its
+ *     car.  The dispatcher works from the snapshots, and other threads
+ *     can read them at any time.  Changes published on the controller's
+ *     {@link EventBus} during a step are deferred with the car's other
+ *     actions, so listeners are only called from the coordinator, as
+ *     an {@link AsyncListener} requires.
+ * </p>
+ */
+public class ConcurrentRuntime
+	implements AutoCloseable
+{
+	private ElevatorControlSystem           controlSystem;
+	private MotionEngine                    motionEngine;
+	private ConcurrentLinkedQueue<Stimulus> ingress;
+	private LongAdder                       submittedCount;
+	private long                            handledCount;
+	private ForkJoinPool                    pool;
+	private CarActor[]                      actors;
+	private StepCars                        stepCars;
+	private long                            tickNanos;
+	private Thread                          coordinator;
+	private volatile boolean                isRunning;
+	private volatile boolean                isParked;
+	private volatile boolean                isQuiet;
+	private volatile long                   quietCount;
+	private volatile int                    currentTime;
+
+
+	/**
+	 * Creates a runtime around a control system.  From now on, only the
+	 * runtime may drive the control system.
+	 *
+	 * @param controlSystem
+	 * The control system, with all its devices in place.
+	 *
+	 * @param threadCount
+	 * The number of threads to step the cars on.
+	 *
+	 * @param tickNanos
+	 * The real time of a tick, in nanoseconds, or 0 to run the ticks
+	 * as fast as possible.
+	 */
+	public ConcurrentRuntime(ElevatorControlSystem controlSystem, int threadCount, long tickNanos)
+	{
+		this.controlSystem = controlSystem;
+		this.motionEngine = controlSystem.getMotionEngine();
+		this.ingress = new ConcurrentLinkedQueue<>();
+		this.submittedCount = new LongAdder();
+		this.handledCount = 0;
+		this.pool = new ForkJoinPool(threadCount);
+		this.actors = new CarActor[controlSystem.elevators.size()];
+		for (int j = 0; j < this.actors.length; ++j) {
+			this.actors[j] = new CarActor(controlSystem.elevators.get(j));
+		}
+		this.stepCars = new StepCars();
+		this.tickNanos = tickNanos;
+		this.coordinator = new Thread(this::run, "ConcurrentRuntime");
+		this.isRunning = false;
+		this.isParked = false;
+		this.isQuiet = false;
+		this.quietCount = 0;
+		this.currentTime = controlSystem.getCurrentTime();
+
+		this.motionEngine.setDeferred(true);
+		this.controlSystem.setDispatcher(new SnapshotDispatcher());
+	}
+
+
+	/**
+	 * Starts the coordinator thread.
+	 */
+	public void start()
+	{
+		this.isRunning = true;
+		this.coordinator.start();
+	}
+
+
+	/**
+	 * Stops the coordinator and the car threads.  Stimuli not yet
+	 * handled are dropped.  The coordinator finishes its tick before the
+	 * controller is given back, even if the caller is interrupted; the
+	 * interrupt is kept.
+	 */
+	@Override
+	public void close()
+	{
+		boolean isInterrupted = false;
+
+		this.isRunning = false;
+		LockSupport.unpark(this.coordinator);
+		while (this.coordinator.isAlive()) {
+			try {
+				this.coordinator.join();
+			}
+			catch (InterruptedException e) {
+				isInterrupted = true;
+			}
+		}
+		if (isInterrupted) {
+			Thread.currentThread().interrupt();
+		}
+		this.pool.shutdown();
+		this.motionEngine.setDeferred(false);
+	}
+
+
+	/**
+	 * Hands a stimulus to the system.  Any thread may call this, at any
+	 * time; it does not block.  The stimulus is handled at its timestamp,
+	 * or at once if that has passed.
+	 *
+	 * @param stimulus
+	 * The stimulus, which now belongs to the runtime.
+	 */
+	public void submit(Stimulus stimulus)
+	{
+		this.submittedCount.increment();
+		this.ingress.offer(stimulus);
+		if (this.isParked) {
+			LockSupport.unpark(this.coordinator);
+		}
+	}
+
+
+	/**
+	 * Presses a floor call button, now.
+	 *
+	 * @param floor
+	 * The floor of the call.
+	 *
+	 * @param direction
+	 * The direction the caller wants to travel.
+	 */
+	public void pickup(int floor, Direction direction)
+	{
+		FloorCallButton button = this.controlSystem.getFloorCallButton(floor);
+		Stimulus stimulus = new Stimulus(
+				this.currentTime,
+				direction == Direction.kUP ? Stimulus.StimulusType.ButtonUp : Stimulus.StimulusType.ButtonDown
+		);
+
+		if (button == null) {
+			return;
+		}
+		stimulus.deviceIdentity = button.getDeviceIdentity();
+		stimulus.deviceHandle = button.getDeviceHandle();
+		stimulus.floor = floor;
+		this.submit(stimulus);
+	}
+
+
+	/**
+	 * Gives the latest snapshot of a car.
+	 *
+	 * @param index
+	 * The index of the car.
+	 *
+	 * @return The car's state at the end of its latest step.
+	 */
+	public CarSnapshot getSnapshot(int index)
+	{
+		return this.actors[index].snapshot;
+	}
+
+
+	/**
+	 * Gives the time of the next tick to run.
+	 *
+	 * @return The current time.
+	 */
+	public int getCurrentTime()
+	{
+		return this.currentTime;
+	}
+
+
+	/**
+	 * Waits for the system to fall quiet: every stimulus submitted so far
+	 * handled, and every car at rest.
+	 *
+	 * @param timeoutMillis
+	 * The longest time to wait, in milliseconds.
+	 *
+	 * @return True if the system is quiet, false if the time ran out.
+	 */
+	public boolean awaitQuiet(long timeoutMillis)
+			throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		long submitted = this.submittedCount.sum();
+
+		while (!(this.isQuiet && this.quietCount >= submitted)) {
+			if (System.currentTimeMillis() >= deadline) {
+				return false;
+			}
+			Thread.sleep(1);
+		}
+		return true;
+	}
+
+
+	/**
+	 * Runs on the coordinator thread.
+	 */
+	private void run()
+	{
+		long start = System.nanoTime() - this.currentTime * this.tickNanos;
+
+		while (this.isRunning) {
+			this.drainIngress();
+			if (!this.controlSystem.isActive() && !this.controlSystem.isSchedulerDue()) {
+				int change = this.controlSystem.getNextSchedulerChange();
+				if (this.tickNanos > 0) {
+					this.controlSystem.idleUntil((int)((System.nanoTime() - start) / this.tickNanos));
+					this.currentTime = this.controlSystem.getCurrentTime();
+					if (this.controlSystem.isSchedulerDue()) {
+						continue;
+					}
+				}
+				this.quietCount = this.handledCount;
+				this.isQuiet = true;
+				this.isParked = true;
+				if (this.ingress.isEmpty() && this.isRunning) {
+					/* Wake for the next change of scheduler, in real time;
+					 * when running flat out, only for a new stimulus.
+					 */
+					if (this.tickNanos > 0 && change != Integer.MAX_VALUE) {
+						LockSupport.parkNanos(this, start + change * this.tickNanos - System.nanoTime());
+					}
+					else {
+						LockSupport.park(this);
+					}
+				}
+				this.isParked = false;
+				continue;
+			}
+			this.isQuiet = false;
+			this.runTick();
+			if (this.tickNanos > 0) {
+				long wait = start + this.currentTime * this.tickNanos - System.nanoTime();
+				if (wait > 0) {
+					LockSupport.parkNanos(this, wait);
+				}
+			}
+		}
+	}
+
+
+	private void drainIngress()
+	{
+		Stimulus stimulus;
+
+		while ((stimulus = this.ingress.poll()) != null) {
+			this.controlSystem.addStimulus(stimulus);
+			++this.handledCount;
+		}
+	}
+
+
+	/**
+	 * Runs one tick: the due stimuli on this thread, then every car on
+	 * its actor, then the actions the cars deferred.
+	 */
+	void runTick()
+	{
+		int now = this.controlSystem.getCurrentTime();
+
+		this.controlSystem.stepDueStimuli();
+		this.stepCars.now = now;
+		this.stepCars.reinitialize();
+		this.pool.invoke(this.stepCars);
+		for (CarActor actor: this.actors) {
+			this.motionEngine.flush(actor.car, now);
+		}
+		this.controlSystem.finishTick();
+		this.currentTime = this.controlSystem.getCurrentTime();
+	}
+
+
+	/**
+	 * Steps all the cars in parallel, each on its actor.
+	 */
+	private class StepCars
+		extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		int now;
+
+
+		@Override
+		protected void compute()
+		{
+			for (CarActor actor: actors) {
+				actor.now = this.now;
+				actor.reinitialize();
+			}
+			ForkJoinTask.invokeAll(actors);
+		}
+	}
+
+
+	/**
+	 * Steps one car, and publishes its snapshot.  The actor is the only
+	 * thread that changes the car while it runs.
+	 */
+	private class CarActor
+		extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		final Elevator       car;
+		volatile CarSnapshot snapshot;
+		int                  now;
+
+
+		CarActor(Elevator car)
+		{
+			this.car = car;
+			this.snapshot = new CarSnapshot(car, controlSystem.getCurrentTime());
+		}
+
+
+		@Override
+		protected void compute()
+		{
+			CarSnapshot last = this.snapshot;
+
+			motionEngine.advance(this.car, this.now);
+
+			/* A car at rest with nothing new keeps its snapshot.
+			 */
+			if (this.car.carState != CarState.kIDLE
+					|| last.carState != CarState.kIDLE
+					|| last.currentDirection != this.car.currentDirection
+					|| last.modificationCount != this.car.modificationCount) {
+				this.snapshot = new CarSnapshot(this.car, this.now + 1);
+			}
+		}
+
+
+		/**
+		 * Gives the snapshot to dispatch from.  A schedule changed since
+		 * the car's step, by the coordinator, calls for a fresh one.
+		 */
+		CarSnapshot refresh()
+		{
+			CarSnapshot snapshot = this.snapshot;
+			if (snapshot.modificationCount != this.car.modificationCount) {
+				snapshot = new CarSnapshot(this.car, controlSystem.getCurrentTime());
+				this.snapshot = snapshot;
+			}
+			return snapshot;
+		}
+	}
+
+
+	/**
+	 * Chooses the car with the lowest cost, as {@link CostDispatcher}
+	 * does, but from the cars' snapshots.
+	 */
+	private class SnapshotDispatcher
+		implements Dispatcher
+	{
+		@Override
+		public Elevator assignCall(int floor, Direction direction)
+		{
+			Elevator best = null;
+			Elevator bestFull = null;
+			int bestCost = Integer.MAX_VALUE;
+			int bestFullCost = Integer.MAX_VALUE;
+
+			for (CarActor actor: actors) {
+				int cost = actor.refresh().computeFloorCost(floor, direction);
+				if (actor.car.isFull()) {
+					if (cost < bestFullCost) {
+						bestFull = actor.car;
+						bestFullCost = cost;
+					}
+				}
+				else if (cost < bestCost) {
+					best = actor.car;
+					bestCost = cost;
+				}
+			}
+			return best != null ? best : bestFull;
+		}
+	}
+}
@@ -0,0 +1,416 @@
+package jqa.elevator;
+
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Serves a control system over HTTP, with the interface of the challenge
+ * in JSON: the status of the cars, updates from them, pickup requests,
+ * and stepping the simulation.  A building management system, or a test
+ * harness, drives the simulation through it instead of an event file.
+ *
+ * <pre>
+ * GET  /status   {"time": 12, "active": true,
+ *                 "elevators": [{"id": "E-0", "index": 0, "floor": 3, "goal": 7,
+ *                                "direction": "up", "state": "moving", "stops": [7, 9], "load": 2}],
+ *                 "calls": [{"floor": 5, "direction": "up", "car": "E-0"}]}
+ * POST /update   {"device": "E-0", "type": "GoToFloor", "floor": 7, "time": 12}
+ * POST /pickup   {"floor": 5, "direction": 1}
+ * POST /step     {"ticks": 10}
+ * GET  /events   server-sent events: the status, then the changes after each tick
+ * </pre>
+ *
+ * <p>
+ *     {@code /update} and {@code /pickup} also take an array, of any
+ *     length, which is queued as a whole.  An update is any stimulus from
+ *     outside the controller, to any device; the arrivals, departures
+ *     and door changes that cars report themselves are refused.  Its
+ *     time is optional, and one in the past means now.
+ *     A pickup presses the call button of its floor, up for a positive
+ *     direction and down for a negative one.  Both are handled in the
+ *     next step, and answer with the time and the number queued.
+ *     {@code /step} runs the ticks, one by default, and answers with the
+ *     time reached and the number of stimuli handled.  A bad request is
+ *     answered with status 400 and an error message, and nothing in it
+ *     is queued.  {@code /events} streams the status, as a
+ *     {@link StatusFeed}, to clients that would otherwise poll.
+ * </p>
+ *
+ * <p>
+ *     Requests are served by a fixed pool of threads.  They parse and
+ *     check their bodies in parallel, and take turns only to touch the
+ *     controller, which is not thread-safe; a batch takes one turn.
+ *     While the server runs, nothing else may drive the controller.
+ * </p>
+ */
+public class ControlServer
+	implements AutoCloseable
+{
+	private static final int MAX_BODY = 16 << 20;
+	private static final int MAX_TICKS = 1_000_000;
+
+	private ElevatorControlSystem controlSystem;
+	private HttpServer            server;
+	private StatusFeed            feed;
+	private ExecutorService       executor;
+
+
+	/**
+	 * Creates a server for a control system, which is not started.
+	 *
+	 * @param controlSystem
+	 * The control system, with all its devices in place.
+	 *
+	 * @param address
+	 * The address to listen on; port 0 chooses a free port.
+	 *
+	 * @param threadCount
+	 * The number of threads to serve requests on.
+	 *
+	 * @throws IOException If the address cannot be bound.
+	 */
+	public ControlServer(ElevatorControlSystem controlSystem, InetSocketAddress address, int threadCount)
+			throws IOException
+	{
+		this.controlSystem = controlSystem;
+		this.server = HttpServer.create(address, 1024);
+		this.executor = Executors.newFixedThreadPool(threadCount, runnable -> {
+			Thread thread = new Thread(runnable, "ControlServer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.feed = new StatusFeed(controlSystem);
+		this.feed.attach();
+		this.server.setExecutor(this.executor);
+		this.server.createContext("/status", exchange -> this.serve(exchange, "GET", this::status));
+		this.server.createContext("/update", exchange -> this.serve(exchange, "POST", this::update));
+		this.server.createContext("/pickup", exchange -> this.serve(exchange, "POST", this::pickup));
+		this.server.createContext("/step", exchange -> this.serve(exchange, "POST", this::step));
+		this.server.createContext("/events", this::events);
+	}
+
+
+	/**
+	 * Starts serving requests.
+	 */
+	public void start()
+	{
+		this.server.start();
+	}
+
+
+	/**
+	 * Gives the port the server listens on.
+	 */
+	public int getPort()
+	{
+		return this.server.getAddress().getPort();
+	}
+
+
+	public StatusFeed getFeed()
+	{
+		return this.feed;
+	}
+
+
+	/**
+	 * Stops the server, letting the requests in progress finish, and
+	 * ends the subscriptions to the status feed.  If the caller is
+	 * interrupted, it stops waiting for the requests and keeps the
+	 * interrupt.
+	 */
+	@Override
+	public void close()
+	{
+		this.feed.close();
+		this.feed.detach();
+		this.server.stop(0);
+		this.executor.shutdown();
+		try {
+			this.executor.awaitTermination(10, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+	/**
+	 * Answers a request for the status of the building.
+	 *
+	 * @see StatusFeed#appendStatus
+	 */
+	private void status(Object request, StringBuilder response)
+	{
+		synchronized (this.controlSystem) {
+			this.feed.appendStatus(response);
+		}
+	}
+
+
+	/**
+	 * Subscribes the client to the {@link StatusFeed}.  The exchange
+	 * stays open, and the feed's thread writes to it.
+	 */
+	private void events(HttpExchange exchange)
+	{
+		if (!exchange.getRequestMethod().equals("GET")) {
+			exchange.getResponseHeaders().set("Allow", "GET");
+			this.sendError(exchange, 405, "Use GET");
+			exchange.close();
+			return;
+		}
+		try {
+			exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+			exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+			exchange.sendResponseHeaders(200, 0);
+			synchronized (this.controlSystem) {
+				this.feed.subscribe(exchange.getResponseBody());
+			}
+		}
+		catch (IOException e) {
+			exchange.close();
+		}
+	}
+
+
+	/**
+	 * Queues stimuli for devices: {@code device}, {@code type},
+	 * {@code floor} and, optionally, {@code time}.
+	 */
+	private void update(Object request, StringBuilder response)
+	{
+		List<Map<?, ?>> items = toList(request);
+		List<Stimulus> stimuli = new ArrayList<>(items.size());
+		DeviceRegistry registry = this.controlSystem.deviceRegistry;
+
+		for (Map<?, ?> item: items) {
+			String device = Json.getString(item, "device");
+			String type = Json.getString(item, "type");
+			if (device == null || type == null) {
+				throw new IllegalArgumentException("An update needs a device and a type");
+			}
+			int handle = registry.resolve(device);
+			if (handle == DeviceRegistry.NONE) {
+				throw new IllegalArgumentException(String.format("Unknown device: %s", device));
+			}
+			Stimulus.StimulusType stimulusType = Stimulus.StimulusType.getValue(type);
+			if (stimulusType == Stimulus.StimulusType.Nop && !type.equals("Nop")) {
+				throw new IllegalArgumentException(String.format("Unknown stimulus type: %s", type));
+			}
+			if (stimulusType.isCarReport()) {
+				throw new IllegalArgumentException(String.format("Only a car reports %s", type));
+			}
+			Stimulus stimulus = new Stimulus(Json.getInt(item, "time", 0), stimulusType);
+			stimulus.deviceIdentity = device;
+			stimulus.deviceHandle = handle;
+			stimulus.floor = Json.getInt(item, "floor", 0);
+			stimuli.add(stimulus);
+		}
+		this.queue(stimuli, response);
+	}
+
+
+	/**
+	 * Queues floor calls: {@code floor}, and {@code direction}, positive
+	 * for up and negative for down.
+	 */
+	private void pickup(Object request, StringBuilder response)
+	{
+		List<Map<?, ?>> items = toList(request);
+		List<Stimulus> stimuli = new ArrayList<>(items.size());
+
+		for (Map<?, ?> item: items) {
+			int floor = Json.getInt(item, "floor", Integer.MIN_VALUE);
+			int direction = Json.getInt(item, "direction", 0);
+			FloorCallButton button = floor < this.controlSystem.getFloorBottom()
+					|| floor > this.controlSystem.getFloorTop()
+					? null : this.controlSystem.getFloorCallButton(floor);
+			if (button == null) {
+				throw new IllegalArgumentException(String.format("No call button at floor %d", floor));
+			}
+			if (direction == 0) {
+				throw new IllegalArgumentException(String.format("No direction for the call at floor %d", floor));
+			}
+			Stimulus stimulus = new Stimulus(0,
+					direction > 0 ? Stimulus.StimulusType.ButtonUp : Stimulus.StimulusType.ButtonDown);
+			stimulus.deviceIdentity = button.getDeviceIdentity();
+			stimulus.deviceHandle = button.getDeviceHandle();
+			stimulus.floor = floor;
+			stimuli.add(stimulus);
+		}
+		this.queue(stimuli, response);
+	}
+
+
+	/**
+	 * Runs the simulation forward: {@code ticks}, one by default.
+	 */
+	private void step(Object request, StringBuilder response)
+	{
+		int ticks = request == null ? 1 : Json.getInt(toMap(request), "ticks", 1);
+		int handled = 0;
+
+		if (ticks < 0 || ticks > MAX_TICKS) {
+			throw new IllegalArgumentException(String.format("Cannot step %d ticks", ticks));
+		}
+		synchronized (this.controlSystem) {
+			for (int j = 0; j < ticks; ++j) {
+				handled += this.controlSystem.tick();
+				this.feed.publish();
+			}
+			response.append("{\"time\": ").append(this.controlSystem.getCurrentTime())
+					.append(", \"handled\": ").append(handled)
+					.append(", \"active\": ").append(this.controlSystem.isActive())
+					.append('}');
+		}
+	}
+
+
+	/**
+	 * Queues checked stimuli, all in one turn, at their time or now.
+	 */
+	private void queue(List<Stimulus> stimuli, StringBuilder response)
+	{
+		synchronized (this.controlSystem) {
+			int time = this.controlSystem.getCurrentTime();
+			for (Stimulus stimulus: stimuli) {
+				stimulus.timestamp = Math.max(stimulus.timestamp, time);
+				this.controlSystem.addStimulus(stimulus);
+			}
+			response.append("{\"time\": ").append(time)
+					.append(", \"accepted\": ").append(stimuli.size())
+					.append('}');
+		}
+	}
+
+
+	@SuppressWarnings("unchecked")
+	private static List<Map<?, ?>> toList(Object request)
+	{
+		if (request instanceof List) {
+			for (Object item: (List<?>)request) {
+				toMap(item);
+			}
+			return (List<Map<?, ?>>)request;
+		}
+		return Collections.singletonList(toMap(request));
+	}
+
+
+	private static Map<?, ?> toMap(Object request)
+	{
+		if (!(request instanceof Map)) {
+			throw new IllegalArgumentException("Expected an object");
+		}
+		return (Map<?, ?>)request;
+	}
+
+
+	/**
+	 * Serves one request: checks the method, reads the body, if any, and
+	 * has the endpoint answer it.
+	 */
+	private void serve(HttpExchange exchange, String method, Endpoint endpoint)
+	{
+		try {
+			if (!exchange.getRequestMethod().equals(method)) {
+				exchange.getResponseHeaders().set("Allow", method);
+				this.sendError(exchange, 405, String.format("Use %s", method));
+				return;
+			}
+
+			Object request = null;
+			if (method.equals("POST")) {
+				String body = readBody(exchange.getRequestBody());
+				if (body == null) {
+					this.sendError(exchange, 413, "Request too large");
+					return;
+				}
+				if (!body.isBlank()) {
+					request = Json.parse(body);
+				}
+			}
+			StringBuilder response = new StringBuilder(256);
+			endpoint.respond(request, response);
+			this.send(exchange, 200, response);
+		}
+		catch (IllegalArgumentException e) {
+			this.sendError(exchange, 400, e.getMessage());
+		}
+		catch (RuntimeException e) {
+			System.err.printf("*** Control request %s failed: %s%n", exchange.getRequestURI(), e);
+			this.sendError(exchange, 500, "Internal error");
+		}
+		catch (IOException e) {
+			// the client has gone
+		}
+		finally {
+			exchange.close();
+		}
+	}
+
+
+	private static String readBody(InputStream stream)
+			throws IOException
+	{
+		byte[] body = stream.readNBytes(MAX_BODY + 1);
+
+		if (body.length > MAX_BODY) {
+			return null;
+		}
+		return new String(body, StandardCharsets.UTF_8);
+	}
+
+
+	private void sendError(HttpExchange exchange, int status, String message)
+	{
+		StringBuilder response = new StringBuilder("{\"error\": ");
+
+		Json.appendString(response, message == null ? "" : message).append('}');
+		try {
+			this.send(exchange, status, response);
+		}
+		catch (IOException e) {
+			// the client has gone
+		}
+	}
+
+
+	private void send(HttpExchange exchange, int status, CharSequence response)
+			throws IOException
+	{
+		byte[] bytes = response.toString().getBytes(StandardCharsets.UTF_8);
+
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+
+	/**
+	 * Answers a request, given its body.
+	 */
+	private interface Endpoint
+	{
+		void respond(Object request, StringBuilder response);
+	}
+}
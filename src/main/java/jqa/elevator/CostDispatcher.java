@@ -0,0 +1,46 @@
+package jqa.elevator;
+
+
+/**
+ * Dispatches each floor call to the elevator with the lowest estimated
+ * time of arrival, as given by {@link Elevator#computeFloorCost(int, Direction)}.
+ * The cost is constant time per car, so a call costs one pass over the
+ * cars.  A full car is passed over, unless every car is full.  On a tie,
+ * the elevator with the lowest index wins.
+ */
+public class CostDispatcher
+	implements Dispatcher
+{
+	private ElevatorControlSystem controlSystem;
+
+
+	public CostDispatcher(ElevatorControlSystem controlSystem)
+	{
+		this.controlSystem = controlSystem;
+	}
+
+
+	@Override
+	public Elevator assignCall(int floor, Direction direction)
+	{
+		Elevator best = null;
+		Elevator bestFull = null;
+		int bestCost = Integer.MAX_VALUE;
+		int bestFullCost = Integer.MAX_VALUE;
+
+		for (Elevator elevator: this.controlSystem.elevators) {
+			int cost = elevator.computeFloorCost(floor, direction);
+			if (elevator.isFull()) {
+				if (cost < bestFullCost) {
+					bestFull = elevator;
+					bestFullCost = cost;
+				}
+			}
+			else if (cost < bestCost) {
+				best = elevator;
+				bestCost = cost;
+			}
+		}
+		return best != null ? best : bestFull;
+	}
+}
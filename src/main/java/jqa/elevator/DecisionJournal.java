@@ -0,0 +1,411 @@
+package jqa.elevator;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * Records what a controller did, in order: every stimulus it handled,
+ * and every decision it made as a result (the car for each floor call
+ * and each passenger at a kiosk, and where each idle car was parked).
+ * A journal is either written, as the controller runs, or checked: a
+ * second run of the same inputs is compared with the journal of the
+ * first, record by record, and the first difference is kept.
+ *
+ * <p>
+ *     The file is a small header and then fixed-width records, appended
+ *     through a memory-mapped window that moves along the file as it
+ *     fills, so recording costs a few stores and no system call.  A
+ *     record is all zeros until written, so a reader stops at the end of
+ *     a journal whose writer died before {@link #close}.
+ * </p>
+ * <pre>
+ * header:  magic, version, record size, record count (written on close)
+ * record:  time (int), kind (byte), code (byte), car (short), a, b, c (int)
+ * </pre>
+ * <table summary="Record fields">
+ *     <tr><th>kind</th><th>code</th><th>car</th><th>a</th><th>b</th><th>c</th></tr>
+ *     <tr><td>stimulus</td><td>type</td><td>-1</td><td>device</td><td>floor</td><td>timestamp</td></tr>
+ *     <tr><td>call</td><td>direction</td><td>chosen</td><td>floor</td><td>0</td><td>estimated wait</td></tr>
+ *     <tr><td>passenger</td><td>direction</td><td>chosen</td><td>origin</td><td>destination</td><td>estimated wait</td></tr>
+ *     <tr><td>park</td><td>0</td><td>car</td><td>floor</td><td>0</td><td>0</td></tr>
+ * </table>
+ *
+ * <p>
+ *     Devices are recorded by handle and cars by index, which are the
+ *     same for controllers built the same way.  The controller calls the
+ *     journal on its own thread only.
+ * </p>
+ *
+ * @see ElevatorControlSystem#setJournal
+ */
+public class DecisionJournal
+	implements AutoCloseable
+{
+	static final int MAGIC = 0x4a514444;	// "JQDD"
+	static final int VERSION = 1;
+	static final int RECORD_SIZE = 20;
+
+	static final int KIND_STIMULUS = 1;
+	static final int KIND_CALL = 2;
+	static final int KIND_PASSENGER = 3;
+	static final int KIND_PARK = 4;
+
+	private static final int  HEADER_SIZE = 16;
+	private static final int  COUNT_OFFSET = 12;
+	private static final long WINDOW_RECORDS = 1L << 18;
+
+	private static final Stimulus.StimulusType[] TYPES = Stimulus.StimulusType.values();
+	private static final Direction[]             DIRECTIONS = Direction.values();
+
+	private FileChannel      channel;
+	private boolean          isChecking;
+	private MappedByteBuffer window;
+	private long             windowFirst;
+	private long             windowLimit;
+
+	/**
+	 * The number of records written or checked, and, when checking, the
+	 * number in the journal.
+	 */
+	private long count;
+	private long expectedCount;
+
+	/**
+	 * The record just made, for checking, and the first that differed
+	 * from the journal: its index, and both versions.
+	 */
+	private ByteBuffer record;
+	private long       mismatchIndex;
+	private byte[]     mismatchExpected;
+	private byte[]     mismatchActual;
+
+	private DeviceRegistry registry;
+	private String         path;
+
+
+	private DecisionJournal(String path, FileChannel channel, boolean isChecking, long expectedCount)
+	{
+		this.path = path;
+		this.channel = channel;
+		this.isChecking = isChecking;
+		this.window = null;
+		this.windowFirst = 0;
+		this.windowLimit = 0;
+		this.count = 0;
+		this.expectedCount = expectedCount;
+		this.record = ByteBuffer.allocate(RECORD_SIZE);
+		this.mismatchIndex = -1;
+		this.registry = null;
+	}
+
+
+	/**
+	 * Creates a journal to be written, replacing any file of the name.
+	 *
+	 * @param path
+	 * The file.
+	 *
+	 * @return The journal, with no records.
+	 *
+	 * @throws IOException If the file cannot be created.
+	 */
+	public static DecisionJournal create(String path)
+			throws IOException
+	{
+		FileChannel channel = FileChannel.open(Paths.get(path),
+				StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+		header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).putInt(0).flip();
+		while (header.hasRemaining()) {
+			channel.write(header);
+		}
+		return new DecisionJournal(path, channel, false, 0);
+	}
+
+
+	/**
+	 * Opens a journal to check a run against.
+	 *
+	 * @param path
+	 * A journal written by an earlier run.
+	 *
+	 * @return The journal, positioned at its first record.
+	 *
+	 * @throws IOException If the file cannot be read, or is not a journal.
+	 */
+	public static DecisionJournal open(String path)
+			throws IOException
+	{
+		FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			while (header.hasRemaining()) {
+				if (channel.read(header) < 0) {
+					throw new IOException("Not a decision journal");
+				}
+			}
+			header.flip();
+			if (header.getInt() != MAGIC) {
+				throw new IOException("Not a decision journal");
+			}
+			int version = header.getInt();
+			if (version != VERSION || header.getInt() != RECORD_SIZE) {
+				throw new IOException(String.format("Unsupported journal version %d", version));
+			}
+			long count = header.getInt() & 0xffffffffL;
+			long room = (channel.size() - HEADER_SIZE) / RECORD_SIZE;
+			if (count == 0 || count > room) {
+				count = room;
+			}
+			return new DecisionJournal(path, channel, true, count);
+		}
+		catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+
+	/**
+	 * Tells whether this journal checks a run rather than records one.
+	 */
+	public boolean isChecking()
+	{
+		return this.isChecking;
+	}
+
+
+	/**
+	 * Gives the number of records written or checked so far.
+	 */
+	public long getRecordCount()
+	{
+		return this.count;
+	}
+
+
+	/**
+	 * Tells whether the run matched the journal so far: every record,
+	 * and, once closed, the number of them.
+	 */
+	public boolean isMatched()
+	{
+		return this.mismatchIndex < 0;
+	}
+
+
+	/**
+	 * Describes the first record where the run differed from the journal.
+	 *
+	 * @return The index of the record and both versions, or null if the
+	 * run matched.
+	 */
+	public String describeMismatch()
+	{
+		if (this.mismatchIndex < 0) {
+			return null;
+		}
+		return String.format("record %d: expected %s, got %s",
+				this.mismatchIndex,
+				this.describe(this.mismatchExpected),
+				this.describe(this.mismatchActual)
+		);
+	}
+
+
+	/**
+	 * Finishes the journal.  A written journal gets its record count and
+	 * is cut to length; a checked journal notes a run that stopped short.
+	 */
+	@Override
+	public void close()
+			throws IOException
+	{
+		if (this.channel == null) {
+			return;
+		}
+		try {
+			if (this.isChecking) {
+				if (this.count < this.expectedCount && this.mismatchIndex < 0) {
+					this.mismatchIndex = this.count;
+					this.mismatchExpected = this.readExpected(this.count);
+					this.mismatchActual = null;
+				}
+			}
+			else {
+				if (this.window != null) {
+					this.window.force();
+				}
+				ByteBuffer count = ByteBuffer.allocate(Integer.BYTES);
+				count.putInt((int)this.count).flip();
+				this.channel.write(count, COUNT_OFFSET);
+				this.channel.truncate(HEADER_SIZE + this.count * RECORD_SIZE);
+			}
+		}
+		finally {
+			this.window = null;
+			this.channel.close();
+			this.channel = null;
+		}
+	}
+
+
+	/**
+	 * Gives the journal the devices of the controller, to name them
+	 * in descriptions.
+	 */
+	void bind(DeviceRegistry registry)
+	{
+		this.registry = registry;
+	}
+
+
+	void stimulusHandled(int time, Stimulus stimulus)
+	{
+		this.put(time, KIND_STIMULUS, stimulus.type.ordinal(), -1,
+				stimulus.deviceHandle, stimulus.floor, stimulus.timestamp);
+	}
+
+
+	void callAssigned(int time, int floor, Direction direction, Elevator elevator, int cost)
+	{
+		this.put(time, KIND_CALL, direction.ordinal(), elevator == null ? -1 : elevator.index, floor, 0, cost);
+	}
+
+
+	void passengerAssigned(int time, int origin, int destination, Elevator elevator, int cost)
+	{
+		this.put(time, KIND_PASSENGER, (destination > origin ? Direction.kUP : Direction.kDOWN).ordinal(),
+				elevator == null ? -1 : elevator.index, origin, destination, cost);
+	}
+
+
+	void carParked(int time, Elevator elevator, int floor)
+	{
+		this.put(time, KIND_PARK, 0, elevator.index, floor, 0, 0);
+	}
+
+
+	private void put(int time, int kind, int code, int car, int a, int b, int c)
+	{
+		ByteBuffer record = this.record;
+
+		record.clear();
+		record.putInt(time).put((byte)kind).put((byte)code).putShort((short)car).putInt(a).putInt(b).putInt(c);
+		try {
+			if (this.isChecking) {
+				this.check();
+			}
+			else {
+				this.append();
+			}
+		}
+		catch (IOException e) {
+			System.err.printf("*** Decision journal %s failed: %s%n", this.path, e.getMessage());
+			this.isChecking = true;
+			this.expectedCount = 0;
+			this.mismatchIndex = this.count;
+		}
+		++this.count;
+	}
+
+
+	private void append()
+			throws IOException
+	{
+		if (this.count >= this.windowLimit) {
+			this.windowFirst = this.count;
+			this.windowLimit = this.count + WINDOW_RECORDS;
+			this.window = this.channel.map(FileChannel.MapMode.READ_WRITE,
+					HEADER_SIZE + this.windowFirst * RECORD_SIZE, WINDOW_RECORDS * RECORD_SIZE);
+		}
+		this.window.put((int)(this.count - this.windowFirst) * RECORD_SIZE, this.record.array());
+	}
+
+
+	private void check()
+			throws IOException
+	{
+		if (this.mismatchIndex >= 0) {
+			return;
+		}
+
+		byte[] expected = this.count < this.expectedCount ? this.readExpected(this.count) : null;
+		if (expected == null || expected[4] == 0 || ByteBuffer.wrap(expected).compareTo(this.record.flip()) != 0) {
+			this.mismatchIndex = this.count;
+			this.mismatchExpected = expected != null && expected[4] != 0 ? expected : null;
+			this.mismatchActual = this.record.array().clone();
+		}
+	}
+
+
+	/**
+	 * Reads a record of the journal being checked, through the window,
+	 * which is remapped as needed.
+	 */
+	private byte[] readExpected(long index)
+			throws IOException
+	{
+		byte[] expected = new byte[RECORD_SIZE];
+
+		if (index < this.windowFirst || index >= this.windowLimit) {
+			this.windowFirst = index;
+			this.windowLimit = Math.min(index + WINDOW_RECORDS, this.expectedCount);
+			this.window = this.channel.map(FileChannel.MapMode.READ_ONLY,
+					HEADER_SIZE + this.windowFirst * RECORD_SIZE, (this.windowLimit - this.windowFirst) * RECORD_SIZE);
+		}
+		this.window.get((int)(index - this.windowFirst) * RECORD_SIZE, expected);
+		return expected;
+	}
+
+
+	/**
+	 * Describes a record in words.
+	 */
+	private String describe(byte[] bytes)
+	{
+		if (bytes == null) {
+			return "nothing";
+		}
+
+		ByteBuffer record = ByteBuffer.wrap(bytes);
+		int time = record.getInt();
+		int kind = record.get();
+		int code = record.get();
+		int car = record.getShort();
+		int a = record.getInt();
+		int b = record.getInt();
+		int c = record.getInt();
+
+		switch (kind) {
+		case KIND_STIMULUS:
+			StandaloneDevice device = this.registry == null ? null : this.registry.get(a);
+			return String.format("time %d, stimulus %s %s %d of time %d", time,
+					device == null ? "#" + a : device.getDeviceIdentity(),
+					code < TYPES.length ? TYPES[code] : "type " + code, b, c);
+
+		case KIND_CALL:
+			return String.format("time %d, call at %d %s to car %d, wait %d", time, a,
+					code < DIRECTIONS.length ? DIRECTIONS[code] : "direction " + code, car, c);
+
+		case KIND_PASSENGER:
+			return String.format("time %d, passenger %d-%d to car %d, wait %d", time, a, b, car, c);
+
+		case KIND_PARK:
+			return String.format("time %d, car %d parked at %d", time, car, a);
+
+		default:
+			return String.format("time %d, unknown record %d", time, kind);
+		}
+	}
+}
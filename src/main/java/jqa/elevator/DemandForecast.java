@@ -0,0 +1,326 @@
+package jqa.elevator;
+
+
+import java.io.IOException;
+import java.util.Arrays;
+
+
+/**
+ * Forecasts the calls at each floor, in each direction, by the time of
+ * day.  The day is cut into buckets of equal length; for each bucket,
+ * floor and direction the forecast keeps a count of the people who
+ * have called, in which each earlier day counts less than the one after
+ * it, by a given half-life in days.  The rate expected is that count
+ * over the days counted, weighted the same way, and over the length of
+ * the bucket.
+ *
+ * <p>
+ *     The forecast learns from the stimuli the controller handles: a
+ *     press of a floor call button, a passenger arriving at one, and a
+ *     passenger entering a destination at a kiosk are each one person
+ *     calling at that floor, in the direction they are going.  It can
+ *     also learn from the stimuli of past runs, read from a text file
+ *     or a binary trace, in just the same way; see {@link #ingest}.
+ * </p>
+ *
+ * <p>
+ *     A bucket is brought up to date the first time the clock passes
+ *     its start on a new day, and then in one step for however many
+ *     days have gone by, so a quiet week costs no more than a quiet
+ *     hour.  Until then the bucket still holds the days before, which
+ *     is the forecast for it.  Looking up a rate is a few array
+ *     reads.  Time {@code 0} is midnight, as in the scheduler
+ *     timetable.
+ * </p>
+ */
+public class DemandForecast
+{
+	public static final int DEFAULT_BUCKET_TICKS = 15 * 60 * MotionProfile.TICKS_PER_SECOND;
+	public static final double DEFAULT_HALF_LIFE_DAYS = 7.0;
+
+	private int floorTop;
+	private int bucketTicks;
+	private int bucketCount;
+
+	/**
+	 * The factor by which a day's count falls each day after.
+	 */
+	private double decay;
+
+	/**
+	 * The counts, two to a floor (down, then up), a row of floors to a
+	 * bucket.
+	 */
+	private double[] counts;
+
+	/**
+	 * The number of days counted in each bucket, weighted as the counts
+	 * are, and the last day counted, or -1 if none.
+	 */
+	private double[] bucketWeights;
+	private int[]    bucketDays;
+
+	/**
+	 * The number of the last bucket occurrence brought up to date,
+	 * counting from time 0, or -1 before the first call.
+	 */
+	private long lastOccurrence;
+
+	private long callCount;
+
+
+	/**
+	 * Creates an empty forecast with buckets of 15 minutes and a
+	 * half-life of a week.
+	 *
+	 * @param floorTop
+	 * The top floor of the building.
+	 */
+	public DemandForecast(int floorTop)
+	{
+		this(floorTop, DEFAULT_BUCKET_TICKS, DEFAULT_HALF_LIFE_DAYS);
+	}
+
+
+	/**
+	 * Creates an empty forecast.
+	 *
+	 * @param floorTop
+	 * The top floor of the building.
+	 *
+	 * @param bucketTicks
+	 * The length of a bucket, in ticks.  It must divide a day.
+	 *
+	 * @param halfLifeDays
+	 * The number of days in which a day's calls come to count half as
+	 * much.
+	 */
+	public DemandForecast(int floorTop, int bucketTicks, double halfLifeDays)
+	{
+		if (bucketTicks < 1 || ElevatorControlSystem.TICKS_PER_DAY % bucketTicks != 0) {
+			throw new IllegalArgumentException("bucket does not divide a day: " + bucketTicks);
+		}
+		if (!(halfLifeDays > 0)) {
+			throw new IllegalArgumentException("half-life must be positive: " + halfLifeDays);
+		}
+		this.floorTop = floorTop;
+		this.bucketTicks = bucketTicks;
+		this.bucketCount = ElevatorControlSystem.TICKS_PER_DAY / bucketTicks;
+		this.decay = Math.pow(0.5, 1.0 / halfLifeDays);
+		this.counts = new double[this.bucketCount * (floorTop + 1) * 2];
+		this.bucketWeights = new double[this.bucketCount];
+		this.bucketDays = new int[this.bucketCount];
+		Arrays.fill(this.bucketDays, -1);
+		this.lastOccurrence = -1;
+		this.callCount = 0;
+	}
+
+
+	public int getBucketTicks()
+	{
+		return this.bucketTicks;
+	}
+
+
+	/**
+	 * Gives the number of calls counted.
+	 */
+	public long getCallCount()
+	{
+		return this.callCount;
+	}
+
+
+	/**
+	 * Gives the rate of calls expected at a floor, in one direction.
+	 *
+	 * @param floor
+	 * The floor.
+	 *
+	 * @param direction
+	 * The direction, up or down.
+	 *
+	 * @param time
+	 * The time; only the time of day matters.
+	 *
+	 * @return The expected number of calls per tick, or 0 if nothing is
+	 * known of that time of day.
+	 */
+	public double getRate(int floor, Direction direction, int time)
+	{
+		int bucket = this.getBucket(time);
+		double weight = this.bucketWeights[bucket];
+
+		if (weight == 0 || floor < 0 || floor > this.floorTop || direction == Direction.kIDLE) {
+			return 0;
+		}
+		return this.counts[this.getIndex(bucket, floor, direction)] / (weight * this.bucketTicks);
+	}
+
+
+	/**
+	 * Gives the rate of calls expected at a floor, in both directions.
+	 *
+	 * @return The expected number of calls per tick.
+	 */
+	public double getRate(int floor, int time)
+	{
+		return this.getRate(floor, Direction.kUP, time) + this.getRate(floor, Direction.kDOWN, time);
+	}
+
+
+	/**
+	 * Counts one person calling.
+	 *
+	 * @param time
+	 * The time of the call.
+	 *
+	 * @param floor
+	 * The floor they call from.
+	 *
+	 * @param direction
+	 * The way they are going.
+	 */
+	public void callPlaced(int time, int floor, Direction direction)
+	{
+		if (floor < 0 || floor > this.floorTop || direction == Direction.kIDLE) {
+			return;
+		}
+		this.advance(time);
+		this.counts[this.getIndex(this.getBucket(time), floor, direction)] += 1.0;
+		++this.callCount;
+	}
+
+
+	/**
+	 * Counts the call a stimulus makes, if it makes one.
+	 *
+	 * @param time
+	 * The time the stimulus is handled.
+	 *
+	 * @param stimulus
+	 * The stimulus.
+	 *
+	 * @param device
+	 * The device it is for.
+	 */
+	void stimulusHandled(int time, Stimulus stimulus, StandaloneDevice device)
+	{
+		int origin;
+
+		if (device instanceof FloorCallButton) {
+			origin = ((FloorCallButton)device).getFloor();
+		}
+		else if (device instanceof DestinationKiosk) {
+			origin = ((DestinationKiosk)device).getFloor();
+		}
+		else {
+			return;
+		}
+
+		switch (stimulus.type) {
+		case ButtonUp:
+			this.callPlaced(time, origin, Direction.kUP);
+			break;
+		case ButtonDown:
+			this.callPlaced(time, origin, Direction.kDOWN);
+			break;
+		case PassengerArrived:
+		case DestinationCall:
+			if (stimulus.floor != origin) {
+				this.callPlaced(time, origin, stimulus.floor > origin ? Direction.kUP : Direction.kDOWN);
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+
+	/**
+	 * Learns from the stimuli of a past run, at the times they carry.
+	 * The devices are named as in the run; stimuli for devices the
+	 * registry does not know are passed over.
+	 *
+	 * @param source
+	 * The stimuli, in nearly time order.  It is read to the end but not
+	 * closed.
+	 *
+	 * @param devices
+	 * The devices of the building the forecast is for.
+	 *
+	 * @return The number of calls counted.
+	 */
+	public long ingest(StimulusSource source, DeviceRegistry devices)
+			throws IOException
+	{
+		Stimulus stimulus = new Stimulus();
+		long before = this.callCount;
+
+		source.bindDevices(devices);
+		for (;;) {
+			stimulus.deviceHandle = DeviceRegistry.NONE;
+			if (!source.next(stimulus)) {
+				break;
+			}
+			if (stimulus.deviceHandle == DeviceRegistry.NONE) {
+				stimulus.deviceHandle = devices.resolve(stimulus.deviceIdentity);
+			}
+
+			StandaloneDevice device = devices.get(stimulus.deviceHandle);
+			if (device != null) {
+				this.stimulusHandled(stimulus.timestamp, stimulus, device);
+			}
+		}
+		return this.callCount - before;
+	}
+
+
+	/**
+	 * Brings up to date every bucket that has started since the last
+	 * call: its counts decay by the days gone by, and those days join
+	 * its weight, the newest counting in full.  Only the latest day of
+	 * each bucket matters, so at most a day of buckets is visited.
+	 * Times before the last call change nothing.
+	 */
+	private void advance(int time)
+	{
+		long occurrence = Math.floorDiv(time, this.bucketTicks);
+		long first = this.lastOccurrence < 0
+				? occurrence
+				: Math.max(this.lastOccurrence + 1, occurrence - this.bucketCount + 1);
+
+		for (long o = first; o <= occurrence; ++o) {
+			int bucket = (int)Math.floorMod(o, (long)this.bucketCount);
+			int day = (int)Math.floorDiv(o, (long)this.bucketCount);
+			int last = this.bucketDays[bucket];
+
+			if (last < 0) {
+				this.bucketWeights[bucket] = 1.0;
+			}
+			else if (day > last) {
+				double factor = Math.pow(this.decay, day - last);
+				int start = this.getIndex(bucket, 0, Direction.kDOWN);
+				for (int j = start; j < start + 2 * (this.floorTop + 1); ++j) {
+					this.counts[j] *= factor;
+				}
+				this.bucketWeights[bucket] = this.bucketWeights[bucket] * factor
+						+ (1.0 - factor) / (1.0 - this.decay);
+			}
+			this.bucketDays[bucket] = Math.max(day, last);
+		}
+		this.lastOccurrence = Math.max(this.lastOccurrence, occurrence);
+	}
+
+
+	private int getBucket(int time)
+	{
+		return Math.floorMod(time, ElevatorControlSystem.TICKS_PER_DAY) / this.bucketTicks;
+	}
+
+
+	private int getIndex(int bucket, int floor, Direction direction)
+	{
+		return (bucket * (this.floorTop + 1) + floor) * 2 + (direction == Direction.kUP ? 1 : 0);
+	}
+}
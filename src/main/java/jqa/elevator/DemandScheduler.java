@@ -0,0 +1,166 @@
+package jqa.elevator;
+
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+
+/**
+ * Parks the idle cars where the calls have been coming from.  The
+ * scheduler keeps a weight for each floor, which each call adds to and
+ * which decays with a given half-life, so that recent calls count most.
+ * The cars share out the weight: car {@code j} of {@code n} waits at
+ * the floor where the running total of the weights, from the bottom,
+ * reaches {@code (j + 1/2) / n} of the whole.  A busy floor draws
+ * several cars; quiet floors draw none.
+ *
+ * <p>
+ *     Until the first call, the scheduler leaves the cars where they are.
+ * </p>
+ */
+public class DemandScheduler
+	implements Scheduler
+{
+	/**
+	 * The largest weight a call adds before the weights are brought
+	 * back down.
+	 */
+	private static final double MAX_INCREMENT = 1.0e12;
+
+	private int      carCount;
+	private int      halfLife;
+	private double[] weights;
+	private double   totalWeight;
+
+	/**
+	 * The time from which the weights are counted.  Rather than decay
+	 * every weight on each call, a call at time {@code t} adds
+	 * {@code 2^((t - epoch) / halfLife)}; the ratios are the same.
+	 */
+	private int epoch;
+
+	/**
+	 * The preferred floors, worked out again after new calls.
+	 */
+	private int[]   preferredFloors;
+	private boolean isStale;
+
+
+	/**
+	 * Creates the scheduler.
+	 *
+	 * @param floorCount
+	 * The number of floors in the building.
+	 *
+	 * @param carCount
+	 * The number of cars.
+	 *
+	 * @param halfLife
+	 * The time, in ticks, in which the weight of a call falls by half.
+	 */
+	public DemandScheduler(int floorCount, int carCount, int halfLife)
+	{
+		this.carCount = carCount;
+		this.halfLife = Math.max(halfLife, 1);
+		this.weights = new double[floorCount + 1];
+		this.totalWeight = 0;
+		this.epoch = 0;
+		this.preferredFloors = new int[carCount];
+		this.isStale = true;
+	}
+
+
+	@Override
+	public void callPlaced(int time, int floor, Direction direction)
+	{
+		if (floor <= 0 || floor >= this.weights.length) {
+			return;
+		}
+		if (this.totalWeight == 0) {
+			this.epoch = time;
+		}
+
+		double increment = Math.pow(2.0, (double)(time - this.epoch) / this.halfLife);
+		if (increment > MAX_INCREMENT) {
+			for (int j = 0; j < this.weights.length; ++j) {
+				this.weights[j] /= increment;
+			}
+			this.totalWeight /= increment;
+			this.epoch = time;
+			increment = 1.0;
+		}
+		this.weights[floor] += increment;
+		this.totalWeight += increment;
+		this.isStale = true;
+	}
+
+
+	@Override
+	public int getPreferredFloor(int elevator)
+	{
+		if (this.totalWeight == 0 || elevator >= this.carCount) {
+			return NONE;
+		}
+		if (this.isStale) {
+			share(this.weights, this.totalWeight, this.preferredFloors);
+			this.isStale = false;
+		}
+		return this.preferredFloors[elevator];
+	}
+
+
+	@Override
+	public void writeState(DataOutput out)
+			throws IOException
+	{
+		out.writeInt(this.epoch);
+		out.writeDouble(this.totalWeight);
+		for (double weight: this.weights) {
+			out.writeDouble(weight);
+		}
+	}
+
+
+	@Override
+	public void readState(DataInput in)
+			throws IOException
+	{
+		this.epoch = in.readInt();
+		this.totalWeight = in.readDouble();
+		for (int j = 0; j < this.weights.length; ++j) {
+			this.weights[j] = in.readDouble();
+		}
+		this.isStale = true;
+	}
+
+
+	/**
+	 * Shares the weight out among the cars: car {@code j} of {@code n}
+	 * takes the floor where the running total reaches
+	 * {@code (j + 1/2) / n} of the whole.
+	 *
+	 * @param weights
+	 * The weight of each floor, from floor 0.
+	 *
+	 * @param totalWeight
+	 * The sum of the weights.
+	 *
+	 * @param preferredFloors
+	 * The floor of each car, filled in.
+	 */
+	static void share(double[] weights, double totalWeight, int[] preferredFloors)
+	{
+		int carCount = preferredFloors.length;
+		double sum = 0;
+		int floor = 0;
+
+		for (int j = 0; j < carCount; ++j) {
+			double target = (j + 0.5) * totalWeight / carCount;
+			while (floor < weights.length - 1 && (sum < target || weights[floor] == 0)) {
+				sum += weights[++floor];
+			}
+			preferredFloors[j] = floor;
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package jqa.elevator;
+
+
+/**
+ * Specifies the interface to destination dispatching: choosing which
+ * elevator carries a passenger who has entered their destination at a
+ * {@link DestinationKiosk}.  The controller asks its dispatcher once for
+ * each passenger, then sends the chosen car to the passenger's floor.
+ *
+ * @see ElevatorControlSystem#destinationCall
+ */
+public interface DestinationDispatcher
+{
+	/**
+	 * Chooses the elevator to carry a passenger.  The dispatcher
+	 * only makes the choice; it does not change any elevator.
+	 *
+	 * @param origin
+	 * The floor where the passenger waits.
+	 *
+	 * @param destination
+	 * The floor the passenger wants.
+	 *
+	 * @return The chosen elevator, or null if none serves both floors.
+	 */
+	Elevator assignPassenger(int origin, int destination);
+}
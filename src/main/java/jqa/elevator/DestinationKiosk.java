@@ -0,0 +1,117 @@
+package jqa.elevator;
+
+
+/**
+ * A destination-dispatch kiosk on a floor.  Rather than pressing up or
+ * down, a passenger enters the floor they want; the controller chooses
+ * a car at once and the kiosk shows it.  The passenger's destination
+ * goes on the car's schedule when they board, so there is no
+ * {@link Stimulus.StimulusType#GoToFloor} to follow.
+ *
+ * <p>
+ *     The kiosk responds to {@link Stimulus.StimulusType#DestinationCall}
+ *     stimuli, whose floor is the destination.
+ * </p>
+ */
+public class DestinationKiosk
+	implements StandaloneDevice
+{
+	private ElevatorControlSystem controlSystem;
+	private int                   floor;
+	private String                identity;
+	private int                   handle;
+
+
+	/**
+	 * Creates a kiosk for a specific floor.
+	 *
+	 * @param controlSystem
+	 * The overall system that owns this object.
+	 *
+	 * @param floor
+	 * The floor on which the kiosk stands.
+	 */
+	public DestinationKiosk(ElevatorControlSystem controlSystem, int floor)
+	{
+		this.controlSystem = controlSystem;
+		this.floor = floor;
+		this.handle = DeviceRegistry.NONE;
+	}
+
+
+	@Override
+	public String getDeviceIdentity()
+	{
+		return this.identity;
+	}
+
+
+	@Override
+	public int getDeviceHandle()
+	{
+		return this.handle;
+	}
+
+
+	int getFloor()
+	{
+		return this.floor;
+	}
+
+
+	@Override
+	public void setDeviceIdentity(String identity)
+	{
+		this.identity = identity;
+	}
+
+
+	@Override
+	public void setDeviceHandle(int handle)
+	{
+		this.handle = handle;
+	}
+
+
+	/**
+	 * Takes a passenger's destination and places the call with the
+	 * controller.  The car chosen is published on the controller's
+	 * {@link EventBus}, for the kiosk to show.
+	 *
+	 * @param destination
+	 * The floor the passenger wants.
+	 *
+	 * @return The car the passenger should take, or null if none can
+	 * make the trip.
+	 */
+	public Elevator enterDestination(int destination)
+	{
+		Elevator elevator = this.controlSystem.destinationCall(this.floor, destination);
+
+		if (elevator != null) {
+			this.controlSystem.eventBus.publishDestinationAssigned(this, destination, elevator);
+		}
+		return elevator;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 *     The kiosk responds only to destination calls.
+	 * </p>
+	 */
+	@Override
+	public void triggerDeviceChange(Stimulus stimulus)
+	{
+		if (this.controlSystem.isVerbose()) {
+			this.controlSystem.getTrace().stimulus(this.identity, stimulus);
+		}
+		if (stimulus.type == Stimulus.StimulusType.DestinationCall) {
+			Elevator elevator = this.enterDestination(stimulus.floor);
+			if (elevator != null && this.controlSystem.isVerbose()) {
+				this.controlSystem.getTrace().assigned(this.identity, stimulus.floor, elevator.getDeviceIdentity());
+			}
+		}
+	}
+}
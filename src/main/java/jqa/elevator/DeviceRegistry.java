@@ -0,0 +1,94 @@
+package jqa.elevator;
+
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+
+/**
+ * Numbers the {@link StandaloneDevice} objects of a system with dense
+ * integer handles, in the order they are registered.  A device name is
+ * resolved to its handle once, when a stimulus enters the system, and
+ * from then on the stimulus reaches its device by array indexing.
+ */
+public final class DeviceRegistry
+{
+	/**
+	 * The handle of a stimulus whose device name is not yet resolved,
+	 * or names no device.
+	 */
+	public static final int NONE = -1;
+
+	private StandaloneDevice[]       devices;
+	private int                      count;
+	private HashMap<String, Integer> handles;
+
+
+	DeviceRegistry()
+	{
+		this.devices = new StandaloneDevice[64];
+		this.count = 0;
+		this.handles = new HashMap<>();
+	}
+
+
+	/**
+	 * Adds a device and gives it the next handle.  A device registered
+	 * under the name of an earlier one takes over the name.
+	 *
+	 * @param device
+	 * The device, with its identity already set.
+	 *
+	 * @return The handle of the device.
+	 */
+	int register(StandaloneDevice device)
+	{
+		if (this.count == this.devices.length) {
+			this.devices = Arrays.copyOf(this.devices, 2 * this.count);
+		}
+		int handle = this.count++;
+		this.devices[handle] = device;
+		this.handles.put(device.getDeviceIdentity(), handle);
+		device.setDeviceHandle(handle);
+		return handle;
+	}
+
+
+	/**
+	 * Gives the handle of a named device.
+	 *
+	 * @param identity
+	 * The name of the device.
+	 *
+	 * @return The device's handle, or {@link #NONE} if there is
+	 * no such device.
+	 */
+	public int resolve(String identity)
+	{
+		Integer handle = this.handles.get(identity);
+		return handle == null ? NONE : handle;
+	}
+
+
+	/**
+	 * Gives the device with a handle.
+	 *
+	 * @param handle
+	 * The handle.
+	 *
+	 * @return The device, or null if the handle is not in use.
+	 */
+	public StandaloneDevice get(int handle)
+	{
+		if (handle < 0 || handle >= this.count) {
+			return null;
+		}
+		return this.devices[handle];
+	}
+
+
+	public int size()
+	{
+		return this.count;
+	}
+}
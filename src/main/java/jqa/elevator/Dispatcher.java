@@ -0,0 +1,27 @@
+package jqa.elevator;
+
+
+/**
+ * Specifies the interface to floor-call dispatching: choosing which
+ * elevator answers a call from a {@link FloorCallButton}.  The controller
+ * asks its dispatcher once for each new call, then adds the floor to the
+ * chosen car's schedule.
+ *
+ * @see ElevatorControlSystem#pickup
+ */
+public interface Dispatcher
+{
+	/**
+	 * Chooses the elevator to answer a floor call.  The dispatcher
+	 * only makes the choice; it does not change any elevator.
+	 *
+	 * @param floor
+	 * The floor of the call.
+	 *
+	 * @param direction
+	 * The direction the caller wants to travel.
+	 *
+	 * @return The chosen elevator, or null if none can serve the floor.
+	 */
+	Elevator assignCall(int floor, Direction direction);
+}
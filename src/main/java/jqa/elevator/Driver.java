@@ -2,6 +2,8 @@ package jqa.elevator;
 
 
 import java.io.*;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
 
 
 /**
@@ -9,7 +11,28 @@ import java.io.*;
  */
 public class Driver
 {
-	private Building building;
+	/**
+	 * The default look-ahead window when streaming a source whose
+	 * order is not known, such as a text file.
+	 */
+	private static final int DEFAULT_WINDOW = 1024;
+
+	private Building        building;
+	private boolean         isPreload;
+	private boolean         isFixedStep;
+	private int             window;
+	private StimulusQueue   stimuliQueue;
+	private String          buildingPath;
+	private int             metricsInterval;
+	private Metrics         metrics;
+	private Trace.Level     traceLevel;
+	private String          logPath;
+	private Trace           trace;
+	private OutputStream    logStream;
+	private String          journalPath;
+	private boolean         isVerifying;
+	private DecisionJournal journal;
+	private ArrayList<String> historyPaths;
 
 	public static void main(String[] args)
 	{
@@ -21,58 +44,440 @@ public class Driver
 
 	private void appMain(String args[])
 	{
-		if (args.length != 1) {
-			System.err.printf("usage: %s event-file%n", this.getClass().getSimpleName());
-			System.exit(1);
+		int index;
+
+		if (args.length == 3 && args[0].equals("-convert")) {
+			this.convertEventFile(args[1], args[2]);
+			return;
+		}
+		if ((args.length == 2 || args.length == 3) && args[0].equals("-serve")) {
+			this.serve(this.parseCount(args[1]), args.length == 3 ? args[2] : null);
+			return;
+		}
+		this.isPreload = false;
+		this.isFixedStep = false;
+		this.window = 0;
+		this.stimuliQueue = new CalendarStimulusQueue();
+		this.buildingPath = null;
+		this.metricsInterval = -1;
+		this.metrics = null;
+		this.traceLevel = Trace.Level.kSTATUS;
+		this.logPath = null;
+		this.journalPath = null;
+		this.isVerifying = false;
+		this.historyPaths = new ArrayList<>();
+		for (index = 0; index < args.length - 1; ++index) {
+			if (args[index].equals("-preload")) {
+				this.isPreload = true;
+			}
+			else if (args[index].equals("-ticks")) {
+				this.isFixedStep = true;
+			}
+			else if (args[index].equals("-window") && index + 2 < args.length) {
+				this.window = this.parseCount(args[++index]);
+			}
+			else if (args[index].equals("-queue") && index + 2 < args.length) {
+				this.stimuliQueue = this.createQueue(args[++index]);
+			}
+			else if (args[index].equals("-building") && index + 2 < args.length) {
+				this.buildingPath = args[++index];
+			}
+			else if (args[index].equals("-metrics") && index + 2 < args.length) {
+				this.metricsInterval = this.parseCount(args[++index]) * MotionProfile.TICKS_PER_SECOND;
+			}
+			else if (args[index].equals("-trace") && index + 2 < args.length) {
+				this.traceLevel = this.parseTraceLevel(args[++index]);
+			}
+			else if (args[index].equals("-log") && index + 2 < args.length) {
+				this.logPath = args[++index];
+			}
+			else if (args[index].equals("-journal") && index + 2 < args.length) {
+				this.journalPath = args[++index];
+				this.isVerifying = false;
+			}
+			else if (args[index].equals("-verify") && index + 2 < args.length) {
+				this.journalPath = args[++index];
+				this.isVerifying = true;
+			}
+			else if (args[index].equals("-history") && index + 2 < args.length) {
+				this.historyPaths.add(args[++index]);
+			}
+			else {
+				break;
+			}
+		}
+		if (index != args.length - 1) {
+			this.usage();
 		}
 		this.createBuilding();
-		this.readEventFile(args[0]);
-		this.runSimulation();
+		this.readEventFile(args[index]);
+	}
+
+
+	private void usage()
+	{
+		String name = this.getClass().getSimpleName();
+
+		System.err.printf("usage: %s [-preload] [-ticks] [-window count] [-queue calendar|heap]%n", name);
+		System.err.printf("       [-building building-file] [-metrics seconds]%n");
+		System.err.printf("       [-trace off|step|event|status] [-log log-file]%n");
+		System.err.printf("       [-journal journal-file | -verify journal-file]%n");
+		System.err.printf("       [-history event-file]... event-file%n");
+		System.err.printf("       %s -convert event-file trace-file%n", name);
+		System.err.printf("       %s -serve port [building-file]%n", name);
+		System.exit(1);
+	}
+
+
+	private StimulusQueue createQueue(String kind)
+	{
+		if (kind.equals("calendar")) {
+			return new CalendarStimulusQueue();
+		}
+		if (kind.equals("heap")) {
+			return new HeapStimulusQueue();
+		}
+		System.err.printf("*** Unknown queue: %s%n", kind);
+		System.exit(1);
+		return null;
+	}
+
+
+	private Trace.Level parseTraceLevel(String level)
+	{
+		switch (level) {
+		case "off":
+			return Trace.Level.kOFF;
+		case "step":
+			return Trace.Level.kSTEP;
+		case "event":
+			return Trace.Level.kEVENT;
+		case "status":
+			return Trace.Level.kSTATUS;
+		default:
+			System.err.printf("*** Unknown trace level: %s%n", level);
+			System.exit(1);
+			return null;
+		}
+	}
+
+
+	private int parseCount(String value)
+	{
+		try {
+			int count = Integer.parseInt(value);
+			if (count > 0) {
+				return count;
+			}
+		}
+		catch (NumberFormatException e) {
+			// fall through
+		}
+		System.err.printf("*** Bad count: %s%n", value);
+		System.exit(1);
+		return 0;
+	}
+
+
+	private void convertEventFile(String textPath, String tracePath)
+	{
+		try {
+			long count = EventTrace.convert(textPath, tracePath);
+			System.out.printf("%s: %d events%n", tracePath, count);
+		}
+		catch (FileNotFoundException e) {
+			System.err.printf("*** File not found: %s%n", textPath);
+			System.exit(1);
+		}
+		catch (IOException e) {
+			System.err.printf("*** Cannot convert %s: %s%n", textPath, e.getMessage());
+			System.exit(1);
+		}
 	}
 
 
 	private void createBuilding()
 	{
-		this.building = new Building();
-		this.building.printElevatorStatus();
-		this.building.printFloorCallStatus();
+		if (this.buildingPath == null) {
+			this.building = new Building(this.stimuliQueue);
+		}
+		else {
+			this.building = new Building(loadBuilding(this.buildingPath), this.stimuliQueue);
+		}
+		this.logStream = System.out;
+		if (this.logPath != null) {
+			try {
+				this.logStream = new FileOutputStream(this.logPath);
+			}
+			catch (FileNotFoundException e) {
+				System.err.printf("*** Cannot create log file: %s%n", this.logPath);
+				System.exit(1);
+			}
+		}
+		this.trace = new Trace(this.logStream);
+		this.trace.setLevel(this.traceLevel);
+		this.building.controlSystem.setTrace(this.trace);
+		this.building.traceStatus();
+		if (this.metricsInterval >= 0) {
+			this.metrics = new Metrics(this.building.controlSystem);
+			this.metrics.setReportInterval(this.metricsInterval);
+			this.metrics.attach();
+		}
+		if (this.journalPath != null) {
+			try {
+				this.journal = this.isVerifying
+						? DecisionJournal.open(this.journalPath)
+						: DecisionJournal.create(this.journalPath);
+			}
+			catch (IOException e) {
+				System.err.printf("*** Cannot open journal: %s: %s%n", this.journalPath, e.getMessage());
+				System.exit(1);
+			}
+			this.building.controlSystem.setJournal(this.journal);
+		}
+		if (!this.historyPaths.isEmpty()) {
+			this.readHistory();
+		}
 	}
 
 
+	/**
+	 * Teaches the controller's {@link DemandForecast} the calls of past
+	 * runs, from the event files given with {@code -history}.  A
+	 * controller without a forecast is given one of 15-minute buckets
+	 * and a half-life of a week.
+	 */
+	private void readHistory()
+	{
+		ElevatorControlSystem controlSystem = this.building.controlSystem;
+		DemandForecast forecast = controlSystem.getDemandForecast();
+
+		if (forecast == null) {
+			forecast = new DemandForecast(controlSystem.getFloorTop());
+			controlSystem.setDemandForecast(forecast);
+		}
+		for (String path: this.historyPaths) {
+			try (StimulusSource source = this.openEventFile(path)) {
+				forecast.ingest(source, controlSystem.deviceRegistry);
+			}
+			catch (FileNotFoundException e) {
+				System.err.printf("*** File not found: %s%n", path);
+				System.exit(1);
+			}
+			catch (IOException e) {
+				System.err.printf("*** I/O error on file: %s: %s%n", path, e.getMessage());
+				System.exit(1);
+			}
+		}
+	}
+
+
+	/**
+	 * Serves the controller of a building over HTTP, with a
+	 * {@link ControlServer}, until the process is stopped.  Nothing is
+	 * logged.
+	 */
+	private void serve(int port, String buildingPath)
+	{
+		Building building = buildingPath == null
+				? new Building(new CalendarStimulusQueue())
+				: new Building(loadBuilding(buildingPath), new CalendarStimulusQueue());
+		ElevatorControlSystem controlSystem = building.controlSystem;
+		ControlServer server;
+
+		try {
+			server = new ControlServer(controlSystem, new InetSocketAddress(port),
+					Runtime.getRuntime().availableProcessors());
+		}
+		catch (IOException e) {
+			System.err.printf("*** Cannot serve on port %d: %s%n", port, e.getMessage());
+			System.exit(1);
+			return;
+		}
+		server.start();
+		System.out.printf("=== serving on port %d%n", server.getPort());
+		try {
+			Thread.currentThread().join();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+	/**
+	 * Reads a building description; see {@link BuildingDescription}.
+	 */
+	static BuildingDescription loadBuilding(String path)
+	{
+		try {
+			return BuildingDescription.load(path);
+		}
+		catch (FileNotFoundException e) {
+			System.err.printf("*** File not found: %s%n", path);
+		}
+		catch (IOException e) {
+			System.err.printf("*** Bad building file: %s: %s%n", path, e.getMessage());
+		}
+		System.exit(1);
+		return null;
+	}
+
+
+	/**
+	 * Runs the simulation from an event file, either text or a binary
+	 * {@link EventTrace}.  By default the file is streamed: the controller
+	 * pulls events as it needs them, through a look-ahead window.  A sorted
+	 * trace needs a window of one event.  With {@code -preload}, the whole
+	 * file is queued before the simulation starts.
+	 */
 	private void readEventFile(String path)
 	{
-		int index = 0;
-		String line;
-		try (BufferedReader br = new BufferedReader(new FileReader(path))) {
-			while ((line = br.readLine()) != null) {
-				++index;
-				System.out.printf("line %d: %s%n", index, line);
-				Stimulus stimulus = Stimulus.createFromString(line);
-				this.building.controlSystem.addStimulus(stimulus);
+		ElevatorControlSystem controlSystem = this.building.controlSystem;
+		int window = this.window;
+
+		try (StimulusSource source = this.openEventFile(path)) {
+			if (this.isPreload) {
+				Stimulus stimulus = new Stimulus();
+				while (source.next(stimulus)) {
+					controlSystem.addStimulus(stimulus);
+					stimulus = new Stimulus();
+				}
+			}
+			else {
+				if (window == 0) {
+					window = DEFAULT_WINDOW;
+					if (source instanceof EventTrace.Reader && ((EventTrace.Reader)source).isSorted()) {
+						window = 1;
+					}
+				}
+				controlSystem.setStimulusSource(source, window);
 			}
+			this.runSimulation();
 		}
 		catch (FileNotFoundException e) {
 			System.err.printf("*** File not found: %s%n", path);
 			System.exit(1);
 		}
 		catch (IOException e) {
-			System.err.printf("*** I/O error on file: %s%n", path);
+			System.err.printf("*** I/O error on file: %s: %s%n", path, e.getMessage());
 			System.exit(1);
 		}
 	}
 
 
+	private StimulusSource openEventFile(String path)
+			throws IOException
+	{
+		if (EventTrace.isTraceFile(path)) {
+			return EventTrace.Reader.open(path);
+		}
+		return new TextStimulusSource(path);
+	}
+
+
+	/**
+	 * Runs the simulation until the system is quiet, logging the status
+	 * after each tick that handled stimuli.  The clock jumps from one
+	 * event to the next, unless {@code -ticks} asks for every tick to
+	 * be stepped.  Both give the same results.  With {@code -metrics},
+	 * the {@link Metrics} are reported at the interval given, in
+	 * simulated seconds, and in full at the end.
+	 *
+	 * <p>
+	 *     The log goes through the {@link Trace}, at the level given by
+	 *     {@code -trace}, to standard output or to the {@code -log} file.
+	 *     The reports are printed directly, once the log has caught up.
+	 * </p>
+	 *
+	 * <p>
+	 *     With {@code -journal}, every stimulus handled and every decision
+	 *     made is recorded in a {@link DecisionJournal}; with
+	 *     {@code -verify}, they are checked against one, and the first
+	 *     difference is reported, on standard error; the process then
+	 *     exits with status 1.
+	 * </p>
+	 */
 	private void runSimulation()
 	{
-		int timestamp;
 		ElevatorControlSystem controlSystem = this.building.controlSystem;
+		Trace trace = this.trace;
+
+		while (controlSystem.isActive()) {
+			int handled = this.isFixedStep ? controlSystem.tick() : controlSystem.tickToNextEvent();
+			if (Trace.ENABLED && handled > 0) {
+				this.building.traceStatus();
+			}
+			if (this.metrics != null && this.metrics.isReportDue()) {
+				trace.flush();
+				this.metrics.printReport(System.out);
+			}
+		}
+		this.closeLog();
+		boolean isMatched = this.closeJournal();
+		System.out.printf("=== dispatch: %d calls, mean estimated wait %.1f, mean assignment %.0f ns%n",
+				controlSystem.getAssignmentCount(),
+				controlSystem.getMeanEstimatedWait(),
+				controlSystem.getMeanAssignmentNanos()
+		);
+		System.out.printf("=== clock: time %d, %d ticks stepped%n",
+				controlSystem.getCurrentTime(),
+				controlSystem.getTickCount()
+		);
+		if (this.metrics != null) {
+			this.metrics.printSummary(System.out);
+		}
+		if (!isMatched) {
+			System.exit(1);
+		}
+	}
+
 
-		while (controlSystem.hasStimuli()) {
-			timestamp = controlSystem.getNextTimestamp();
-			System.out.printf("=== time %d%n", timestamp);
-			this.building.controlSystem.stepStimulus();
-			this.building.printElevatorStatus();
-			this.building.printFloorCallStatus();
+	/**
+	 * Finishes the journal, if any, and reports how the run compared with
+	 * it when verifying.
+	 *
+	 * @return False if the run differs from the journal it was verified
+	 * against, true otherwise.
+	 */
+	private boolean closeJournal()
+	{
+		if (this.journal == null) {
+			return true;
+		}
+		try {
+			this.journal.close();
+		}
+		catch (IOException e) {
+			System.err.printf("*** Cannot close journal: %s: %s%n", this.journalPath, e.getMessage());
+		}
+		if (!this.isVerifying) {
+			System.out.printf("=== journal: %d records%n", this.journal.getRecordCount());
+		}
+		else if (this.journal.isMatched()) {
+			System.out.printf("=== journal: %d records verified%n", this.journal.getRecordCount());
+		}
+		else {
+			System.err.printf("*** Journal differs at %s%n", this.journal.describeMismatch());
+			return false;
+		}
+		return true;
+	}
+
+
+	/**
+	 * Writes the rest of the log, and closes the log file, if any.
+	 */
+	private void closeLog()
+	{
+		this.trace.close();
+		try {
+			if (this.logStream != System.out) {
+				this.logStream.close();
+			}
+		}
+		catch (IOException e) {
+			System.err.printf("*** Cannot close log file: %s: %s%n", this.logPath, e.getMessage());
 		}
 	}
 }
@@ -1,8 +1,12 @@
 package jqa.elevator;
 
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Observable;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
 
 
 /**
@@ -11,34 +15,150 @@ import java.util.Observable;
  * in its "schedule."
  */
 public class Elevator
-	extends Observable
 	implements StandaloneDevice
 {
-	private ElevatorControlSystem controlSystem;
-	private Floor[]               floors;
+	/**
+	 * The number of passengers a car holds unless set otherwise.
+	 */
+	public static final int DEFAULT_CAPACITY = 16;
+
+	final ElevatorControlSystem controlSystem;
+
+	/**
+	 * The floors this elevator is scheduled to stop at, and the floors
+	 * it is allowed to serve.
+	 */
+	private FloorSet scheduledFloors;
+	private FloorSet enabledFloors;
+
+	/**
+	 * The time each stop was requested from inside the car, indexed by
+	 * floor, or -1 if none is pending.
+	 */
+	int[] stopRequestTimes;
+
 	Direction currentDirection;
 	int       currentFloor;
 
+	/**
+	 * The physical state of the car, advanced by the {@link MotionEngine}.
+	 * The position is the height of the car above the bottom floor, in
+	 * millimeters, and the speed is its magnitude in millimeters per tick
+	 * (the direction is {@link #currentDirection}).  The state ticks count
+	 * down the time left in a door state.
+	 */
+	CarState      carState;
+	int           position;
+	int           speed;
+	int           stateTicks;
+	MotionProfile profile;
+
 	String identity;
+	int    handle;
 
 	/**
 	 * This elevator's index within the controller.
 	 */
 	int index;
 
+	/**
+	 * The time, in timestamp units, to travel from one floor to the
+	 * next, and the time lost at each stop (slowing down, opening and
+	 * closing the doors, dwelling, and starting again).  These come
+	 * from the {@link MotionProfile}.
+	 */
+	int floorTime;
+	int stopTime;
+
+	/**
+	 * Counts the changes to the schedule and the enabled floors, so
+	 * that a {@link CarSnapshot} can tell whether it is out of date.
+	 */
+	int modificationCount;
+
+	/**
+	 * The time this car, moving, will arrive, as worked out by the
+	 * {@link MotionEngine}, and the modification count it holds for.
+	 * The car keeps to its course until its schedule changes.  The
+	 * position and speed are the car's at the start of that tick.
+	 */
+	int arrivalTime;
+	int arrivalModification;
+	int arrivalPosition;
+	int arrivalSpeed;
+
+	/**
+	 * The floor this car is going to park at, sent by the
+	 * {@link Scheduler} with no one to serve there, or
+	 * {@link Scheduler#NONE}.  The car stops there with its doors
+	 * closed.  Any real stop given to the car cancels the parking.
+	 */
+	int parkingFloor;
+
+	/**
+	 * The passengers from destination calls that this car is to collect
+	 * and has not yet, and the passengers in the car, with the time they
+	 * boarded and, in step, the time they had waited.  For each floor,
+	 * the number of them going there.
+	 */
+	PassengerQueue waitingPassengers;
+	PassengerQueue riders;
+	PassengerQueue riderWaits;
+	int[]          passengerDestinations;
+
+	/**
+	 * The number of passengers the car can hold.
+	 */
+	int capacity;
+
+	/**
+	 * Holds the actions of a car step that touch the rest of the system,
+	 * in pairs of action and floor (or state), while the car is stepped
+	 * apart from the controller.  The changes the car would publish on
+	 * the event bus are held with them while {@link #isStepDeferred}.
+	 *
+	 * @see MotionEngine#setDeferred
+	 */
+	int[]   deferredActions;
+	int     deferredCount;
+	boolean isStepDeferred;
 
 	public Elevator(ElevatorControlSystem controlSystem)
 	{
 		this.controlSystem = controlSystem;
 
-		this.floors = new Floor[this.controlSystem.getFloorTop() + 1];
-		for (int index = 0; index < this.floors.length; ++index) {
-			this.floors[index] = new Floor();
+		this.scheduledFloors = new FloorSet(this.controlSystem.getFloorTop());
+		this.enabledFloors = new FloorSet(this.controlSystem.getFloorTop());
+		for (int floor = this.controlSystem.getFloorBottom();
+				floor <= this.controlSystem.getFloorTop(); ++floor) {
+			this.enabledFloors.add(floor);
 		}
+		this.stopRequestTimes = new int[this.controlSystem.getFloorTop() + 1];
+		Arrays.fill(this.stopRequestTimes, -1);
 
 		this.currentDirection = Direction.kIDLE;
 		this.currentFloor = this.controlSystem.getFloorBottom();
 		this.index = -1;
+		this.handle = DeviceRegistry.NONE;
+		this.carState = CarState.kIDLE;
+		this.position = 0;
+		this.speed = 0;
+		this.stateTicks = 0;
+		this.modificationCount = 0;
+		this.arrivalTime = 0;
+		this.arrivalModification = -1;
+		this.arrivalPosition = 0;
+		this.arrivalSpeed = 0;
+		this.parkingFloor = Scheduler.NONE;
+		this.waitingPassengers = new PassengerQueue();
+		this.riders = new PassengerQueue();
+		this.riderWaits = new PassengerQueue();
+		this.passengerDestinations = new int[this.controlSystem.getFloorTop() + 1];
+		this.capacity = DEFAULT_CAPACITY;
+		this.deferredActions = new int[8];
+		this.deferredCount = 0;
+		this.isStepDeferred = false;
+		this.setMotionProfile(MotionProfile.DEFAULT);
 	}
 
 
@@ -53,10 +173,137 @@ public class Elevator
 	 * @return The cost of moving the elevator, as an integer greater
 	 * than or equal to zero, where zero means no cost (such as the
 	 * elevator is already idle at the floor).
+	 *
+	 * @see #computeFloorCost(int, Direction)
 	 */
 	public int computeFloorCost(int floor)
 	{
-		return 0;
+		return this.computeFloorCost(floor, Direction.kIDLE);
+	}
+
+
+	/**
+	 * Computes the "cost" of answering a floor call: the estimated time,
+	 * in timestamp units, until this elevator arrives at the floor ready
+	 * to travel in the requested direction.
+	 *
+	 * <p>
+	 *     The estimate follows the car's sweep.  A call ahead of the car,
+	 *     in its direction of travel, is reached directly.  Otherwise the
+	 *     car first runs out to its farthest stop, turns, and comes back
+	 *     (turning twice if the caller wants to travel the car's current
+	 *     way, but is behind it).  Each floor travelled costs
+	 *     {@link #floorTime}, and each scheduled stop on the way costs
+	 *     {@link #stopTime}.
+	 * </p>
+	 *
+	 * <p>
+	 *     The stops on the way are counted from the schedule bitset, a
+	 *     word of 64 floors at a time, so the cost takes (nearly) constant
+	 *     time whatever the size of the building.
+	 * </p>
+	 *
+	 * @param floor
+	 * The floor of the call.
+	 *
+	 * @param direction
+	 * The direction the caller wants to travel, or {@link Direction#kIDLE}
+	 * if either will do.
+	 *
+	 * @return The estimated time of arrival, or {@link Integer#MAX_VALUE}
+	 * if this elevator does not serve the floor.
+	 */
+	public int computeFloorCost(int floor, Direction direction)
+	{
+		if (!this.isFloorEnabled(floor)) {
+			return Integer.MAX_VALUE;
+		}
+		return estimateArrival(this.scheduledFloors, this.currentFloor, this.getHeading(),
+				this.controlSystem.getFloorTop(), this.floorTime, this.stopTime, floor, direction);
+	}
+
+
+	/**
+	 * Estimates the time for a car to answer a floor call, as described
+	 * for {@link #computeFloorCost(int, Direction)}.  This works from
+	 * the car's state given piece by piece, so that it serves both live
+	 * cars and {@link CarSnapshot} copies.
+	 *
+	 * @return The estimated time of arrival.
+	 */
+	static int estimateArrival(FloorSet stops, int current, Direction heading, int top,
+			int floorTime, int stopTime, int floor, Direction direction)
+	{
+		int travel;
+		int stopCount;
+
+		switch (heading) {
+		case kUP:
+			if (floor >= current && direction != Direction.kDOWN) {
+				travel = floor - current;
+				stopCount = stops.count(current + 1, floor - 1);
+			}
+			else if (direction != Direction.kUP) {
+				int turn = Math.max(stops.previous(top), floor);
+				travel = (turn - current) + (turn - floor);
+				stopCount = stops.count(current + 1, turn) + stops.count(floor + 1, current - 1);
+			}
+			else {
+				int highest = stops.previous(top);
+				int turn = Math.min(stops.next(0), floor);
+				travel = (highest - current) + (highest - turn) + (floor - turn);
+				stopCount = stops.size();
+			}
+			break;
+
+		case kDOWN:
+			if (floor <= current && direction != Direction.kUP) {
+				travel = current - floor;
+				stopCount = stops.count(floor + 1, current - 1);
+			}
+			else if (direction != Direction.kDOWN) {
+				int turn = Math.min(stops.next(0), floor);
+				travel = (current - turn) + (floor - turn);
+				stopCount = stops.count(turn, current - 1) + stops.count(current + 1, floor - 1);
+			}
+			else {
+				int lowest = stops.next(0);
+				int turn = Math.max(stops.previous(top), floor);
+				travel = (current - lowest) + (turn - lowest) + (turn - floor);
+				stopCount = stops.size();
+			}
+			break;
+
+		default:
+			travel = Math.abs(floor - current);
+			stopCount = 0;
+			break;
+		}
+		return travel * floorTime + stopCount * stopTime;
+	}
+
+
+	FloorSet copyEnabledFloors()
+	{
+		return new FloorSet(this.enabledFloors);
+	}
+
+
+	FloorSet copyScheduledFloors()
+	{
+		return new FloorSet(this.scheduledFloors);
+	}
+
+
+	void copyScheduledFloors(FloorSet stops)
+	{
+		stops.copyFrom(this.scheduledFloors);
+	}
+
+
+	CarState getCarState()
+	{
+		return this.carState;
 	}
 
 
@@ -78,19 +325,99 @@ public class Elevator
 	}
 
 
+	/**
+	 * Gives the scheduled floors as a list.  This is a convenience that
+	 * allocates; frequent callers should use {@link #forEachScheduledFloor}
+	 * or {@link #nextScheduledFloor} instead.
+	 *
+	 * @return The scheduled floors, from the bottom up.
+	 */
 	public ArrayList<Integer> getFloorSchedule()
 	{
-		ArrayList<Integer> schedule = new ArrayList<>();
-		for (int index = this.controlSystem.getFloorBottom();
-				index <= this.controlSystem.getFloorTop(); ++index) {
-			if (this.floors[index].isScheduled) {
-				schedule.add(index);
-			}
-		}
+		ArrayList<Integer> schedule = new ArrayList<>(this.scheduledFloors.size());
+		this.scheduledFloors.forEach(schedule::add);
 		return schedule;
 	}
 
 
+	/**
+	 * Calls an action for each scheduled floor, from the bottom up,
+	 * without boxing the floor numbers.
+	 *
+	 * @param action
+	 * The action for each floor.
+	 */
+	public void forEachScheduledFloor(IntConsumer action)
+	{
+		this.scheduledFloors.forEach(action);
+	}
+
+
+	/**
+	 * Gives the direction in which this elevator will next travel,
+	 * judging by its schedule.  A car keeps its current direction while
+	 * it has stops ahead, and otherwise turns toward its other stops.
+	 *
+	 * @return The heading, or {@link Direction#kIDLE} if the car has
+	 * nowhere else to go.
+	 */
+	Direction getHeading()
+	{
+		return findHeading(this.scheduledFloors, this.currentFloor, this.currentDirection);
+	}
+
+
+	/**
+	 * Gives the heading of a car with the given stops, as described
+	 * for {@link #getHeading}.
+	 *
+	 * @return The heading, or {@link Direction#kIDLE} if there are no
+	 * stops but the current floor.
+	 */
+	static Direction findHeading(FloorSet stops, int current, Direction direction)
+	{
+		boolean hasAbove = stops.next(current + 1) >= 0;
+		boolean hasBelow = stops.previous(current - 1) >= 0;
+
+		if (direction == Direction.kUP && hasAbove) {
+			return Direction.kUP;
+		}
+		if (direction == Direction.kDOWN && hasBelow) {
+			return Direction.kDOWN;
+		}
+		if (hasAbove) {
+			return Direction.kUP;
+		}
+		return hasBelow ? Direction.kDOWN : Direction.kIDLE;
+	}
+
+
+	/**
+	 * Gives the next stop ahead of this elevator, in the direction
+	 * it will next travel (see {@link #getHeading}).
+	 *
+	 * @return The nearest scheduled floor ahead, or -1 if the car
+	 * has nowhere else to go.
+	 */
+	public int getNextStop()
+	{
+		switch (this.getHeading()) {
+		case kUP:
+			return this.scheduledFloors.next(this.currentFloor + 1);
+		case kDOWN:
+			return this.scheduledFloors.previous(this.currentFloor - 1);
+		default:
+			return -1;
+		}
+	}
+
+
+	public int getStopCount()
+	{
+		return this.scheduledFloors.size();
+	}
+
+
 	int getIndex()
 	{
 		return this.index;
@@ -108,46 +435,325 @@ public class Elevator
 	}
 
 
+	@Override
+	public int getDeviceHandle()
+	{
+		return this.handle;
+	}
+
+
+	@Override
+	public void setDeviceHandle(int handle)
+	{
+		this.handle = handle;
+	}
+
+
+	public boolean isFloorEnabled(int floor)
+	{
+		return floor >= this.controlSystem.getFloorBottom()
+				&& floor <= this.controlSystem.getFloorTop()
+				&& this.enabledFloors.contains(floor);
+	}
+
+
+	public boolean isFloorScheduled(int floor)
+	{
+		return this.scheduledFloors.contains(floor);
+	}
+
+
+	/**
+	 * Finds the lowest scheduled floor at or above a given floor.
+	 * Together with {@link #previousScheduledFloor}, this walks the
+	 * schedule without allocating:
+	 *
+	 * {@code
+	 * for (f = e.nextScheduledFloor(1); f >= 0; f = e.nextScheduledFloor(f + 1))
+	 * }
+	 *
+	 * @param from
+	 * The floor to start from.
+	 *
+	 * @return The floor found, or -1 if there is none.
+	 */
+	public int nextScheduledFloor(int from)
+	{
+		return this.scheduledFloors.next(from);
+	}
+
+
+	/**
+	 * Finds the highest scheduled floor at or below a given floor.
+	 *
+	 * @param from
+	 * The floor to start from.
+	 *
+	 * @return The floor found, or -1 if there is none.
+	 */
+	public int previousScheduledFloor(int from)
+	{
+		return this.scheduledFloors.previous(from);
+	}
+
+
+	/**
+	 * Allows or forbids this elevator to serve a floor.  Disabling a
+	 * floor does not clear a stop already scheduled there.
+	 *
+	 * @param floor
+	 * The floor to change.
+	 *
+	 * @param isEnabled
+	 * True if the elevator may serve the floor.
+	 */
+	public void setIsFloorEnabled(int floor, boolean isEnabled)
+	{
+		boolean isChanged = isEnabled
+				? this.enabledFloors.add(floor)
+				: this.enabledFloors.remove(floor);
+		if (isChanged) {
+			++this.modificationCount;
+			if (this.isStepDeferred) {
+				this.defer(isEnabled ? MotionEngine.PUBLISH_ENABLED : MotionEngine.PUBLISH_DISABLED, floor);
+			}
+			else {
+				this.controlSystem.eventBus.publishFloorEnabledChanged(this, floor, isEnabled);
+			}
+		}
+	}
+
+
 	public void setIsFloorSchedule(int floor, boolean isScheduled)
 	{
-		if (this.floors[floor].isScheduled != isScheduled) {
-			this.floors[floor].isScheduled = isScheduled;
-			this.setChanged();
-			this.notifyObservers();
+		if (isScheduled && this.parkingFloor != Scheduler.NONE) {
+			int parkingFloor = this.parkingFloor;
+			this.parkingFloor = Scheduler.NONE;
+			if (parkingFloor != floor) {
+				this.setIsFloorSchedule(parkingFloor, false);
+			}
+		}
+
+		boolean isChanged = isScheduled
+				? this.scheduledFloors.add(floor)
+				: this.scheduledFloors.remove(floor);
+		if (isChanged) {
+			++this.modificationCount;
+			if (this.isStepDeferred) {
+				this.defer(isScheduled ? MotionEngine.PUBLISH_SCHEDULED : MotionEngine.PUBLISH_UNSCHEDULED, floor);
+			}
+			else {
+				this.controlSystem.eventBus.publishScheduleChanged(this, floor, isScheduled);
+			}
 		}
 	}
 
 
+	/**
+	 * Sends this car, idle, to wait at a floor.
+	 *
+	 * @param floor
+	 * The floor.
+	 */
+	void park(int floor)
+	{
+		this.setIsFloorSchedule(floor, true);
+		this.parkingFloor = floor;
+	}
+
+
+	/**
+	 * Places this car, at rest, at a floor.  This is meant for setting
+	 * up a simulation; the schedule is not changed.
+	 *
+	 * @param floor
+	 * The floor.
+	 */
+	void setCurrentFloor(int floor)
+	{
+		this.currentFloor = floor;
+		this.position = (floor - this.controlSystem.getFloorBottom()) * this.profile.floorHeight;
+		this.speed = 0;
+	}
+
+
 	public void setIndex(int index)
 	{
 		this.index = index;
 	}
 
 
+	public int getCapacity()
+	{
+		return this.capacity;
+	}
+
+
+	/**
+	 * Gives the number of passengers in the car.
+	 */
+	public int getLoad()
+	{
+		return this.riders.size();
+	}
+
+
+	/**
+	 * Tells whether the car can take no more passengers.
+	 */
+	public boolean isFull()
+	{
+		return this.riders.size() >= this.capacity;
+	}
+
+
+	/**
+	 * Sets the number of passengers the car can hold.
+	 *
+	 * @param capacity
+	 * The capacity, at least 1.
+	 */
+	public void setCapacity(int capacity)
+	{
+		this.capacity = capacity;
+	}
+
+
+	/**
+	 * Sets the physical characteristics of this car, and with them the
+	 * timing used to estimate its arrival at a floor.
+	 *
+	 * @param profile
+	 * The new profile.  It should be set while the car is at rest.
+	 */
+	public void setMotionProfile(MotionProfile profile)
+	{
+		this.profile = profile;
+		this.floorTime = profile.getFloorTicks();
+		this.stopTime = profile.getStopTicks();
+		this.position = (this.currentFloor - this.controlSystem.getFloorBottom()) * profile.floorHeight;
+	}
+
+
+	/**
+	 * Holds an action of a deferred step until the car is flushed.
+	 *
+	 * @see MotionEngine#flush
+	 */
+	void defer(int action, int value)
+	{
+		if (this.deferredCount + 2 > this.deferredActions.length) {
+			this.deferredActions = Arrays.copyOf(this.deferredActions, 2 * this.deferredActions.length);
+		}
+		this.deferredActions[this.deferredCount++] = action;
+		this.deferredActions[this.deferredCount++] = value;
+	}
+
+
+	/**
+	 * Writes the state of this car, for a {@link Checkpoint}: its place,
+	 * motion and doors, its schedule and enabled floors, the stops
+	 * requested inside, and its passengers.  The car must not be in the
+	 * middle of a deferred step.
+	 */
+	void writeState(DataOutput out)
+			throws IOException
+	{
+		int requestCount = 0;
+
+		out.writeInt(this.currentFloor);
+		out.writeByte(this.currentDirection.ordinal());
+		out.writeByte(this.carState.ordinal());
+		out.writeInt(this.position);
+		out.writeInt(this.speed);
+		out.writeInt(this.stateTicks);
+		out.writeInt(this.parkingFloor);
+		out.writeInt(this.capacity);
+		this.scheduledFloors.writeTo(out);
+		this.enabledFloors.writeTo(out);
+		for (int time: this.stopRequestTimes) {
+			if (time >= 0) {
+				++requestCount;
+			}
+		}
+		out.writeInt(requestCount);
+		for (int floor = 0; floor < this.stopRequestTimes.length; ++floor) {
+			if (this.stopRequestTimes[floor] >= 0) {
+				out.writeInt(floor);
+				out.writeInt(this.stopRequestTimes[floor]);
+			}
+		}
+		this.waitingPassengers.writeTo(out);
+		this.riders.writeTo(out);
+		this.riderWaits.writeTo(out);
+	}
+
+
+	/**
+	 * Replaces the state of this car with one written by
+	 * {@link #writeState}.  The count of passengers bound for each floor
+	 * is worked out again.
+	 */
+	void readState(DataInput in)
+			throws IOException
+	{
+		this.currentFloor = in.readInt();
+		this.currentDirection = Direction.values()[in.readByte()];
+		this.carState = CarState.values()[in.readByte()];
+		this.position = in.readInt();
+		this.speed = in.readInt();
+		this.stateTicks = in.readInt();
+		this.parkingFloor = in.readInt();
+		this.capacity = in.readInt();
+		this.scheduledFloors.readFrom(in);
+		this.enabledFloors.readFrom(in);
+		Arrays.fill(this.stopRequestTimes, -1);
+		for (int count = in.readInt(); count > 0; --count) {
+			int floor = in.readInt();
+			this.stopRequestTimes[floor] = in.readInt();
+		}
+		this.waitingPassengers.readFrom(in);
+		this.riders.readFrom(in);
+		this.riderWaits.readFrom(in);
+		Arrays.fill(this.passengerDestinations, 0);
+		for (int j = 0; j < this.waitingPassengers.size(); ++j) {
+			++this.passengerDestinations[Passenger.getDestination(this.waitingPassengers.get(j))];
+		}
+		for (int j = 0; j < this.riders.size(); ++j) {
+			++this.passengerDestinations[Passenger.getDestination(this.riders.get(j))];
+		}
+		this.deferredCount = 0;
+		++this.modificationCount;
+	}
+
+
 	@Override
 	public void triggerDeviceChange(Stimulus stimulus)
 	{
-		System.out.printf("%s: trigger %s%n", this.identity, stimulus);
+		if (this.controlSystem.isVerbose()) {
+			this.controlSystem.getTrace().stimulus(this.identity, stimulus);
+		}
 		switch (stimulus.type) {
 		case GoToFloor:
-			this.setIsFloorSchedule(stimulus.floor, true);
+			if (this.isFloorEnabled(stimulus.floor)) {
+				if (this.stopRequestTimes[stimulus.floor] < 0) {
+					this.stopRequestTimes[stimulus.floor] = this.controlSystem.getCurrentTime();
+				}
+				this.setIsFloorSchedule(stimulus.floor, true);
+			}
 			break;
 
-		default:
+		case CarArrived:
+		case DoorsClosed:
+			this.controlSystem.parkIdleCar(this);
 			break;
-		}
-	}
-
 
-	private class Floor
-	{
-		boolean isEnabled;
-		boolean isScheduled;
+		case CarDeparted:
+			this.controlSystem.recallPassengers(this, stimulus.floor);
+			break;
 
-		Floor()
-		{
-			this.isEnabled = true;
-			this.isScheduled = false;
+		default:
+			break;
 		}
 	}
 }
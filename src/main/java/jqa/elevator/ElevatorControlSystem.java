@@ -1,10 +1,16 @@
 package jqa.elevator;
 
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
 
 
 /**
@@ -46,10 +52,54 @@ import java.util.concurrent.PriorityBlockingQueue;
  */
 public class ElevatorControlSystem
 {
+	/**
+	 * The length of a day, in ticks, for schedulers that change with
+	 * the time of day.
+	 */
+	public static final int TICKS_PER_DAY = 24 * 60 * 60 * MotionProfile.TICKS_PER_SECOND;
+
 	private int floorCount;
 	ArrayList<Elevator>        elevators;
 	ArrayList<FloorCallButton> floorCallButtons;
 
+	/**
+	 * The call button on each floor, indexed by floor.
+	 */
+	private FloorCallButton[] floorCallButtonsByFloor;
+
+	/**
+	 * The destination kiosk of each floor that has one, indexed by
+	 * floor.  The passengers who have used them wait in the queues of
+	 * the cars chosen for them.
+	 */
+	private DestinationKiosk[] destinationKiosksByFloor;
+
+	/**
+	 * The passengers waiting at the call buttons, in the order they
+	 * arrived, indexed by {@code 2 * floor} plus one for up.  A queue
+	 * is made for a floor when the first passenger comes.
+	 *
+	 * @see #passengerArrived
+	 */
+	private PassengerQueue[] hallPassengers;
+
+	/**
+	 * Holds the passengers from kiosks being given another car.
+	 *
+	 * @see #recallPassengers
+	 */
+	private PassengerQueue recalledPassengers;
+
+	/**
+	 * The simulation clock, in ticks, and the engine that moves the
+	 * cars on each tick.
+	 *
+	 * @see #tick
+	 */
+	private int          currentTime;
+	private long         tickCount;
+	private MotionEngine motionEngine;
+
 	/**
 	 * The internal queue that gathers incoming {@link Stimulus}.
 	 * The controller orders the items by time, distributes the items to the
@@ -58,7 +108,7 @@ public class ElevatorControlSystem
 	 *
 	 * <p>
 	 *     Note that {@link Stimulus} objects are comparable, using the
-	 *     timestamp as the primary key.  Moreover, the priority queue
+	 *     timestamp as the primary key.  Moreover, the queue
 	 *     orders its objects with increasing values, ensuring items with
 	 *     lower timestamps are handled first.
 	 * </p>
@@ -66,45 +116,241 @@ public class ElevatorControlSystem
 	 * @see #addStimulus
 	 * @see #stepStimulus
 	 */
-	private PriorityBlockingQueue<Stimulus> stimuliQueue;
+	private StimulusQueue stimuliQueue;
 
 	/**
-	 * Maps the names to the objects for all {@link StandaloneDevice}
-	 * objects in the system.  The simulator uses the map to distribute
+	 * Holds all the {@link StandaloneDevice} objects in the system, by
+	 * handle.  The simulator uses the handles to distribute
 	 * {@link Stimulus} objects to the appropriate destinations.
 	 */
-	HashMap<String, StandaloneDevice> deviceMap;
+	DeviceRegistry deviceRegistry;
+
+	/**
+	 * Publishes the changes to the devices.
+	 */
+	EventBus eventBus;
+
+	/**
+	 * Chooses the elevator for each new floor call.
+	 *
+	 * @see #pickup
+	 */
+	private Dispatcher dispatcher;
+
+	/**
+	 * Chooses the elevator for each passenger at a destination kiosk.
+	 *
+	 * @see #destinationCall
+	 */
+	private DestinationDispatcher destinationDispatcher;
+
+	/**
+	 * Moves the floor calls among the cars now and then, or null to
+	 * leave them where the dispatcher put them.
+	 *
+	 * @see #setCallOptimizer
+	 */
+	private CallOptimizer callOptimizer;
+
+	/**
+	 * The forecast of the calls by time of day, or null.  A forecast the
+	 * controller owns learns from every stimulus handled; one shared
+	 * from another controller is only read.
+	 *
+	 * @see #setDemandForecast
+	 */
+	private DemandForecast demandForecast;
+	private boolean        isForecastShared;
+
+	/**
+	 * Chooses where idle cars wait, or null to leave them where they
+	 * stop.  The active scheduler is either set outright or taken from
+	 * the timetable, keyed by the time of day it starts; it changes at
+	 * {@link #nextSchedulerChange}.  Every scheduler held hears of every
+	 * call.
+	 *
+	 * @see #setScheduler(Scheduler)
+	 * @see #setScheduler(int, Scheduler)
+	 */
+	private Scheduler                   scheduler;
+	private TreeMap<Integer, Scheduler> schedulerTimetable;
+	private ArrayList<Scheduler>        schedulers;
+	private int                         nextSchedulerChange;
+
+	/**
+	 * The elevator assigned to each floor's up and down calls,
+	 * indexed by floor, or null if there is no call.
+	 */
+	private Elevator[] upCallAssignments;
+	private Elevator[] downCallAssignments;
+
+	/**
+	 * The time each floor call was placed, indexed by floor, for
+	 * measuring waiting times.
+	 */
+	private int[] upCallTimes;
+	private int[] downCallTimes;
+
+	/**
+	 * The observer of the service given, if any.
+	 */
+	private ServiceListener serviceListener;
+
+	/**
+	 * The log of the stimuli the devices receive, or null until one is
+	 * set or logging is turned on.
+	 */
+	private Trace trace;
+
+	/**
+	 * Running totals for the floor calls dispatched so far: the
+	 * number of calls, the estimated waits at the time of assignment,
+	 * and the time spent choosing the elevators.
+	 */
+	private long assignmentCount;
+	private long estimatedWaitTotal;
+	private long assignmentNanos;
+
+	/**
+	 * The number of stimuli handed to devices so far, external and
+	 * reported by the cars, and the sequence number for the next
+	 * stimulus taken in.
+	 */
+	private long stimulusCount;
+	private long nextSequence;
+
+	/**
+	 * Records, or checks, every stimulus handled and every decision
+	 * made, or null.
+	 *
+	 * @see #setJournal
+	 */
+	private DecisionJournal journal;
+
+	/**
+	 * The optional external source of stimuli, read lazily as the
+	 * simulation runs.  At most {@link #lookAheadSize} items from the
+	 * source are held at once, in {@link #lookAhead}, where they are
+	 * reordered by time and merged with the internal queue.
+	 *
+	 * @see #setStimulusSource
+	 */
+	private StimulusSource stimulusSource;
+	private int            lookAheadSize;
+
+	private PriorityQueue<Stimulus> lookAhead;
+
+	/**
+	 * Stimulus objects owned by the controller (look-ahead items and
+	 * car reports) already handled, kept for reuse so that neither
+	 * streaming a source nor moving the cars allocates per stimulus.
+	 */
+	private ArrayDeque<Stimulus> spareStimuli;
+
+	/**
+	 * The last item taken from the look-ahead window, used to detect
+	 * source items that arrive too far out of order.
+	 */
+	private Stimulus lastExternal;
 
 
 	public ElevatorControlSystem(int floorCount)
+	{
+		this(floorCount, new CalendarStimulusQueue());
+	}
+
+
+	/**
+	 * Creates a controller with a specific kind of stimulus queue.
+	 *
+	 * @param floorCount
+	 * The number of floors in the building.
+	 *
+	 * @param stimuliQueue
+	 * The empty queue to hold the pending stimuli.  By default, this is
+	 * a {@link CalendarStimulusQueue}.
+	 */
+	public ElevatorControlSystem(int floorCount, StimulusQueue stimuliQueue)
 	{
 		this.floorCount = floorCount;
 		this.elevators = new ArrayList<>();
 		this.floorCallButtons = new ArrayList<>();
-		this.deviceMap = new HashMap<>();
-		this.stimuliQueue = new PriorityBlockingQueue<>();
+		this.floorCallButtonsByFloor = new FloorCallButton[floorCount + 1];
+		this.destinationKiosksByFloor = new DestinationKiosk[floorCount + 1];
+		this.hallPassengers = new PassengerQueue[2 * (floorCount + 1)];
+		this.recalledPassengers = new PassengerQueue();
+		this.currentTime = 0;
+		this.tickCount = 0;
+		this.motionEngine = new MotionEngine(this);
+		this.deviceRegistry = new DeviceRegistry();
+		this.eventBus = new EventBus();
+		this.stimuliQueue = stimuliQueue;
+		this.lookAhead = new PriorityQueue<>();
+		this.spareStimuli = new ArrayDeque<>();
+		this.lastExternal = null;
+		this.dispatcher = new CostDispatcher(this);
+		this.destinationDispatcher = new BatchingDispatcher(this);
+		this.scheduler = null;
+		this.schedulerTimetable = new TreeMap<>();
+		this.schedulers = new ArrayList<>();
+		this.nextSchedulerChange = Integer.MAX_VALUE;
+		this.upCallAssignments = new Elevator[floorCount + 1];
+		this.downCallAssignments = new Elevator[floorCount + 1];
+		this.upCallTimes = new int[floorCount + 1];
+		this.downCallTimes = new int[floorCount + 1];
+		this.serviceListener = null;
+		this.trace = null;
+		this.assignmentCount = 0;
+		this.estimatedWaitTotal = 0;
+		this.assignmentNanos = 0;
+		this.stimulusCount = 0;
+		this.nextSequence = 0;
+		this.journal = null;
 	}
 
 
+	/**
+	 * Adds an elevator to the system.  An elevator without an identity
+	 * is named {@code E-} and its index.
+	 *
+	 * @param elevator
+	 * The new elevator.
+	 */
 	public void addElevator(Elevator elevator)
 	{
 		int index = this.elevators.size();
-		elevator.setDeviceIdentity(String.format("E-%d", index));
+		if (elevator.getDeviceIdentity() == null) {
+			elevator.setDeviceIdentity("E-" + index);
+		}
 		elevator.setIndex(index);
 		this.elevators.add(index, elevator);
-		this.deviceMap.put(elevator.getDeviceIdentity(), elevator);
+		this.deviceRegistry.register(elevator);
 	}
 
 
 	public void addFloorCallButton(FloorCallButton floorCallButton)
 	{
 		this.floorCallButtons.add(floorCallButton);
-		this.deviceMap.put(floorCallButton.getDeviceIdentity(), floorCallButton);
+		this.floorCallButtonsByFloor[floorCallButton.getFloor()] = floorCallButton;
+		this.deviceRegistry.register(floorCallButton);
+	}
+
+
+	/**
+	 * Adds a destination kiosk to the system.
+	 *
+	 * @param kiosk
+	 * The new kiosk.
+	 */
+	public void addDestinationKiosk(DestinationKiosk kiosk)
+	{
+		this.destinationKiosksByFloor[kiosk.getFloor()] = kiosk;
+		this.deviceRegistry.register(kiosk);
 	}
 
 
 	/**
-	 * Adds one stimulus item to the priority queue, ordered by
+	 * Adds one stimulus item to the queue, ordered by
 	 * timestamp in increasing order.
 	 *
 	 * @param stimulus
@@ -114,7 +360,132 @@ public class ElevatorControlSystem
 	 */
 	public void addStimulus(Stimulus stimulus)
 	{
-		this.stimuliQueue.put(stimulus);
+		this.resolveDevice(stimulus);
+		stimulus.sequence = this.nextSequence++;
+		this.stimuliQueue.add(stimulus);
+	}
+
+
+	/**
+	 * Queues a stimulus reported by the system itself, such as a car
+	 * arriving at a floor.  The object comes from the controller's pool
+	 * and goes back to it once handled.
+	 *
+	 * @param timestamp
+	 * The time of the event.
+	 *
+	 * @param type
+	 * The kind of event.
+	 *
+	 * @param device
+	 * The device reporting the event, which also receives it.
+	 *
+	 * @param floor
+	 * The floor of the event.
+	 */
+	void emitStimulus(int timestamp, Stimulus.StimulusType type, StandaloneDevice device, int floor)
+	{
+		Stimulus stimulus = this.allocateStimulus();
+		stimulus.timestamp = timestamp;
+		stimulus.deviceIdentity = device.getDeviceIdentity();
+		stimulus.deviceHandle = device.getDeviceHandle();
+		stimulus.type = type;
+		stimulus.floor = floor;
+		stimulus.sequence = this.nextSequence++;
+		this.stimuliQueue.add(stimulus);
+	}
+
+
+	private Stimulus allocateStimulus()
+	{
+		Stimulus stimulus = this.spareStimuli.poll();
+		if (stimulus == null) {
+			stimulus = new Stimulus();
+			stimulus.isPooled = true;
+		}
+		return stimulus;
+	}
+
+
+	/**
+	 * Gives the elevator assigned to a floor call.
+	 *
+	 * @param floor
+	 * The floor of the call.
+	 *
+	 * @param direction
+	 * The direction of the call, up or down.
+	 *
+	 * @return The assigned elevator, or null if there is no such call.
+	 */
+	public Elevator getAssignedElevator(int floor, Direction direction)
+	{
+		if (direction == Direction.kUP) {
+			return this.upCallAssignments[floor];
+		}
+		if (direction == Direction.kDOWN) {
+			return this.downCallAssignments[floor];
+		}
+		return null;
+	}
+
+
+	/**
+	 * Gives the time a floor call was placed, for a call that is
+	 * assigned.
+	 */
+	int getCallTime(int floor, Direction direction)
+	{
+		return direction == Direction.kUP ? this.upCallTimes[floor] : this.downCallTimes[floor];
+	}
+
+
+	public long getAssignmentCount()
+	{
+		return this.assignmentCount;
+	}
+
+
+	/**
+	 * Gives the mean time the dispatcher took to choose an elevator.
+	 * Calls that no elevator serves count neither in the time nor in
+	 * the number of calls, as the service listener never hears of them.
+	 *
+	 * @return The mean assignment latency in nanoseconds, or zero
+	 * if there have been no calls.
+	 */
+	public double getMeanAssignmentNanos()
+	{
+		if (this.assignmentCount == 0) {
+			return 0;
+		}
+		return (double)this.assignmentNanos / this.assignmentCount;
+	}
+
+
+	/**
+	 * Gives the mean estimated wait of the calls dispatched so far,
+	 * as costed by the chosen elevators at the time of assignment.
+	 *
+	 * @return The mean estimated wait in timestamp units, or zero
+	 * if there have been no calls.
+	 */
+	public double getMeanEstimatedWait()
+	{
+		if (this.assignmentCount == 0) {
+			return 0;
+		}
+		return (double)this.estimatedWaitTotal / this.assignmentCount;
+	}
+
+
+	/**
+	 * Gives the number of stimuli handled so far, including those the
+	 * cars report about themselves.
+	 */
+	public long getStimulusCount()
+	{
+		return this.stimulusCount;
 	}
 
 
@@ -137,6 +508,51 @@ public class ElevatorControlSystem
 	}
 
 
+	/**
+	 * Gives the bus on which the devices publish their changes.
+	 *
+	 * @return The event bus.
+	 */
+	public EventBus getEventBus()
+	{
+		return this.eventBus;
+	}
+
+
+	/**
+	 * Gives the call button of a floor.
+	 *
+	 * @param floor
+	 * The floor.
+	 *
+	 * @return The floor's call button, or null if it has none.
+	 */
+	public FloorCallButton getFloorCallButton(int floor)
+	{
+		if (floor < this.getFloorBottom() || floor > this.getFloorTop()) {
+			return null;
+		}
+		return this.floorCallButtonsByFloor[floor];
+	}
+
+
+	/**
+	 * Gives the destination kiosk of a floor.
+	 *
+	 * @param floor
+	 * The floor.
+	 *
+	 * @return The floor's kiosk, or null if it has none.
+	 */
+	public DestinationKiosk getDestinationKiosk(int floor)
+	{
+		if (floor < this.getFloorBottom() || floor > this.getFloorTop()) {
+			return null;
+		}
+		return this.destinationKiosksByFloor[floor];
+	}
+
+
 	public Collection<FloorCallButton> getFloorCallButtons()
 	{
 		return this.floorCallButtons;
@@ -154,9 +570,20 @@ public class ElevatorControlSystem
 	}
 
 
+	/**
+	 * Gives the simulation clock: the time of the next tick.
+	 *
+	 * @return The current time, in ticks.
+	 */
+	public int getCurrentTime()
+	{
+		return this.currentTime;
+	}
+
+
 	public int getNextTimestamp()
 	{
-		Stimulus stimulus = this.stimuliQueue.peek();
+		Stimulus stimulus = this.peekStimulus();
 		if (stimulus == null) {
 			return -1;
 		}
@@ -166,30 +593,1408 @@ public class ElevatorControlSystem
 
 	public boolean hasStimuli()
 	{
-		return this.stimuliQueue.size() > 0;
+		return this.peekStimulus() != null;
 	}
 
+
 	/**
-	 * Runs the control system forward one step.  The next
-	 * stimulus item is removed from the priority queue, handed
-	 * to the associated device object.  That object in turn will
-	 * cause its own activity, stimulating other objects, and perhaps
-	 * creating additional stimuli for the queue.
+	 * Handles a new floor call: the dispatcher chooses an elevator,
+	 * and the floor goes on that elevator's schedule.  A call that no
+	 * elevator can serve is reported and dropped.
+	 *
+	 * @param floor
+	 * The floor of the call.
+	 *
+	 * @param direction
+	 * The direction the caller wants to travel, up or down.
 	 */
-	public void stepStimulus()
+	public void pickup(int floor, Direction direction)
 	{
-		Stimulus stimulus;
-		StandaloneDevice device;
+		long start = System.nanoTime();
+		Elevator elevator = this.dispatcher.assignCall(floor, direction);
+		long latency = System.nanoTime() - start;
 
-		stimulus = this.stimuliQueue.poll();
-		if (stimulus == null) {
+		if (elevator == null) {
+			if (this.journal != null) {
+				this.journal.callAssigned(this.currentTime, floor, direction, null, 0);
+			}
+			System.err.printf("*** No elevator serves floor %d%n", floor);
 			return;
 		}
-		device = this.deviceMap.get(stimulus.deviceIdentity);
-		if (device == null) {
-			System.err.printf("*** Unknown ID: %s%n", stimulus);
+		int cost = elevator.computeFloorCost(floor, direction);
+		++this.assignmentCount;
+		this.assignmentNanos += latency;
+		this.estimatedWaitTotal += cost;
+		if (this.journal != null) {
+			this.journal.callAssigned(this.currentTime, floor, direction, elevator, cost);
+		}
+		if (this.serviceListener != null) {
+			this.serviceListener.callAssigned(this.currentTime, floor, direction, elevator, latency);
+		}
+		for (int j = 0; j < this.schedulers.size(); ++j) {
+			this.schedulers.get(j).callPlaced(this.currentTime, floor, direction);
+		}
+		if (direction == Direction.kUP) {
+			this.upCallAssignments[floor] = elevator;
+			this.upCallTimes[floor] = this.currentTime;
+		}
+		else {
+			this.downCallAssignments[floor] = elevator;
+			this.downCallTimes[floor] = this.currentTime;
+		}
+		elevator.setIsFloorSchedule(floor, true);
+	}
+
+
+	/**
+	 * Handles a passenger entering a destination at a kiosk: the
+	 * destination dispatcher chooses a car, which comes to the
+	 * passenger's floor.  The destination goes on the car's schedule
+	 * when the passenger boards.  A trip that no elevator can make is
+	 * reported and dropped.
+	 *
+	 * @param origin
+	 * The floor of the kiosk.
+	 *
+	 * @param destination
+	 * The floor the passenger wants.
+	 *
+	 * @return The car chosen, or null if there is none.
+	 */
+	public Elevator destinationCall(int origin, int destination)
+	{
+		if (destination == origin || destination < this.getFloorBottom() || destination > this.getFloorTop()) {
+			System.err.printf("*** Bad destination %d at floor %d%n", destination, origin);
+			return null;
+		}
+
+		Elevator elevator = this.dispatchPassenger(Passenger.pack(this.currentTime, origin, destination));
+		if (elevator != null) {
+			Direction direction = destination > origin ? Direction.kUP : Direction.kDOWN;
+			for (int j = 0; j < this.schedulers.size(); ++j) {
+				this.schedulers.get(j).callPlaced(this.currentTime, origin, direction);
+			}
+		}
+		return elevator;
+	}
+
+
+	/**
+	 * Has the destination dispatcher choose a car for a passenger, and
+	 * puts the passenger in the car's queue.
+	 *
+	 * @return The car chosen, or null if there is none.
+	 */
+	private Elevator dispatchPassenger(long passenger)
+	{
+		int origin = Passenger.getOrigin(passenger);
+		int destination = Passenger.getDestination(passenger);
+		long start = System.nanoTime();
+		Elevator elevator = this.destinationDispatcher.assignPassenger(origin, destination);
+		long latency = System.nanoTime() - start;
+
+		if (elevator == null) {
+			if (this.journal != null) {
+				this.journal.passengerAssigned(this.currentTime, origin, destination, null, 0);
+			}
+			System.err.printf("*** No elevator serves floors %d and %d%n", origin, destination);
+			return null;
+		}
+		int cost = elevator.computeFloorCost(origin, Passenger.getDirection(passenger));
+		++this.assignmentCount;
+		this.assignmentNanos += latency;
+		this.estimatedWaitTotal += cost;
+		if (this.journal != null) {
+			this.journal.passengerAssigned(this.currentTime, origin, destination, elevator, cost);
+		}
+		if (this.serviceListener != null) {
+			this.serviceListener.callAssigned(this.currentTime, origin, Passenger.getDirection(passenger), elevator,
+					latency);
+		}
+		elevator.waitingPassengers.add(passenger);
+		++elevator.passengerDestinations[destination];
+		elevator.setIsFloorSchedule(origin, true);
+		return elevator;
+	}
+
+
+	/**
+	 * Handles a passenger arriving at a floor's call button: they join
+	 * the queue for their way and press the button, if it is not lit.
+	 * When a car going their way stops at the floor, they board as long
+	 * as there is room, and their destination goes on its schedule.
+	 *
+	 * @param origin
+	 * The floor of the call button.
+	 *
+	 * @param destination
+	 * The floor the passenger wants.
+	 */
+	public void passengerArrived(int origin, int destination)
+	{
+		FloorCallButton button = this.getFloorCallButton(origin);
+
+		if (destination == origin || destination < this.getFloorBottom() || destination > this.getFloorTop()) {
+			System.err.printf("*** Bad destination %d at floor %d%n", destination, origin);
+			return;
+		}
+		if (button == null) {
+			System.err.printf("*** No call button at floor %d%n", origin);
 			return;
 		}
+
+		int queue = 2 * origin + (destination > origin ? 1 : 0);
+		if (this.hallPassengers[queue] == null) {
+			this.hallPassengers[queue] = new PassengerQueue();
+		}
+		this.hallPassengers[queue].add(Passenger.pack(this.currentTime, origin, destination));
+		if (destination > origin) {
+			button.setUp(true);
+		}
+		else {
+			button.setDown(true);
+		}
+	}
+
+
+	/**
+	 * Tells whether a car has passengers waiting for it at a floor.
+	 *
+	 * @param direction
+	 * The direction of the passengers, or {@link Direction#kIDLE}
+	 * for either.
+	 */
+	private boolean hasWaitingPassengers(Elevator elevator, int floor, Direction direction)
+	{
+		PassengerQueue queue = elevator.waitingPassengers;
+
+		for (int j = 0; j < queue.size(); ++j) {
+			long passenger = queue.get(j);
+			if (Passenger.getOrigin(passenger) == floor
+					&& (direction == Direction.kIDLE || Passenger.getDirection(passenger) == direction)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	/**
+	 * Tells whether a car must stop at a floor for a reason of its own,
+	 * whatever floor calls it has there: a stop requested in the car,
+	 * a rider or passenger from a kiosk bound there, or passengers from
+	 * kiosks waiting there.
+	 */
+	boolean hasOwnStop(Elevator elevator, int floor)
+	{
+		return elevator.stopRequestTimes[floor] >= 0 || elevator.passengerDestinations[floor] > 0
+				|| this.hasWaitingPassengers(elevator, floor, Direction.kIDLE);
+	}
+
+
+	/**
+	 * Moves a floor call to another car.  The old car keeps its stop at
+	 * the floor only if it needs it for something else.
+	 *
+	 * @param floor
+	 * The floor of the call.
+	 *
+	 * @param direction
+	 * The direction of the call, up or down.
+	 *
+	 * @param elevator
+	 * The car to answer the call.
+	 */
+	void reassignCall(int floor, Direction direction, Elevator elevator)
+	{
+		Elevator[] assignments = direction == Direction.kUP ? this.upCallAssignments : this.downCallAssignments;
+		Elevator previous = assignments[floor];
+
+		if (previous == null || previous == elevator) {
+			return;
+		}
+		assignments[floor] = elevator;
+		if (this.upCallAssignments[floor] != previous && this.downCallAssignments[floor] != previous
+				&& !this.hasOwnStop(previous, floor)) {
+			previous.setIsFloorSchedule(floor, false);
+		}
+		if (this.journal != null) {
+			this.journal.callAssigned(this.currentTime, floor, direction, elevator,
+					elevator.computeFloorCost(floor, direction));
+		}
+		elevator.setIsFloorSchedule(floor, true);
+		FloorCallButton button = this.getFloorCallButton(floor);
+		if (button != null) {
+			this.eventBus.publishCallReassigned(button, direction, elevator);
+		}
+	}
+
+
+	/**
+	 * Tells whether any floor call is waiting for a car.
+	 */
+	private boolean hasFloorCalls()
+	{
+		for (int floor = this.getFloorBottom(); floor <= this.getFloorTop(); ++floor) {
+			if (this.upCallAssignments[floor] != null || this.downCallAssignments[floor] != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	/**
+	 * Tells whether passengers are waiting at a floor's call button to
+	 * go one way.
+	 */
+	private boolean hasHallPassengers(int floor, Direction direction)
+	{
+		PassengerQueue queue = this.hallPassengers[2 * floor + (direction == Direction.kUP ? 1 : 0)];
+
+		return queue != null && !queue.isEmpty();
+	}
+
+
+	/**
+	 * Boards the passengers waiting for a car at a floor and going one
+	 * way, as many as there is room for.
+	 *
+	 * @param direction
+	 * The way the car will travel, or {@link Direction#kIDLE} to take
+	 * the way of the passenger who has waited longest.
+	 */
+	private void boardPassengers(Elevator elevator, int floor, Direction direction)
+	{
+		PassengerQueue queue = elevator.waitingPassengers;
+		int kept = 0;
+		int refused = 0;
+
+		for (int j = 0; j < queue.size(); ++j) {
+			long passenger = queue.get(j);
+			if (Passenger.getOrigin(passenger) == floor && direction == Direction.kIDLE) {
+				direction = Passenger.getDirection(passenger);
+			}
+			if (Passenger.getOrigin(passenger) != floor || Passenger.getDirection(passenger) != direction) {
+				queue.set(kept++, passenger);
+				continue;
+			}
+			if (elevator.isFull()) {
+				queue.set(kept++, passenger);
+				++refused;
+				continue;
+			}
+			int destination = Passenger.getDestination(passenger);
+			int waitTicks = this.currentTime - Passenger.getTime(passenger);
+			--elevator.passengerDestinations[destination];
+			this.board(elevator, passenger, destination);
+			if (this.serviceListener != null) {
+				this.serviceListener.destinationServed(this.currentTime, floor, destination, elevator, waitTicks);
+			}
+		}
+		queue.truncate(kept);
+		if (refused > 0 && this.serviceListener != null) {
+			this.serviceListener.passengersLeftBehind(this.currentTime, elevator, floor, refused);
+		}
+	}
+
+
+	/**
+	 * Boards the passengers waiting at a floor's call button to go one
+	 * way, in the order they came, as many as there is room for.  A
+	 * passenger whose floor the car does not serve rides to the nearest
+	 * one beyond it that it does, wrapping around the floors on their
+	 * side of the car.
+	 */
+	private void boardHallPassengers(Elevator elevator, int floor, Direction direction)
+	{
+		PassengerQueue queue = this.hallPassengers[2 * floor + (direction == Direction.kUP ? 1 : 0)];
+		int kept = 0;
+
+		if (queue == null) {
+			return;
+		}
+		for (int j = 0; j < queue.size(); ++j) {
+			long passenger = queue.get(j);
+			int stop = elevator.isFull() ? -1 : this.chooseStop(elevator, floor, direction,
+					Passenger.getDestination(passenger));
+			if (stop < 0) {
+				queue.set(kept++, passenger);
+				continue;
+			}
+			this.board(elevator, passenger, stop);
+		}
+		queue.truncate(kept);
+		if (kept > 0 && this.serviceListener != null) {
+			this.serviceListener.passengersLeftBehind(this.currentTime, elevator, floor, kept);
+		}
+	}
+
+
+	/**
+	 * Gives the floor a car can take a passenger to: their destination
+	 * if the car serves it, or the nearest floor beyond that it does.
+	 *
+	 * @return The floor, or -1 if the car serves none on the way.
+	 */
+	private int chooseStop(Elevator elevator, int floor, Direction direction, int destination)
+	{
+		if (elevator.isFloorEnabled(destination)) {
+			return destination;
+		}
+
+		int low = direction == Direction.kUP ? floor + 1 : this.getFloorBottom();
+		int count = direction == Direction.kUP ? this.getFloorTop() - floor : floor - low;
+		int offset = destination - low;
+		for (int j = 1; j < count; ++j) {
+			int target = low + (offset + j) % count;
+			if (elevator.isFloorEnabled(target)) {
+				return target;
+			}
+		}
+		return -1;
+	}
+
+
+	/**
+	 * Puts a passenger in a car, bound for a stop, and puts the stop
+	 * on the car's schedule.
+	 */
+	private void board(Elevator elevator, long passenger, int stop)
+	{
+		int origin = Passenger.getOrigin(passenger);
+		int waitTicks = this.currentTime - Passenger.getTime(passenger);
+
+		elevator.riders.add(Passenger.pack(this.currentTime, origin, stop));
+		elevator.riderWaits.add(waitTicks);
+		++elevator.passengerDestinations[stop];
+		if (elevator.stopRequestTimes[stop] < 0) {
+			elevator.stopRequestTimes[stop] = this.currentTime;
+		}
+		elevator.setIsFloorSchedule(stop, true);
+		if (this.serviceListener != null) {
+			this.serviceListener.passengerBoarded(this.currentTime, elevator, origin,
+					Passenger.getDestination(passenger), waitTicks);
+		}
+	}
+
+
+	/**
+	 * Lets out the passengers in a car who are bound for a floor.
+	 */
+	private void alightPassengers(Elevator elevator, int floor)
+	{
+		PassengerQueue riders = elevator.riders;
+		PassengerQueue waits = elevator.riderWaits;
+		int kept = 0;
+
+		for (int j = 0; j < riders.size(); ++j) {
+			long passenger = riders.get(j);
+			if (Passenger.getDestination(passenger) != floor) {
+				waits.set(kept, waits.get(j));
+				riders.set(kept++, passenger);
+				continue;
+			}
+			--elevator.passengerDestinations[floor];
+			if (this.serviceListener != null) {
+				this.serviceListener.passengerDelivered(this.currentTime, elevator, Passenger.getOrigin(passenger),
+						floor, (int)waits.get(j), this.currentTime - Passenger.getTime(passenger));
+			}
+		}
+		riders.truncate(kept);
+		waits.truncate(kept);
+	}
+
+
+	/**
+	 * Calls again for the passengers that a car has left behind at a
+	 * floor, now that it is leaving.  Those at the call button press it
+	 * once more; those from a kiosk who were to take this car, if it is
+	 * no longer to stop for them, are given another.
+	 *
+	 * @param elevator
+	 * The car that has left.
+	 *
+	 * @param floor
+	 * The floor it left.
+	 */
+	void recallPassengers(Elevator elevator, int floor)
+	{
+		FloorCallButton button = this.getFloorCallButton(floor);
+
+		if (button != null) {
+			if (this.hasHallPassengers(floor, Direction.kUP)) {
+				button.setUp(true);
+			}
+			if (this.hasHallPassengers(floor, Direction.kDOWN)) {
+				button.setDown(true);
+			}
+		}
+		if (elevator.waitingPassengers.isEmpty() || elevator.isFloorScheduled(floor)) {
+			return;
+		}
+
+		PassengerQueue queue = elevator.waitingPassengers;
+		int kept = 0;
+		int size = queue.size();
+		for (int j = 0; j < size; ++j) {
+			long passenger = queue.get(j);
+			if (Passenger.getOrigin(passenger) != floor) {
+				queue.set(kept++, passenger);
+				continue;
+			}
+			--elevator.passengerDestinations[Passenger.getDestination(passenger)];
+			this.recalledPassengers.add(passenger);
+		}
+		queue.truncate(kept);
+		while (!this.recalledPassengers.isEmpty()) {
+			this.dispatchPassenger(this.recalledPassengers.poll());
+		}
+	}
+
+
+	/**
+	 * Sets the observer of the service the elevators give.
+	 *
+	 * @param serviceListener
+	 * The listener, or null for none.
+	 */
+	public void setServiceListener(ServiceListener serviceListener)
+	{
+		this.serviceListener = serviceListener;
+	}
+
+
+	public DecisionJournal getJournal()
+	{
+		return this.journal;
+	}
+
+
+	/**
+	 * Sets the journal of the stimuli handled and the decisions made,
+	 * which either records them or checks them against an earlier run.
+	 * The caller closes the journal when done.
+	 *
+	 * @param journal
+	 * The journal, or null for none.
+	 */
+	public void setJournal(DecisionJournal journal)
+	{
+		this.journal = journal;
+		if (journal != null) {
+			journal.bind(this.deviceRegistry);
+		}
+	}
+
+
+	/**
+	 * Gives the log of the stimuli the devices receive.
+	 *
+	 * @return The trace, or null if none was set and logging was never
+	 * turned on.
+	 */
+	public Trace getTrace()
+	{
+		return this.trace;
+	}
+
+
+	/**
+	 * Replaces the log of the stimuli the devices receive.  By default
+	 * nothing is logged.
+	 *
+	 * @param trace
+	 * The new trace.
+	 */
+	public void setTrace(Trace trace)
+	{
+		this.trace = trace;
+	}
+
+
+	public boolean isVerbose()
+	{
+		return Trace.ENABLED && this.trace != null && this.trace.isEnabled(Trace.Level.kEVENT);
+	}
+
+
+	/**
+	 * Sets whether the devices log each stimulus they receive.  This
+	 * is off by default.  Without a trace set, turning it on writes to
+	 * standard output.
+	 *
+	 * @param isVerbose
+	 * True to log the stimuli, false to log nothing.
+	 */
+	public void setVerbose(boolean isVerbose)
+	{
+		if (!isVerbose) {
+			if (this.trace != null) {
+				this.trace.setLevel(Trace.Level.kOFF);
+			}
+		}
+		else if (this.trace == null) {
+			this.trace = new Trace(System.out);
+			this.trace.setLevel(Trace.Level.kEVENT);
+		}
+		else if (!this.trace.isEnabled(Trace.Level.kEVENT)) {
+			this.trace.setLevel(Trace.Level.kEVENT);
+		}
+	}
+
+
+	/**
+	 * Replaces the floor-call dispatcher.  Calls already assigned
+	 * keep their elevators.
+	 *
+	 * @param dispatcher
+	 * The new dispatcher.
+	 */
+	public void setDispatcher(Dispatcher dispatcher)
+	{
+		this.dispatcher = dispatcher;
+	}
+
+
+	public Dispatcher getDispatcher()
+	{
+		return this.dispatcher;
+	}
+
+
+	/**
+	 * Replaces the destination dispatcher.  Passengers already assigned
+	 * keep their elevators.
+	 *
+	 * @param destinationDispatcher
+	 * The new dispatcher.
+	 */
+	public void setDestinationDispatcher(DestinationDispatcher destinationDispatcher)
+	{
+		this.destinationDispatcher = destinationDispatcher;
+	}
+
+
+	/**
+	 * Sets the optimizer that reassigns the outstanding floor calls, at
+	 * the start of every tick it is due, once the stimuli are handled.
+	 *
+	 * @param callOptimizer
+	 * The optimizer, or null to keep each call with the car the
+	 * dispatcher chose.
+	 */
+	public void setCallOptimizer(CallOptimizer callOptimizer)
+	{
+		this.callOptimizer = callOptimizer;
+	}
+
+
+	public CallOptimizer getCallOptimizer()
+	{
+		return this.callOptimizer;
+	}
+
+
+	/**
+	 * Sets the forecast of calls, which then counts every call the
+	 * controller handles.
+	 *
+	 * @param demandForecast
+	 * The forecast, for a building with the same floors, or null.
+	 */
+	public void setDemandForecast(DemandForecast demandForecast)
+	{
+		this.demandForecast = demandForecast;
+		this.isForecastShared = false;
+	}
+
+
+	/**
+	 * Sets the forecast of calls kept by another controller, to be read
+	 * but not added to, as by a copy run ahead of it.
+	 *
+	 * @param demandForecast
+	 * The forecast, or null.
+	 */
+	void shareDemandForecast(DemandForecast demandForecast)
+	{
+		this.demandForecast = demandForecast;
+		this.isForecastShared = true;
+	}
+
+
+	public DemandForecast getDemandForecast()
+	{
+		return this.demandForecast;
+	}
+
+
+	/**
+	 * Sets the scheduler that chooses where idle cars wait, for all
+	 * times of day.  Any timetable is dropped, and the cars already
+	 * idle go to their new places.
+	 *
+	 * @param scheduler
+	 * The scheduler, or null to leave idle cars where they stop.
+	 */
+	public void setScheduler(Scheduler scheduler)
+	{
+		this.schedulerTimetable.clear();
+		this.schedulers.clear();
+		if (scheduler != null) {
+			this.schedulers.add(scheduler);
+		}
+		this.scheduler = scheduler;
+		this.nextSchedulerChange = Integer.MAX_VALUE;
+		this.parkIdleCars();
+	}
+
+
+	/**
+	 * Adds a scheduler to the daily timetable.  It takes over at the
+	 * given time of day, every day, until the next one in the timetable
+	 * starts.  The controller switches schedulers as the clock passes
+	 * these times, even with nothing else going on, and sends the idle
+	 * cars to their new places.
+	 *
+	 * @param timeOfDay
+	 * The time the scheduler starts, in ticks from midnight.
+	 *
+	 * @param scheduler
+	 * The scheduler.
+	 */
+	public void setScheduler(int timeOfDay, Scheduler scheduler)
+	{
+		this.schedulerTimetable.put(Math.floorMod(timeOfDay, TICKS_PER_DAY), scheduler);
+		if (!this.schedulers.contains(scheduler)) {
+			this.schedulers.add(scheduler);
+		}
+		this.switchScheduler();
+	}
+
+
+	public Scheduler getScheduler()
+	{
+		return this.scheduler;
+	}
+
+
+	/**
+	 * Takes the active scheduler from the timetable, for the current
+	 * time, and finds when it next changes.
+	 */
+	private void switchScheduler()
+	{
+		int day = this.currentTime - Math.floorMod(this.currentTime, TICKS_PER_DAY);
+		int timeOfDay = this.currentTime - day;
+		Map.Entry<Integer, Scheduler> current = this.schedulerTimetable.floorEntry(timeOfDay);
+		Integer next = this.schedulerTimetable.higherKey(timeOfDay);
+		Scheduler previous = this.scheduler;
+
+		if (current == null) {
+			current = this.schedulerTimetable.lastEntry();
+		}
+		this.scheduler = current.getValue();
+		if (next == null) {
+			next = this.schedulerTimetable.firstKey() + TICKS_PER_DAY;
+		}
+		this.nextSchedulerChange = day + next;
+		if (this.scheduler != previous) {
+			this.parkIdleCars();
+		}
+	}
+
+
+	/**
+	 * Sends every idle car to the place its scheduler prefers.
+	 */
+	private void parkIdleCars()
+	{
+		for (int j = 0; j < this.elevators.size(); ++j) {
+			this.parkIdleCar(this.elevators.get(j));
+		}
+	}
+
+
+	/**
+	 * Sends a car that has come to rest with nothing to do to wait
+	 * where the scheduler prefers, if that is another floor it serves.
+	 *
+	 * @param elevator
+	 * The car.
+	 */
+	void parkIdleCar(Elevator elevator)
+	{
+		if (this.scheduler == null || elevator.carState != CarState.kIDLE || elevator.getStopCount() > 0) {
+			return;
+		}
+
+		int floor = this.scheduler.getPreferredFloor(elevator.index);
+		if (floor != Scheduler.NONE && floor != elevator.currentFloor
+				&& floor >= this.getFloorBottom() && floor <= this.getFloorTop()
+				&& elevator.isFloorEnabled(floor)) {
+			if (this.journal != null) {
+				this.journal.carParked(this.currentTime, elevator, floor);
+			}
+			elevator.park(floor);
+		}
+	}
+
+
+	/**
+	 * Tells whether the active scheduler is due to change.
+	 *
+	 * @return True if the clock has reached the next scheduler change.
+	 */
+	boolean isSchedulerDue()
+	{
+		return this.currentTime >= this.nextSchedulerChange;
+	}
+
+
+	/**
+	 * Gives the time of the next change of scheduler.
+	 *
+	 * @return The time, or {@code Integer.MAX_VALUE} if the scheduler
+	 * does not change.
+	 */
+	int getNextSchedulerChange()
+	{
+		return this.nextSchedulerChange;
+	}
+
+
+	/**
+	 * Tells whether the simulation has anything left to do: stimuli
+	 * to handle, or cars that are moving, have their doors open, or
+	 * have stops to make.
+	 *
+	 * @return True if the simulation should keep running.
+	 */
+	public boolean isActive()
+	{
+		if (this.hasStimuli()) {
+			return true;
+		}
+		for (int j = 0; j < this.elevators.size(); ++j) {
+			Elevator elevator = this.elevators.get(j);
+			if (elevator.carState != CarState.kIDLE || elevator.getStopCount() > 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	/**
+	 * Puts back on a car's schedule the floor calls it was assigned at
+	 * its current floor but could not take, because it is leaving in the
+	 * other direction.  The car comes back for them later in its sweep.
+	 * A full car does not come back for passengers from kiosks; they
+	 * are given another car when it leaves.
+	 *
+	 * @param elevator
+	 * The car whose doors have just closed.
+	 */
+	void restoreDeferredCalls(Elevator elevator)
+	{
+		int floor = elevator.currentFloor;
+
+		if (this.upCallAssignments[floor] == elevator || this.downCallAssignments[floor] == elevator
+				|| !elevator.isFull() && this.hasWaitingPassengers(elevator, floor, Direction.kIDLE)) {
+			elevator.setIsFloorSchedule(floor, true);
+		}
+	}
+
+
+	/**
+	 * Clears the floor calls that a car can take at the floor where it
+	 * has stopped: those in the direction it will travel next, or both
+	 * if it has nowhere else to go.  A car at the end of its sweep takes
+	 * a call to carry on the way it came in preference to turning back,
+	 * since the rider will give it somewhere to go.  The call lamps go
+	 * off and the assignments are released.
+	 *
+	 * <p>
+	 *     The passengers bound for the floor get out first.  Then those
+	 *     going the car's way get in, as many as there is room for:
+	 *     passengers from destination calls who are waiting for this
+	 *     car, and passengers at the call button.  The ones left behind
+	 *     call again when the car leaves.
+	 * </p>
+	 *
+	 * @param elevator
+	 * The car serving the floor.  Its stop there is already cleared.
+	 *
+	 * @param floor
+	 * The floor being served.
+	 */
+	void serveFloorCalls(Elevator elevator, int floor)
+	{
+		FloorCallButton button = this.getFloorCallButton(floor);
+		Direction heading = elevator.getHeading();
+		Direction travel = elevator.currentDirection;
+
+		if (heading != travel && travel != Direction.kIDLE && (button != null
+				&& (travel == Direction.kUP && button.isUp() || travel == Direction.kDOWN && button.isDown())
+				|| this.hasWaitingPassengers(elevator, floor, travel)
+				|| this.hasHallPassengers(floor, travel))) {
+			heading = travel;
+		}
+		if (elevator.stopRequestTimes[floor] >= 0) {
+			if (this.serviceListener != null) {
+				this.serviceListener.stopServed(this.currentTime, elevator, floor,
+						this.currentTime - elevator.stopRequestTimes[floor]);
+			}
+			elevator.stopRequestTimes[floor] = -1;
+		}
+		if (!elevator.riders.isEmpty()) {
+			this.alightPassengers(elevator, floor);
+		}
+		if (!elevator.waitingPassengers.isEmpty()) {
+			this.boardPassengers(elevator, floor, heading);
+		}
+		if (heading != Direction.kDOWN) {
+			this.boardHallPassengers(elevator, floor, Direction.kUP);
+		}
+		if (heading != Direction.kUP) {
+			this.boardHallPassengers(elevator, floor, Direction.kDOWN);
+		}
+		if (button == null) {
+			return;
+		}
+		if (button.isUp() && heading != Direction.kDOWN) {
+			this.upCallAssignments[floor] = null;
+			button.setUp(false);
+			if (this.serviceListener != null) {
+				this.serviceListener.callServed(this.currentTime, floor, Direction.kUP, elevator,
+						this.currentTime - this.upCallTimes[floor]);
+			}
+		}
+		if (button.isDown() && heading != Direction.kUP) {
+			this.downCallAssignments[floor] = null;
+			button.setDown(false);
+			if (this.serviceListener != null) {
+				this.serviceListener.callServed(this.currentTime, floor, Direction.kDOWN, elevator,
+						this.currentTime - this.downCallTimes[floor]);
+			}
+		}
+	}
+
+
+	/**
+	 * Refills the look-ahead window from the stimulus source, if any.
+	 * A source that fails is reported and dropped, as if it had ended.
+	 */
+	private void fillLookAhead()
+	{
+		while (this.stimulusSource != null && this.lookAhead.size() < this.lookAheadSize) {
+			Stimulus stimulus = this.allocateStimulus();
+			stimulus.deviceHandle = DeviceRegistry.NONE;
+			try {
+				if (!this.stimulusSource.next(stimulus)) {
+					this.spareStimuli.push(stimulus);
+					this.stimulusSource = null;
+					break;
+				}
+			}
+			catch (IOException e) {
+				System.err.printf("*** Stimulus source failed: %s%n", e.getMessage());
+				this.spareStimuli.push(stimulus);
+				this.stimulusSource = null;
+				break;
+			}
+			this.resolveDevice(stimulus);
+			stimulus.sequence = this.nextSequence++;
+			if (this.lastExternal != null && stimulus.compareTime(this.lastExternal) < 0) {
+				System.err.printf("*** Out of order beyond look-ahead: %s%n", stimulus);
+			}
+			this.lookAhead.add(stimulus);
+		}
+	}
+
+
+	/**
+	 * Gives the next stimulus to be handled, whether from the internal
+	 * queue or the look-ahead window, without removing it.  On a tie of
+	 * time and type, the internal queue goes first, whatever the
+	 * sequence numbers, so the order does not depend on how far ahead
+	 * the source has been read.
+	 */
+	private Stimulus peekStimulus()
+	{
+		this.fillLookAhead();
+		Stimulus queued = this.stimuliQueue.peek();
+		Stimulus external = this.lookAhead.peek();
+		if (external == null || (queued != null && queued.compareTime(external) <= 0)) {
+			return queued;
+		}
+		return external;
+	}
+
+
+	/**
+	 * Streams stimuli from an external source, instead of (or as well
+	 * as) adding them ahead of time with {@link #addStimulus}.  The
+	 * controller reads the source lazily, keeping a bounded window of
+	 * items that it sorts by time and merges with the stimuli it
+	 * generates itself.
+	 *
+	 * <p>
+	 *     The window only needs to cover how far the source can be out
+	 *     of order.  A window of 1 suits a sorted source, such as a sorted
+	 *     {@link EventTrace}.  An item that arrives later than the window
+	 *     can absorb is reported and handled as soon as possible.
+	 * </p>
+	 *
+	 * <p>
+	 *     The controller does not close the source.
+	 * </p>
+	 *
+	 * @param source
+	 * The source of stimuli, or null to stop reading.
+	 *
+	 * @param window
+	 * The maximum number of source items held at once (at least 1).
+	 */
+	public void setStimulusSource(StimulusSource source, int window)
+	{
+		this.stimulusSource = source;
+		this.lookAheadSize = Math.max(window, 1);
+		if (source != null) {
+			source.bindDevices(this.deviceRegistry);
+		}
+	}
+
+	/**
+	 * Runs the control system forward one step.  The next
+	 * stimulus item is removed from the queue (or the
+	 * look-ahead window of the stimulus source), handed
+	 * to the associated device object.  That object in turn will
+	 * cause its own activity, stimulating other objects, and perhaps
+	 * creating additional stimuli for the queue.
+	 */
+	public void stepStimulus()
+	{
+		Stimulus stimulus;
+
+		stimulus = this.peekStimulus();
+		if (stimulus == null) {
+			return;
+		}
+		if (stimulus != this.lookAhead.peek()) {
+			this.stimuliQueue.poll();
+		}
+		else {
+			this.lookAhead.poll();
+			if (this.lastExternal == null) {
+				this.lastExternal = new Stimulus();
+			}
+			this.lastExternal.timestamp = stimulus.timestamp;
+			this.lastExternal.type = stimulus.type;
+		}
+		this.triggerStimulus(stimulus);
+		if (stimulus.isPooled) {
+			this.spareStimuli.push(stimulus);
+		}
+	}
+
+
+	/**
+	 * Runs the simulation forward one tick.  The stimuli due by the
+	 * current time are handled first, in order, and then the cars move.
+	 * Anything the cars report is queued for the next tick.
+	 *
+	 * @return The number of stimuli handled.
+	 */
+	public int tick()
+	{
+		int handled = this.stepDueStimuli();
+
+		this.motionEngine.advance(this.currentTime);
+		this.finishTick();
+		return handled;
+	}
+
+
+	/**
+	 * Handles the stimuli due by the current time, in order, then runs
+	 * the call optimizer if it is due: the first part of a tick.  If
+	 * any are due, the step is traced first, so its header comes before
+	 * the stimuli.
+	 *
+	 * @return The number of stimuli handled.
+	 */
+	int stepDueStimuli()
+	{
+		int handled = 0;
+
+		if (this.isSchedulerDue()) {
+			this.switchScheduler();
+		}
+		if (Trace.ENABLED && this.trace != null && this.trace.isEnabled(Trace.Level.kSTEP)
+				&& this.hasStimuli() && this.getNextTimestamp() <= this.currentTime) {
+			this.trace.step(this.currentTime);
+		}
+		while (this.hasStimuli() && this.getNextTimestamp() <= this.currentTime) {
+			this.stepStimulus();
+			++handled;
+		}
+		if (this.callOptimizer != null && this.callOptimizer.isDue(this.currentTime)) {
+			this.callOptimizer.optimize();
+		}
+		return handled;
+	}
+
+
+	/**
+	 * Moves the clock on, after the cars have moved: the last part
+	 * of a tick.
+	 */
+	void finishTick()
+	{
+		++this.currentTime;
+		++this.tickCount;
+	}
+
+
+	/**
+	 * Moves the clock forward over a quiet period, in which there are no
+	 * stimuli and every car is at rest.
+	 *
+	 * @param time
+	 * The new time, if later than the current time.
+	 */
+	void idleUntil(int time)
+	{
+		if (time > this.currentTime && !this.isActive()) {
+			this.currentTime = time;
+		}
+	}
+
+
+	MotionEngine getMotionEngine()
+	{
+		return this.motionEngine;
+	}
+
+
+	/**
+	 * Runs the simulation forward to the next event and handles it, as
+	 * one {@link #tick}.  The next event is the earliest of the next
+	 * stimulus, the next change of scheduler, the next run of the call
+	 * optimizer while there are calls, and what each car does next (sets
+	 * off, arrives, or moves its doors).  The ticks before it are
+	 * skipped: idle cars cost nothing, and the others are brought forward
+	 * without the per-tick work of the controller.  The results are the
+	 * same as calling {@code tick} for every tick.
+	 *
+	 * @return The number of stimuli handled.
+	 */
+	public int tickToNextEvent()
+	{
+		return this.tickToNextEvent(Integer.MAX_VALUE);
+	}
+
+
+	/**
+	 * Runs the simulation forward to the next event, as
+	 * {@link #tickToNextEvent()} does, but no further than a given
+	 * tick: the ticks before the limit are skipped, and the limit is
+	 * stepped, even if nothing happens in it.  A limit that is not
+	 * after the current time steps one tick.
+	 *
+	 * @param limit
+	 * The last tick to step.
+	 *
+	 * @return The number of stimuli handled.
+	 */
+	public int tickToNextEvent(int limit)
+	{
+		int next = Math.min(Math.min(this.hasStimuli() ? this.getNextTimestamp() : Integer.MAX_VALUE,
+				this.nextSchedulerChange), limit);
+
+		if (this.callOptimizer != null && next > this.currentTime && this.hasFloorCalls()) {
+			next = Math.min(next, this.callOptimizer.getNextRun(this.currentTime));
+		}
+		for (int j = 0; j < this.elevators.size() && next > this.currentTime; ++j) {
+			next = Math.min(next, this.motionEngine.getNextEventTime(this.elevators.get(j), this.currentTime));
+		}
+		if (next > this.currentTime && next != Integer.MAX_VALUE) {
+			for (int j = 0; j < this.elevators.size(); ++j) {
+				this.motionEngine.skip(this.elevators.get(j), this.currentTime, next - this.currentTime);
+			}
+			this.currentTime = next;
+		}
+		return this.tick();
+	}
+
+
+	/**
+	 * Gives the number of ticks actually stepped, by {@link #tick}
+	 * or {@link #tickToNextEvent}.
+	 *
+	 * @return The tick count.
+	 */
+	public long getTickCount()
+	{
+		return this.tickCount;
+	}
+
+
+	/**
+	 * Writes the state of the controller, for a {@link Checkpoint}: the
+	 * clock and running totals, the scheduler in use and what the
+	 * schedulers have learnt, the floor calls, the passengers at the
+	 * call buttons, the cars, and the pending stimuli.  The stimuli are
+	 * taken out of the queue and put back in the same order.
+	 */
+	void writeState(DataOutput out)
+			throws IOException
+	{
+		int callCount = 0;
+		int queueCount = 0;
+
+		out.writeInt(this.currentTime);
+		out.writeLong(this.tickCount);
+		out.writeLong(this.stimulusCount);
+		out.writeLong(this.nextSequence);
+		out.writeLong(this.assignmentCount);
+		out.writeLong(this.estimatedWaitTotal);
+		out.writeLong(this.assignmentNanos);
+		out.writeInt(this.nextSchedulerChange);
+		out.writeInt(this.schedulers.indexOf(this.scheduler));
+		out.writeInt(this.schedulers.size());
+		for (int j = 0; j < this.schedulers.size(); ++j) {
+			this.schedulers.get(j).writeState(out);
+		}
+
+		for (int floor = this.getFloorBottom(); floor <= this.getFloorTop(); ++floor) {
+			callCount += (this.upCallAssignments[floor] != null ? 1 : 0)
+					+ (this.downCallAssignments[floor] != null ? 1 : 0);
+		}
+		out.writeInt(callCount);
+		for (int floor = this.getFloorBottom(); floor <= this.getFloorTop(); ++floor) {
+			if (this.upCallAssignments[floor] != null) {
+				out.writeInt(floor);
+				out.writeInt(this.upCallAssignments[floor].index);
+				out.writeInt(this.upCallTimes[floor]);
+			}
+			if (this.downCallAssignments[floor] != null) {
+				out.writeInt(-floor);
+				out.writeInt(this.downCallAssignments[floor].index);
+				out.writeInt(this.downCallTimes[floor]);
+			}
+		}
+		for (int j = 0; j < this.floorCallButtons.size(); ++j) {
+			FloorCallButton button = this.floorCallButtons.get(j);
+			out.writeByte((button.isUp() ? 1 : 0) | (button.isDown() ? 2 : 0));
+		}
+		for (PassengerQueue queue: this.hallPassengers) {
+			if (queue != null && !queue.isEmpty()) {
+				++queueCount;
+			}
+		}
+		out.writeInt(queueCount);
+		for (int j = 0; j < this.hallPassengers.length; ++j) {
+			if (this.hallPassengers[j] != null && !this.hallPassengers[j].isEmpty()) {
+				out.writeInt(j);
+				this.hallPassengers[j].writeTo(out);
+			}
+		}
+
+		for (int j = 0; j < this.elevators.size(); ++j) {
+			this.elevators.get(j).writeState(out);
+		}
+
+		Stimulus[] pending = new Stimulus[this.stimuliQueue.size()];
+		for (int j = 0; j < pending.length; ++j) {
+			pending[j] = this.stimuliQueue.poll();
+		}
+		out.writeInt(pending.length);
+		for (Stimulus stimulus: pending) {
+			this.writeStimulus(out, stimulus);
+			this.stimuliQueue.add(stimulus);
+		}
+		out.writeInt(this.lookAhead.size());
+		for (Stimulus stimulus: this.lookAhead) {
+			this.writeStimulus(out, stimulus);
+		}
+		out.writeBoolean(this.lastExternal != null);
+		if (this.lastExternal != null) {
+			out.writeInt(this.lastExternal.timestamp);
+			out.writeByte(this.lastExternal.type.ordinal());
+		}
+	}
+
+
+	/**
+	 * Replaces the state of the controller with one written by
+	 * {@link #writeState}, from a controller with the same floors, cars,
+	 * devices and schedulers.  The stimulus source, if any, is dropped.
+	 */
+	void readState(DataInput in)
+			throws IOException
+	{
+		this.currentTime = in.readInt();
+		this.tickCount = in.readLong();
+		this.stimulusCount = in.readLong();
+		this.nextSequence = in.readLong();
+		this.assignmentCount = in.readLong();
+		this.estimatedWaitTotal = in.readLong();
+		this.assignmentNanos = in.readLong();
+		this.nextSchedulerChange = in.readInt();
+		int active = in.readInt();
+		if (in.readInt() != this.schedulers.size()) {
+			throw new IOException("Checkpoint has different schedulers");
+		}
+		this.scheduler = active < 0 ? null : this.schedulers.get(active);
+		for (int j = 0; j < this.schedulers.size(); ++j) {
+			this.schedulers.get(j).readState(in);
+		}
+
+		Arrays.fill(this.upCallAssignments, null);
+		Arrays.fill(this.downCallAssignments, null);
+		for (int count = in.readInt(); count > 0; --count) {
+			int floor = in.readInt();
+			Elevator elevator = this.elevators.get(in.readInt());
+			int time = in.readInt();
+			if (floor > 0) {
+				this.upCallAssignments[floor] = elevator;
+				this.upCallTimes[floor] = time;
+			}
+			else {
+				this.downCallAssignments[-floor] = elevator;
+				this.downCallTimes[-floor] = time;
+			}
+		}
+		for (int j = 0; j < this.floorCallButtons.size(); ++j) {
+			int lamps = in.readByte();
+			this.floorCallButtons.get(j).restoreLamps((lamps & 1) != 0, (lamps & 2) != 0);
+		}
+		for (PassengerQueue queue: this.hallPassengers) {
+			if (queue != null) {
+				queue.clear();
+			}
+		}
+		for (int count = in.readInt(); count > 0; --count) {
+			int j = in.readInt();
+			if (this.hallPassengers[j] == null) {
+				this.hallPassengers[j] = new PassengerQueue();
+			}
+			this.hallPassengers[j].readFrom(in);
+		}
+		this.recalledPassengers.clear();
+
+		for (int j = 0; j < this.elevators.size(); ++j) {
+			this.elevators.get(j).readState(in);
+		}
+
+		for (Stimulus stimulus = this.stimuliQueue.poll(); stimulus != null; stimulus = this.stimuliQueue.poll()) {
+			if (stimulus.isPooled) {
+				this.spareStimuli.push(stimulus);
+			}
+		}
+		for (Stimulus stimulus = this.lookAhead.poll(); stimulus != null; stimulus = this.lookAhead.poll()) {
+			if (stimulus.isPooled) {
+				this.spareStimuli.push(stimulus);
+			}
+		}
+		for (int count = in.readInt(); count > 0; --count) {
+			this.stimuliQueue.add(this.readStimulus(in));
+		}
+		for (int count = in.readInt(); count > 0; --count) {
+			this.lookAhead.add(this.readStimulus(in));
+		}
+		this.lastExternal = null;
+		if (in.readBoolean()) {
+			this.lastExternal = new Stimulus(in.readInt(), Stimulus.StimulusType.values()[in.readByte()]);
+		}
+		this.stimulusSource = null;
+	}
+
+
+	/**
+	 * Writes a pending stimulus.  The device is written by handle, or by
+	 * name if it is unknown.
+	 */
+	private void writeStimulus(DataOutput out, Stimulus stimulus)
+			throws IOException
+	{
+		out.writeInt(stimulus.timestamp);
+		out.writeByte(stimulus.type.ordinal());
+		out.writeInt(stimulus.floor);
+		out.writeLong(stimulus.sequence);
+		out.writeInt(stimulus.deviceHandle);
+		if (stimulus.deviceHandle == DeviceRegistry.NONE) {
+			out.writeUTF(stimulus.deviceIdentity);
+		}
+	}
+
+
+	/**
+	 * Reads a stimulus written by {@link #writeStimulus} into one from
+	 * the pool.
+	 */
+	private Stimulus readStimulus(DataInput in)
+			throws IOException
+	{
+		Stimulus stimulus = this.allocateStimulus();
+
+		stimulus.timestamp = in.readInt();
+		stimulus.type = Stimulus.StimulusType.values()[in.readByte()];
+		stimulus.floor = in.readInt();
+		stimulus.sequence = in.readLong();
+		stimulus.deviceHandle = in.readInt();
+		if (stimulus.deviceHandle == DeviceRegistry.NONE) {
+			stimulus.deviceIdentity = in.readUTF();
+		}
+		else {
+			stimulus.deviceIdentity = this.deviceRegistry.get(stimulus.deviceHandle).getDeviceIdentity();
+		}
+		return stimulus;
+	}
+
+
+	/**
+	 * Resolves the device name of a stimulus to its handle, if that is
+	 * not done already.  This is the only place a stimulus's device is
+	 * looked up by name.
+	 */
+	private void resolveDevice(Stimulus stimulus)
+	{
+		if (stimulus.deviceHandle == DeviceRegistry.NONE) {
+			stimulus.deviceHandle = this.deviceRegistry.resolve(stimulus.deviceIdentity);
+		}
+	}
+
+
+	/**
+	 * Hands one stimulus to its device.  Devices must not keep a
+	 * reference to the stimulus, since the controller reuses the
+	 * objects read from a {@link StimulusSource}.
+	 *
+	 * @param stimulus
+	 * The stimulus to be handled.
+	 */
+	void triggerStimulus(Stimulus stimulus)
+	{
+		StandaloneDevice device;
+
+		this.resolveDevice(stimulus);
+		device = this.deviceRegistry.get(stimulus.deviceHandle);
+		if (device == null) {
+			System.err.printf("*** Unknown ID: %s%n", stimulus);
+			return;
+		}
+		++this.stimulusCount;
+		if (this.journal != null) {
+			this.journal.stimulusHandled(this.currentTime, stimulus);
+		}
+		if (this.demandForecast != null && !this.isForecastShared) {
+			this.demandForecast.stimulusHandled(this.currentTime, stimulus, device);
+		}
 		device.triggerDeviceChange(stimulus);
 	}
 }
@@ -0,0 +1,464 @@
+package jqa.elevator;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+
+/**
+ * Reads and writes the binary event-trace format, a compact
+ * alternative to the text simulation file.  Large traces are parsed
+ * once, by {@link #convert}, and can then be replayed many times
+ * without any string handling.
+ *
+ * <p>
+ *     The file starts with a small header, followed by two name
+ *     tables and then four fixed-width columns, each holding one
+ *     value per record.
+ * </p>
+ * <pre>
+ * header:   magic, version, flags, record count, column offset
+ * devices:  count, then one name per interned device identity
+ * types:    count, then one {@link Stimulus.StimulusType} name per code
+ * columns:  timestamp (int), device (char), type (byte), floor (int)
+ * </pre>
+ *
+ * <p>
+ *     Device identities and stimulus types are stored as indexes
+ *     into the name tables.  The type table keeps old traces readable
+ *     when new stimulus types are added to the enum.  All values are
+ *     big-endian, as written by {@link DataOutputStream}.
+ * </p>
+ */
+public class EventTrace
+{
+	static final int MAGIC = 0x45565452;	// "EVTR"
+	static final int VERSION = 1;
+
+	/**
+	 * Set in the header when the records are in {@link Stimulus}
+	 * order, so a reader can dispatch them without sorting.
+	 */
+	static final int FLAG_SORTED = 0x1;
+
+	private static final int MAX_DEVICES = Character.MAX_VALUE + 1;
+	private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+
+	/**
+	 * Converts a text simulation file to the binary trace format.
+	 * The text file is read twice: once to intern the device identities
+	 * and count the records, and once to fill the columns.
+	 *
+	 * @param textPath
+	 * The simulation file, read with a {@link TextStimulusSource}.
+	 *
+	 * @param tracePath
+	 * The binary trace to be written.
+	 *
+	 * @return The number of records written.
+	 *
+	 * @throws IOException If either file cannot be handled, or if
+	 * a line in the text file is bad.
+	 */
+	public static long convert(String textPath, String tracePath)
+			throws IOException
+	{
+		HashMap<String, Integer> deviceCodes = new HashMap<>();
+		ArrayList<String> deviceNames = new ArrayList<>();
+		Stimulus stimulus = new Stimulus();
+		Stimulus previous = new Stimulus();
+		boolean isSorted = true;
+		long count = 0;
+
+		try (TextStimulusSource source = new TextStimulusSource(textPath)) {
+			while (source.next(stimulus)) {
+				if (!deviceCodes.containsKey(stimulus.deviceIdentity)) {
+					if (deviceNames.size() >= MAX_DEVICES) {
+						throw new IOException(
+								String.format("More than %d devices in %s", MAX_DEVICES, textPath)
+						);
+					}
+					deviceCodes.put(stimulus.deviceIdentity, deviceNames.size());
+					deviceNames.add(stimulus.deviceIdentity);
+				}
+				if (count > 0 && previous.compareTo(stimulus) > 0) {
+					isSorted = false;
+				}
+				previous.timestamp = stimulus.timestamp;
+				previous.type = stimulus.type;
+				++count;
+			}
+		}
+
+		ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream(headerBytes);
+		header.writeInt(MAGIC);
+		header.writeInt(VERSION);
+		header.writeInt(isSorted ? FLAG_SORTED : 0);
+		header.writeLong(count);
+		header.writeLong(0);	// column offset, patched below
+		header.writeInt(deviceNames.size());
+		for (String name: deviceNames) {
+			header.writeUTF(name);
+		}
+		header.writeInt(Stimulus.StimulusType.values().length);
+		for (Stimulus.StimulusType type: Stimulus.StimulusType.values()) {
+			header.writeUTF(type.name());
+		}
+		header.flush();
+		ByteBuffer headerBuffer = ByteBuffer.wrap(headerBytes.toByteArray());
+		long columnOffset = headerBuffer.capacity();
+		headerBuffer.putLong(20, columnOffset);
+
+		try (FileChannel channel = FileChannel.open(Paths.get(tracePath),
+				StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE);
+				TextStimulusSource source = new TextStimulusSource(textPath)) {
+			channel.write(headerBuffer, 0);
+			ColumnWriter timestamps = new ColumnWriter(channel, columnOffset);
+			ColumnWriter devices = new ColumnWriter(channel, timestamps.end(count, Integer.BYTES));
+			ColumnWriter types = new ColumnWriter(channel, devices.end(count, Character.BYTES));
+			ColumnWriter floors = new ColumnWriter(channel, types.end(count, Byte.BYTES));
+			long index = 0;
+			while (index < count && source.next(stimulus)) {
+				timestamps.room(Integer.BYTES).putInt(stimulus.timestamp);
+				devices.room(Character.BYTES).putChar((char)(int)deviceCodes.get(stimulus.deviceIdentity));
+				types.room(Byte.BYTES).put((byte)stimulus.type.ordinal());
+				floors.room(Integer.BYTES).putInt(stimulus.floor);
+				++index;
+			}
+			if (index != count) {
+				throw new IOException(String.format("%s changed during conversion", textPath));
+			}
+			timestamps.flush();
+			devices.flush();
+			types.flush();
+			floors.flush();
+		}
+		return count;
+	}
+
+
+	/**
+	 * Tells whether a file starts with the trace {@link #MAGIC} number.
+	 *
+	 * @param path
+	 * The file to check.
+	 *
+	 * @return True if the file looks like a binary trace.  Files that
+	 * are short or unreadable are not traces.
+	 */
+	public static boolean isTraceFile(String path)
+	{
+		try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+			ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES);
+			while (magic.hasRemaining()) {
+				if (channel.read(magic) < 0) {
+					return false;
+				}
+			}
+			return magic.getInt(0) == MAGIC;
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+
+
+	/**
+	 * Buffers the writes for one column and flushes them at the
+	 * column's own position in the file.
+	 */
+	private static class ColumnWriter
+	{
+		private FileChannel channel;
+		private ByteBuffer  buffer;
+		private long        position;
+		private long        start;
+
+		ColumnWriter(FileChannel channel, long start)
+		{
+			this.channel = channel;
+			this.buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+			this.position = start;
+			this.start = start;
+		}
+
+
+		long end(long count, int width)
+		{
+			return this.start + count * width;
+		}
+
+
+		void flush()
+				throws IOException
+		{
+			this.buffer.flip();
+			while (this.buffer.hasRemaining()) {
+				this.position += this.channel.write(this.buffer, this.position);
+			}
+			this.buffer.clear();
+		}
+
+
+		ByteBuffer room(int width)
+				throws IOException
+		{
+			if (this.buffer.remaining() < width) {
+				this.flush();
+			}
+			return this.buffer;
+		}
+	}
+
+
+	/**
+	 * Gives read access to one column through a window of the file
+	 * that is memory-mapped on demand.  Mapping a window at a time
+	 * keeps traces larger than a single mapping (2 GB) usable.
+	 */
+	private static class ColumnReader
+	{
+		private static final long WINDOW_RECORDS = 1L << 22;
+
+		private FileChannel      channel;
+		private long             start;
+		private int              width;
+		private long             count;
+		private MappedByteBuffer window;
+		private long             windowFirst;
+		private long             windowLimit;
+
+		ColumnReader(FileChannel channel, long start, int width, long count)
+		{
+			this.channel = channel;
+			this.start = start;
+			this.width = width;
+			this.count = count;
+			this.windowFirst = 0;
+			this.windowLimit = 0;
+		}
+
+
+		long end()
+		{
+			return this.start + this.count * this.width;
+		}
+
+
+		/**
+		 * Gives the buffer offset of a record, mapping the window
+		 * that holds the record if necessary.
+		 */
+		int offset(long record)
+				throws IOException
+		{
+			if (record < this.windowFirst || record >= this.windowLimit) {
+				this.windowFirst = record - record % WINDOW_RECORDS;
+				this.windowLimit = Math.min(this.windowFirst + WINDOW_RECORDS, this.count);
+				this.window = this.channel.map(
+						FileChannel.MapMode.READ_ONLY,
+						this.start + this.windowFirst * this.width,
+						(this.windowLimit - this.windowFirst) * this.width
+				);
+			}
+			return (int)(record - this.windowFirst) * this.width;
+		}
+
+
+		byte getByte(long record)
+				throws IOException
+		{
+			int offset = this.offset(record);
+			return this.window.get(offset);
+		}
+
+
+		char getChar(long record)
+				throws IOException
+		{
+			int offset = this.offset(record);
+			return this.window.getChar(offset);
+		}
+
+
+		int getInt(long record)
+				throws IOException
+		{
+			int offset = this.offset(record);
+			return this.window.getInt(offset);
+		}
+	}
+
+
+	/**
+	 * Replays a binary trace, one record at a time.  The reader fills
+	 * a {@link Stimulus} supplied by the caller, so reading a record
+	 * neither parses text nor allocates objects.  Device identities
+	 * are interned: every stimulus for a device shares one string.
+	 */
+	public static class Reader
+		implements StimulusSource
+	{
+		private FileChannel             channel;
+		private boolean                 isSorted;
+		private long                    count;
+		private long                    next;
+		private String[]                deviceNames;
+		private int[]                   deviceHandles;
+		private Stimulus.StimulusType[] types;
+		private ColumnReader            timestamps;
+		private ColumnReader            devices;
+		private ColumnReader            typeCodes;
+		private ColumnReader            floors;
+
+
+		private Reader(FileChannel channel)
+				throws IOException
+		{
+			this.channel = channel;
+			InputStream input = Channels.newInputStream(channel);
+			DataInputStream header = new DataInputStream(input);
+			if (header.readInt() != MAGIC) {
+				throw new IOException("Not an event trace");
+			}
+			int version = header.readInt();
+			if (version != VERSION) {
+				throw new IOException(String.format("Unsupported trace version %d", version));
+			}
+			this.isSorted = (header.readInt() & FLAG_SORTED) != 0;
+			this.count = header.readLong();
+			long columnOffset = header.readLong();
+			this.deviceNames = new String[header.readInt()];
+			this.deviceHandles = null;
+			for (int j = 0; j < this.deviceNames.length; ++j) {
+				this.deviceNames[j] = header.readUTF().intern();
+			}
+			this.types = new Stimulus.StimulusType[header.readInt()];
+			for (int j = 0; j < this.types.length; ++j) {
+				this.types[j] = Stimulus.StimulusType.getValue(header.readUTF());
+			}
+			this.timestamps = new ColumnReader(channel, columnOffset, Integer.BYTES, this.count);
+			this.devices = new ColumnReader(channel, this.timestamps.end(), Character.BYTES, this.count);
+			this.typeCodes = new ColumnReader(channel, this.devices.end(), Byte.BYTES, this.count);
+			this.floors = new ColumnReader(channel, this.typeCodes.end(), Integer.BYTES, this.count);
+			if (this.floors.end() > channel.size()) {
+				throw new IOException("Event trace is truncated");
+			}
+			this.next = 0;
+		}
+
+
+		/**
+		 * Opens a binary trace for reading.
+		 *
+		 * @param path
+		 * The trace file, as written by {@link EventTrace#convert}.
+		 *
+		 * @return A reader positioned at the first record.
+		 *
+		 * @throws IOException If the file cannot be opened or is not
+		 * a readable trace.
+		 */
+		public static Reader open(String path)
+				throws IOException
+		{
+			Path file = Paths.get(path);
+			FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+			try {
+				return new Reader(channel);
+			}
+			catch (IOException e) {
+				channel.close();
+				throw e;
+			}
+		}
+
+
+		@Override
+		public void close()
+				throws IOException
+		{
+			this.channel.close();
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 * <p>
+		 *     The trace resolves its whole device table at once, so
+		 *     reading a record looks up no names.
+		 * </p>
+		 */
+		@Override
+		public void bindDevices(DeviceRegistry registry)
+		{
+			this.deviceHandles = new int[this.deviceNames.length];
+			for (int j = 0; j < this.deviceNames.length; ++j) {
+				this.deviceHandles[j] = registry.resolve(this.deviceNames[j]);
+			}
+		}
+
+
+		public long getRecordCount()
+		{
+			return this.count;
+		}
+
+
+		/**
+		 * Tells whether the records are already in {@link Stimulus}
+		 * order (by timestamp, then type).
+		 *
+		 * @return True if the records can be dispatched as read.
+		 */
+		public boolean isSorted()
+		{
+			return this.isSorted;
+		}
+
+
+		/**
+		 * {@inheritDoc}
+		 * <p>
+		 *     Reading a record fails if the trace holds an unknown
+		 *     device or type code.
+		 * </p>
+		 */
+		@Override
+		public boolean next(Stimulus stimulus)
+				throws IOException
+		{
+			if (this.next >= this.count) {
+				return false;
+			}
+			int device = this.devices.getChar(this.next);
+			int type = this.typeCodes.getByte(this.next) & 0xff;
+			if (device >= this.deviceNames.length || type >= this.types.length) {
+				throw new IOException(String.format("Bad codes in trace record %d", this.next));
+			}
+			stimulus.timestamp = this.timestamps.getInt(this.next);
+			stimulus.deviceIdentity = this.deviceNames[device];
+			stimulus.deviceHandle = this.deviceHandles == null ? DeviceRegistry.NONE : this.deviceHandles[device];
+			stimulus.type = this.types[type];
+			stimulus.floor = this.floors.getInt(this.next);
+			++this.next;
+			return true;
+		}
+	}
+}
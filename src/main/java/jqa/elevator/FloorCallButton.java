@@ -1,16 +1,13 @@
 package jqa.elevator;
 
 
-import java.util.Observable;
-
-
 public class FloorCallButton
-	extends Observable
 	implements StandaloneDevice
 {
 	private ElevatorControlSystem controlSystem;
 	private int floor;
 	private String identity;
+	private int handle;
 	private boolean isUp;
 	private boolean isDown;
 
@@ -28,6 +25,7 @@ public class FloorCallButton
 	{
 		this.controlSystem = controlSystem;
 		this.floor = floor;
+		this.handle = DeviceRegistry.NONE;
 		this.isDown = false;
 		this.isUp = false;
 	}
@@ -39,6 +37,13 @@ public class FloorCallButton
 	}
 
 
+	@Override
+	public int getDeviceHandle()
+	{
+		return this.handle;
+	}
+
+
 	int getFloor()
 	{
 		return this.floor;
@@ -62,9 +67,29 @@ public class FloorCallButton
 		this.identity = identity;
 	}
 
+
+	@Override
+	public void setDeviceHandle(int handle)
+	{
+		this.handle = handle;
+	}
+
+
+	/**
+	 * Sets both lamps, as restored from a {@link Checkpoint}, without
+	 * placing calls or publishing the change.
+	 */
+	void restoreLamps(boolean isUp, boolean isDown)
+	{
+		this.isUp = isUp;
+		this.isDown = isDown;
+	}
+
 	/**
 	 * Sets the down direction indicator of this call button.
-	 * If the button state changes, all observers are notified.
+	 * If the button state changes, the change is published on the
+	 * controller's {@link EventBus}.
+	 * Turning the indicator on places a call with the controller.
 	 *
 	 * @param isDown
 	 * The new value of the button indicator, which can be on (true)
@@ -79,15 +104,19 @@ public class FloorCallButton
 		}
 		if (this.isDown != isDown) {
 			this.isDown = isDown;
-			this.setChanged();
-			this.notifyObservers();
+			this.controlSystem.eventBus.publishCallLampChanged(this, Direction.kDOWN, isDown);
+			if (isDown) {
+				this.controlSystem.pickup(this.floor, Direction.kDOWN);
+			}
 		}
 	}
 
 
 	/**
 	 * Sets the up direction indicator of this call button.
-	 * If the button state changes, all observers are notified.
+	 * If the button state changes, the change is published on the
+	 * controller's {@link EventBus}.
+	 * Turning the indicator on places a call with the controller.
 	 *
 	 * @param isUp
 	 * The new value of the button indicator, which can be on (true)
@@ -102,8 +131,10 @@ public class FloorCallButton
 		}
 		if (this.isUp != isUp) {
 			this.isUp = isUp;
-			this.setChanged();
-			this.notifyObservers();
+			this.controlSystem.eventBus.publishCallLampChanged(this, Direction.kUP, isUp);
+			if (isUp) {
+				this.controlSystem.pickup(this.floor, Direction.kUP);
+			}
 		}
 	}
 
@@ -112,20 +143,26 @@ public class FloorCallButton
 	 * {@inheritDoc}
 	 * <p>
 	 *     The floor call button responds only to button up and down
-	 *     events.  The button handles stimuli through its "normal"
-	 *     state change methods.
+	 *     events, and to passengers arriving at the floor, who join the
+	 *     queue and press the button for their way.  The button handles
+	 *     stimuli through its "normal" state change methods.
 	 * </p>
 	 */
 	@Override
 	public void triggerDeviceChange(Stimulus stimulus)
 	{
-		System.out.printf("%s: trigger %s%n", this.identity, stimulus);
+		if (this.controlSystem.isVerbose()) {
+			this.controlSystem.getTrace().stimulus(this.identity, stimulus);
+		}
 		if (stimulus.type == Stimulus.StimulusType.ButtonDown) {
 			this.setDown(true);
 		}
 		else if (stimulus.type == Stimulus.StimulusType.ButtonUp) {
 			this.setUp(true);
 		}
+		else if (stimulus.type == Stimulus.StimulusType.PassengerArrived) {
+			this.controlSystem.passengerArrived(this.floor, stimulus.floor);
+		}
 		else {
 			return;
 		}
@@ -0,0 +1,272 @@
+package jqa.elevator;
+
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+
+/**
+ * A set of floors, kept as a bitset of primitive {@code long} words:
+ * bit {@code n} stands for floor {@code n}.  Membership changes take
+ * constant time, and searches and counts go a word (64 floors) at a
+ * time, so they cost next to nothing even in a 200-floor tower.
+ * No operation allocates.
+ */
+final class FloorSet
+{
+	private static final int NONE = -1;
+
+	private long[] words;
+	private int    size;
+
+
+	/**
+	 * Creates an empty set.
+	 *
+	 * @param floorTop
+	 * The highest floor the set can hold.
+	 */
+	FloorSet(int floorTop)
+	{
+		this.words = new long[(floorTop >>> 6) + 1];
+		this.size = 0;
+	}
+
+
+	/**
+	 * Creates a copy of a set.
+	 *
+	 * @param other
+	 * The set to copy.
+	 */
+	FloorSet(FloorSet other)
+	{
+		this.words = other.words.clone();
+		this.size = other.size;
+	}
+
+
+	/**
+	 * Adds a floor.
+	 *
+	 * @param floor The floor to add.
+	 *
+	 * @return True if the set changed.
+	 */
+	boolean add(int floor)
+	{
+		long bit = 1L << floor;
+		int word = floor >>> 6;
+		if ((this.words[word] & bit) != 0) {
+			return false;
+		}
+		this.words[word] |= bit;
+		++this.size;
+		return true;
+	}
+
+
+	boolean contains(int floor)
+	{
+		return (this.words[floor >>> 6] & (1L << floor)) != 0;
+	}
+
+
+	/**
+	 * Counts the floors in a range.
+	 *
+	 * @param from The lowest floor of the range.
+	 *
+	 * @param to The highest floor of the range.
+	 *
+	 * @return The number of floors in the set from {@code from} to
+	 * {@code to}, inclusive, or zero if the range is empty.
+	 */
+	int count(int from, int to)
+	{
+		from = Math.max(from, 0);
+		to = Math.min(to, (this.words.length << 6) - 1);
+		if (from > to) {
+			return 0;
+		}
+		int first = from >>> 6;
+		int last = to >>> 6;
+		long lowMask = -1L << from;
+		long highMask = -1L >>> (63 - (to & 63));
+		if (first == last) {
+			return Long.bitCount(this.words[first] & lowMask & highMask);
+		}
+		int count = Long.bitCount(this.words[first] & lowMask);
+		for (int word = first + 1; word < last; ++word) {
+			count += Long.bitCount(this.words[word]);
+		}
+		return count + Long.bitCount(this.words[last] & highMask);
+	}
+
+
+	/**
+	 * Calls an action for each floor in the set, from the bottom up,
+	 * without boxing the floor numbers.
+	 *
+	 * @param action The action for each floor.
+	 */
+	void forEach(IntConsumer action)
+	{
+		for (int word = 0; word < this.words.length; ++word) {
+			long bits = this.words[word];
+			while (bits != 0) {
+				action.accept((word << 6) + Long.numberOfTrailingZeros(bits));
+				bits &= bits - 1;
+			}
+		}
+	}
+
+
+	/**
+	 * Makes this set a copy of another of the same size, without
+	 * allocating.
+	 *
+	 * @param other The set to copy.
+	 */
+	void copyFrom(FloorSet other)
+	{
+		System.arraycopy(other.words, 0, this.words, 0, this.words.length);
+		this.size = other.size;
+	}
+
+
+	/**
+	 * Removes every floor.
+	 */
+	void clear()
+	{
+		if (this.size > 0) {
+			Arrays.fill(this.words, 0L);
+			this.size = 0;
+		}
+	}
+
+
+	boolean isEmpty()
+	{
+		return this.size == 0;
+	}
+
+
+	/**
+	 * Finds the lowest floor in the set at or above a given floor.
+	 *
+	 * @param from The floor to start from.
+	 *
+	 * @return The floor found, or -1 if there is none.
+	 */
+	int next(int from)
+	{
+		if (from < 0) {
+			from = 0;
+		}
+		int word = from >>> 6;
+		if (word >= this.words.length) {
+			return NONE;
+		}
+		long bits = this.words[word] & (-1L << from);
+		while (true) {
+			if (bits != 0) {
+				return (word << 6) + Long.numberOfTrailingZeros(bits);
+			}
+			if (++word >= this.words.length) {
+				return NONE;
+			}
+			bits = this.words[word];
+		}
+	}
+
+
+	/**
+	 * Finds the highest floor in the set at or below a given floor.
+	 *
+	 * @param from The floor to start from.
+	 *
+	 * @return The floor found, or -1 if there is none.
+	 */
+	int previous(int from)
+	{
+		if (from < 0) {
+			return NONE;
+		}
+		int word = from >>> 6;
+		long bits;
+		if (word >= this.words.length) {
+			word = this.words.length - 1;
+			bits = this.words[word];
+		}
+		else {
+			bits = this.words[word] & (-1L >>> (63 - (from & 63)));
+		}
+		while (true) {
+			if (bits != 0) {
+				return (word << 6) + 63 - Long.numberOfLeadingZeros(bits);
+			}
+			if (--word < 0) {
+				return NONE;
+			}
+			bits = this.words[word];
+		}
+	}
+
+
+	/**
+	 * Removes a floor.
+	 *
+	 * @param floor The floor to remove.
+	 *
+	 * @return True if the set changed.
+	 */
+	boolean remove(int floor)
+	{
+		long bit = 1L << floor;
+		int word = floor >>> 6;
+		if ((this.words[word] & bit) == 0) {
+			return false;
+		}
+		this.words[word] &= ~bit;
+		--this.size;
+		return true;
+	}
+
+
+	int size()
+	{
+		return this.size;
+	}
+
+
+	/**
+	 * Writes the set, as its words, for a {@link Checkpoint}.
+	 */
+	void writeTo(DataOutput out)
+			throws IOException
+	{
+		for (long word: this.words) {
+			out.writeLong(word);
+		}
+	}
+
+
+	/**
+	 * Replaces the set with one written by {@link #writeTo}, for a set
+	 * of the same size.
+	 */
+	void readFrom(DataInput in)
+			throws IOException
+	{
+		this.size = 0;
+		for (int j = 0; j < this.words.length; ++j) {
+			this.words[j] = in.readLong();
+			this.size += Long.bitCount(this.words[j]);
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package jqa.elevator;
+
+
+/**
+ * Parks the idle cars where calls are expected at this time of day,
+ * by the controller's {@link DemandForecast}.  The cars share out the
+ * rates of the floors as a {@link DemandScheduler} shares out its
+ * weights; where that scheduler follows the calls of the last few
+ * minutes, this one follows the calls of the same time on the days
+ * before.
+ *
+ * <p>
+ *     The cars are shared out again when the clock enters another
+ *     bucket of the forecast, or the forecast has counted more calls.
+ *     Without a forecast, or with nothing known of the time of day, the
+ *     scheduler leaves the cars where they are.
+ * </p>
+ */
+public class ForecastScheduler
+	implements Scheduler
+{
+	private ElevatorControlSystem controlSystem;
+	private double[]              rates;
+	private double                totalRate;
+
+	/**
+	 * The preferred floors, and the forecast, bucket and count of calls
+	 * they were worked out from.
+	 */
+	private int[]          preferredFloors;
+	private DemandForecast sharedForecast;
+	private int            sharedBucket;
+	private long           sharedCallCount;
+
+
+	/**
+	 * Creates the scheduler.
+	 *
+	 * @param controlSystem
+	 * The controller, with its cars, whose forecast and clock are used.
+	 */
+	public ForecastScheduler(ElevatorControlSystem controlSystem)
+	{
+		this.controlSystem = controlSystem;
+		this.rates = new double[controlSystem.getFloorTop() + 1];
+		this.totalRate = 0;
+		this.preferredFloors = new int[controlSystem.elevators.size()];
+		this.sharedForecast = null;
+		this.sharedBucket = -1;
+		this.sharedCallCount = -1;
+	}
+
+
+	@Override
+	public int getPreferredFloor(int elevator)
+	{
+		DemandForecast forecast = this.controlSystem.getDemandForecast();
+		int time = this.controlSystem.getCurrentTime();
+
+		if (forecast == null || elevator >= this.preferredFloors.length) {
+			return NONE;
+		}
+
+		int bucket = Math.floorDiv(time, forecast.getBucketTicks());
+		if (forecast != this.sharedForecast || bucket != this.sharedBucket
+				|| forecast.getCallCount() != this.sharedCallCount) {
+			this.totalRate = 0;
+			for (int floor = 0; floor < this.rates.length; ++floor) {
+				this.rates[floor] = forecast.getRate(floor, time);
+				this.totalRate += this.rates[floor];
+			}
+			DemandScheduler.share(this.rates, this.totalRate, this.preferredFloors);
+			this.sharedForecast = forecast;
+			this.sharedBucket = bucket;
+			this.sharedCallCount = forecast.getCallCount();
+		}
+		return this.totalRate == 0 ? NONE : this.preferredFloors[elevator];
+	}
+}
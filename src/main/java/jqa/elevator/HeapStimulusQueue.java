@@ -0,0 +1,50 @@
+package jqa.elevator;
+
+
+import java.util.concurrent.PriorityBlockingQueue;
+
+
+/**
+ * A {@link StimulusQueue} kept in a binary heap.  Each insertion and
+ * removal costs O(log n), whatever the timestamps.  This is the
+ * general-purpose fallback for {@link CalendarStimulusQueue}.
+ */
+public class HeapStimulusQueue
+	implements StimulusQueue
+{
+	private PriorityBlockingQueue<Stimulus> queue;
+
+
+	public HeapStimulusQueue()
+	{
+		this.queue = new PriorityBlockingQueue<>();
+	}
+
+
+	@Override
+	public void add(Stimulus stimulus)
+	{
+		this.queue.put(stimulus);
+	}
+
+
+	@Override
+	public Stimulus peek()
+	{
+		return this.queue.peek();
+	}
+
+
+	@Override
+	public Stimulus poll()
+	{
+		return this.queue.poll();
+	}
+
+
+	@Override
+	public int size()
+	{
+		return this.queue.size();
+	}
+}
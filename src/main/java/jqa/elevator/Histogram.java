@@ -0,0 +1,170 @@
+package jqa.elevator;
+
+
+/**
+ * Counts values in buckets of bounded relative width, in the manner of
+ * an HDR histogram.  Values below {@code 2^(PRECISION_BITS + 1)} are
+ * counted exactly; above that, each power of two is split into
+ * {@code 2^PRECISION_BITS} buckets, so a value is known to within
+ * 1 part in 64 however large it is.  The histogram covers every
+ * non-negative {@code long} in a fixed array of counts, and recording
+ * a value takes constant time and allocates nothing.
+ *
+ * <p>
+ *     Histograms can be merged, which gives the same result in any
+ *     order.  A histogram is written by one thread; another thread
+ *     reading it may see a slightly stale picture.
+ * </p>
+ */
+public class Histogram
+{
+	/**
+	 * The number of bits of each value that are kept.
+	 */
+	public static final int PRECISION_BITS = 6;
+
+	private static final int SUB_BUCKETS = 1 << PRECISION_BITS;
+	private static final int BUCKETS     = (Long.SIZE - PRECISION_BITS) * SUB_BUCKETS;
+
+	private long[] counts;
+	private long   count;
+	private long   total;
+	private long   max;
+
+
+	public Histogram()
+	{
+		this.counts = new long[BUCKETS];
+		this.count = 0;
+		this.total = 0;
+		this.max = 0;
+	}
+
+
+	/**
+	 * Counts a value.
+	 *
+	 * @param value
+	 * The value, 0 or more.  A negative value counts as 0.
+	 */
+	public void record(long value)
+	{
+		if (value < 0) {
+			value = 0;
+		}
+		++this.counts[indexOf(value)];
+		++this.count;
+		this.total += value;
+		if (value > this.max) {
+			this.max = value;
+		}
+	}
+
+
+	/**
+	 * Adds the counts of another histogram to this one.
+	 *
+	 * @param other
+	 * The other histogram, which is left unchanged.
+	 */
+	public void merge(Histogram other)
+	{
+		int last = indexOf(other.max);
+
+		for (int j = 0; j <= last; ++j) {
+			this.counts[j] += other.counts[j];
+		}
+		this.count += other.count;
+		this.total += other.total;
+		this.max = Math.max(this.max, other.max);
+	}
+
+
+	/**
+	 * Empties the histogram.
+	 */
+	public void reset()
+	{
+		int last = indexOf(this.max);
+
+		for (int j = 0; j <= last; ++j) {
+			this.counts[j] = 0;
+		}
+		this.count = 0;
+		this.total = 0;
+		this.max = 0;
+	}
+
+
+	public long getCount()
+	{
+		return this.count;
+	}
+
+
+	public long getMax()
+	{
+		return this.max;
+	}
+
+
+	public double getMean()
+	{
+		return this.count == 0 ? 0.0 : (double)this.total / this.count;
+	}
+
+
+	/**
+	 * Gives a percentile of the values.
+	 *
+	 * @param percent
+	 * The percentile wanted, from 0 to 100.
+	 *
+	 * @return The smallest value that at least that percentage of the
+	 * values do not exceed, to the precision of the buckets, or 0 if
+	 * there are no values.
+	 */
+	public long getPercentile(double percent)
+	{
+		long rank = (long)Math.ceil(percent / 100.0 * this.count);
+		int last = indexOf(this.max);
+		long seen = 0;
+
+		for (int j = 0; j <= last; ++j) {
+			seen += this.counts[j];
+			if (seen >= rank && seen > 0) {
+				return Math.min(highestValueOf(j), this.max);
+			}
+		}
+		return this.max;
+	}
+
+
+	/**
+	 * Gives the bucket of a value.
+	 */
+	static int indexOf(long value)
+	{
+		if (value < 2 * SUB_BUCKETS) {
+			return (int)value;
+		}
+
+		int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - PRECISION_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int)(value >>> shift) - SUB_BUCKETS;
+	}
+
+
+	/**
+	 * Gives the largest value that falls in a bucket.
+	 */
+	static long highestValueOf(int index)
+	{
+		if (index < 2 * SUB_BUCKETS) {
+			return index;
+		}
+
+		int shift = index / SUB_BUCKETS - 1;
+		long lowest = (long)(index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+}
@@ -0,0 +1,353 @@
+package jqa.elevator;
+
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Reads and writes the little JSON the {@link ControlServer} speaks.
+ * A document is read into plain objects: a {@link Map} for an object,
+ * with its members in order, a {@link List} for an array, a
+ * {@link Long} or {@link Double} for a number, a {@link String},
+ * a {@link Boolean}, or null.
+ *
+ * <p>
+ *     Objects and arrays may be nested {@link #MAX_DEPTH} deep; a
+ *     document nested deeper is refused like any other bad JSON, before
+ *     it can exhaust the stack of the thread reading it.
+ * </p>
+ */
+final class Json
+{
+	static final int MAX_DEPTH = 64;
+
+	private final String text;
+	private int          position;
+
+	/**
+	 * The number of objects and arrays open at the position.
+	 */
+	private int depth;
+
+
+	private Json(String text)
+	{
+		this.text = text;
+		this.position = 0;
+		this.depth = 0;
+	}
+
+
+	/**
+	 * Reads a JSON document.
+	 *
+	 * @param text
+	 * The document.
+	 *
+	 * @return The value it holds.
+	 *
+	 * @throws IllegalArgumentException If the text is not JSON, or is
+	 * nested too deep.
+	 */
+	static Object parse(String text)
+	{
+		Json json = new Json(text);
+		Object value = json.readValue();
+
+		json.skipSpace();
+		if (json.position != text.length()) {
+			throw json.error("Extra text");
+		}
+		return value;
+	}
+
+
+	/**
+	 * Appends a string as a JSON string, quoted and escaped.
+	 */
+	static StringBuilder appendString(StringBuilder out, String value)
+	{
+		out.append('"');
+		for (int j = 0; j < value.length(); ++j) {
+			char c = value.charAt(j);
+			switch (c) {
+			case '"':
+				out.append("\\\"");
+				break;
+			case '\\':
+				out.append("\\\\");
+				break;
+			case '\n':
+				out.append("\\n");
+				break;
+			case '\r':
+				out.append("\\r");
+				break;
+			case '\t':
+				out.append("\\t");
+				break;
+			default:
+				if (c < ' ') {
+					out.append(String.format("\\u%04x", (int)c));
+				}
+				else {
+					out.append(c);
+				}
+				break;
+			}
+		}
+		return out.append('"');
+	}
+
+
+	/**
+	 * Gives a member of an object as an int.
+	 *
+	 * @param object
+	 * The object.
+	 *
+	 * @param name
+	 * The name of the member.
+	 *
+	 * @param defaultValue
+	 * The value if the member is missing.
+	 *
+	 * @throws IllegalArgumentException If the member is not an integer.
+	 */
+	static int getInt(Map<?, ?> object, String name, int defaultValue)
+	{
+		Object value = object.get(name);
+
+		if (value == null) {
+			return defaultValue;
+		}
+		if (!(value instanceof Long) || (Long)value != ((Long)value).intValue()) {
+			throw new IllegalArgumentException(String.format("\"%s\" is not an integer", name));
+		}
+		return ((Long)value).intValue();
+	}
+
+
+	/**
+	 * Gives a member of an object as a string.
+	 *
+	 * @return The string, or null if the member is missing.
+	 *
+	 * @throws IllegalArgumentException If the member is not a string.
+	 */
+	static String getString(Map<?, ?> object, String name)
+	{
+		Object value = object.get(name);
+
+		if (value != null && !(value instanceof String)) {
+			throw new IllegalArgumentException(String.format("\"%s\" is not a string", name));
+		}
+		return (String)value;
+	}
+
+
+	private Object readValue()
+	{
+		this.skipSpace();
+		if (this.position >= this.text.length()) {
+			throw this.error("Unexpected end");
+		}
+
+		char c = this.text.charAt(this.position);
+		switch (c) {
+		case '{':
+		case '[':
+			if (this.depth == MAX_DEPTH) {
+				throw this.error("Nested too deep");
+			}
+			++this.depth;
+			Object value = c == '{' ? this.readObject() : this.readArray();
+			--this.depth;
+			return value;
+		case '"':
+			return this.readString();
+		case 't':
+			return this.readWord("true", Boolean.TRUE);
+		case 'f':
+			return this.readWord("false", Boolean.FALSE);
+		case 'n':
+			return this.readWord("null", null);
+		default:
+			if (c == '-' || (c >= '0' && c <= '9')) {
+				return this.readNumber();
+			}
+			throw this.error("Unexpected character");
+		}
+	}
+
+
+	private Map<String, Object> readObject()
+	{
+		Map<String, Object> object = new LinkedHashMap<>();
+
+		++this.position;
+		this.skipSpace();
+		if (this.accept('}')) {
+			return object;
+		}
+		do {
+			this.skipSpace();
+			if (this.position >= this.text.length() || this.text.charAt(this.position) != '"') {
+				throw this.error("Expected a name");
+			}
+			String name = this.readString();
+			this.skipSpace();
+			if (!this.accept(':')) {
+				throw this.error("Expected ':'");
+			}
+			object.put(name, this.readValue());
+			this.skipSpace();
+		} while (this.accept(','));
+		if (!this.accept('}')) {
+			throw this.error("Expected ',' or '}'");
+		}
+		return object;
+	}
+
+
+	private List<Object> readArray()
+	{
+		List<Object> array = new ArrayList<>();
+
+		++this.position;
+		this.skipSpace();
+		if (this.accept(']')) {
+			return array;
+		}
+		do {
+			array.add(this.readValue());
+			this.skipSpace();
+		} while (this.accept(','));
+		if (!this.accept(']')) {
+			throw this.error("Expected ',' or ']'");
+		}
+		return array;
+	}
+
+
+	private String readString()
+	{
+		StringBuilder value = new StringBuilder();
+
+		++this.position;
+		for (;;) {
+			if (this.position >= this.text.length()) {
+				throw this.error("Unterminated string");
+			}
+			char c = this.text.charAt(this.position++);
+			if (c == '"') {
+				return value.toString();
+			}
+			if (c != '\\') {
+				value.append(c);
+				continue;
+			}
+			if (this.position >= this.text.length()) {
+				throw this.error("Unterminated string");
+			}
+			c = this.text.charAt(this.position++);
+			switch (c) {
+			case 'b':
+				value.append('\b');
+				break;
+			case 'f':
+				value.append('\f');
+				break;
+			case 'n':
+				value.append('\n');
+				break;
+			case 'r':
+				value.append('\r');
+				break;
+			case 't':
+				value.append('\t');
+				break;
+			case 'u':
+				if (this.position + 4 > this.text.length()) {
+					throw this.error("Bad escape");
+				}
+				try {
+					value.append((char)Integer.parseInt(this.text.substring(this.position, this.position + 4), 16));
+				}
+				catch (NumberFormatException e) {
+					throw this.error("Bad escape");
+				}
+				this.position += 4;
+				break;
+			default:
+				value.append(c);
+				break;
+			}
+		}
+	}
+
+
+	private Object readNumber()
+	{
+		int start = this.position;
+		boolean isInteger = true;
+
+		while (this.position < this.text.length()) {
+			char c = this.text.charAt(this.position);
+			if (c == '.' || c == 'e' || c == 'E') {
+				isInteger = false;
+			}
+			else if (!(c == '-' || c == '+' || (c >= '0' && c <= '9'))) {
+				break;
+			}
+			++this.position;
+		}
+		String number = this.text.substring(start, this.position);
+		try {
+			if (isInteger) {
+				return Long.parseLong(number);
+			}
+			return Double.parseDouble(number);
+		}
+		catch (NumberFormatException e) {
+			throw this.error("Bad number");
+		}
+	}
+
+
+	private Object readWord(String word, Object value)
+	{
+		if (!this.text.startsWith(word, this.position)) {
+			throw this.error("Unexpected character");
+		}
+		this.position += word.length();
+		return value;
+	}
+
+
+	private boolean accept(char c)
+	{
+		if (this.position < this.text.length() && this.text.charAt(this.position) == c) {
+			++this.position;
+			return true;
+		}
+		return false;
+	}
+
+
+	private void skipSpace()
+	{
+		while (this.position < this.text.length() && Character.isWhitespace(this.text.charAt(this.position))) {
+			++this.position;
+		}
+	}
+
+
+	private IllegalArgumentException error(String message)
+	{
+		return new IllegalArgumentException(String.format("%s at offset %d", message, this.position));
+	}
+}
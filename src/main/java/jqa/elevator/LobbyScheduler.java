@@ -0,0 +1,31 @@
+package jqa.elevator;
+
+
+/**
+ * Parks every idle car at the lobby.  This suits the morning up-peak,
+ * when nearly all the calls are people arriving at the ground floor.
+ */
+public class LobbyScheduler
+	implements Scheduler
+{
+	private int lobbyFloor;
+
+
+	/**
+	 * Creates the scheduler.
+	 *
+	 * @param lobbyFloor
+	 * The floor where the cars wait.
+	 */
+	public LobbyScheduler(int lobbyFloor)
+	{
+		this.lobbyFloor = lobbyFloor;
+	}
+
+
+	@Override
+	public int getPreferredFloor(int elevator)
+	{
+		return this.lobbyFloor;
+	}
+}
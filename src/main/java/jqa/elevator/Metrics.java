@@ -0,0 +1,293 @@
+package jqa.elevator;
+
+
+import java.io.PrintStream;
+
+
+/**
+ * Instruments a running controller.  On top of the waiting, ride and
+ * journey times of {@link ServiceStatistics}, this records the time the
+ * dispatcher takes to choose a car, and for each car the stops it makes
+ * and the distance it travels, floor by floor.  With the count of stimuli
+ * handled, it gives the rate of events, against real time and against
+ * simulated time.
+ *
+ * <p>
+ *     Everything is kept in {@link Histogram} objects and counters, so
+ *     recording allocates nothing and costs a few array updates.  Only
+ *     the reports allocate, and they are made by the caller, between
+ *     ticks: at the end of a run, with {@link #printSummary}, and during
+ *     it, with {@link #isReportDue} and {@link #printReport}.
+ * </p>
+ *
+ * <p>
+ *     The per-car counts come from the {@link EventBus}, on the
+ *     simulation thread (the coordinator, under a
+ *     {@link ConcurrentRuntime}), and are read from any thread without
+ *     locks; a report made while the cars are moving may be a little
+ *     behind.
+ * </p>
+ */
+public class Metrics
+	extends ServiceStatistics
+	implements BuildingListener
+{
+	private ElevatorControlSystem controlSystem;
+
+	/**
+	 * The time the dispatcher took to choose each car, in nanoseconds.
+	 */
+	private Histogram assignmentLatencies;
+
+	/**
+	 * For each car, by index: the number of stops (door openings), the
+	 * distance travelled in millimeters, and the floor it was last
+	 * seen at.
+	 */
+	private long[] stopCounts;
+	private long[] distances;
+	private int[]  lastFloors;
+
+	/**
+	 * The interval between periodic reports, in ticks, and the state at
+	 * the last one: simulated time, real time and stimuli handled.
+	 */
+	private int  reportInterval;
+	private int  nextReport;
+	private int  lastReportTime;
+	private long lastReportNanos;
+	private long lastStimulusCount;
+	private long startNanos;
+
+
+	/**
+	 * Creates the metrics of a controller.  They record nothing until
+	 * {@link #attach attached}.
+	 *
+	 * @param controlSystem
+	 * The controller, with all its cars added.
+	 */
+	public Metrics(ElevatorControlSystem controlSystem)
+	{
+		int carCount = controlSystem.elevators.size();
+
+		this.controlSystem = controlSystem;
+		this.assignmentLatencies = new Histogram();
+		this.stopCounts = new long[carCount];
+		this.distances = new long[carCount];
+		this.lastFloors = new int[carCount];
+		for (int j = 0; j < carCount; ++j) {
+			this.lastFloors[j] = controlSystem.elevators.get(j).currentFloor;
+		}
+		this.reportInterval = 0;
+		this.nextReport = Integer.MAX_VALUE;
+		this.lastReportTime = controlSystem.getCurrentTime();
+		this.startNanos = System.nanoTime();
+		this.lastReportNanos = this.startNanos;
+		this.lastStimulusCount = controlSystem.getStimulusCount();
+	}
+
+
+	/**
+	 * Starts recording: makes these metrics the controller's service
+	 * listener, and subscribes them to its event bus.
+	 */
+	public void attach()
+	{
+		this.controlSystem.setServiceListener(this);
+		this.controlSystem.getEventBus().subscribe(this);
+	}
+
+
+	/**
+	 * Stops recording.
+	 */
+	public void detach()
+	{
+		this.controlSystem.setServiceListener(null);
+		this.controlSystem.getEventBus().unsubscribe(this);
+	}
+
+
+	/**
+	 * Sets how often {@link #isReportDue} asks for a report.
+	 *
+	 * @param ticks
+	 * The interval in simulated time, or 0 for no periodic reports.
+	 */
+	public void setReportInterval(int ticks)
+	{
+		this.reportInterval = ticks;
+		this.nextReport = ticks > 0 ? this.controlSystem.getCurrentTime() + ticks : Integer.MAX_VALUE;
+	}
+
+
+	/**
+	 * Tells whether the simulation has passed the time of the next
+	 * periodic report.
+	 */
+	public boolean isReportDue()
+	{
+		return this.controlSystem.getCurrentTime() >= this.nextReport;
+	}
+
+
+	public Histogram getAssignmentLatencies()
+	{
+		return this.assignmentLatencies;
+	}
+
+
+	/**
+	 * Gives the number of times a car has opened its doors at a floor.
+	 *
+	 * @param elevator
+	 * The index of the car.
+	 */
+	public long getStopCount(int elevator)
+	{
+		return this.stopCounts[elevator];
+	}
+
+
+	/**
+	 * Gives the distance a car has travelled, in millimeters.
+	 *
+	 * @param elevator
+	 * The index of the car.
+	 */
+	public long getDistance(int elevator)
+	{
+		return this.distances[elevator];
+	}
+
+
+	/**
+	 * Prints one line on the interval since the last report: the
+	 * stimuli handled and their rates, and the passengers' waits, and
+	 * schedules the next report.
+	 *
+	 * @param out
+	 * The stream to print to.
+	 */
+	public void printReport(PrintStream out)
+	{
+		int time = this.controlSystem.getCurrentTime();
+		long nanos = System.nanoTime();
+		long stimuli = this.controlSystem.getStimulusCount();
+		long handled = stimuli - this.lastStimulusCount;
+		double seconds = (nanos - this.lastReportNanos) / 1e9;
+		double simulated = (double)(time - this.lastReportTime) / MotionProfile.TICKS_PER_SECOND;
+
+		out.printf("=== metrics: time %d, %d events, %.0f events/s, %.1f events/simulated s,"
+				+ " %d delivered, wait p50 %.1f s p99 %.1f s%n",
+				time,
+				handled,
+				seconds > 0 ? handled / seconds : 0.0,
+				simulated > 0 ? handled / simulated : 0.0,
+				this.getRideTimes().getCount(),
+				toSeconds(this.getPassengerWaitTimes().getPercentile(50)),
+				toSeconds(this.getPassengerWaitTimes().getPercentile(99))
+		);
+		this.lastReportTime = time;
+		this.lastReportNanos = nanos;
+		this.lastStimulusCount = stimuli;
+		if (this.reportInterval > 0) {
+			while (this.nextReport <= time) {
+				this.nextReport += this.reportInterval;
+			}
+		}
+	}
+
+
+	/**
+	 * Prints the whole picture since the metrics were created: the
+	 * distributions of times, the dispatcher's latency, the work of each
+	 * car, and the overall rate of events.
+	 *
+	 * @param out
+	 * The stream to print to.
+	 */
+	public void printSummary(PrintStream out)
+	{
+		double seconds = (System.nanoTime() - this.startNanos) / 1e9;
+		long stimuli = this.controlSystem.getStimulusCount();
+
+		out.printf("=== metrics summary: %d events in %.2f s (%.0f events/s)%n",
+				stimuli, seconds, seconds > 0 ? stimuli / seconds : 0.0);
+		printTicks(out, "call wait", this.getWaitTimes());
+		printTicks(out, "stop", this.getTravelTimes());
+		printTicks(out, "wait", this.getPassengerWaitTimes());
+		printTicks(out, "ride", this.getRideTimes());
+		printTicks(out, "journey", this.getJourneyTimes());
+
+		Histogram latencies = this.assignmentLatencies;
+		out.printf("%-10s %10d  mean %8.0f ns  p50 %8d ns  p99 %8d ns  max %8d ns%n",
+				"assign",
+				latencies.getCount(),
+				latencies.getMean(),
+				latencies.getPercentile(50),
+				latencies.getPercentile(99),
+				latencies.getMax()
+		);
+		for (int j = 0; j < this.stopCounts.length; ++j) {
+			out.printf("%-10s %10d stops  %10.1f m%n",
+					this.controlSystem.elevators.get(j).getDeviceIdentity(),
+					this.stopCounts[j],
+					this.distances[j] / 1000.0
+			);
+		}
+		if (this.getLeftBehindCount() > 0) {
+			out.printf("=== %d left behind%n", this.getLeftBehindCount());
+		}
+	}
+
+
+	private static void printTicks(PrintStream out, String name, Histogram histogram)
+	{
+		if (histogram.getCount() == 0) {
+			return;
+		}
+		out.printf("%-10s %10d  mean %6.1f s  p50 %6.1f s  p90 %6.1f s  p99 %6.1f s  max %6.1f s%n",
+				name,
+				histogram.getCount(),
+				histogram.getMean() / MotionProfile.TICKS_PER_SECOND,
+				toSeconds(histogram.getPercentile(50)),
+				toSeconds(histogram.getPercentile(90)),
+				toSeconds(histogram.getPercentile(99)),
+				toSeconds(histogram.getMax())
+		);
+	}
+
+
+	private static double toSeconds(long ticks)
+	{
+		return (double)ticks / MotionProfile.TICKS_PER_SECOND;
+	}
+
+
+	@Override
+	public void callAssigned(int timestamp, int floor, Direction direction, Elevator elevator, long latencyNanos)
+	{
+		this.assignmentLatencies.record(latencyNanos);
+	}
+
+
+	@Override
+	public void carFloorChanged(Elevator car, int floor)
+	{
+		int index = car.getIndex();
+
+		this.distances[index] += (long)Math.abs(floor - this.lastFloors[index]) * car.profile.floorHeight;
+		this.lastFloors[index] = floor;
+	}
+
+
+	@Override
+	public void carStateChanged(Elevator car, CarState state)
+	{
+		if (state == CarState.kDOORS_OPENING) {
+			++this.stopCounts[car.getIndex()];
+		}
+	}
+}
@@ -0,0 +1,490 @@
+package jqa.elevator;
+
+
+/**
+ * Moves the elevator cars of a control system, one tick at a time.
+ * Each car runs a small state machine ({@link CarState}): idle, moving
+ * toward its next stop, then opening, holding and closing its doors.
+ *
+ * <p>
+ *     A moving car accelerates toward its cruising speed and slows down
+ *     to stop exactly at the next scheduled floor that it can still
+ *     reach (see {@link MotionProfile#nextSpeed}).  On arrival, the floor
+ *     comes off the car's schedule and the controller serves the floor
+ *     calls there.  The engine reports arrivals, departures and door
+ *     movements as {@link Stimulus} items for the car, queued for the
+ *     following tick, and publishes each change of floor or state on
+ *     the controller's {@link EventBus}.
+ * </p>
+ *
+ * <p>
+ *     The state of each car lives in its {@link Elevator}, in primitive
+ *     fields.  A tick over all cars allocates nothing: the stimuli that
+ *     report events are recycled by the controller.
+ * </p>
+ */
+class MotionEngine
+{
+	/**
+	 * The deferred action of serving the floor calls where a car has
+	 * stopped, and those of publishing a change of the car on the event
+	 * bus.  Other actions are the ordinals of the stimulus types the car
+	 * reports.
+	 */
+	private static final int SERVE_CALLS = -1;
+	private static final int PUBLISH_FLOOR = -2;
+	private static final int PUBLISH_STATE = -3;
+	static final int PUBLISH_SCHEDULED = -4;
+	static final int PUBLISH_UNSCHEDULED = -5;
+	static final int PUBLISH_ENABLED = -6;
+	static final int PUBLISH_DISABLED = -7;
+
+	private static final CarState[] STATES = CarState.values();
+
+	private static final Stimulus.StimulusType[] TYPES = Stimulus.StimulusType.values();
+
+	private ElevatorControlSystem controlSystem;
+	private boolean               isDeferred;
+
+
+	MotionEngine(ElevatorControlSystem controlSystem)
+	{
+		this.controlSystem = controlSystem;
+		this.isDeferred = false;
+	}
+
+
+	/**
+	 * Sets whether a car step keeps to the car.  When deferred, the
+	 * actions that touch the rest of the system (serving the floor calls,
+	 * reporting events, publishing changes on the event bus) are held in
+	 * the car until {@link #flush}, so that cars can be stepped in
+	 * parallel, each on one thread, and listeners are only ever called
+	 * from the thread that flushes.  A deferred
+	 * step still reads the call assignments, which must not change
+	 * until the cars are flushed.
+	 *
+	 * @param isDeferred
+	 * True to defer the actions.
+	 */
+	void setDeferred(boolean isDeferred)
+	{
+		this.isDeferred = isDeferred;
+	}
+
+
+	/**
+	 * Carries out the actions a car deferred during its step, in the
+	 * order it took them.
+	 *
+	 * @param car
+	 * The car.
+	 *
+	 * @param now
+	 * The time of the step.
+	 */
+	void flush(Elevator car, int now)
+	{
+		for (int j = 0; j < car.deferredCount; j += 2) {
+			int action = car.deferredActions[j];
+			int floor = car.deferredActions[j + 1];
+			switch (action) {
+			case SERVE_CALLS:
+				this.controlSystem.serveFloorCalls(car, floor);
+				break;
+			case PUBLISH_FLOOR:
+				this.controlSystem.eventBus.publishCarFloorChanged(car, floor);
+				break;
+			case PUBLISH_STATE:
+				this.controlSystem.eventBus.publishCarStateChanged(car, STATES[floor]);
+				break;
+			case PUBLISH_SCHEDULED:
+			case PUBLISH_UNSCHEDULED:
+				this.controlSystem.eventBus.publishScheduleChanged(car, floor, action == PUBLISH_SCHEDULED);
+				break;
+			case PUBLISH_ENABLED:
+			case PUBLISH_DISABLED:
+				this.controlSystem.eventBus.publishFloorEnabledChanged(car, floor, action == PUBLISH_ENABLED);
+				break;
+			default:
+				this.controlSystem.emitStimulus(now + 1, TYPES[action], car, floor);
+				break;
+			}
+		}
+		car.deferredCount = 0;
+	}
+
+
+	/**
+	 * Advances every car by one tick.
+	 *
+	 * @param now
+	 * The time at the start of the tick.  Events are reported at the
+	 * end of the tick, {@code now + 1}.
+	 */
+	void advance(int now)
+	{
+		for (int j = 0; j < this.controlSystem.elevators.size(); ++j) {
+			this.advance(this.controlSystem.elevators.get(j), now);
+		}
+	}
+
+
+	/**
+	 * Advances one car by one tick.
+	 */
+	void advance(Elevator car, int now)
+	{
+		car.isStepDeferred = this.isDeferred;
+		this.step(car, now);
+		car.isStepDeferred = false;
+	}
+
+
+	private void step(Elevator car, int now)
+	{
+		switch (car.carState) {
+		case kIDLE:
+			this.start(car, now);
+			break;
+
+		case kMOVING:
+			this.move(car, now);
+			break;
+
+		case kDOORS_OPENING:
+			if (--car.stateTicks <= 0) {
+				this.setState(car, CarState.kDOORS_OPEN);
+				car.stateTicks = car.profile.doorDwellTicks;
+				this.report(car, Stimulus.StimulusType.DoorsOpened, now);
+			}
+			break;
+
+		case kDOORS_OPEN:
+			/* Anyone arriving while the doors are open is served now.
+			 */
+			if (car.isFloorScheduled(car.currentFloor)) {
+				this.serve(car, now);
+			}
+			if (--car.stateTicks <= 0) {
+				this.setState(car, CarState.kDOORS_CLOSING);
+				car.stateTicks = car.profile.doorCloseTicks;
+			}
+			break;
+
+		case kDOORS_CLOSING:
+			if (--car.stateTicks <= 0) {
+				this.setState(car, CarState.kIDLE);
+				this.controlSystem.restoreDeferredCalls(car);
+				this.report(car, Stimulus.StimulusType.DoorsClosed, now);
+			}
+			break;
+		}
+	}
+
+
+	/**
+	 * Handles an idle car: it opens its doors if it is called to the
+	 * floor it is on, or sets off toward its next stop.
+	 */
+	private void start(Elevator car, int now)
+	{
+		Direction heading = car.getHeading();
+
+		if (car.isFloorScheduled(car.currentFloor)
+				&& (heading == Direction.kIDLE || heading != car.currentDirection)) {
+			if (heading != Direction.kIDLE) {
+				car.currentDirection = heading;
+			}
+			this.serve(car, now);
+			return;
+		}
+		car.currentDirection = heading;
+		if (heading != Direction.kIDLE) {
+			this.setState(car, CarState.kMOVING);
+			car.speed = 0;
+			this.report(car, Stimulus.StimulusType.CarDeparted, now);
+		}
+	}
+
+
+	/**
+	 * Moves a car one tick toward the next stop it can still reach,
+	 * and handles the arrival when it gets there.
+	 */
+	private void move(Elevator car, int now)
+	{
+		MotionProfile profile = car.profile;
+		int bottom = this.controlSystem.getFloorBottom();
+		int target = this.findTarget(car, car.position, car.speed);
+		int remaining = Math.abs((target - bottom) * profile.floorHeight - car.position);
+
+		car.speed = remaining > 0 ? profile.nextSpeed(car.speed, remaining) : 0;
+		if (car.currentDirection == Direction.kUP) {
+			car.position += car.speed;
+			this.setFloor(car, bottom + car.position / profile.floorHeight);
+		}
+		else {
+			car.position -= car.speed;
+			this.setFloor(car, bottom + (car.position + profile.floorHeight - 1) / profile.floorHeight);
+		}
+		if (car.speed == remaining) {
+			car.speed = 0;
+			this.setFloor(car, target);
+			this.report(car, Stimulus.StimulusType.CarArrived, now);
+			if (target == car.parkingFloor) {
+				car.parkingFloor = Scheduler.NONE;
+				car.setIsFloorSchedule(target, false);
+				this.setState(car, CarState.kIDLE);
+			}
+			else if (car.isFloorScheduled(target)) {
+				this.serve(car, now);
+			}
+			else {
+				this.setState(car, CarState.kIDLE);
+			}
+		}
+	}
+
+
+	/**
+	 * Chooses the floor a moving car heads for: its next scheduled stop
+	 * that it can still reach, or else the first floor it can stop at.
+	 *
+	 * @param car
+	 * The car, moving in its current direction.
+	 *
+	 * @param position
+	 * The car's position.
+	 *
+	 * @param speed
+	 * The car's speed.
+	 *
+	 * @return The target floor.
+	 */
+	private int findTarget(Elevator car, int position, int speed)
+	{
+		MotionProfile profile = car.profile;
+		int bottom = this.controlSystem.getFloorBottom();
+		int top = this.controlSystem.getFloorTop();
+		// A car at rest must still leave its floor: it is here only
+		// because a stop at this floor was deferred to a later sweep.
+		int braking = Math.max(profile.brakingDistance(speed), 1);
+		int first;
+		int target;
+
+		if (car.currentDirection == Direction.kUP) {
+			int reachable = position + braking;
+			first = Math.min(bottom + (reachable + profile.floorHeight - 1) / profile.floorHeight, top);
+			target = car.nextScheduledFloor(first);
+		}
+		else {
+			int reachable = position - braking;
+			first = Math.max(bottom + Math.max(reachable, 0) / profile.floorHeight, bottom);
+			target = car.previousScheduledFloor(first);
+		}
+		return target < 0 ? first : target;
+	}
+
+
+	/**
+	 * Gives the time of the next tick at which a car does something
+	 * that matters to the rest of the system: it sets off, arrives,
+	 * or its doors change.  Between now and then the car changes only
+	 * in ways that {@link #skip} reproduces.  The answer holds only as
+	 * long as no stimulus changes the car's schedule, and for a moving
+	 * car it is kept until then, so asking again costs nothing.
+	 *
+	 * @param car
+	 * The car.
+	 *
+	 * @param now
+	 * The time of the next tick.
+	 *
+	 * @return The time of the car's next event, or
+	 * {@code Integer.MAX_VALUE} if it is at rest with nothing to do.
+	 */
+	int getNextEventTime(Elevator car, int now)
+	{
+		switch (car.carState) {
+		case kIDLE:
+			if (car.getStopCount() > 0 || car.currentDirection != Direction.kIDLE) {
+				return now;
+			}
+			return Integer.MAX_VALUE;
+
+		case kMOVING:
+			if (car.arrivalModification != car.modificationCount || car.arrivalTime < now) {
+				car.arrivalTime = now + this.countTicksToArrival(car) - 1;
+				car.arrivalModification = car.modificationCount;
+			}
+			return car.arrivalTime;
+
+		default:
+			return now + Math.max(car.stateTicks, 1) - 1;
+		}
+	}
+
+
+	/**
+	 * Counts the ticks a moving car takes to arrive at its target,
+	 * including the tick of the arrival itself.  This replays
+	 * {@link #move} without moving the car, and keeps the car's position
+	 * and speed at the start of the arrival tick for {@link #skip}.
+	 */
+	private int countTicksToArrival(Elevator car)
+	{
+		MotionProfile profile = car.profile;
+		int bottom = this.controlSystem.getFloorBottom();
+		int sign = car.currentDirection == Direction.kUP ? 1 : -1;
+		int position = car.position;
+		int speed = car.speed;
+		int ticks = 0;
+
+		for (;;) {
+			int target = this.findTarget(car, position, speed);
+			int remaining = Math.abs((target - bottom) * profile.floorHeight - position);
+			int nextSpeed = remaining > 0 ? profile.nextSpeed(speed, remaining) : 0;
+			++ticks;
+			if (nextSpeed == remaining) {
+				car.arrivalPosition = position;
+				car.arrivalSpeed = speed;
+				return ticks;
+			}
+			speed = nextSpeed;
+			position += sign * speed;
+		}
+	}
+
+
+	/**
+	 * Advances a car over ticks in which nothing happens to it, as
+	 * given by {@link #getNextEventTime}.  The result is the same as
+	 * calling {@link #advance(Elevator, int)} for each of the ticks.
+	 *
+	 * <p>
+	 *     A moving car skipped up to its arrival tick is put where
+	 *     {@link #countTicksToArrival} left it, in one step, and reports
+	 *     the floors it passes on the way.  A car that can pass more than
+	 *     one floor in a tick, or that stops short of its arrival tick
+	 *     for another car's event, is moved tick by tick.
+	 * </p>
+	 *
+	 * @param car
+	 * The car.
+	 *
+	 * @param now
+	 * The time of the first tick skipped.
+	 *
+	 * @param ticks
+	 * The number of ticks to skip.
+	 */
+	void skip(Elevator car, int now, int ticks)
+	{
+		switch (car.carState) {
+		case kIDLE:
+			break;
+
+		case kMOVING:
+			if (now + ticks == car.arrivalTime && car.arrivalModification == car.modificationCount
+					&& car.profile.maxSpeed <= car.profile.floorHeight) {
+				this.jumpToArrival(car);
+				break;
+			}
+			for (int j = 0; j < ticks; ++j) {
+				this.move(car, now + j);
+			}
+			break;
+
+		default:
+			car.stateTicks -= ticks;
+			break;
+		}
+	}
+
+
+	/**
+	 * Puts a moving car where it is at the start of its arrival tick.
+	 * It passes at most one floor a tick, so it reports each floor
+	 * between, in order, as moving it tick by tick would.
+	 */
+	private void jumpToArrival(Elevator car)
+	{
+		MotionProfile profile = car.profile;
+		int bottom = this.controlSystem.getFloorBottom();
+		int floor;
+
+		car.position = car.arrivalPosition;
+		car.speed = car.arrivalSpeed;
+		if (car.currentDirection == Direction.kUP) {
+			floor = bottom + car.position / profile.floorHeight;
+		}
+		else {
+			floor = bottom + (car.position + profile.floorHeight - 1) / profile.floorHeight;
+		}
+
+		int sign = floor > car.currentFloor ? 1 : -1;
+		while (car.currentFloor != floor) {
+			this.setFloor(car, car.currentFloor + sign);
+		}
+	}
+
+
+	/**
+	 * Serves the car's current floor: the stop comes off the schedule,
+	 * the controller clears the floor calls the car can take, and the
+	 * doors open (if they are not open already).
+	 */
+	private void serve(Elevator car, int now)
+	{
+		car.setIsFloorSchedule(car.currentFloor, false);
+		if (this.isDeferred) {
+			car.defer(SERVE_CALLS, car.currentFloor);
+		}
+		else {
+			this.controlSystem.serveFloorCalls(car, car.currentFloor);
+		}
+		if (car.carState != CarState.kDOORS_OPEN) {
+			this.setState(car, CarState.kDOORS_OPENING);
+			car.stateTicks = car.profile.doorOpenTicks;
+		}
+	}
+
+
+	private void setFloor(Elevator car, int floor)
+	{
+		if (car.currentFloor != floor) {
+			car.currentFloor = floor;
+			if (car.isStepDeferred) {
+				car.defer(PUBLISH_FLOOR, floor);
+			}
+			else {
+				this.controlSystem.eventBus.publishCarFloorChanged(car, floor);
+			}
+		}
+	}
+
+
+	private void setState(Elevator car, CarState state)
+	{
+		if (car.carState != state) {
+			car.carState = state;
+			if (car.isStepDeferred) {
+				car.defer(PUBLISH_STATE, state.ordinal());
+			}
+			else {
+				this.controlSystem.eventBus.publishCarStateChanged(car, state);
+			}
+		}
+	}
+
+
+	private void report(Elevator car, Stimulus.StimulusType type, int now)
+	{
+		if (this.isDeferred) {
+			car.defer(type.ordinal(), car.currentFloor);
+			return;
+		}
+		this.controlSystem.emitStimulus(now + 1, type, car, car.currentFloor);
+	}
+}
@@ -0,0 +1,147 @@
+package jqa.elevator;
+
+
+/**
+ * Gives the physical characteristics of an elevator car: its speed and
+ * acceleration, and the timing of its doors.  All values are integers,
+ * with distance in millimeters and time in ticks, so that the motion is
+ * exactly reproducible.  One tick is one unit of {@link Stimulus#timestamp}.
+ *
+ * <p>
+ *     The car accelerates and decelerates in whole steps of
+ *     {@link #acceleration}, so the maximum speed is rounded down to a
+ *     multiple of the acceleration.
+ * </p>
+ */
+public class MotionProfile
+{
+	/**
+	 * The number of ticks in a second of simulated time.
+	 */
+	public static final int TICKS_PER_SECOND = 10;
+
+	/**
+	 * A typical mid-rise car: 3.5 m floors, 2.5 m/s, 1 m/s&sup2;,
+	 * 2 s to open or close the doors, and 3 s of dwell.
+	 */
+	public static final MotionProfile DEFAULT = new MotionProfile(3500, 250, 10, 20, 30, 20);
+
+	final int floorHeight;
+	final int maxSpeed;
+	final int acceleration;
+	final int doorOpenTicks;
+	final int doorDwellTicks;
+	final int doorCloseTicks;
+
+
+	/**
+	 * Creates a profile.
+	 *
+	 * @param floorHeight
+	 * The distance between floors, in millimeters.
+	 *
+	 * @param maxSpeed
+	 * The cruising speed, in millimeters per tick.
+	 *
+	 * @param acceleration
+	 * The change of speed per tick, in millimeters per tick, for both
+	 * speeding up and slowing down.
+	 *
+	 * @param doorOpenTicks
+	 * The time for the doors to open.
+	 *
+	 * @param doorDwellTicks
+	 * The time the doors stay open.
+	 *
+	 * @param doorCloseTicks
+	 * The time for the doors to close.
+	 *
+	 * @throws IllegalArgumentException If a distance or speed is not
+	 * positive, or a time is negative.
+	 */
+	public MotionProfile(int floorHeight, int maxSpeed, int acceleration,
+			int doorOpenTicks, int doorDwellTicks, int doorCloseTicks)
+	{
+		if (floorHeight <= 0 || acceleration <= 0 || maxSpeed < acceleration) {
+			throw new IllegalArgumentException("Bad floor height, speed or acceleration");
+		}
+		if (doorOpenTicks < 0 || doorDwellTicks < 0 || doorCloseTicks < 0) {
+			throw new IllegalArgumentException("Bad door timing");
+		}
+		this.floorHeight = floorHeight;
+		this.maxSpeed = maxSpeed - maxSpeed % acceleration;
+		this.acceleration = acceleration;
+		this.doorOpenTicks = doorOpenTicks;
+		this.doorDwellTicks = doorDwellTicks;
+		this.doorCloseTicks = doorCloseTicks;
+	}
+
+
+	/**
+	 * Gives the distance a car covers while stopping, if it starts
+	 * slowing down on the next tick.
+	 *
+	 * @param speed
+	 * The current speed, in millimeters per tick.
+	 *
+	 * @return The stopping distance, in millimeters.
+	 */
+	int brakingDistance(int speed)
+	{
+		int steps = speed / this.acceleration;
+		return this.acceleration * steps * (steps - 1) / 2;
+	}
+
+
+	/**
+	 * Gives the time to cruise past one floor, rounded up.  This is the
+	 * per-floor travel time used to estimate arrival times.
+	 *
+	 * @return The time in ticks.
+	 */
+	int getFloorTicks()
+	{
+		return (this.floorHeight + this.maxSpeed - 1) / this.maxSpeed;
+	}
+
+
+	/**
+	 * Gives the time lost by stopping at a floor, compared with cruising
+	 * past it: slowing down and speeding up again, plus the full door
+	 * cycle.  This is the per-stop time used to estimate arrival times.
+	 *
+	 * @return The time in ticks.
+	 */
+	int getStopTicks()
+	{
+		return this.maxSpeed / this.acceleration
+				+ this.doorOpenTicks + this.doorDwellTicks + this.doorCloseTicks;
+	}
+
+
+	/**
+	 * Chooses the speed for the next tick, when travelling toward a stop.
+	 * The speed is the highest that still allows the car to stop exactly
+	 * at the target, changing by at most one step of acceleration.  Very
+	 * close to the target, the car creeps the remaining distance.
+	 *
+	 * @param speed
+	 * The current speed.
+	 *
+	 * @param remaining
+	 * The distance left to the target (positive).
+	 *
+	 * @return The distance to move on this tick.
+	 */
+	int nextSpeed(int speed, int remaining)
+	{
+		int a = this.acceleration;
+		int steps = Math.min(speed / a + 1, this.maxSpeed / a);
+		for (; steps > 0; --steps) {
+			if ((long)a * steps * (steps + 1) / 2 <= remaining) {
+				return steps * a;
+			}
+		}
+		return Math.min(remaining, a);
+	}
+}
@@ -0,0 +1,80 @@
+package jqa.elevator;
+
+
+/**
+ * Packs a passenger into a single {@code long}: a time, the floor they
+ * start from and the floor they want.  A run can carry tens of millions
+ * of passengers, so they are kept as plain values in
+ * {@link PassengerQueue} objects rather than as objects of their own.
+ *
+ * <p>
+ *     The time is the passenger's arrival while they wait, and the time
+ *     they boarded while they ride.  It takes the high 32 bits, so
+ *     passengers waiting at the same place sort by time; the origin and
+ *     destination take 16 bits each.
+ * </p>
+ */
+public final class Passenger
+{
+	private Passenger()
+	{
+	}
+
+
+	/**
+	 * Packs a passenger.
+	 *
+	 * @param time
+	 * The time of arrival or of boarding, in ticks.
+	 *
+	 * @param origin
+	 * The floor the passenger starts from.
+	 *
+	 * @param destination
+	 * The floor the passenger wants.
+	 *
+	 * @return The passenger.
+	 */
+	public static long pack(int time, int origin, int destination)
+	{
+		return (long)time << 32 | (origin & 0xFFFF) << 16 | destination & 0xFFFF;
+	}
+
+
+	public static int getTime(long passenger)
+	{
+		return (int)(passenger >>> 32);
+	}
+
+
+	public static int getOrigin(long passenger)
+	{
+		return (int)passenger >>> 16 & 0xFFFF;
+	}
+
+
+	public static int getDestination(long passenger)
+	{
+		return (int)passenger & 0xFFFF;
+	}
+
+
+	/**
+	 * Gives the direction of a passenger's trip.
+	 *
+	 * @return {@link Direction#kUP} or {@link Direction#kDOWN}.
+	 */
+	public static Direction getDirection(long passenger)
+	{
+		return getDestination(passenger) > getOrigin(passenger) ? Direction.kUP : Direction.kDOWN;
+	}
+
+
+	/**
+	 * Gives a passenger with a new time, at boarding.
+	 */
+	static long withTime(long passenger, int time)
+	{
+		return pack(time, getOrigin(passenger), getDestination(passenger));
+	}
+}
@@ -0,0 +1,126 @@
+package jqa.elevator;
+
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+
+/**
+ * A first-in, first-out queue of passengers, packed as by
+ * {@link Passenger}, in a ring buffer that grows as needed.  Besides
+ * the usual operations, the passengers can be walked by position and
+ * filtered in place, keeping their order: rewrite the ones to keep
+ * from position 0 up with {@link #set}, then {@link #truncate} the rest.
+ */
+class PassengerQueue
+{
+	private long[] passengers;
+	private int    head;
+	private int    size;
+
+
+	PassengerQueue()
+	{
+		this.passengers = new long[8];
+		this.head = 0;
+		this.size = 0;
+	}
+
+
+	int size()
+	{
+		return this.size;
+	}
+
+
+	boolean isEmpty()
+	{
+		return this.size == 0;
+	}
+
+
+	void add(long passenger)
+	{
+		if (this.size == this.passengers.length) {
+			long[] grown = new long[2 * this.passengers.length];
+			for (int j = 0; j < this.size; ++j) {
+				grown[j] = this.get(j);
+			}
+			this.passengers = grown;
+			this.head = 0;
+		}
+		this.passengers[(this.head + this.size) & (this.passengers.length - 1)] = passenger;
+		++this.size;
+	}
+
+
+	/**
+	 * Gives the passenger at a position, counting from the head.
+	 */
+	long get(int index)
+	{
+		return this.passengers[(this.head + index) & (this.passengers.length - 1)];
+	}
+
+
+	void set(int index, long passenger)
+	{
+		this.passengers[(this.head + index) & (this.passengers.length - 1)] = passenger;
+	}
+
+
+	/**
+	 * Removes the passenger at the head.  The queue must not be empty.
+	 */
+	long poll()
+	{
+		long passenger = this.passengers[this.head];
+
+		this.head = (this.head + 1) & (this.passengers.length - 1);
+		--this.size;
+		return passenger;
+	}
+
+
+	/**
+	 * Drops the passengers from a position to the tail.
+	 */
+	void truncate(int size)
+	{
+		this.size = Math.min(this.size, size);
+	}
+
+
+	void clear()
+	{
+		this.head = 0;
+		this.size = 0;
+	}
+
+
+	/**
+	 * Writes the passengers, from the head, for a {@link Checkpoint}.
+	 */
+	void writeTo(DataOutput out)
+			throws IOException
+	{
+		out.writeInt(this.size);
+		for (int j = 0; j < this.size; ++j) {
+			out.writeLong(this.get(j));
+		}
+	}
+
+
+	/**
+	 * Replaces the passengers with those written by {@link #writeTo}.
+	 */
+	void readFrom(DataInput in)
+			throws IOException
+	{
+		this.clear();
+		for (int count = in.readInt(); count > 0; --count) {
+			this.add(in.readLong());
+		}
+	}
+}
@@ -0,0 +1,456 @@
+package jqa.elevator;
+
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Chooses the car for each new floor call by trying the likeliest cars
+ * in simulation.  A cost such as {@link Elevator#computeFloorCost}
+ * looks only at the call in hand; a rollout also sees what the choice
+ * does to the calls already waiting and to those still to come.
+ *
+ * <p>
+ *     For each call, the controller is saved in a {@link Checkpoint},
+ *     and the few cars with the lowest cost are candidates.  Each
+ *     candidate has a copy of the controller of its own, built once from
+ *     the {@link BuildingDescription} and reused: the checkpoint is
+ *     restored into it, the call is given to the candidate, and the copy
+ *     runs a short horizon ahead, jumping between events, with the
+ *     traffic expected.  Every copy stops at the end of the horizon.
+ *     The copies dispatch the calls to come by cost.  The car whose copy
+ *     ends with the lowest average wait, over every call waiting at the
+ *     end or served in the horizon, takes the call.
+ * </p>
+ *
+ * <p>
+ *     The candidates run in parallel, one copy to a task on a fork-join
+ *     pool, and the controller waits for them.  A copy is only ever run
+ *     by one task at a time, and a checkpoint never changes, so the
+ *     choice does not depend on the scheduling of threads.  If the
+ *     controller has a {@link DemandForecast}, the traffic expected is
+ *     its rate of calls at each floor for the time of day, spread evenly
+ *     over the horizon, and the copies read the forecast without adding
+ *     to it.  Otherwise it is that of the last horizon again: the calls
+ *     this dispatcher was given in that time, each placed one horizon
+ *     later.
+ * </p>
+ *
+ * <p>
+ *     The copies come from the description, so it must be the one the
+ *     controller was built from.
+ * </p>
+ */
+public class RolloutDispatcher
+	implements Dispatcher, AutoCloseable
+{
+	public static final int DEFAULT_HORIZON = 60 * MotionProfile.TICKS_PER_SECOND;
+	public static final int DEFAULT_CANDIDATE_COUNT = 4;
+
+	/**
+	 * The number of past calls held for predicting the traffic.
+	 */
+	private static final int HISTORY_SIZE = 4096;
+
+	private static final Direction[] DIRECTIONS = { Direction.kUP, Direction.kDOWN };
+
+	private ElevatorControlSystem controlSystem;
+	private BuildingDescription   description;
+	private CostDispatcher        costDispatcher;
+	private int                   horizon;
+	private int                   candidateCount;
+	private int                   threadCount;
+	private ForkJoinPool          pool;
+
+	/**
+	 * The rollout of each car, made the first time the car is a
+	 * candidate, and those chosen for the current call.
+	 */
+	private Rollout[]          rollouts;
+	private ArrayList<Rollout> candidates;
+	private int[]              candidateCosts;
+
+	/**
+	 * The recent calls, in a ring: the time, floor and direction of each.
+	 */
+	private int[]       historyTimes;
+	private int[]       historyFloors;
+	private Direction[] historyDirections;
+	private int         historyNext;
+	private int         historyCount;
+
+	private long callCount;
+	private long rolloutCount;
+	private long changedCount;
+
+
+	/**
+	 * Creates a dispatcher for a controller.
+	 *
+	 * @param controlSystem
+	 * The controller.
+	 *
+	 * @param description
+	 * The description the controller was built from.
+	 *
+	 * @param threadCount
+	 * The number of threads to run the rollouts on.
+	 */
+	public RolloutDispatcher(ElevatorControlSystem controlSystem, BuildingDescription description, int threadCount)
+	{
+		this.controlSystem = controlSystem;
+		this.description = description;
+		this.costDispatcher = new CostDispatcher(controlSystem);
+		this.horizon = DEFAULT_HORIZON;
+		this.candidateCount = DEFAULT_CANDIDATE_COUNT;
+		this.threadCount = threadCount;
+		this.pool = null;
+		this.rollouts = new Rollout[controlSystem.elevators.size()];
+		this.candidates = new ArrayList<>();
+		this.candidateCosts = new int[controlSystem.elevators.size()];
+		this.historyTimes = new int[HISTORY_SIZE];
+		this.historyFloors = new int[HISTORY_SIZE];
+		this.historyDirections = new Direction[HISTORY_SIZE];
+		this.historyNext = 0;
+		this.historyCount = 0;
+	}
+
+
+	/**
+	 * Sets how far ahead each rollout looks.
+	 *
+	 * @param horizon
+	 * The horizon, in ticks, at least 1.
+	 */
+	public void setHorizon(int horizon)
+	{
+		if (horizon < 1) {
+			throw new IllegalArgumentException("Bad horizon: " + horizon);
+		}
+		this.horizon = horizon;
+	}
+
+
+	/**
+	 * Sets how many cars are tried for each call.
+	 *
+	 * @param candidateCount
+	 * The number of cars, from those with the lowest cost, at least 1.
+	 */
+	public void setCandidateCount(int candidateCount)
+	{
+		if (candidateCount < 1) {
+			throw new IllegalArgumentException("Bad candidate count: " + candidateCount);
+		}
+		this.candidateCount = candidateCount;
+	}
+
+
+	/**
+	 * Gives the number of calls dispatched.
+	 */
+	public long getCallCount()
+	{
+		return this.callCount;
+	}
+
+
+	/**
+	 * Gives the number of rollouts run.
+	 */
+	public long getRolloutCount()
+	{
+		return this.rolloutCount;
+	}
+
+
+	/**
+	 * Gives the number of calls given to another car than the one with
+	 * the lowest cost.
+	 */
+	public long getChangedCount()
+	{
+		return this.changedCount;
+	}
+
+
+	/**
+	 * Gives the average wait the last rollout of a car saw.
+	 *
+	 * @return The average wait in ticks, or {@code NaN} if the car has
+	 * never been tried.
+	 */
+	double getAverageWait(Elevator car)
+	{
+		Rollout rollout = this.rollouts[car.getIndex()];
+
+		return rollout == null ? Double.NaN : rollout.averageWait;
+	}
+
+
+	/**
+	 * Stops the threads of the rollouts.
+	 */
+	@Override
+	public void close()
+	{
+		if (this.pool != null) {
+			this.pool.shutdown();
+		}
+	}
+
+
+	@Override
+	public Elevator assignCall(int floor, Direction direction)
+	{
+		Elevator choice;
+
+		++this.callCount;
+		this.chooseCandidates(floor, direction);
+		if (this.candidates.size() < 2) {
+			choice = this.costDispatcher.assignCall(floor, direction);
+		}
+		else {
+			Checkpoint checkpoint = Checkpoint.capture(this.controlSystem);
+			for (Rollout rollout: this.candidates) {
+				rollout.prepare(checkpoint, floor, direction);
+			}
+			if (this.pool == null) {
+				this.pool = new ForkJoinPool(this.threadCount);
+			}
+			this.pool.invoke(new RecursiveAction() {
+				@Override
+				protected void compute()
+				{
+					ForkJoinTask.invokeAll(candidates);
+				}
+			});
+			this.rolloutCount += this.candidates.size();
+
+			Rollout best = this.candidates.get(0);
+			for (Rollout rollout: this.candidates) {
+				if (rollout.averageWait < best.averageWait) {
+					best = rollout;
+				}
+			}
+			if (best != this.candidates.get(0)) {
+				++this.changedCount;
+			}
+			choice = best.car;
+		}
+		this.remember(floor, direction);
+		return choice;
+	}
+
+
+	/**
+	 * Chooses the cars to try: the non-full cars with the lowest cost,
+	 * in order of cost.
+	 */
+	private void chooseCandidates(int floor, Direction direction)
+	{
+		this.candidates.clear();
+		for (Elevator elevator: this.controlSystem.elevators) {
+			int cost = elevator.computeFloorCost(floor, direction);
+			if (cost == Integer.MAX_VALUE || elevator.isFull()) {
+				continue;
+			}
+			int j = this.candidates.size();
+			if (j == this.candidateCount) {
+				if (cost >= this.candidateCosts[j - 1]) {
+					continue;
+				}
+				this.candidates.remove(--j);
+			}
+			if (this.rollouts[elevator.getIndex()] == null) {
+				this.rollouts[elevator.getIndex()] = new Rollout(elevator);
+			}
+			this.candidates.add(this.rollouts[elevator.getIndex()]);
+			for (; j > 0 && this.candidateCosts[j - 1] > cost; --j) {
+				this.candidates.set(j, this.candidates.get(j - 1));
+				this.candidateCosts[j] = this.candidateCosts[j - 1];
+			}
+			this.candidates.set(j, this.rollouts[elevator.getIndex()]);
+			this.candidateCosts[j] = cost;
+		}
+	}
+
+
+	private void remember(int floor, Direction direction)
+	{
+		this.historyTimes[this.historyNext] = this.controlSystem.getCurrentTime();
+		this.historyFloors[this.historyNext] = floor;
+		this.historyDirections[this.historyNext] = direction;
+		this.historyNext = (this.historyNext + 1) % HISTORY_SIZE;
+		this.historyCount = Math.min(this.historyCount + 1, HISTORY_SIZE);
+	}
+
+
+	/**
+	 * Queues the traffic expected in a copy's horizon: the calls the
+	 * forecast gives, or else the calls of the last horizon, each one
+	 * horizon later, most recent first.
+	 */
+	private void addExpectedCalls(ElevatorControlSystem copy, int now)
+	{
+		DemandForecast forecast = this.controlSystem.getDemandForecast();
+
+		if (forecast != null && forecast.getCallCount() > 0) {
+			this.addForecastCalls(copy, forecast, now);
+			return;
+		}
+		for (int j = 1; j <= this.historyCount; ++j) {
+			int slot = (this.historyNext - j + HISTORY_SIZE) % HISTORY_SIZE;
+			int time = this.historyTimes[slot];
+			if (time <= now - this.horizon) {
+				break;
+			}
+			int floor = this.historyFloors[slot];
+			copy.emitStimulus(time + this.horizon,
+					this.historyDirections[slot] == Direction.kUP
+							? Stimulus.StimulusType.ButtonUp
+							: Stimulus.StimulusType.ButtonDown,
+					copy.getFloorCallButton(floor), floor);
+		}
+	}
+
+
+	/**
+	 * Queues the calls a forecast expects in a copy's horizon.  The
+	 * expected counts of the floors, in order, are run together, so that
+	 * a call falls wherever the running total passes a whole number;
+	 * each floor's calls are spaced evenly over the horizon.
+	 */
+	private void addForecastCalls(ElevatorControlSystem copy, DemandForecast forecast, int now)
+	{
+		double carry = 0;
+
+		for (int floor = copy.getFloorBottom(); floor <= copy.getFloorTop(); ++floor) {
+			for (Direction direction: DIRECTIONS) {
+				carry += forecast.getRate(floor, direction, now) * this.horizon;
+
+				int count = (int)carry;
+				carry -= count;
+				for (int j = 0; j < count; ++j) {
+					copy.emitStimulus(now + 1 + (int)((j + 0.5) * this.horizon / count),
+							direction == Direction.kUP
+									? Stimulus.StimulusType.ButtonUp
+									: Stimulus.StimulusType.ButtonDown,
+							copy.getFloorCallButton(floor), floor);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * A copy of the controller in which one car is tried for the call
+	 * in hand, and the waits it sees.
+	 */
+	private class Rollout
+		extends RecursiveAction
+		implements Dispatcher, ServiceListener
+	{
+		private static final long serialVersionUID = 1L;
+
+		final Elevator              car;
+		final ElevatorControlSystem copy;
+		final CostDispatcher        copyDispatcher;
+
+		Checkpoint checkpoint;
+		int        floor;
+		Direction  direction;
+		boolean    isForced;
+		long       waitTotal;
+		long       waitCount;
+		double     averageWait;
+
+
+		Rollout(Elevator car)
+		{
+			this.car = car;
+			this.copy = description.createControlSystem(new CalendarStimulusQueue());
+			this.copy.setDispatcher(this);
+			this.copy.setServiceListener(this);
+			this.copyDispatcher = new CostDispatcher(this.copy);
+		}
+
+
+		void prepare(Checkpoint checkpoint, int floor, Direction direction)
+		{
+			this.checkpoint = checkpoint;
+			this.floor = floor;
+			this.direction = direction;
+			this.copy.shareDemandForecast(controlSystem.getDemandForecast());
+			this.reinitialize();
+		}
+
+
+		@Override
+		protected void compute()
+		{
+			int now = this.checkpoint.getTime();
+			int end = now + horizon;
+
+			this.checkpoint.restore(this.copy);
+			this.waitTotal = 0;
+			this.waitCount = 0;
+			this.isForced = true;
+			this.copy.pickup(this.floor, this.direction);
+			this.isForced = false;
+			addExpectedCalls(this.copy, now);
+
+			/* Every copy stops at the end of the horizon, whatever its
+			 * cars do next, so the waits are all measured to that time.
+			 */
+			while (this.copy.isActive() && this.copy.getCurrentTime() < end) {
+				this.copy.tickToNextEvent(end - 1);
+			}
+			for (int floor = this.copy.getFloorBottom(); floor <= this.copy.getFloorTop(); ++floor) {
+				this.addWaiting(floor, Direction.kUP, end);
+				this.addWaiting(floor, Direction.kDOWN, end);
+			}
+			this.averageWait = this.waitCount == 0 ? 0.0 : (double)this.waitTotal / this.waitCount;
+			this.checkpoint = null;
+		}
+
+
+		/**
+		 * Counts a call still waiting at the end of the horizon.
+		 */
+		private void addWaiting(int floor, Direction direction, int now)
+		{
+			if (this.copy.getAssignedElevator(floor, direction) != null) {
+				this.waitTotal += now - this.copy.getCallTime(floor, direction);
+				++this.waitCount;
+			}
+		}
+
+
+		@Override
+		public Elevator assignCall(int floor, Direction direction)
+		{
+			if (this.isForced) {
+				return this.copy.elevators.get(this.car.getIndex());
+			}
+			return this.copyDispatcher.assignCall(floor, direction);
+		}
+
+
+		@Override
+		public void callServed(int timestamp, int floor, Direction direction, Elevator elevator, int waitTicks)
+		{
+			this.waitTotal += waitTicks;
+			++this.waitCount;
+		}
+
+
+		@Override
+		public void stopServed(int timestamp, Elevator elevator, int floor, int travelTicks)
+		{
+		}
+	}
+}
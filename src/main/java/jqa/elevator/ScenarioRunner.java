@@ -0,0 +1,369 @@
+package jqa.elevator;
+
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+
+/**
+ * Runs many randomized traffic scenarios, each in a {@link Building} of
+ * its own, and gathers the waiting and travel times of all of them.
+ * The scenarios are independent, so they run in parallel on a fork-join
+ * pool, and the time for a sweep falls with the number of cores.
+ *
+ * <p>
+ *     Each scenario streams passengers from a {@link TrafficGenerator},
+ *     arriving at random over the period given.  A passenger presses
+ *     the up or down button, and gets in the first car going their way
+ *     that has room.  The seed of a scenario fixes everything about it,
+ *     so a sweep gives the same statistics whatever the number of
+ *     threads.
+ * </p>
+ *
+ * <p>
+ *     In destination mode, each passenger instead enters their
+ *     destination at a {@link DestinationKiosk} on their floor, and the
+ *     {@link DestinationDispatcher} groups them into cars.  Shares of
+ *     the passengers can be made up-peak or down-peak trips, to or from
+ *     the lobby; the rest go between floors.
+ * </p>
+ */
+public class ScenarioRunner
+{
+	private BuildingDescription description;
+	private int                 passengerCount;
+	private int                 duration;
+	private boolean             isDestinationMode;
+	private int                 upPeakShare;
+	private int                 downPeakShare;
+
+
+	/**
+	 * Creates a runner for scenarios of a given shape.
+	 *
+	 * @param floorCount
+	 * The number of floors in each building.
+	 *
+	 * @param elevatorCount
+	 * The number of elevators in each building.
+	 *
+	 * @param passengerCount
+	 * The number of passengers in each scenario.
+	 *
+	 * @param duration
+	 * The period over which the passengers arrive, in ticks.
+	 */
+	public ScenarioRunner(int floorCount, int elevatorCount, int passengerCount, int duration)
+	{
+		this(BuildingDescription.create(floorCount, elevatorCount), passengerCount, duration);
+	}
+
+
+	/**
+	 * Creates a runner for scenarios in buildings of a given layout.
+	 *
+	 * @param description
+	 * The layout of each building.
+	 *
+	 * @param passengerCount
+	 * The number of passengers in each scenario.
+	 *
+	 * @param duration
+	 * The period over which the passengers arrive, in ticks.
+	 */
+	public ScenarioRunner(BuildingDescription description, int passengerCount, int duration)
+	{
+		this.description = description;
+		this.passengerCount = passengerCount;
+		this.duration = duration;
+		this.isDestinationMode = false;
+		this.upPeakShare = 0;
+		this.downPeakShare = 0;
+	}
+
+
+	/**
+	 * Sets whether the passengers use destination kiosks rather than
+	 * the up and down buttons.  Floors without a kiosk get one.
+	 *
+	 * @param isDestinationMode
+	 * True for destination calls.
+	 */
+	public void setDestinationMode(boolean isDestinationMode)
+	{
+		this.isDestinationMode = isDestinationMode;
+	}
+
+
+	/**
+	 * Sets the shares of passengers going from and to the lobby.
+	 *
+	 * @param upPeak
+	 * The share from the lobby, in percent.
+	 *
+	 * @param downPeak
+	 * The share to the lobby, in percent.  The others go between
+	 * floors.
+	 */
+	public void setMix(int upPeak, int downPeak)
+	{
+		this.upPeakShare = upPeak;
+		this.downPeakShare = downPeak;
+	}
+
+
+	/**
+	 * Runs one scenario to completion.
+	 *
+	 * @param seed
+	 * The seed of the scenario.
+	 *
+	 * @return The statistics of the scenario.
+	 */
+	public ServiceStatistics runScenario(long seed)
+	{
+		Building building = new Building(this.description, new CalendarStimulusQueue());
+		int floorCount = this.description.getFloorCount();
+		ElevatorControlSystem controlSystem = building.controlSystem;
+		ServiceStatistics statistics = new ServiceStatistics();
+		TrafficGenerator generator = this.description.createTrafficGenerator(this.passengerCount,
+				(double)this.passengerCount / this.duration, seed);
+
+		controlSystem.setServiceListener(statistics);
+		if (this.isDestinationMode) {
+			for (int floor = 1; floor <= floorCount; ++floor) {
+				if (controlSystem.getDestinationKiosk(floor) == null) {
+					DestinationKiosk kiosk = new DestinationKiosk(controlSystem, floor);
+					kiosk.setDeviceIdentity("DK-" + floor);
+					controlSystem.addDestinationKiosk(kiosk);
+				}
+			}
+		}
+		generator.setMix(this.upPeakShare / 100.0, this.downPeakShare / 100.0);
+		generator.setDestinationMode(this.isDestinationMode);
+		controlSystem.setStimulusSource(generator, 1);
+		while (controlSystem.isActive()) {
+			controlSystem.tickToNextEvent();
+		}
+		return statistics;
+	}
+
+
+	/**
+	 * Runs a sweep of scenarios with consecutive seeds.
+	 *
+	 * @param firstSeed
+	 * The seed of the first scenario.
+	 *
+	 * @param scenarioCount
+	 * The number of scenarios.
+	 *
+	 * @param threadCount
+	 * The number of threads to run them on.
+	 *
+	 * @return The statistics of all the scenarios together.
+	 */
+	public ServiceStatistics runSweep(long firstSeed, int scenarioCount, int threadCount)
+	{
+		ForkJoinPool pool = new ForkJoinPool(threadCount);
+
+		try {
+			return pool.invoke(new Sweep(firstSeed, 0, scenarioCount));
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+
+	/**
+	 * Runs a range of scenarios, splitting it in halves down to single
+	 * scenarios, and merges the statistics on the way back up.
+	 */
+	private class Sweep
+		extends RecursiveTask<ServiceStatistics>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private long firstSeed;
+		private int  low;
+		private int  high;
+
+
+		Sweep(long firstSeed, int low, int high)
+		{
+			this.firstSeed = firstSeed;
+			this.low = low;
+			this.high = high;
+		}
+
+
+		@Override
+		protected ServiceStatistics compute()
+		{
+			if (this.high - this.low <= 1) {
+				ServiceStatistics statistics = new ServiceStatistics();
+				if (this.high > this.low) {
+					statistics = runScenario(this.firstSeed + this.low);
+				}
+				return statistics;
+			}
+
+			int middle = (this.low + this.high) >>> 1;
+			Sweep left = new Sweep(this.firstSeed, this.low, middle);
+			Sweep right = new Sweep(this.firstSeed, middle, this.high);
+
+			left.fork();
+			ServiceStatistics statistics = right.compute();
+			statistics.merge(left.join());
+			return statistics;
+		}
+	}
+
+
+	public static void main(String[] args)
+	{
+		int scenarioCount = 1000;
+		int threadCount = Runtime.getRuntime().availableProcessors();
+		int floorCount = 52;
+		int elevatorCount = 10;
+		int passengerCount = 500;
+		int duration = 3600 * MotionProfile.TICKS_PER_SECOND;
+		long seed = 1;
+		boolean isDestinationMode = false;
+		int upPeakShare = 0;
+		int downPeakShare = 0;
+		BuildingDescription description = null;
+
+		for (int index = 0; index < args.length; ++index) {
+			String option = args[index];
+			if (index + 1 >= args.length) {
+				usage();
+			}
+			if (option.equals("-building")) {
+				description = Driver.loadBuilding(args[++index]);
+				continue;
+			}
+			if (option.equals("-mode")) {
+				String mode = args[++index];
+				if (!mode.equals("hall") && !mode.equals("destination")) {
+					usage();
+				}
+				isDestinationMode = mode.equals("destination");
+				continue;
+			}
+			String value = args[++index];
+			switch (option) {
+			case "-scenarios":
+				scenarioCount = parseCount(value);
+				break;
+			case "-threads":
+				threadCount = parseCount(value);
+				break;
+			case "-floors":
+				floorCount = Math.max(parseCount(value), 2);
+				break;
+			case "-cars":
+				elevatorCount = parseCount(value);
+				break;
+			case "-passengers":
+				passengerCount = parseCount(value);
+				break;
+			case "-duration":
+				duration = parseCount(value);
+				break;
+			case "-seed":
+				seed = parseNumber(value);
+				break;
+			case "-up":
+				upPeakShare = Math.min(parseNumber(value), 100);
+				break;
+			case "-down":
+				downPeakShare = Math.min(parseNumber(value), 100);
+				break;
+			default:
+				usage();
+				break;
+			}
+		}
+
+		if (description == null) {
+			description = BuildingDescription.create(floorCount, elevatorCount);
+		}
+
+		ScenarioRunner runner = new ScenarioRunner(description, passengerCount, duration);
+		runner.setDestinationMode(isDestinationMode);
+		runner.setMix(upPeakShare, Math.min(downPeakShare, 100 - upPeakShare));
+		long start = System.nanoTime();
+		ServiceStatistics statistics = runner.runSweep(seed, scenarioCount, threadCount);
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		System.out.printf("=== %d scenarios, %d threads, %.2f s (%.0f scenarios/s)%n",
+				scenarioCount, threadCount, seconds, scenarioCount / seconds);
+		printHistogram("wait", statistics.getPassengerWaitTimes());
+		printHistogram("ride", statistics.getRideTimes());
+		printHistogram("journey", statistics.getJourneyTimes());
+		System.out.printf("=== %.2f riders per stop, %d left behind%n",
+				(double)statistics.getRideTimes().getCount() / Math.max(statistics.getTravelTimes().getCount(), 1),
+				statistics.getLeftBehindCount());
+		System.exit(0);
+	}
+
+
+	private static void printHistogram(String name, Histogram histogram)
+	{
+		double tick = 1.0 / MotionProfile.TICKS_PER_SECOND;
+
+		System.out.printf("%-8s %10d  mean %6.1f s  p50 %6.1f s  p90 %6.1f s  p99 %6.1f s  max %6.1f s%n",
+				name,
+				histogram.getCount(),
+				histogram.getMean() * tick,
+				histogram.getPercentile(50) * tick,
+				histogram.getPercentile(90) * tick,
+				histogram.getPercentile(99) * tick,
+				histogram.getMax() * tick
+		);
+	}
+
+
+	private static void usage()
+	{
+		System.err.printf("usage: %s [-scenarios count] [-threads count] [-floors count] [-cars count]%n",
+				ScenarioRunner.class.getSimpleName());
+		System.err.printf("       [-building building-file] [-passengers count] [-duration ticks] [-seed number]%n");
+		System.err.printf("       [-mode hall|destination] [-up percent] [-down percent]%n");
+		System.exit(1);
+	}
+
+
+	private static int parseCount(String value)
+	{
+		return parse(value, 1, "count");
+	}
+
+
+	/**
+	 * Parses a seed or a percentage, which may be zero.
+	 */
+	private static int parseNumber(String value)
+	{
+		return parse(value, 0, "number");
+	}
+
+
+	private static int parse(String value, int minimum, String kind)
+	{
+		try {
+			int number = Integer.parseInt(value);
+			if (number >= minimum) {
+				return number;
+			}
+		}
+		catch (NumberFormatException e) {
+			// fall through
+		}
+		System.err.printf("*** Bad %s: %s%n", kind, value);
+		System.exit(1);
+		return 0;
+	}
+}
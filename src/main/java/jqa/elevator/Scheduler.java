@@ -1,6 +1,11 @@
 package jqa.elevator;
 
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+
 /**
  * Specifies the interface to elevator scheduling.  In buildings
  * of considerable size, the behavior of "idle" elevators significantly
@@ -8,8 +13,78 @@ package jqa.elevator;
  * want to apply different scheduling conventions at different times of
  * the day.  This interface gives the contract between a specific
  * scheduler and the overall elevator controller.
+ *
+ * <p>
+ *     When a car comes to rest with nothing to do, the controller asks
+ *     the scheduler where it should wait, and sends it there to park
+ *     with its doors closed.  The controller can change schedulers by
+ *     time of day; see {@link ElevatorControlSystem#setScheduler(int, Scheduler)}.
+ * </p>
  */
 public interface Scheduler
 {
+	/**
+	 * The preferred floor of a car that should stay where it is.
+	 */
+	public static final int NONE = -1;
+
+
+	/**
+	 * Gives the floor where an idle car should wait for its next call.
+	 *
+	 * @param elevator
+	 * The index of the car in the control system.
+	 *
+	 * @return The floor, or {@link #NONE} to leave the car where it is.
+	 */
 	public int getPreferredFloor(int elevator);
+
+
+	/**
+	 * Tells the scheduler of a new floor call, so that it can learn
+	 * where the calls come from.  The controller tells every scheduler
+	 * it holds, active or not.
+	 *
+	 * @param time
+	 * The time of the call.
+	 *
+	 * @param floor
+	 * The floor of the call.
+	 *
+	 * @param direction
+	 * The direction the caller wants to travel.
+	 */
+	public default void callPlaced(int time, int floor, Direction direction)
+	{
+	}
+
+
+	/**
+	 * Writes what the scheduler has learnt, for a {@link Checkpoint}.
+	 * A scheduler that learns nothing writes nothing.
+	 *
+	 * @param out
+	 * The checkpoint being written.
+	 *
+	 * @throws IOException If the output fails.
+	 */
+	public default void writeState(DataOutput out)
+			throws IOException
+	{
+	}
+
+
+	/**
+	 * Replaces what the scheduler has learnt with what was written by
+	 * {@link #writeState}, from a scheduler built the same way.
+	 *
+	 * @param in
+	 * The checkpoint being restored.
+	 *
+	 * @throws IOException If the input fails.
+	 */
+	public default void readState(DataInput in)
+			throws IOException
+	{
+	}
 }
@@ -0,0 +1,182 @@
+package jqa.elevator;
+
+
+/**
+ * Specifies the interface for observing the service the elevators give:
+ * floor calls answered, and riders delivered.  The controller reports
+ * each event as it happens, during a tick, with the times measured in
+ * ticks.
+ *
+ * <p>
+ *     Passengers, from a {@link TrafficGenerator} or placed with
+ *     {@link ElevatorControlSystem#passengerArrived}, are also reported
+ *     one by one, as they board and get out.  A listener that counts
+ *     only passengers can leave the call and stop methods empty.
+ * </p>
+ *
+ * @see ElevatorControlSystem#setServiceListener
+ */
+public interface ServiceListener
+{
+	/**
+	 * Reports a floor call answered: a car has stopped at the floor
+	 * and turned off the call lamp.
+	 *
+	 * @param timestamp
+	 * The time of the answer.
+	 *
+	 * @param floor
+	 * The floor of the call.
+	 *
+	 * @param direction
+	 * The direction of the call.
+	 *
+	 * @param elevator
+	 * The car that answered the call.
+	 *
+	 * @param waitTicks
+	 * The time since the lamp went on.
+	 */
+	void callServed(int timestamp, int floor, Direction direction, Elevator elevator, int waitTicks);
+
+
+	/**
+	 * Reports a car chosen for a floor call or a destination call.
+	 *
+	 * @param timestamp
+	 * The time of the call.
+	 *
+	 * @param floor
+	 * The floor of the call.
+	 *
+	 * @param direction
+	 * The direction of the call.
+	 *
+	 * @param elevator
+	 * The car chosen.
+	 *
+	 * @param latencyNanos
+	 * The real time the dispatcher took to choose, in nanoseconds.
+	 */
+	default void callAssigned(int timestamp, int floor, Direction direction, Elevator elevator, long latencyNanos)
+	{
+	}
+
+
+	/**
+	 * Reports a destination call answered: the passenger has boarded
+	 * the car chosen for them, and their destination is on its
+	 * schedule.  By default this counts as a floor call answered.
+	 *
+	 * @param timestamp
+	 * The time of the answer.
+	 *
+	 * @param origin
+	 * The floor of the call.
+	 *
+	 * @param destination
+	 * The floor the passenger entered.
+	 *
+	 * @param elevator
+	 * The car that answered the call.
+	 *
+	 * @param waitTicks
+	 * The time since the passenger entered the destination.
+	 */
+	default void destinationServed(int timestamp, int origin, int destination, Elevator elevator, int waitTicks)
+	{
+		this.callServed(timestamp, origin, destination > origin ? Direction.kUP : Direction.kDOWN,
+				elevator, waitTicks);
+	}
+
+
+	/**
+	 * Reports a stop requested inside a car that the car has made.
+	 *
+	 * @param timestamp
+	 * The time of the stop.
+	 *
+	 * @param elevator
+	 * The car.
+	 *
+	 * @param floor
+	 * The floor of the stop.
+	 *
+	 * @param travelTicks
+	 * The time since the stop was requested.
+	 */
+	void stopServed(int timestamp, Elevator elevator, int floor, int travelTicks);
+
+
+	/**
+	 * Reports a passenger getting into a car.
+	 *
+	 * @param timestamp
+	 * The time of boarding.
+	 *
+	 * @param elevator
+	 * The car.
+	 *
+	 * @param origin
+	 * The floor where the passenger waited.
+	 *
+	 * @param destination
+	 * The floor the passenger wants.
+	 *
+	 * @param waitTicks
+	 * The time since the passenger arrived.
+	 */
+	default void passengerBoarded(int timestamp, Elevator elevator, int origin, int destination, int waitTicks)
+	{
+	}
+
+
+	/**
+	 * Reports a passenger getting out of a car.
+	 *
+	 * @param timestamp
+	 * The time of arrival.
+	 *
+	 * @param elevator
+	 * The car.
+	 *
+	 * @param origin
+	 * The floor where the passenger boarded.
+	 *
+	 * @param floor
+	 * The floor where the passenger got out: their destination, or the
+	 * nearest the car serves.
+	 *
+	 * @param waitTicks
+	 * The time the passenger waited before boarding.  The journey took
+	 * this plus the ride.
+	 *
+	 * @param rideTicks
+	 * The time since the passenger boarded.
+	 */
+	default void passengerDelivered(int timestamp, Elevator elevator, int origin, int floor, int waitTicks,
+			int rideTicks)
+	{
+	}
+
+
+	/**
+	 * Reports passengers who could not board a car that stopped for
+	 * them, because it was full or does not go their way.
+	 *
+	 * @param timestamp
+	 * The time of the stop.
+	 *
+	 * @param elevator
+	 * The car.
+	 *
+	 * @param floor
+	 * The floor of the stop.
+	 *
+	 * @param count
+	 * The number of passengers left waiting.
+	 */
+	default void passengersLeftBehind(int timestamp, Elevator elevator, int floor, int count)
+	{
+	}
+}
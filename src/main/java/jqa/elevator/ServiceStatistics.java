@@ -0,0 +1,141 @@
+package jqa.elevator;
+
+
+/**
+ * Collects the distributions of waiting and travel times, in ticks, as
+ * reported to a {@link ServiceListener}: for floor calls and car stops,
+ * and for passengers.  Each is kept in a {@link Histogram}.  The
+ * statistics of separate runs can be merged, which gives the same
+ * result in any order.
+ */
+public class ServiceStatistics
+	implements ServiceListener
+{
+	private Histogram waitTimes;
+	private Histogram travelTimes;
+	private Histogram passengerWaitTimes;
+	private Histogram rideTimes;
+	private Histogram journeyTimes;
+	private long      leftBehindCount;
+
+
+	public ServiceStatistics()
+	{
+		this.waitTimes = new Histogram();
+		this.travelTimes = new Histogram();
+		this.passengerWaitTimes = new Histogram();
+		this.rideTimes = new Histogram();
+		this.journeyTimes = new Histogram();
+		this.leftBehindCount = 0;
+	}
+
+
+	/**
+	 * Gives the times from placing a floor call to its answer.
+	 */
+	public Histogram getWaitTimes()
+	{
+		return this.waitTimes;
+	}
+
+
+	/**
+	 * Gives the times from requesting a stop inside a car to making it.
+	 */
+	public Histogram getTravelTimes()
+	{
+		return this.travelTimes;
+	}
+
+
+	/**
+	 * Gives the times from a passenger's arrival to boarding.
+	 */
+	public Histogram getPassengerWaitTimes()
+	{
+		return this.passengerWaitTimes;
+	}
+
+
+	/**
+	 * Gives the times passengers spend in the cars.
+	 */
+	public Histogram getRideTimes()
+	{
+		return this.rideTimes;
+	}
+
+
+	/**
+	 * Gives the times from a passenger's arrival to getting out of
+	 * the car.
+	 */
+	public Histogram getJourneyTimes()
+	{
+		return this.journeyTimes;
+	}
+
+
+	/**
+	 * Gives the number of times a passenger could not board a car
+	 * that stopped for them.
+	 */
+	public long getLeftBehindCount()
+	{
+		return this.leftBehindCount;
+	}
+
+
+	/**
+	 * Adds the samples of other statistics to these.
+	 *
+	 * @param other
+	 * The other statistics, which are left unchanged.
+	 */
+	public void merge(ServiceStatistics other)
+	{
+		this.waitTimes.merge(other.waitTimes);
+		this.travelTimes.merge(other.travelTimes);
+		this.passengerWaitTimes.merge(other.passengerWaitTimes);
+		this.rideTimes.merge(other.rideTimes);
+		this.journeyTimes.merge(other.journeyTimes);
+		this.leftBehindCount += other.leftBehindCount;
+	}
+
+
+	@Override
+	public void callServed(int timestamp, int floor, Direction direction, Elevator elevator, int waitTicks)
+	{
+		this.waitTimes.record(waitTicks);
+	}
+
+
+	@Override
+	public void stopServed(int timestamp, Elevator elevator, int floor, int travelTicks)
+	{
+		this.travelTimes.record(travelTicks);
+	}
+
+
+	@Override
+	public void passengerBoarded(int timestamp, Elevator elevator, int origin, int destination, int waitTicks)
+	{
+		this.passengerWaitTimes.record(waitTicks);
+	}
+
+
+	@Override
+	public void passengerDelivered(int timestamp, Elevator elevator, int origin, int floor, int waitTicks,
+			int rideTicks)
+	{
+		this.rideTimes.record(rideTicks);
+		this.journeyTimes.record(waitTicks + rideTicks);
+	}
+
+
+	@Override
+	public void passengersLeftBehind(int timestamp, Elevator elevator, int floor, int count)
+	{
+		this.leftBehindCount += count;
+	}
+}
@@ -7,7 +7,7 @@ package jqa.elevator;
  * or in response to a human action.  For simulation purposes,
  * this standlone object can itself be triggered by a driver,
  * directing the device object to change state and thus possibly to
- * notify its observers.
+ * publish the change on its system's {@link EventBus}.
  */
 public interface StandaloneDevice
 {
@@ -25,6 +25,26 @@ public interface StandaloneDevice
 	 */
 	void setDeviceIdentity(String identity);
 
+
+	/**
+	 * Gives the handle of this device within its system.
+	 *
+	 * @return The handle, or {@link DeviceRegistry#NONE} if the device
+	 * is not registered.
+	 */
+	int getDeviceHandle();
+
+
+	/**
+	 * Sets this device's handle.  The {@link DeviceRegistry} assigns
+	 * the handle when the device joins a system.
+	 *
+	 * @param handle
+	 * The dense integer by which stimuli reach the device.
+	 */
+	void setDeviceHandle(int handle);
+
+
 	/**
 	 * Triggers an internal state change by the object, as directed
 	 * by the command.  The internal behavior that actually occurs as
@@ -0,0 +1,466 @@
+package jqa.elevator;
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Streams the status of a building to any number of subscribers, such
+ * as lobby displays, as server-sent events.  A new subscriber gets the
+ * whole status once; after that, only what changed.
+ *
+ * <p>
+ *     The feed listens on the controller's {@link EventBus} and notes,
+ *     for each car, whether it moved or changed state and which stops
+ *     went on or off its schedule, and which call lamps changed.  Once a
+ *     tick, {@link #publish} turns the changes into one frame, with an
+ *     entry for each car that changed and each call, giving their
+ *     present state, so a car that changes a dozen times in a tick is
+ *     reported once.  The frame is formatted once, whatever the number
+ *     of subscribers, and nothing at all is formatted while there are
+ *     none.
+ * </p>
+ * <pre>
+ * event: status
+ * data: {"time": 12, "active": true, "elevators": [...], "calls": [...]}
+ *
+ * id: 7
+ * event: delta
+ * data: {"time": 13, "elevators": [{"index": 0, "floor": 4, "goal": 7, "direction": "up",
+ *        "state": "moving", "set": [9], "clear": []}], "calls": [{"floor": 9, "direction": "down", "car": null}]}
+ * </pre>
+ *
+ * <p>
+ *     Each subscriber has a thread of its own, which writes the frames
+ *     in order from a ring the feed keeps, so a slow subscriber holds up
+ *     no one.  One that falls more than the ring behind is dropped, and
+ *     can connect again for a fresh status.  Between frames, a comment
+ *     is sent now and then, so that a subscriber that has gone is found
+ *     out.
+ * </p>
+ *
+ * <p>
+ *     The controller's thread publishes, and takes subscribers, between
+ *     ticks.
+ * </p>
+ */
+public class StatusFeed
+	implements BuildingListener, AutoCloseable
+{
+	private static final int  DEFAULT_BACKLOG = 1024;
+	private static final long KEEP_ALIVE_MILLIS = 15_000L;
+
+	private static final byte[] KEEP_ALIVE = ":\n\n".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] END = new byte[0];
+
+	private ElevatorControlSystem controlSystem;
+
+	/**
+	 * The changes since the last frame: the cars that changed, and for
+	 * each the stops that changed, and the call lamps that changed.
+	 */
+	private boolean    isChanged;
+	private boolean[]  isCarChanged;
+	private FloorSet[] stopChanges;
+	private FloorSet   upCallChanges;
+	private FloorSet   downCallChanges;
+	private StringBuilder text;
+
+	/**
+	 * The latest frames, by number, and the count published.  These,
+	 * the subscriber count and the closed flag are guarded by the feed.
+	 */
+	private byte[][] frames;
+	private int      mask;
+	private long     frameCount;
+	private int      subscriberCount;
+	private boolean  isClosed;
+
+
+	/**
+	 * Creates the feed of a controller, which notes nothing until
+	 * {@link #attach attached}.
+	 *
+	 * @param controlSystem
+	 * The controller, with all its devices added.
+	 */
+	public StatusFeed(ElevatorControlSystem controlSystem)
+	{
+		this(controlSystem, DEFAULT_BACKLOG);
+	}
+
+
+	/**
+	 * Creates the feed of a controller, which notes nothing until
+	 * {@link #attach attached}.
+	 *
+	 * @param controlSystem
+	 * The controller, with all its devices added.
+	 *
+	 * @param backlog
+	 * The number of frames a subscriber may fall behind, rounded up to a
+	 * power of two.
+	 */
+	public StatusFeed(ElevatorControlSystem controlSystem, int backlog)
+	{
+		int carCount = controlSystem.elevators.size();
+		int size = Integer.highestOneBit(Math.max(backlog, 2) - 1) << 1;
+
+		this.controlSystem = controlSystem;
+		this.isChanged = false;
+		this.isCarChanged = new boolean[carCount];
+		this.stopChanges = new FloorSet[carCount];
+		for (int j = 0; j < carCount; ++j) {
+			this.stopChanges[j] = new FloorSet(controlSystem.getFloorTop());
+		}
+		this.upCallChanges = new FloorSet(controlSystem.getFloorTop());
+		this.downCallChanges = new FloorSet(controlSystem.getFloorTop());
+		this.text = new StringBuilder(1024);
+		this.frames = new byte[size][];
+		this.mask = size - 1;
+		this.frameCount = 0;
+		this.subscriberCount = 0;
+		this.isClosed = false;
+	}
+
+
+	/**
+	 * Starts noting changes: subscribes the feed to the controller's
+	 * event bus.
+	 */
+	public void attach()
+	{
+		this.controlSystem.getEventBus().subscribe(this);
+	}
+
+
+	/**
+	 * Stops noting changes.
+	 */
+	public void detach()
+	{
+		this.controlSystem.getEventBus().unsubscribe(this);
+	}
+
+
+	public synchronized int getSubscriberCount()
+	{
+		return this.subscriberCount;
+	}
+
+
+	/**
+	 * Gives the number of frames published so far.
+	 */
+	public synchronized long getFrameCount()
+	{
+		return this.frameCount;
+	}
+
+
+	/**
+	 * Sends the changes since the last call, as one frame, to every
+	 * subscriber.  Called after each tick; does nothing if nothing
+	 * changed.
+	 */
+	public void publish()
+	{
+		if (!this.isChanged) {
+			return;
+		}
+		this.isChanged = false;
+
+		boolean isHeard = this.getSubscriberCount() > 0;
+		StringBuilder text = this.text;
+		if (isHeard) {
+			text.setLength(0);
+			text.append("id: ").append(this.getFrameCount())
+					.append("\nevent: delta\ndata: {\"time\": ").append(this.controlSystem.getCurrentTime())
+					.append(", \"elevators\": [");
+		}
+		String separator = "";
+		for (int j = 0; j < this.isCarChanged.length; ++j) {
+			if (this.isCarChanged[j]) {
+				if (isHeard) {
+					text.append(separator);
+					this.appendCarChange(text, j);
+					separator = ", ";
+				}
+				this.isCarChanged[j] = false;
+				this.stopChanges[j].clear();
+			}
+		}
+		if (isHeard) {
+			text.append("], \"calls\": [");
+			separator = this.appendCallChanges(text, "", this.upCallChanges, Direction.kUP);
+			this.appendCallChanges(text, separator, this.downCallChanges, Direction.kDOWN);
+			text.append("]}\n\n");
+			this.put(text.toString().getBytes(StandardCharsets.UTF_8));
+		}
+		this.upCallChanges.clear();
+		this.downCallChanges.clear();
+	}
+
+
+	/**
+	 * Adds a subscriber, and sends it the whole status.  From now on,
+	 * a thread of the feed writes to the stream, and closes it when the
+	 * subscriber falls behind or goes, or the feed closes.  Called
+	 * between ticks.
+	 *
+	 * @param stream
+	 * The stream to the subscriber.
+	 */
+	public void subscribe(OutputStream stream)
+	{
+		StringBuilder text = new StringBuilder(1024);
+		long next;
+
+		text.append("event: status\ndata: ");
+		this.appendStatus(text);
+		text.append("\n\n");
+		synchronized (this) {
+			next = this.frameCount;
+			++this.subscriberCount;
+		}
+
+		byte[] status = text.toString().getBytes(StandardCharsets.UTF_8);
+		Thread thread = new Thread(() -> this.send(stream, status, next), "StatusFeed");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+
+	/**
+	 * Ends every subscription.
+	 */
+	@Override
+	public synchronized void close()
+	{
+		this.isClosed = true;
+		this.notifyAll();
+	}
+
+
+	/**
+	 * Appends the whole status of the building, as JSON: the time, each
+	 * car's floor, next stop, heading, state, stops and load, and the
+	 * floor calls waiting, with the car each is assigned to.  Called
+	 * between ticks.
+	 */
+	void appendStatus(StringBuilder text)
+	{
+		ElevatorControlSystem controlSystem = this.controlSystem;
+
+		text.append("{\"time\": ").append(controlSystem.getCurrentTime())
+				.append(", \"active\": ").append(controlSystem.isActive())
+				.append(", \"elevators\": [");
+		for (int j = 0; j < controlSystem.elevators.size(); ++j) {
+			Elevator elevator = controlSystem.elevators.get(j);
+			text.append(j == 0 ? "" : ", ").append("{\"id\": ");
+			Json.appendString(text, elevator.getDeviceIdentity())
+					.append(", \"index\": ").append(j)
+					.append(", \"floor\": ").append(elevator.getCurrentFloor())
+					.append(", \"goal\": ").append(elevator.getNextStop())
+					.append(", \"direction\": \"").append(elevator.getHeading().mnemonic)
+					.append("\", \"state\": \"").append(elevator.getCarState().mnemonic)
+					.append("\", \"stops\": [");
+			String separator = "";
+			for (int floor = elevator.nextScheduledFloor(controlSystem.getFloorBottom());
+					floor >= 0; floor = elevator.nextScheduledFloor(floor + 1)) {
+				text.append(separator).append(floor);
+				separator = ", ";
+			}
+			text.append("], \"load\": ").append(elevator.getLoad()).append('}');
+		}
+		text.append("], \"calls\": [");
+		String separator = "";
+		for (int floor = controlSystem.getFloorBottom(); floor <= controlSystem.getFloorTop(); ++floor) {
+			if (controlSystem.getAssignedElevator(floor, Direction.kUP) != null) {
+				this.appendCall(text.append(separator), floor, Direction.kUP);
+				separator = ", ";
+			}
+			if (controlSystem.getAssignedElevator(floor, Direction.kDOWN) != null) {
+				this.appendCall(text.append(separator), floor, Direction.kDOWN);
+				separator = ", ";
+			}
+		}
+		text.append("]}");
+	}
+
+
+	private void appendCarChange(StringBuilder text, int index)
+	{
+		Elevator elevator = this.controlSystem.elevators.get(index);
+		FloorSet changes = this.stopChanges[index];
+
+		text.append("{\"index\": ").append(index)
+				.append(", \"floor\": ").append(elevator.getCurrentFloor())
+				.append(", \"goal\": ").append(elevator.getNextStop())
+				.append(", \"direction\": \"").append(elevator.getHeading().mnemonic)
+				.append("\", \"state\": \"").append(elevator.getCarState().mnemonic)
+				.append("\", \"set\": [");
+		String separator = "";
+		for (int floor = changes.next(0); floor >= 0; floor = changes.next(floor + 1)) {
+			if (elevator.isFloorScheduled(floor)) {
+				text.append(separator).append(floor);
+				separator = ", ";
+			}
+		}
+		text.append("], \"clear\": [");
+		separator = "";
+		for (int floor = changes.next(0); floor >= 0; floor = changes.next(floor + 1)) {
+			if (!elevator.isFloorScheduled(floor)) {
+				text.append(separator).append(floor);
+				separator = ", ";
+			}
+		}
+		text.append("]}");
+	}
+
+
+	private String appendCallChanges(StringBuilder text, String separator, FloorSet changes, Direction direction)
+	{
+		for (int floor = changes.next(0); floor >= 0; floor = changes.next(floor + 1)) {
+			this.appendCall(text.append(separator), floor, direction);
+			separator = ", ";
+		}
+		return separator;
+	}
+
+
+	private void appendCall(StringBuilder text, int floor, Direction direction)
+	{
+		Elevator elevator = this.controlSystem.getAssignedElevator(floor, direction);
+
+		text.append("{\"floor\": ").append(floor)
+				.append(", \"direction\": \"").append(direction.mnemonic)
+				.append("\", \"car\": ");
+		if (elevator == null) {
+			text.append("null");
+		}
+		else {
+			Json.appendString(text, elevator.getDeviceIdentity());
+		}
+		text.append('}');
+	}
+
+
+	private synchronized void put(byte[] frame)
+	{
+		this.frames[(int)this.frameCount & this.mask] = frame;
+		++this.frameCount;
+		this.notifyAll();
+	}
+
+
+	/**
+	 * Gives a frame, once published.
+	 *
+	 * @param index
+	 * The number of the frame.
+	 *
+	 * @param isWaiting
+	 * True to wait for the frame, for a while, if it is not published yet.
+	 *
+	 * @return The frame, or null if it is not published yet, or
+	 * {@link #END} if the feed is closed or the frame is lost.
+	 */
+	private synchronized byte[] getFrame(long index, boolean isWaiting)
+			throws InterruptedException
+	{
+		if (isWaiting && index >= this.frameCount && !this.isClosed) {
+			this.wait(KEEP_ALIVE_MILLIS);
+		}
+		if (this.isClosed || this.frameCount - index > this.frames.length) {
+			return END;
+		}
+		if (index >= this.frameCount) {
+			return null;
+		}
+		return this.frames[(int)index & this.mask];
+	}
+
+
+	/**
+	 * Runs on a subscriber's thread: writes the status, then each frame
+	 * in turn, flushing whenever it catches up.
+	 */
+	private void send(OutputStream stream, byte[] status, long next)
+	{
+		try (OutputStream out = stream) {
+			out.write(status);
+			out.flush();
+			for (;;) {
+				byte[] frame = this.getFrame(next, false);
+				if (frame == null) {
+					out.flush();
+					frame = this.getFrame(next, true);
+				}
+				if (frame == END) {
+					return;
+				}
+				if (frame == null) {
+					out.write(KEEP_ALIVE);
+					out.flush();
+					continue;
+				}
+				out.write(frame);
+				++next;
+			}
+		}
+		catch (IOException e) {
+			// the subscriber has gone
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			synchronized (this) {
+				--this.subscriberCount;
+			}
+		}
+	}
+
+
+	@Override
+	public void carFloorChanged(Elevator car, int floor)
+	{
+		this.isCarChanged[car.getIndex()] = true;
+		this.isChanged = true;
+	}
+
+
+	@Override
+	public void carStateChanged(Elevator car, CarState state)
+	{
+		this.isCarChanged[car.getIndex()] = true;
+		this.isChanged = true;
+	}
+
+
+	@Override
+	public void scheduleChanged(Elevator car, int floor, boolean isScheduled)
+	{
+		this.isCarChanged[car.getIndex()] = true;
+		this.stopChanges[car.getIndex()].add(floor);
+		this.isChanged = true;
+	}
+
+
+	@Override
+	public void callLampChanged(FloorCallButton button, Direction direction, boolean isOn)
+	{
+		(direction == Direction.kUP ? this.upCallChanges : this.downCallChanges).add(button.getFloor());
+		this.isChanged = true;
+	}
+
+
+	@Override
+	public void callReassigned(FloorCallButton button, Direction direction, Elevator car)
+	{
+		this.callLampChanged(button, direction, true);
+	}
+}
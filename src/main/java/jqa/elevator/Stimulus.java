@@ -3,6 +3,7 @@ package jqa.elevator;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.Objects;
 
 
 /**
@@ -28,6 +29,13 @@ public class Stimulus
 	 */
 	public String deviceIdentity;
 
+	/**
+	 * Gives the target device by its handle in the controller's
+	 * {@link DeviceRegistry}.  The controller resolves the identity
+	 * when the stimulus enters the system.
+	 */
+	public int deviceHandle;
+
 	/**
 	 * This object's type: what the stimulus triggers.
 	 */
@@ -35,17 +43,37 @@ public class Stimulus
 
 	/**
 	 * Indicates the floor associated with this object.  Relevant
-	 * for {@link StimulusType#GoToFloor}.
+	 * for {@link StimulusType#GoToFloor}, the destination of a
+	 * {@link StimulusType#DestinationCall} or
+	 * {@link StimulusType#PassengerArrived}, and the floor of a car
+	 * when it reports its own movements.
 	 */
 	public int floor;
 
+	/**
+	 * The order in which the controller took in this stimulus, which
+	 * breaks the ties between stimuli of the same time and type.  The
+	 * controller numbers each stimulus as it is added, reported by a car,
+	 * or read from a source, so the order of handling never depends on
+	 * the queue.
+	 */
+	long sequence;
+
+	/**
+	 * Marks a stimulus owned by the controller, which recycles
+	 * the object once the stimulus has been handled.
+	 */
+	boolean isPooled;
+
 
 	public Stimulus()
 	{
 		this.timestamp = 0;
 		this.deviceIdentity = "";
+		this.deviceHandle = DeviceRegistry.NONE;
 		this.type = StimulusType.Nop;
 		this.floor = 0;
+		this.sequence = 0;
 	}
 
 
@@ -57,8 +85,28 @@ public class Stimulus
 	}
 
 
+	/**
+	 * Orders stimuli by time, then by type, then by the order the
+	 * controller took them in.  Stimuli the controller has numbered are
+	 * never equal in this order; it is not consistent with
+	 * {@link #equals}, which compares what the stimuli say.
+	 */
 	@Override
 	public int compareTo(Stimulus other)
+	{
+		int j = this.compareTime(other);
+		if (j != 0) {
+			return j;
+		}
+		return Long.compare(this.sequence, other.sequence);
+	}
+
+
+	/**
+	 * Orders stimuli by time, then by type, as {@link #compareTo}
+	 * does without the sequence.
+	 */
+	int compareTime(Stimulus other)
 	{
 		int j = this.timestamp - other.timestamp;
 		if (j != 0) {
@@ -87,6 +135,24 @@ public class Stimulus
 			throws IOException
 	{
 		Stimulus s = new Stimulus();
+		parseInto(line, s);
+		return s;
+	}
+
+
+	/**
+	 * Converts a line of text into an existing {@link Stimulus} object,
+	 * with the same format as {@link #createFromString}.
+	 *
+	 * @param line The string to be converted.
+	 *
+	 * @param s The object to be filled.
+	 *
+	 * @throws IOException If the line is bad.
+	 */
+	static void parseInto(String line, Stimulus s)
+			throws IOException
+	{
 		String[] fields = line.split("\\s+");
 		if (fields.length != 4) {
 			throw new IOException(
@@ -100,6 +166,7 @@ public class Stimulus
 		catch (NumberFormatException e) {
 			// ignore
 		}
+		s.deviceHandle = DeviceRegistry.NONE;
 		if ((s.deviceIdentity = fields[1]).isEmpty()) {
 			throw new IOException("Device-ID missing");
 		}
@@ -111,7 +178,6 @@ public class Stimulus
 		catch (NumberFormatException e) {
 			// ignore
 		}
-		return s;
 	}
 
 
@@ -125,10 +191,19 @@ public class Stimulus
 		stimulus = (Stimulus)other;
 		return this.timestamp == stimulus.timestamp
 				&& this.type == stimulus.type
+				&& Objects.equals(this.deviceIdentity, stimulus.deviceIdentity)
+				&& this.floor == stimulus.floor
 				;
 	}
 
 
+	@Override
+	public int hashCode()
+	{
+		return Objects.hash(this.timestamp, this.type, this.deviceIdentity, this.floor);
+	}
+
+
 	@Override
 	public String toString()
 	{
@@ -147,6 +222,12 @@ public class Stimulus
 		ButtonUp,
 		GoToFloor,
 		Nop,
+		CarArrived,
+		CarDeparted,
+		DoorsOpened,
+		DoorsClosed,
+		DestinationCall,
+		PassengerArrived,
 		;
 
 		private static HashMap<String, StimulusType> nameToValueMap;
@@ -165,5 +246,24 @@ public class Stimulus
 			}
 			return type;
 		}
+
+
+		/**
+		 * Tells whether a car reports this type of stimulus itself, as its
+		 * motion engine moves it, rather than a person or device outside
+		 * the controller.
+		 */
+		boolean isCarReport()
+		{
+			switch (this) {
+			case CarArrived:
+			case CarDeparted:
+			case DoorsOpened:
+			case DoorsClosed:
+				return true;
+			default:
+				return false;
+			}
+		}
 	};
 }
@@ -0,0 +1,40 @@
+package jqa.elevator;
+
+
+/**
+ * Holds the pending {@link Stimulus} items of the control system,
+ * handing them out in their natural order: by timestamp, then by
+ * type, then by the order the controller took them in (see
+ * {@link Stimulus#compareTo}).
+ *
+ * <p>
+ *     Implementations are not required to be thread-safe.  The
+ *     simulation runs on one thread.
+ * </p>
+ *
+ * @see CalendarStimulusQueue
+ * @see HeapStimulusQueue
+ */
+public interface StimulusQueue
+{
+	void add(Stimulus stimulus);
+
+
+	/**
+	 * Gives the next stimulus, without removing it.
+	 *
+	 * @return The next stimulus, or null if the queue is empty.
+	 */
+	Stimulus peek();
+
+
+	/**
+	 * Removes the next stimulus.
+	 *
+	 * @return The next stimulus, or null if the queue is empty.
+	 */
+	Stimulus poll();
+
+
+	int size();
+}
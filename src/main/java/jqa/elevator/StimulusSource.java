@@ -0,0 +1,47 @@
+package jqa.elevator;
+
+
+import java.io.Closeable;
+import java.io.IOException;
+
+
+/**
+ * Supplies external {@link Stimulus} items to the controller on demand,
+ * instead of loading a whole simulation into the queue up front.  The
+ * controller pulls from the source only as far as its look-ahead window
+ * requires, so memory use does not grow with the length of the source.
+ *
+ * @see ElevatorControlSystem#setStimulusSource
+ */
+public interface StimulusSource
+	extends Closeable
+{
+	/**
+	 * Reads the next stimulus into a caller-supplied object.
+	 *
+	 * @param stimulus
+	 * The object to be filled.  All its fields are overwritten.
+	 *
+	 * @return True if a stimulus was read, false when the source
+	 * is exhausted.
+	 *
+	 * @throws IOException If the source cannot be read or holds
+	 * a bad item.
+	 */
+	boolean next(Stimulus stimulus)
+			throws IOException;
+
+
+	/**
+	 * Tells the source the devices of the system it feeds.  A source
+	 * that knows its device names up front can resolve them once here
+	 * and fill in {@link Stimulus#deviceHandle} as it reads.  Otherwise
+	 * the controller resolves each name as the stimulus arrives.
+	 *
+	 * @param registry
+	 * The devices of the system.
+	 */
+	default void bindDevices(DeviceRegistry registry)
+	{
+	}
+}
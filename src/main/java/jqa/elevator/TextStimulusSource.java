@@ -0,0 +1,62 @@
+package jqa.elevator;
+
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+
+
+/**
+ * Reads stimuli lazily from a text simulation file, one line at a
+ * time.  Blank lines are skipped.
+ *
+ * @see Stimulus#createFromString
+ */
+public class TextStimulusSource
+	implements StimulusSource
+{
+	private BufferedReader reader;
+	private int            lineNumber;
+
+
+	public TextStimulusSource(String path)
+			throws FileNotFoundException
+	{
+		this.reader = new BufferedReader(new FileReader(path));
+		this.lineNumber = 0;
+	}
+
+
+	@Override
+	public void close()
+			throws IOException
+	{
+		this.reader.close();
+	}
+
+
+	@Override
+	public boolean next(Stimulus stimulus)
+			throws IOException
+	{
+		String line;
+
+		while ((line = this.reader.readLine()) != null) {
+			++this.lineNumber;
+			if (line.trim().isEmpty()) {
+				continue;
+			}
+			try {
+				Stimulus.parseInto(line, stimulus);
+			}
+			catch (IOException e) {
+				throw new IOException(
+						String.format("line %d: %s", this.lineNumber, e.getMessage()), e
+				);
+			}
+			return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,366 @@
+package jqa.elevator;
+
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Writes the log of a simulation: the stimuli each device receives, the
+ * cars the kiosks choose, and the status of the building after each step.
+ * Messages have a {@link Level}, and the trace writes those up to the
+ * level set, so a long replay can log nothing, or its steps, or every
+ * event.
+ *
+ * <p>
+ *     The devices do not format anything.  Each message is copied, as a
+ *     kind, a few numbers and references to strings the devices already
+ *     hold, into a ring buffer of columns, and a thread of the trace's own
+ *     formats it and writes it through a large buffer.  Logging an event
+ *     allocates nothing; only the status text, which is built for each
+ *     step, is a new string.  Any number of threads can log, in turn;
+ *     when the buffer is full they wait for room, so nothing is lost.
+ *     {@link #flush} waits until everything logged so far is written,
+ *     and should be called before writing to the same stream directly.
+ * </p>
+ *
+ * <p>
+ *     The system property {@code jqa.elevator.trace=off} turns tracing
+ *     off for the whole run.  The devices test {@link #ENABLED}, a
+ *     constant, before anything else, and the compiler drops the logging
+ *     code altogether.
+ * </p>
+ */
+public class Trace
+	implements AutoCloseable
+{
+	/**
+	 * False when tracing is switched off for the run.
+	 */
+	public static final boolean ENABLED = !"off".equals(System.getProperty("jqa.elevator.trace"));
+
+	/**
+	 * The levels of detail, each including those before it.
+	 */
+	public enum Level
+	{
+		kOFF,
+		kSTEP,
+		kEVENT,
+		kSTATUS,
+		;
+	}
+
+	private static final int DEFAULT_CAPACITY = 8192;
+	private static final int BUFFER_SIZE      = 1 << 16;
+
+	private static final int KIND_STIMULUS = 0;
+	private static final int KIND_ASSIGNED = 1;
+	private static final int KIND_STEP     = 2;
+	private static final int KIND_TEXT     = 3;
+
+	private static final Stimulus.StimulusType[] STIMULUS_TYPES = Stimulus.StimulusType.values();
+
+	private OutputStream stream;
+	private int          level;
+
+	private byte[]   kinds;
+	private byte[]   types;
+	private int[]    times;
+	private int[]    floors;
+	private String[] sources;
+	private String[] values;
+	private int      mask;
+
+	/**
+	 * The count of messages logged, written by the trace's thread, and
+	 * written and flushed to the stream.
+	 */
+	private volatile long    logged;
+	private volatile long    written;
+	private volatile long    flushed;
+	private volatile boolean isClosed;
+	private Thread           thread;
+
+
+	/**
+	 * Creates a trace, which logs nothing until given a level.
+	 *
+	 * @param stream
+	 * The stream to write to.  Closing the trace does not close it.
+	 */
+	public Trace(OutputStream stream)
+	{
+		this(stream, DEFAULT_CAPACITY);
+	}
+
+
+	/**
+	 * Creates a trace, which logs nothing until given a level.  Its
+	 * thread starts with the first message.
+	 *
+	 * @param stream
+	 * The stream to write to.  Closing the trace does not close it.
+	 *
+	 * @param capacity
+	 * The number of messages the buffer holds, rounded up to a power of two.
+	 */
+	public Trace(OutputStream stream, int capacity)
+	{
+		int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+
+		this.stream = stream;
+		this.level = Level.kOFF.ordinal();
+		this.kinds = new byte[size];
+		this.types = new byte[size];
+		this.times = new int[size];
+		this.floors = new int[size];
+		this.sources = new String[size];
+		this.values = new String[size];
+		this.mask = size - 1;
+		this.logged = 0;
+		this.written = 0;
+		this.flushed = 0;
+		this.isClosed = false;
+		this.thread = null;
+	}
+
+
+	public Level getLevel()
+	{
+		return Level.values()[this.level];
+	}
+
+
+	/**
+	 * Sets the detail of the log.
+	 *
+	 * @param level
+	 * The highest level of message to write.
+	 */
+	public void setLevel(Level level)
+	{
+		this.level = level.ordinal();
+	}
+
+
+	/**
+	 * Tells whether messages of a level are written.  Callers test this,
+	 * after {@link #ENABLED}, before building a message.
+	 */
+	public boolean isEnabled(Level level)
+	{
+		return level.ordinal() <= this.level;
+	}
+
+
+	/**
+	 * Logs a stimulus received by a device, as of now; the stimulus can
+	 * be reused as soon as this returns.
+	 *
+	 * @param device
+	 * The identity of the device.
+	 *
+	 * @param stimulus
+	 * The stimulus.
+	 */
+	public void stimulus(String device, Stimulus stimulus)
+	{
+		this.put(KIND_STIMULUS, device, stimulus.timestamp,
+				stimulus.type == null ? -1 : stimulus.type.ordinal(), stimulus.floor, stimulus.deviceIdentity);
+	}
+
+
+	/**
+	 * Logs the car a kiosk has told a passenger to take.
+	 *
+	 * @param kiosk
+	 * The identity of the kiosk.
+	 *
+	 * @param destination
+	 * The floor the passenger entered.
+	 *
+	 * @param car
+	 * The identity of the car.
+	 */
+	public void assigned(String kiosk, int destination, String car)
+	{
+		this.put(KIND_ASSIGNED, kiosk, 0, 0, destination, car);
+	}
+
+
+	/**
+	 * Logs the end of a step of the simulation.
+	 *
+	 * @param time
+	 * The time of the step.
+	 */
+	public void step(int time)
+	{
+		this.put(KIND_STEP, null, time, 0, 0, null);
+	}
+
+
+	/**
+	 * Logs text, such as a status report.
+	 *
+	 * @param text
+	 * One or more lines, without the last line's end.
+	 */
+	public void text(String text)
+	{
+		this.put(KIND_TEXT, null, 0, 0, 0, text);
+	}
+
+
+	/**
+	 * Waits until every message logged so far is written and flushed.
+	 */
+	public void flush()
+	{
+		long target = this.logged;
+
+		while (this.flushed < target && this.thread != null && this.thread.isAlive()) {
+			LockSupport.unpark(this.thread);
+			LockSupport.parkNanos(100_000L);
+		}
+	}
+
+
+	/**
+	 * Writes the messages still in the buffer, then stops the thread.
+	 * If the caller is interrupted, it stops waiting for the thread and
+	 * keeps the interrupt.
+	 */
+	@Override
+	public synchronized void close()
+	{
+		this.isClosed = true;
+		if (this.thread != null) {
+			LockSupport.unpark(this.thread);
+			try {
+				this.thread.join();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+
+	private synchronized void put(int kind, String source, int time, int type, int floor, String value)
+	{
+		long position = this.logged;
+
+		if (this.thread == null) {
+			this.thread = new Thread(this::drain, "Trace");
+			this.thread.setDaemon(true);
+			this.thread.start();
+		}
+		while (position - this.written > this.mask) {
+			LockSupport.unpark(this.thread);
+			Thread.onSpinWait();
+		}
+		int slot = (int)position & this.mask;
+		this.kinds[slot] = (byte)kind;
+		this.types[slot] = (byte)type;
+		this.times[slot] = time;
+		this.floors[slot] = floor;
+		this.sources[slot] = source;
+		this.values[slot] = value;
+		this.logged = position + 1;
+	}
+
+
+	/**
+	 * Runs on the trace's thread, writing each message in the buffer
+	 * until closed, and flushing the stream whenever it catches up.
+	 */
+	private void drain()
+	{
+		Writer out = new BufferedWriter(new OutputStreamWriter(this.stream), BUFFER_SIZE);
+		StringBuilder line = new StringBuilder(256);
+		boolean isFailed = false;
+		long position = this.written;
+
+		for (;;) {
+			boolean isLast = this.isClosed;
+			long end = this.logged;
+			if (position == end) {
+				if (this.flushed < position) {
+					try {
+						out.flush();
+					}
+					catch (IOException e) {
+						isFailed = this.fail(isFailed, e);
+					}
+					this.flushed = position;
+				}
+				if (isLast) {
+					return;
+				}
+				LockSupport.parkNanos(100_000L);
+				continue;
+			}
+			for (; position < end; ++position) {
+				int slot = (int)position & this.mask;
+				line.setLength(0);
+				this.format(line, slot);
+				this.sources[slot] = null;
+				this.values[slot] = null;
+				if (!isFailed) {
+					try {
+						out.append(line);
+					}
+					catch (IOException e) {
+						isFailed = this.fail(isFailed, e);
+					}
+				}
+				this.written = position + 1;
+			}
+		}
+	}
+
+
+	private boolean fail(boolean isFailed, IOException e)
+	{
+		if (!isFailed) {
+			System.err.printf("*** Cannot write trace: %s%n", e.getMessage());
+		}
+		return true;
+	}
+
+
+	private void format(StringBuilder line, int slot)
+	{
+		switch (this.kinds[slot]) {
+		case KIND_STIMULUS:
+			line.append(this.sources[slot]).append(": trigger t ").append(this.times[slot])
+					.append(", id ").append(this.values[slot])
+					.append(", t ").append(this.types[slot] < 0 ? null : STIMULUS_TYPES[this.types[slot]])
+					.append(", f ").append(this.floors[slot]);
+			break;
+
+		case KIND_ASSIGNED:
+			line.append(this.sources[slot]).append(": floor ").append(this.floors[slot])
+					.append(", take ").append(this.values[slot]);
+			break;
+
+		case KIND_STEP:
+			line.append("=== time ").append(this.times[slot]);
+			break;
+
+		case KIND_TEXT:
+			line.append(this.values[slot]);
+			break;
+
+		default:
+			break;
+		}
+		line.append(System.lineSeparator());
+	}
+}
@@ -0,0 +1,302 @@
+package jqa.elevator;
+
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+
+/**
+ * Generates passengers for a building as a stream of stimuli, one at a
+ * time, as the controller asks for them.  Nothing is held for the
+ * passengers to come, so a run can bring any number of them through
+ * with the memory of one.
+ *
+ * <p>
+ *     Passengers arrive as a Poisson process: the time between one and
+ *     the next is drawn from an exponential distribution with the mean
+ *     rate given.  Each passenger's trip is of one of three kinds, drawn
+ *     in the proportions of the mix:
+ * </p>
+ * <ul>
+ *     <li>
+ *         up-peak: from the lobby to a floor, as in the morning;
+ *     </li>
+ *     <li>
+ *         down-peak: from a floor to the lobby, as in the evening;
+ *     </li>
+ *     <li>
+ *         inter-floor: from one floor to another, neither the lobby.
+ *     </li>
+ * </ul>
+ * <p>
+ *     The floors other than the lobby are drawn in proportion to their
+ *     population, which is the same on every floor unless set.  Each
+ *     passenger comes as a {@link Stimulus.StimulusType#PassengerArrived}
+ *     at the call button of their floor, or in destination mode as a
+ *     {@link Stimulus.StimulusType#DestinationCall} at its kiosk; either
+ *     way, the stimulus floor is the passenger's destination.
+ * </p>
+ *
+ * <p>
+ *     The seed fixes the whole stream.
+ * </p>
+ */
+public class TrafficGenerator
+	implements StimulusSource
+{
+	private int              floorCount;
+	private int              lobbyFloor;
+	private double           upPeakShare;
+	private double           downPeakShare;
+	private double           ratePerTick;
+	private long             passengerCount;
+	private boolean          isDestinationMode;
+	private SplittableRandom random;
+
+	/**
+	 * The running total of the population by floor, with the lobby
+	 * counted as empty: {@code cumulative[f]} is the population of
+	 * the floors up to and including {@code f}.
+	 */
+	private long[] population;
+	private long[] cumulative;
+	private long   totalPopulation;
+
+	/**
+	 * The devices that take the passengers on each floor, by name and,
+	 * once bound, by handle.
+	 */
+	private String[] identities;
+	private int[]    handles;
+
+	/**
+	 * The time of the last arrival, in ticks from the start, and the
+	 * number of passengers generated so far.
+	 */
+	private int    startTime;
+	private double clock;
+	private long   generatedCount;
+
+
+	/**
+	 * Creates a generator of inter-floor traffic, with the same
+	 * population on every floor and the lobby at the bottom.
+	 *
+	 * @param floorCount
+	 * The number of floors in the building, numbered from 1.
+	 *
+	 * @param passengerCount
+	 * The number of passengers to generate.
+	 *
+	 * @param ratePerTick
+	 * The mean number of passengers arriving in a tick.
+	 *
+	 * @param seed
+	 * The seed of the stream.
+	 */
+	public TrafficGenerator(int floorCount, long passengerCount, double ratePerTick, long seed)
+	{
+		this.floorCount = floorCount;
+		this.lobbyFloor = 1;
+		this.upPeakShare = 0;
+		this.downPeakShare = 0;
+		this.ratePerTick = ratePerTick;
+		this.passengerCount = passengerCount;
+		this.isDestinationMode = false;
+		this.random = new SplittableRandom(seed);
+		this.population = new long[floorCount + 1];
+		Arrays.fill(this.population, 1, floorCount + 1, 1);
+		this.cumulative = new long[floorCount + 1];
+		this.startTime = 0;
+		this.clock = 0;
+		this.generatedCount = 0;
+		this.setDestinationMode(false);
+		this.sumPopulation();
+	}
+
+
+	/**
+	 * Sets the floor where the up-peak starts and the down-peak ends.
+	 *
+	 * @param floor
+	 * The lobby floor.
+	 */
+	public void setLobbyFloor(int floor)
+	{
+		this.lobbyFloor = floor;
+		this.sumPopulation();
+	}
+
+
+	/**
+	 * Sets the number of people who work on a floor, which weights the
+	 * floor as an origin or a destination.
+	 *
+	 * @param floor
+	 * The floor.
+	 *
+	 * @param population
+	 * The number of people, 0 or more.
+	 */
+	public void setPopulation(int floor, int population)
+	{
+		this.population[floor] = population;
+		this.sumPopulation();
+	}
+
+
+	/**
+	 * Sets the shares of up-peak and down-peak trips.  The rest are
+	 * inter-floor trips.
+	 *
+	 * @param upPeak
+	 * The share of trips from the lobby, from 0 to 1.
+	 *
+	 * @param downPeak
+	 * The share of trips to the lobby, from 0 to 1.
+	 */
+	public void setMix(double upPeak, double downPeak)
+	{
+		this.upPeakShare = upPeak;
+		this.downPeakShare = downPeak;
+	}
+
+
+	/**
+	 * Sets whether passengers enter their destinations at kiosks,
+	 * rather than pressing the up or down button.
+	 *
+	 * @param isDestinationMode
+	 * True for kiosks.
+	 */
+	public void setDestinationMode(boolean isDestinationMode)
+	{
+		this.isDestinationMode = isDestinationMode;
+		this.identities = new String[this.floorCount + 1];
+		this.handles = new int[this.floorCount + 1];
+		for (int floor = 1; floor <= this.floorCount; ++floor) {
+			this.identities[floor] = (isDestinationMode ? "DK-" : "FCB-") + floor;
+		}
+		Arrays.fill(this.handles, DeviceRegistry.NONE);
+	}
+
+
+	/**
+	 * Sets the time of the start of the stream.
+	 *
+	 * @param time
+	 * The time, in ticks.
+	 */
+	public void setStartTime(int time)
+	{
+		this.startTime = time;
+	}
+
+
+	public long getGeneratedCount()
+	{
+		return this.generatedCount;
+	}
+
+
+	@Override
+	public void bindDevices(DeviceRegistry registry)
+	{
+		for (int floor = 1; floor <= this.floorCount; ++floor) {
+			this.handles[floor] = registry.resolve(this.identities[floor]);
+		}
+	}
+
+
+	@Override
+	public boolean next(Stimulus stimulus)
+	{
+		if (this.generatedCount >= this.passengerCount) {
+			return false;
+		}
+		this.clock -= Math.log(1.0 - this.random.nextDouble()) / this.ratePerTick;
+
+		double time = this.startTime + this.clock;
+		if (time > Integer.MAX_VALUE) {
+			return false;
+		}
+
+		double kind = this.random.nextDouble();
+		int origin;
+		int destination;
+		if (kind < this.upPeakShare) {
+			origin = this.lobbyFloor;
+			destination = this.drawFloor(origin);
+		}
+		else if (kind < this.upPeakShare + this.downPeakShare) {
+			destination = this.lobbyFloor;
+			origin = this.drawFloor(destination);
+		}
+		else {
+			origin = this.drawFloor(this.lobbyFloor);
+			destination = this.drawFloor(origin);
+		}
+
+		stimulus.timestamp = (int)time;
+		stimulus.type = this.isDestinationMode
+				? Stimulus.StimulusType.DestinationCall
+				: Stimulus.StimulusType.PassengerArrived;
+		stimulus.deviceIdentity = this.identities[origin];
+		stimulus.deviceHandle = this.handles[origin];
+		stimulus.floor = destination;
+		++this.generatedCount;
+		return true;
+	}
+
+
+	@Override
+	public void close()
+	{
+	}
+
+
+	/**
+	 * Draws a floor other than the lobby and a given floor, in
+	 * proportion to the population.  If no one else lives anywhere,
+	 * every other floor is as likely.
+	 */
+	private int drawFloor(int excluded)
+	{
+		long others = this.totalPopulation;
+		if (excluded != this.lobbyFloor) {
+			others -= this.population[excluded];
+		}
+		if (others <= 0) {
+			int floor = 1 + this.random.nextInt(this.floorCount - 1);
+			return floor >= excluded ? floor + 1 : floor;
+		}
+
+		while (true) {
+			long target = this.random.nextLong(this.totalPopulation);
+			int floor = Arrays.binarySearch(this.cumulative, target + 1);
+			if (floor < 0) {
+				floor = -floor - 1;
+			}
+			while (floor > 1 && this.cumulative[floor - 1] == target + 1) {
+				--floor;
+			}
+			if (floor != excluded) {
+				return floor;
+			}
+		}
+	}
+
+
+	private void sumPopulation()
+	{
+		long sum = 0;
+
+		for (int floor = 1; floor <= this.floorCount; ++floor) {
+			if (floor != this.lobbyFloor) {
+				sum += this.population[floor];
+			}
+			this.cumulative[floor] = sum;
+		}
+		this.totalPopulation = sum;
+	}
+}
@@ -0,0 +1,44 @@
+package jqa.elevator;
+
+
+/**
+ * Divides the floors into one zone for each car, of equal height, and
+ * parks each idle car in the middle of its zone.  The cars spread out
+ * over the building, so that a call anywhere has a car nearby; this
+ * suits the evening down-peak and light traffic.
+ */
+public class ZonedScheduler
+	implements Scheduler
+{
+	private int[] preferredFloors;
+
+
+	/**
+	 * Creates the scheduler.
+	 *
+	 * @param bottom
+	 * The lowest floor of the zones.
+	 *
+	 * @param top
+	 * The highest floor of the zones.
+	 *
+	 * @param carCount
+	 * The number of cars, and so of zones.
+	 */
+	public ZonedScheduler(int bottom, int top, int carCount)
+	{
+		int floors = top - bottom + 1;
+
+		this.preferredFloors = new int[carCount];
+		for (int j = 0; j < carCount; ++j) {
+			this.preferredFloors[j] = bottom + (int)((2L * j + 1) * floors / (2L * carCount));
+		}
+	}
+
+
+	@Override
+	public int getPreferredFloor(int elevator)
+	{
+		return elevator < this.preferredFloors.length ? this.preferredFloors[elevator] : NONE;
+	}
+}
@@ -69,6 +69,12 @@
  *         actions, etc.  In a real system, the driver class would be
  *         replaced with electro-mechanical components.
  *     </dd>
+ *     <dt>{@link jqa.elevator.TrafficGenerator}</dt>
+ *     <dd>
+ *         Stands in for the people of the building: passengers arrive at
+ *         random, each with a floor to go to, in the patterns of a working
+ *         day.  The cars take them aboard up to their capacity.
+ *     </dd>
  *     <dt>{@link jqa.elevator.Scheduler}</dt>
  *     <dd>
  *         The control and scheduling of real elevator systems is complex,
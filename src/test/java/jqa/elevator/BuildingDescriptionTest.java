@@ -0,0 +1,115 @@
+package jqa.elevator;
+
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+
+public class BuildingDescriptionTest
+{
+	private static BuildingDescription parse(String text)
+			throws IOException
+	{
+		return BuildingDescription.parse(new BufferedReader(new StringReader(text)));
+	}
+
+
+	private static String parseError(String text)
+	{
+		try {
+			parse(text);
+		}
+		catch (IOException e) {
+			return e.getMessage();
+		}
+		fail("no error for: " + text);
+		return null;
+	}
+
+
+	@Test
+	public void load()
+			throws Exception
+	{
+		BuildingDescription description = parse(
+				"# tower\n"
+				+ "floors 120\n"
+				+ "\n"
+				+ "bank L 3 serves 1-40   # low rise\n"
+				+ "bank X 2 speed 600 acceleration 15 doors 10 20 10 capacity 24 serves 1,81-120\n"
+				+ "disable L-1 12-13\n"
+		);
+		assertThat(description.getFloorCount(), is(120));
+		assertThat(description.getElevatorCount(), is(5));
+
+		ElevatorControlSystem controlSystem = description.createControlSystem(new CalendarStimulusQueue());
+		assertThat(controlSystem.getFloorTop(), is(120));
+		assertThat(controlSystem.getFloorCallButtons().size(), is(120));
+		assertThat(controlSystem.getFloorCallButton(77).getDeviceIdentity(), is("FCB-77"));
+
+		Elevator low = controlSystem.elevators.get(1);
+		Elevator express = controlSystem.elevators.get(4);
+		assertThat(low.getDeviceIdentity(), is("L-1"));
+		assertThat(express.getDeviceIdentity(), is("X-1"));
+		assertThat(low.isFloorEnabled(11), is(true));
+		assertThat(low.isFloorEnabled(12), is(false));
+		assertThat(low.isFloorEnabled(41), is(false));
+		assertThat(controlSystem.elevators.get(0).isFloorEnabled(12), is(true));
+		assertThat(express.isFloorEnabled(1), is(true));
+		assertThat(express.isFloorEnabled(2), is(false));
+		assertThat(express.isFloorEnabled(120), is(true));
+		assertThat(express.profile.maxSpeed, is(600));
+		assertThat(express.profile.doorDwellTicks, is(20));
+		assertThat(low.profile.maxSpeed, is(MotionProfile.DEFAULT.maxSpeed));
+		assertThat(express.getCapacity(), is(24));
+		assertThat(low.getCapacity(), is(Elevator.DEFAULT_CAPACITY));
+
+		/* Only the low-rise bank can answer a call on floor 20.
+		 */
+		controlSystem.pickup(20, Direction.kUP);
+		assertThat(controlSystem.getAssignedElevator(20, Direction.kUP).getDeviceIdentity(), startsWith("L-"));
+	}
+
+
+	@Test
+	public void errors()
+			throws Exception
+	{
+		assertThat(parseError("bank A 2\n"), is("line 1: Floors must come first"));
+		assertThat(parseError("floors 10\n"), is("No elevator banks"));
+		assertThat(parseError("floors 10\nbank A 2 serves 5-11\n"), is("line 2: No such floor: 11"));
+		assertThat(parseError("floors 10\nbank A 2 speed\n"), is("line 2: Bank option needs a value: speed"));
+		assertThat(parseError("floors 10\nbank A 2\ndisable A-2 3\n"), is("line 3: Unknown car: A-2"));
+		assertThat(parseError("floors 10\nlobby 1\n"), is("line 2: Unknown statement: lobby"));
+		assertThat(parseError("floors 10\npark 7:00 valet\n"), is("line 2: Unknown parking policy: valet"));
+		assertThat(parseError("floors 10\npark 24:00 zoned\n"), is("line 2: Bad time of day: 24:00"));
+		assertThat(parseError("floors 10\npark zoned\npark 9:00 lobby 1\n"),
+				is("line 3: Park without a time must be the only one"));
+	}
+
+
+	@Test
+	public void park()
+			throws Exception
+	{
+		BuildingDescription description = parse(
+				"floors 20\n"
+				+ "bank A 2\n"
+				+ "park 07:00 lobby 1\n"
+				+ "park 11:30 demand 600\n"
+				+ "park 18:00 zoned\n"
+		);
+		ElevatorControlSystem controlSystem = description.createControlSystem(new CalendarStimulusQueue());
+
+		/* Midnight falls in the evening period.
+		 */
+		assertThat(controlSystem.getScheduler(), instanceOf(ZonedScheduler.class));
+		assertThat(controlSystem.getNextSchedulerChange(), is(7 * 60 * 60 * MotionProfile.TICKS_PER_SECOND));
+	}
+}
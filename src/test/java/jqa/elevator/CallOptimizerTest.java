@@ -0,0 +1,129 @@
+package jqa.elevator;
+
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+
+public class CallOptimizerTest
+{
+	/**
+	 * Creates a busy controller: three cars, and a call every few ticks
+	 * at floors spread over the building.
+	 */
+	private static ElevatorControlSystem createBusyControlSystem()
+			throws IOException
+	{
+		ElevatorControlSystem controlSystem = BuildingDescription.create(20, 3)
+				.createControlSystem(new CalendarStimulusQueue());
+
+		controlSystem.setVerbose(false);
+		for (int j = 0; j < 60; ++j) {
+			int floor = 2 + (j * 7) % 18;
+			String button = j % 2 == 0 ? "ButtonUp" : "ButtonDown";
+			controlSystem.addStimulus(Stimulus.createFromString(
+					String.format("%d FCB-%d %s %d", 4 * j, floor, button, floor)));
+		}
+		CallOptimizer optimizer = new CallOptimizer(controlSystem);
+		optimizer.setInterval(5);
+		controlSystem.setCallOptimizer(optimizer);
+		return controlSystem;
+	}
+
+
+	@Test
+	public void movesCallsToNearerCar()
+	{
+		ElevatorControlSystem controlSystem = BuildingDescription.create(20, 2)
+				.createControlSystem(new CalendarStimulusQueue());
+		Elevator near = controlSystem.elevators.get(1);
+		Elevator far = controlSystem.elevators.get(0);
+		CallOptimizer optimizer = new CallOptimizer(controlSystem);
+
+		controlSystem.setVerbose(false);
+		near.setCurrentFloor(20);
+		controlSystem.setDispatcher((floor, direction) -> far);
+		controlSystem.pickup(19, Direction.kDOWN);
+		controlSystem.pickup(18, Direction.kDOWN);
+		assertThat(controlSystem.getAssignedElevator(19, Direction.kDOWN), is(far));
+
+		assertThat(optimizer.optimize(), is(2));
+		assertThat(controlSystem.getAssignedElevator(19, Direction.kDOWN), is(near));
+		assertThat(controlSystem.getAssignedElevator(18, Direction.kDOWN), is(near));
+		assertThat(far.getFloorSchedule().isEmpty(), is(true));
+		assertThat(near.isFloorScheduled(19) && near.isFloorScheduled(18), is(true));
+		assertThat(optimizer.getSavedTotal() > 0, is(true));
+
+		assertThat("an optimal assignment stays", optimizer.optimize(), is(0));
+	}
+
+
+	@Test
+	public void keepsStopsTheCarNeeds()
+	{
+		ElevatorControlSystem controlSystem = BuildingDescription.create(20, 2)
+				.createControlSystem(new CalendarStimulusQueue());
+		Elevator near = controlSystem.elevators.get(1);
+		Elevator far = controlSystem.elevators.get(0);
+
+		controlSystem.setVerbose(false);
+		near.setCurrentFloor(20);
+		controlSystem.setDispatcher((floor, direction) -> far);
+		controlSystem.pickup(19, Direction.kDOWN);
+		far.stopRequestTimes[19] = 0;
+		far.setIsFloorSchedule(19, true);
+
+		new CallOptimizer(controlSystem).optimize();
+		assertThat(controlSystem.getAssignedElevator(19, Direction.kDOWN), is(near));
+		assertThat(far.isFloorScheduled(19), is(true));
+	}
+
+
+	@Test
+	public void everyCallIsServed()
+			throws IOException
+	{
+		ElevatorControlSystem controlSystem = createBusyControlSystem();
+		CallOptimizer optimizer = controlSystem.getCallOptimizer();
+
+		optimizer.setBudgetNanos(1);
+		while (controlSystem.isActive()) {
+			controlSystem.tick();
+		}
+		assertThat(optimizer.getRunCount() > 0, is(true));
+		for (int floor = 1; floor <= 20; ++floor) {
+			assertThat(controlSystem.getAssignedElevator(floor, Direction.kUP), is(nullValue()));
+			assertThat(controlSystem.getAssignedElevator(floor, Direction.kDOWN), is(nullValue()));
+		}
+		for (Elevator elevator: controlSystem.elevators) {
+			assertThat(elevator.getFloorSchedule().isEmpty(), is(true));
+		}
+	}
+
+
+	@Test
+	public void jumpingMatchesTicking()
+			throws IOException
+	{
+		ElevatorControlSystem ticking = createBusyControlSystem();
+		ElevatorControlSystem jumping = createBusyControlSystem();
+
+		while (ticking.isActive()) {
+			ticking.tick();
+		}
+		while (jumping.isActive()) {
+			jumping.tickToNextEvent();
+		}
+		assertThat(jumping.getCurrentTime(), is(ticking.getCurrentTime()));
+		assertThat(jumping.getCallOptimizer().getMoveCount(), is(ticking.getCallOptimizer().getMoveCount()));
+		assertThat(jumping.getCallOptimizer().getSavedTotal(), is(ticking.getCallOptimizer().getSavedTotal()));
+		assertThat(ticking.getCallOptimizer().getMoveCount() > 0, is(true));
+		for (int j = 0; j < 3; ++j) {
+			assertThat(jumping.elevators.get(j).getCurrentFloor(), is(ticking.elevators.get(j).getCurrentFloor()));
+		}
+	}
+}
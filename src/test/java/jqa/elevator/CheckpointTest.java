@@ -0,0 +1,181 @@
+package jqa.elevator;
+
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+
+public class CheckpointTest
+{
+	private static final String LAYOUT = "floors 20\n"
+			+ "bank A 3 capacity 6\n"
+			+ "bank B 1 serves 1,10-20\n"
+			+ "kiosks 1\n"
+			+ "park demand 60\n";
+
+
+	/**
+	 * Writes down, with the time, every move of the cars and every
+	 * passenger delivered.
+	 */
+	private static class Transcript
+		implements BuildingListener, ServiceListener
+	{
+		ElevatorControlSystem controlSystem;
+		StringBuilder         text = new StringBuilder();
+
+
+		Transcript(ElevatorControlSystem controlSystem)
+		{
+			this.controlSystem = controlSystem;
+			controlSystem.getEventBus().subscribe(this);
+			controlSystem.setServiceListener(this);
+		}
+
+
+		@Override
+		public void carFloorChanged(Elevator car, int floor)
+		{
+			this.text.append(this.controlSystem.getCurrentTime()).append(' ')
+					.append(car.getDeviceIdentity()).append(" floor ").append(floor).append('\n');
+		}
+
+
+		@Override
+		public void carStateChanged(Elevator car, CarState state)
+		{
+			this.text.append(this.controlSystem.getCurrentTime()).append(' ')
+					.append(car.getDeviceIdentity()).append(' ').append(state).append('\n');
+		}
+
+
+		@Override
+		public void callServed(int timestamp, int floor, Direction direction, Elevator elevator, int waitTicks)
+		{
+		}
+
+
+		@Override
+		public void stopServed(int timestamp, Elevator elevator, int floor, int travelTicks)
+		{
+		}
+
+
+		@Override
+		public void passengerDelivered(int timestamp, Elevator elevator, int origin, int floor, int waitTicks,
+				int rideTicks)
+		{
+			this.text.append(timestamp).append(' ').append(elevator.getDeviceIdentity())
+					.append(" delivered ").append(origin).append('-').append(floor)
+					.append(" after ").append(waitTicks).append('+').append(rideTicks).append('\n');
+		}
+	}
+
+
+	private static BuildingDescription createDescription()
+			throws IOException
+	{
+		return BuildingDescription.parse(new BufferedReader(new StringReader(LAYOUT)));
+	}
+
+
+	/**
+	 * Loads a morning of traffic, at the call buttons and the lobby kiosk.
+	 */
+	private static ElevatorControlSystem createControlSystem(BuildingDescription description)
+			throws IOException
+	{
+		ElevatorControlSystem controlSystem = description.createControlSystem(new CalendarStimulusQueue());
+		TrafficGenerator generator = new TrafficGenerator(20, 300, 0.1, 11);
+		Stimulus stimulus = new Stimulus();
+
+		controlSystem.setVerbose(false);
+		generator.setMix(0.5, 0.2);
+		while (generator.next(stimulus)) {
+			controlSystem.addStimulus(stimulus);
+			stimulus = new Stimulus();
+		}
+		for (int j = 0; j < 40; ++j) {
+			controlSystem.addStimulus(Stimulus.createFromString((50 * j + 7) + " DK-1 DestinationCall " + (2 + j % 19)));
+		}
+		return controlSystem;
+	}
+
+
+	private static void runUntil(ElevatorControlSystem controlSystem, int time)
+	{
+		while (controlSystem.isActive() && controlSystem.getCurrentTime() < time) {
+			controlSystem.tickToNextEvent();
+		}
+	}
+
+
+	private static String finish(ElevatorControlSystem controlSystem)
+	{
+		Transcript transcript = new Transcript(controlSystem);
+
+		runUntil(controlSystem, Integer.MAX_VALUE);
+		return transcript.text.toString() + controlSystem.getStimulusCount() + " stimuli, "
+				+ controlSystem.getAssignmentCount() + " assigned, "
+				+ controlSystem.getTickCount() + " ticks, time " + controlSystem.getCurrentTime();
+	}
+
+
+	@Test
+	public void fork()
+			throws Exception
+	{
+		BuildingDescription description = createDescription();
+		ElevatorControlSystem original = createControlSystem(description);
+
+		runUntil(original, 1500);
+		Checkpoint checkpoint = Checkpoint.capture(original);
+		assertThat(checkpoint.getTime(), is(original.getCurrentTime()));
+
+		ElevatorControlSystem fork = checkpoint.fork(description);
+		String expected = finish(original);
+		assertThat(expected, containsString("delivered"));
+		assertThat(finish(fork), is(expected));
+
+		/* Through a stream, and into a controller that has run to the end.
+		 */
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		checkpoint.write(bytes);
+		Checkpoint copy = Checkpoint.read(new ByteArrayInputStream(bytes.toByteArray()));
+		assertThat(copy.getSize(), is(checkpoint.getSize()));
+		copy.restore(original);
+		assertThat(finish(original), is(expected));
+	}
+
+
+	@Test
+	public void layout()
+			throws Exception
+	{
+		ElevatorControlSystem controlSystem = createControlSystem(createDescription());
+		Checkpoint checkpoint = Checkpoint.capture(controlSystem);
+
+		try {
+			checkpoint.restore(new Building(20, 4, new CalendarStimulusQueue()).controlSystem);
+			fail("restored into another layout");
+		}
+		catch (IllegalArgumentException e) {
+			assertThat(e.getMessage(), containsString("does not fit"));
+		}
+		try {
+			Checkpoint.read(new ByteArrayInputStream(new byte[] { 'E', 'V', 'T', 'R', 0, 0, 0, 1 }));
+			fail("read a checkpoint from a trace");
+		}
+		catch (IOException e) {
+			assertThat(e.getMessage(), is("Not a checkpoint"));
+		}
+	}
+}
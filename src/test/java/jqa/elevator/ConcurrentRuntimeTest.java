@@ -0,0 +1,129 @@
+package jqa.elevator;
+
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+
+public class ConcurrentRuntimeTest
+{
+	@Test
+	public void producers()
+			throws Exception
+	{
+		Building building = new Building(20, 3, new CalendarStimulusQueue());
+		ElevatorControlSystem controlSystem = building.controlSystem;
+		Thread[] producers = new Thread[4];
+
+		controlSystem.setVerbose(false);
+		try (ConcurrentRuntime runtime = new ConcurrentRuntime(controlSystem, 3, 0)) {
+			runtime.start();
+			for (int j = 0; j < producers.length; ++j) {
+				long seed = j;
+				producers[j] = new Thread(() -> {
+					Random random = new Random(seed);
+					for (int k = 0; k < 25; ++k) {
+						int floor = 1 + random.nextInt(19);
+						runtime.pickup(floor, random.nextBoolean() ? Direction.kUP : Direction.kDOWN);
+					}
+				});
+				producers[j].start();
+			}
+			for (Thread producer: producers) {
+				producer.join();
+			}
+
+			assertThat(runtime.awaitQuiet(30_000), is(true));
+			for (int floor = 1; floor <= 20; ++floor) {
+				FloorCallButton button = controlSystem.getFloorCallButton(floor);
+				assertThat("floor " + floor, button.isUp() || button.isDown(), is(false));
+			}
+			for (int j = 0; j < 3; ++j) {
+				Elevator car = controlSystem.elevators.get(j);
+				CarSnapshot snapshot = runtime.getSnapshot(j);
+				assertThat(car.carState, is(CarState.kIDLE));
+				assertThat(snapshot.getCarState(), is(CarState.kIDLE));
+				assertThat(snapshot.getCurrentFloor(), is(car.currentFloor));
+				assertThat(snapshot.getStopCount(), is(0));
+			}
+			assertThat(runtime.getCurrentTime(), is(controlSystem.getCurrentTime()));
+		}
+	}
+
+
+	/**
+	 * Counts the changes of the cars, and notes the threads it is
+	 * called from.
+	 */
+	private static class CarListener
+		implements BuildingListener
+	{
+		final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+		final AtomicLong  count = new AtomicLong();
+
+
+		@Override
+		public void carFloorChanged(Elevator car, int floor)
+		{
+			this.heard();
+		}
+
+
+		@Override
+		public void carStateChanged(Elevator car, CarState state)
+		{
+			this.heard();
+		}
+
+
+		@Override
+		public void scheduleChanged(Elevator car, int floor, boolean isScheduled)
+		{
+			this.heard();
+		}
+
+
+		private void heard()
+		{
+			this.threads.add(Thread.currentThread());
+			this.count.incrementAndGet();
+		}
+	}
+
+
+	@Test
+	public void listenersHearFromTheCoordinator()
+			throws Exception
+	{
+		Building building = new Building(30, 8, new CalendarStimulusQueue());
+		ElevatorControlSystem controlSystem = building.controlSystem;
+		CarListener direct = new CarListener();
+		CarListener delivered = new CarListener();
+		AsyncListener async = new AsyncListener(controlSystem, delivered, 16, false);
+		Random random = new Random(5);
+
+		controlSystem.eventBus.subscribe(direct);
+		controlSystem.eventBus.subscribe(async);
+		try (ConcurrentRuntime runtime = new ConcurrentRuntime(controlSystem, 4, 0)) {
+			runtime.start();
+			for (int k = 0; k < 200; ++k) {
+				runtime.pickup(1 + random.nextInt(29), random.nextBoolean() ? Direction.kUP : Direction.kDOWN);
+			}
+			assertThat(runtime.awaitQuiet(30_000), is(true));
+		}
+		async.close();
+
+		assertThat(direct.count.get() > 0, is(true));
+		assertThat(direct.threads.size(), is(1));
+		assertThat(direct.threads.iterator().next().getName(), is("ConcurrentRuntime"));
+		assertThat(delivered.count.get(), is(direct.count.get()));
+		assertThat(async.getDroppedCount(), is(0L));
+	}
+}
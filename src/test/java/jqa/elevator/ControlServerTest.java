@@ -0,0 +1,202 @@
+package jqa.elevator;
+
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+
+public class ControlServerTest
+{
+	private ElevatorControlSystem controlSystem;
+	private ControlServer         server;
+
+
+	@Before
+	public void setUp()
+			throws IOException
+	{
+		this.controlSystem = BuildingDescription.create(20, 3).createControlSystem(new CalendarStimulusQueue());
+		this.controlSystem.setVerbose(false);
+		this.server = new ControlServer(this.controlSystem, new InetSocketAddress("127.0.0.1", 0), 4);
+		this.server.start();
+	}
+
+
+	@After
+	public void tearDown()
+	{
+		this.server.close();
+	}
+
+
+	/**
+	 * Sends a request, and gives the status and the body of the answer.
+	 */
+	private Object[] request(String method, String path, String body)
+			throws IOException
+	{
+		URL url = new URL("http", "127.0.0.1", this.server.getPort(), path);
+		HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+
+		connection.setRequestMethod(method);
+		if (body != null) {
+			connection.setDoOutput(true);
+			try (OutputStream out = connection.getOutputStream()) {
+				out.write(body.getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		int status = connection.getResponseCode();
+		try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+			return new Object[] {status, Json.parse(new String(in.readAllBytes(), StandardCharsets.UTF_8))};
+		}
+	}
+
+
+	private Map<?, ?> get(String path)
+			throws IOException
+	{
+		Object[] answer = this.request("GET", path, null);
+		assertThat(answer[0], is(200));
+		return (Map<?, ?>)answer[1];
+	}
+
+
+	private Map<?, ?> post(String path, String body)
+			throws IOException
+	{
+		Object[] answer = this.request("POST", path, body);
+		assertThat(String.valueOf(answer[1]), answer[0], is(200));
+		return (Map<?, ?>)answer[1];
+	}
+
+
+	@Test
+	public void pickupIsServed()
+			throws IOException
+	{
+		Map<?, ?> answer = this.post("/pickup", "{\"floor\": 12, \"direction\": -1}");
+		assertThat(answer.get("accepted"), is(1L));
+
+		answer = this.post("/step", null);
+		assertThat(answer.get("time"), is(1L));
+		assertThat(answer.get("handled"), is(1L));
+
+		Map<?, ?> status = this.get("/status");
+		List<?> calls = (List<?>)status.get("calls");
+		assertThat(calls.size(), is(1));
+		assertThat(((Map<?, ?>)calls.get(0)).get("floor"), is(12L));
+		assertThat(((Map<?, ?>)calls.get(0)).get("direction"), is("down"));
+		String car = (String)((Map<?, ?>)calls.get(0)).get("car");
+
+		boolean isGoing = false;
+		for (Object elevator: (List<?>)status.get("elevators")) {
+			if (((Map<?, ?>)elevator).get("id").equals(car)) {
+				assertThat(((Map<?, ?>)elevator).get("goal"), is(12L));
+				assertThat(((List<?>)((Map<?, ?>)elevator).get("stops")).contains(12L), is(true));
+				isGoing = true;
+			}
+		}
+		assertThat(isGoing, is(true));
+
+		this.post("/step", "{\"ticks\": 2000}");
+		status = this.get("/status");
+		assertThat(status.get("active"), is(false));
+		assertThat(((List<?>)status.get("calls")).isEmpty(), is(true));
+	}
+
+
+	@Test
+	public void updateAndBatch()
+			throws IOException
+	{
+		StringBuilder batch = new StringBuilder("[");
+		for (int j = 0; j < 1000; ++j) {
+			batch.append(j == 0 ? "" : ", ").append("{\"floor\": ").append(2 + j % 19).append(", \"direction\": 1}");
+		}
+		batch.append(']');
+		assertThat(this.post("/pickup", batch.toString()).get("accepted"), is(1000L));
+		assertThat(this.post("/update", "[{\"device\": \"E-1\", \"type\": \"GoToFloor\", \"floor\": 7},"
+				+ " {\"device\": \"E-2\", \"type\": \"GoToFloor\", \"floor\": 9, \"time\": 5}]").get("accepted"), is(2L));
+		assertThat(this.post("/step", "{\"ticks\": 1}").get("handled"), is(1001L));
+		assertThat(this.controlSystem.elevators.get(1).isFloorScheduled(7), is(true));
+		assertThat(this.controlSystem.elevators.get(2).isFloorScheduled(9), is(false));
+		this.post("/step", "{\"ticks\": 5}");
+		assertThat(this.controlSystem.elevators.get(2).isFloorScheduled(9), is(true));
+	}
+
+
+	@Test
+	public void eventsStream()
+			throws IOException
+	{
+		URL url = new URL("http", "127.0.0.1", this.server.getPort(), "/events");
+		HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+
+		assertThat(connection.getResponseCode(), is(200));
+		assertThat(connection.getContentType(), is("text/event-stream"));
+		try (BufferedReader in = new BufferedReader(
+				new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+			assertThat(in.readLine(), is("event: status"));
+			assertThat(in.readLine(), startsWith("data: {\"time\": 0, "));
+			assertThat(in.readLine(), is(""));
+
+			this.post("/pickup", "{\"floor\": 9, \"direction\": 1}");
+			this.post("/step", null);
+			assertThat(in.readLine(), is("id: 0"));
+			assertThat(in.readLine(), is("event: delta"));
+			Map<?, ?> delta = (Map<?, ?>)Json.parse(in.readLine().substring("data: ".length()));
+			assertThat(delta.get("time"), is(1L));
+			assertThat(((Map<?, ?>)((List<?>)delta.get("calls")).get(0)).get("floor"), is(9L));
+		}
+	}
+
+
+	@Test
+	public void badRequestsAreRefused()
+			throws IOException
+	{
+		assertThat(this.request("POST", "/pickup", "{\"floor\": 99, \"direction\": 1}")[0], is(400));
+		assertThat(this.request("POST", "/pickup", "[{\"floor\": 3, \"direction\": 1}, {\"floor\": 3}]")[0], is(400));
+		assertThat(this.request("POST", "/update", "{\"device\": \"E-99\", \"type\": \"GoToFloor\"}")[0], is(400));
+		assertThat(this.request("POST", "/update", "{\"device\": \"E-0\", \"type\": \"Fly\"}")[0], is(400));
+		assertThat(this.request("POST", "/update", "{\"device\": \"E-0\", \"type\": \"CarArrived\", \"floor\": 4}")[0], is(400));
+		assertThat(this.request("POST", "/update", "[{\"device\": \"E-0\", \"type\": \"GoToFloor\", \"floor\": 4}, "
+				+ "{\"device\": \"E-0\", \"type\": \"DoorsClosed\"}]")[0], is(400));
+		assertThat(this.request("POST", "/step", "[".repeat(100000) + "]".repeat(100000))[0], is(400));
+		assertThat(this.request("POST", "/step", "{\"ticks\": ")[0], is(400));
+		assertThat(this.request("POST", "/status", "{}")[0], is(405));
+		assertThat(this.controlSystem.hasStimuli(), is(false));
+	}
+
+
+	@Test
+	public void nestingIsLimited()
+	{
+		String deepest = "[".repeat(Json.MAX_DEPTH - 1) + "{\"a\": 1}" + "]".repeat(Json.MAX_DEPTH - 1);
+
+		assertThat(Json.parse(deepest), is(instanceOf(List.class)));
+		try {
+			Json.parse("[" + deepest + "]");
+			fail("Parsed a document nested too deep");
+		}
+		catch (IllegalArgumentException e) {
+			assertThat(e.getMessage(), startsWith("Nested too deep"));
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package jqa.elevator;
+
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+
+public class DecisionJournalTest
+{
+	private static final String LAYOUT = "floors 20\n"
+			+ "bank A 3 capacity 6\n"
+			+ "kiosks 1\n"
+			+ "park demand 60\n";
+
+
+	/**
+	 * Runs a morning of traffic, at the call buttons and the lobby kiosk,
+	 * to the end, through a journal.
+	 */
+	private static void run(StimulusQueue queue, long seed, DecisionJournal journal)
+			throws IOException
+	{
+		BuildingDescription description = BuildingDescription.parse(new BufferedReader(new StringReader(LAYOUT)));
+		ElevatorControlSystem controlSystem = description.createControlSystem(queue);
+		TrafficGenerator generator = new TrafficGenerator(20, 300, 0.1, seed);
+		Stimulus stimulus = new Stimulus();
+
+		controlSystem.setVerbose(false);
+		controlSystem.setJournal(journal);
+		generator.setMix(0.5, 0.2);
+		while (generator.next(stimulus)) {
+			controlSystem.addStimulus(stimulus);
+			stimulus = new Stimulus();
+		}
+		for (int j = 0; j < 40; ++j) {
+			controlSystem.addStimulus(Stimulus.createFromString((50 * j + 7) + " DK-1 DestinationCall " + (2 + j % 19)));
+		}
+		while (controlSystem.isActive()) {
+			controlSystem.tickToNextEvent();
+		}
+		journal.close();
+	}
+
+
+	private static File record(long seed)
+			throws IOException
+	{
+		File file = File.createTempFile("decisions", ".journal");
+		file.deleteOnExit();
+
+		DecisionJournal journal = DecisionJournal.create(file.getPath());
+		run(new CalendarStimulusQueue(), seed, journal);
+		assertThat(journal.isChecking(), is(false));
+		assertThat(journal.getRecordCount() > 100, is(true));
+		assertThat(file.length(), is(16 + journal.getRecordCount() * DecisionJournal.RECORD_SIZE));
+		return file;
+	}
+
+
+	@Test
+	public void sameRunVerifies()
+			throws IOException
+	{
+		File file = record(11);
+		DecisionJournal journal = DecisionJournal.open(file.getPath());
+
+		run(new CalendarStimulusQueue(), 11, journal);
+		assertThat(journal.isChecking(), is(true));
+		assertThat(journal.isMatched(), is(true));
+		assertThat(journal.describeMismatch(), is(nullValue()));
+		assertThat(journal.getRecordCount(), is((file.length() - 16) / DecisionJournal.RECORD_SIZE));
+	}
+
+
+	@Test
+	public void orderDoesNotDependOnQueue()
+			throws IOException
+	{
+		File file = record(11);
+		DecisionJournal journal = DecisionJournal.open(file.getPath());
+
+		run(new HeapStimulusQueue(), 11, journal);
+		assertThat(journal.describeMismatch(), journal.isMatched(), is(true));
+	}
+
+
+	@Test
+	public void differentRunIsReported()
+			throws IOException
+	{
+		File file = record(11);
+		DecisionJournal journal = DecisionJournal.open(file.getPath());
+
+		run(new CalendarStimulusQueue(), 12, journal);
+		assertThat(journal.isMatched(), is(false));
+		assertThat(journal.describeMismatch(), startsWith("record "));
+		assertThat(journal.describeMismatch(), containsString("expected time "));
+	}
+
+
+	@Test
+	public void unfinishedJournalIsReported()
+			throws IOException
+	{
+		File file = record(11);
+		long count = (file.length() - 16) / DecisionJournal.RECORD_SIZE;
+
+		try (RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+			raw.setLength(16 + (count - 5) * DecisionJournal.RECORD_SIZE);
+			raw.seek(12);
+			raw.writeInt(0);
+		}
+		DecisionJournal journal = DecisionJournal.open(file.getPath());
+		run(new CalendarStimulusQueue(), 11, journal);
+		assertThat(journal.isMatched(), is(false));
+		assertThat(journal.describeMismatch(), startsWith("record " + (count - 5) + ": expected nothing, got "));
+	}
+}
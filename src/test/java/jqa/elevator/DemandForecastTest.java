@@ -0,0 +1,135 @@
+package jqa.elevator;
+
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+
+public class DemandForecastTest
+{
+	private static final int BUCKET = DemandForecast.DEFAULT_BUCKET_TICKS;
+	private static final int DAY = ElevatorControlSystem.TICKS_PER_DAY;
+
+	private static final List<String> LINES = Arrays.asList(
+			"10	FCB-3	ButtonUp	3",
+			"40	FCB-3	PassengerArrived	12",
+			"90	FCB-15	ButtonDown	15",
+			"200	FCB-15	PassengerArrived	1",
+			"9100	FCB-3	ButtonUp	3",
+			"9300	DK-1	DestinationCall	18",
+			"9400	E-2	GoToFloor	7",
+			"864100	FCB-15	ButtonDown	15",
+			"864200	FCB-3	PassengerArrived	9"
+	);
+
+
+	@Test
+	public void rateIsTheCallsOverTheBucket()
+	{
+		DemandForecast forecast = new DemandForecast(20);
+
+		for (int j = 0; j < 9; ++j) {
+			forecast.callPlaced(100 * j, 3, Direction.kUP);
+		}
+		assertThat(forecast.getRate(3, Direction.kUP, 0), is(9.0 / BUCKET));
+		assertThat(forecast.getRate(3, Direction.kDOWN, 0), is(0.0));
+		assertThat("the same time the next day", forecast.getRate(3, Direction.kUP, DAY + BUCKET - 1), is(9.0 / BUCKET));
+		assertThat("nothing known of the next bucket", forecast.getRate(3, BUCKET), is(0.0));
+		assertThat(forecast.getCallCount(), is(9L));
+	}
+
+
+	@Test
+	public void earlierDaysCountLess()
+	{
+		DemandForecast forecast = new DemandForecast(20, BUCKET, 1.0);
+
+		for (int j = 0; j < 4; ++j) {
+			forecast.callPlaced(j, 5, Direction.kDOWN);
+		}
+		forecast.callPlaced(2 * DAY, 5, Direction.kDOWN);
+		forecast.callPlaced(2 * DAY + 1, 5, Direction.kDOWN);
+
+		/* Days 2, 1 and 0 weigh 1, 1/2 and 1/4: two calls and four
+		 * quarter calls over one and three quarter days.
+		 */
+		assertThat(forecast.getRate(5, Direction.kDOWN, 0), is(3.0 / (1.75 * BUCKET)));
+	}
+
+
+	@Test
+	public void ingestingMatchesLearningOnline()
+			throws IOException
+	{
+		File text = File.createTempFile("events", ".sim");
+		text.deleteOnExit();
+		Files.write(text.toPath(), LINES);
+
+		BuildingDescription description = BuildingDescription.load(writeBuilding().getPath());
+		ElevatorControlSystem online = description.createControlSystem(new CalendarStimulusQueue());
+		ElevatorControlSystem offline = description.createControlSystem(new CalendarStimulusQueue());
+		DemandForecast learnt = new DemandForecast(20);
+		DemandForecast ingested = new DemandForecast(20);
+
+		online.setVerbose(false);
+		online.setDemandForecast(learnt);
+		try (StimulusSource source = new TextStimulusSource(text.getPath())) {
+			online.setStimulusSource(source, 16);
+			while (online.isActive()) {
+				online.tickToNextEvent();
+			}
+		}
+		try (StimulusSource source = new TextStimulusSource(text.getPath())) {
+			assertThat(ingested.ingest(source, offline.deviceRegistry), is(8L));
+		}
+
+		assertThat(learnt.getCallCount(), is(8L));
+		for (int floor = 1; floor <= 20; ++floor) {
+			for (int time: new int[] { 0, BUCKET, DAY }) {
+				assertThat(ingested.getRate(floor, Direction.kUP, time), is(learnt.getRate(floor, Direction.kUP, time)));
+				assertThat(ingested.getRate(floor, Direction.kDOWN, time), is(learnt.getRate(floor, Direction.kDOWN, time)));
+			}
+		}
+		assertThat(ingested.getRate(3, Direction.kUP, BUCKET), is(1.0 / BUCKET));
+		assertThat(ingested.getRate(1, Direction.kUP, BUCKET), is(1.0 / BUCKET));
+	}
+
+
+	@Test
+	public void schedulerParksWhereCallsAreExpected()
+	{
+		ElevatorControlSystem controlSystem = BuildingDescription.create(20, 2)
+				.createControlSystem(new CalendarStimulusQueue());
+		DemandForecast forecast = new DemandForecast(20);
+		ForecastScheduler scheduler = new ForecastScheduler(controlSystem);
+
+		assertThat(scheduler.getPreferredFloor(0), is(Scheduler.NONE));
+		controlSystem.setDemandForecast(forecast);
+		for (int j = 0; j < 3; ++j) {
+			forecast.callPlaced(j, 6, Direction.kUP);
+			forecast.callPlaced(BUCKET + j, 17, Direction.kDOWN);
+		}
+		forecast.callPlaced(4, 14, Direction.kDOWN);
+		forecast.callPlaced(5, 14, Direction.kDOWN);
+		assertThat(scheduler.getPreferredFloor(0), is(6));
+		assertThat(scheduler.getPreferredFloor(1), is(14));
+	}
+
+
+	private static File writeBuilding()
+			throws IOException
+	{
+		File building = File.createTempFile("forecast", ".building");
+		building.deleteOnExit();
+		Files.write(building.toPath(), Arrays.asList("floors 20", "bank E 4", "kiosks 1"));
+		return building;
+	}
+}
@@ -0,0 +1,139 @@
+package jqa.elevator;
+
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+
+public class DestinationDispatchTest
+{
+	private ElevatorControlSystem controlSystem;
+	private List<String>          served;
+
+
+	@Before
+	public void setUp()
+			throws Exception
+	{
+		BuildingDescription description = BuildingDescription.parse(new BufferedReader(new StringReader(
+				"floors 20\n"
+				+ "bank E 2\n"
+				+ "kiosks 1,12\n"
+		)));
+
+		this.controlSystem = description.createControlSystem(new CalendarStimulusQueue());
+		this.controlSystem.setVerbose(false);
+		this.served = new ArrayList<>();
+		this.controlSystem.setServiceListener(new ServiceListener()
+		{
+			@Override
+			public void callServed(int timestamp, int floor, Direction direction, Elevator elevator, int waitTicks)
+			{
+				served.add(elevator.getDeviceIdentity() + " call " + floor + " " + direction);
+			}
+
+
+			@Override
+			public void stopServed(int timestamp, Elevator elevator, int floor, int travelTicks)
+			{
+				served.add(elevator.getDeviceIdentity() + " stop " + floor);
+			}
+		});
+	}
+
+
+	private void runUntilIdle()
+	{
+		while (this.controlSystem.isActive()) {
+			this.controlSystem.tickToNextEvent();
+		}
+	}
+
+
+	@Test
+	public void batch()
+	{
+		DestinationKiosk lobby = this.controlSystem.getDestinationKiosk(1);
+		Elevator first = lobby.enterDestination(10);
+		Elevator second = lobby.enterDestination(10);
+		Elevator third = lobby.enterDestination(3);
+
+		assertThat(this.controlSystem.getDestinationKiosk(2), is(nullValue()));
+		assertThat(first.getDeviceIdentity(), is("E-0"));
+		assertThat(second, is(first));
+		assertThat(third.getDeviceIdentity(), is("E-1"));
+		assertThat(first.waitingPassengers.size(), is(2));
+
+		this.runUntilIdle();
+		assertThat(first.currentFloor, is(10));
+		assertThat(third.currentFloor, is(3));
+		assertThat(first.waitingPassengers.size(), is(0));
+		assertThat(this.served, hasItems(
+				"E-0 call 1 kUP",
+				"E-1 call 1 kUP",
+				"E-0 stop 10",
+				"E-1 stop 3"
+		));
+		assertThat(this.served.size(), is(5));
+	}
+
+
+	@Test
+	public void boardGoingTheirWay()
+	{
+		Elevator car = this.controlSystem.elevators.get(0);
+
+		this.controlSystem.elevators.get(1).setIsFloorEnabled(5, false);
+		this.controlSystem.elevators.get(1).setIsFloorEnabled(18, false);
+		this.controlSystem.getDestinationKiosk(12).enterDestination(18);
+		this.controlSystem.getDestinationKiosk(12).enterDestination(5);
+		this.runUntilIdle();
+
+		/* The car takes one passenger at a time, and comes back for
+		 * the other.
+		 */
+		assertThat(this.served.subList(0, 2), is(Arrays.asList(
+				"E-0 call 12 kUP",
+				"E-0 stop 18"
+		)));
+		assertThat(this.served.subList(2, 4), is(Arrays.asList(
+				"E-0 call 12 kDOWN",
+				"E-0 stop 5"
+		)));
+		assertThat(car.currentFloor, is(5));
+	}
+
+
+	@Test
+	public void stimulus()
+	{
+		Stimulus stimulus = new Stimulus(0, Stimulus.StimulusType.DestinationCall);
+		Elevator[] assigned = new Elevator[1];
+
+		this.controlSystem.getEventBus().subscribe(new BuildingListener()
+		{
+			@Override
+			public void destinationAssigned(DestinationKiosk kiosk, int destination, Elevator car)
+			{
+				assigned[0] = car;
+			}
+		});
+		stimulus.deviceIdentity = "DK-12";
+		stimulus.floor = 2;
+		this.controlSystem.addStimulus(stimulus);
+		this.runUntilIdle();
+
+		assertThat(assigned[0].getDeviceIdentity(), is("E-0"));
+		assertThat(assigned[0].currentFloor, is(2));
+		assertThat(this.served, is(Arrays.asList("E-0 call 12 kDOWN", "E-0 stop 2")));
+	}
+}
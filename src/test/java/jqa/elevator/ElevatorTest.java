@@ -0,0 +1,117 @@
+package jqa.elevator;
+
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+
+public class ElevatorTest
+{
+	private ElevatorControlSystem controlSystem;
+	private Elevator              elevator;
+
+
+	@Before
+	public void setUp()
+	{
+		this.controlSystem = new ElevatorControlSystem(20);
+		this.elevator = new Elevator(this.controlSystem);
+		this.controlSystem.addElevator(this.elevator);
+		this.elevator.floorTime = 2;
+		this.elevator.stopTime = 10;
+		this.elevator.setCurrentFloor(5);
+	}
+
+
+	@Test
+	public void computeFloorCostIdle()
+			throws Exception
+	{
+		assertThat(this.elevator.computeFloorCost(5), is(0));
+		assertThat(this.elevator.computeFloorCost(9, Direction.kDOWN), is(8));
+		assertThat(this.elevator.computeFloorCost(1, Direction.kUP), is(8));
+		assertThat(this.elevator.computeFloorCost(21), is(Integer.MAX_VALUE));
+	}
+
+
+	@Test
+	public void computeFloorCostUp()
+			throws Exception
+	{
+		this.elevator.currentDirection = Direction.kUP;
+		this.elevator.setIsFloorSchedule(8, true);
+		this.elevator.setIsFloorSchedule(12, true);
+		assertThat(this.elevator.getHeading(), is(Direction.kUP));
+
+		/* On the way: passing the stop at 8, or at 8 and 12.
+		 */
+		assertThat(this.elevator.computeFloorCost(10, Direction.kUP), is(5 * 2 + 10));
+		assertThat(this.elevator.computeFloorCost(13, Direction.kUP), is(8 * 2 + 2 * 10));
+
+		/* Down call above: up to 14, then straight back.
+		 */
+		assertThat(this.elevator.computeFloorCost(14, Direction.kDOWN), is(9 * 2 + 2 * 10));
+
+		/* Down call below: up to 12, down to 3.
+		 */
+		assertThat(this.elevator.computeFloorCost(3, Direction.kDOWN), is((7 + 9) * 2 + 2 * 10));
+
+		/* Up call behind: up to 12, then down to 4 and turn.
+		 */
+		assertThat(this.elevator.computeFloorCost(4, Direction.kUP), is((7 + 8) * 2 + 2 * 10));
+	}
+
+
+	@Test
+	public void scheduleSummary()
+			throws Exception
+	{
+		this.elevator.setIsFloorSchedule(15, true);
+		this.elevator.setIsFloorSchedule(2, true);
+		assertThat(this.elevator.getHeading(), is(Direction.kUP));
+
+		this.elevator.setIsFloorSchedule(15, false);
+		assertThat(this.elevator.getHeading(), is(Direction.kDOWN));
+		assertThat(this.elevator.computeFloorCost(1, Direction.kDOWN), is(4 * 2 + 10));
+
+		this.elevator.setIsFloorSchedule(2, false);
+		assertThat(this.elevator.getHeading(), is(Direction.kIDLE));
+	}
+
+
+	@Test
+	public void nextStop()
+			throws Exception
+	{
+		this.elevator.setIsFloorSchedule(3, true);
+		this.elevator.setIsFloorSchedule(9, true);
+		this.elevator.setIsFloorSchedule(17, true);
+
+		this.elevator.currentDirection = Direction.kUP;
+		assertThat(this.elevator.getNextStop(), is(9));
+		this.elevator.currentDirection = Direction.kDOWN;
+		assertThat(this.elevator.getNextStop(), is(3));
+
+		assertThat(this.elevator.getStopCount(), is(3));
+		assertThat(this.elevator.nextScheduledFloor(10), is(17));
+		assertThat(this.elevator.nextScheduledFloor(18), is(-1));
+		assertThat(this.elevator.previousScheduledFloor(16), is(9));
+		assertThat(this.elevator.previousScheduledFloor(2), is(-1));
+		assertThat(this.elevator.getFloorSchedule().toString(), is("[3, 9, 17]"));
+	}
+
+
+	@Test
+	public void disabledFloor()
+			throws Exception
+	{
+		this.elevator.setIsFloorEnabled(7, false);
+		assertThat(this.elevator.isFloorEnabled(7), is(false));
+		assertThat(this.elevator.computeFloorCost(7), is(Integer.MAX_VALUE));
+		this.elevator.setIsFloorEnabled(7, true);
+		assertThat(this.elevator.computeFloorCost(7), is(4));
+	}
+}
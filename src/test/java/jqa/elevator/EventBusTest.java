@@ -0,0 +1,123 @@
+package jqa.elevator;
+
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+
+public class EventBusTest
+{
+	/**
+	 * Writes down every change it hears of.
+	 */
+	private static class Recorder
+		implements BuildingListener
+	{
+		List<String> changes = new ArrayList<>();
+
+
+		@Override
+		public void carFloorChanged(Elevator car, int floor)
+		{
+			this.changes.add(car.getDeviceIdentity() + " floor " + floor);
+		}
+
+
+		@Override
+		public void carStateChanged(Elevator car, CarState state)
+		{
+			this.changes.add(car.getDeviceIdentity() + " state " + state);
+		}
+
+
+		@Override
+		public void scheduleChanged(Elevator car, int floor, boolean isScheduled)
+		{
+			this.changes.add(car.getDeviceIdentity() + " schedule " + floor + " " + isScheduled);
+		}
+
+
+		@Override
+		public void callLampChanged(FloorCallButton button, Direction direction, boolean isOn)
+		{
+			this.changes.add(button.getDeviceIdentity() + " lamp " + direction + " " + isOn);
+		}
+	}
+
+
+	private Building              building;
+	private ElevatorControlSystem controlSystem;
+
+
+	@Before
+	public void setUp()
+	{
+		this.building = new Building(10, 1, new CalendarStimulusQueue());
+		this.controlSystem = this.building.controlSystem;
+		this.controlSystem.setVerbose(false);
+	}
+
+
+	private void answerCall()
+	{
+		this.controlSystem.getFloorCallButton(3).setUp(true);
+		while (this.controlSystem.isActive()) {
+			this.controlSystem.tickToNextEvent();
+		}
+	}
+
+
+	@Test
+	public void publish()
+			throws Exception
+	{
+		Recorder recorder = new Recorder();
+		Recorder other = new Recorder();
+		EventBus bus = this.controlSystem.getEventBus();
+
+		bus.subscribe(recorder);
+		bus.subscribe(other);
+		bus.unsubscribe(other);
+		this.answerCall();
+
+		assertThat(recorder.changes.subList(0, 4), is(Arrays.asList(
+				"FCB-3 lamp kUP true",
+				"E-0 schedule 3 true",
+				"E-0 state kMOVING",
+				"E-0 floor 2"
+		)));
+		assertThat(recorder.changes, hasItems(
+				"E-0 floor 3",
+				"E-0 schedule 3 false",
+				"FCB-3 lamp kUP false",
+				"E-0 state kDOORS_OPENING"
+		));
+		assertThat(recorder.changes.get(recorder.changes.size() - 1), is("E-0 state kIDLE"));
+		assertThat(other.changes.isEmpty(), is(true));
+	}
+
+
+	@Test
+	public void async()
+			throws Exception
+	{
+		Recorder direct = new Recorder();
+		Recorder slow = new Recorder();
+		AsyncListener async = new AsyncListener(this.controlSystem, slow, 4, false);
+
+		this.controlSystem.getEventBus().subscribe(direct);
+		this.controlSystem.getEventBus().subscribe(async);
+		this.answerCall();
+		async.close();
+
+		assertThat(slow.changes, is(direct.changes));
+		assertThat(async.getDroppedCount(), is(0L));
+	}
+}
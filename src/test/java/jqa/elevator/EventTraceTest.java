@@ -0,0 +1,108 @@
+package jqa.elevator;
+
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+
+public class EventTraceTest
+{
+	private static final List<String> LINES = Arrays.asList(
+			"1	FCB-10	ButtonUp	10",
+			"2	FCB-12	ButtonDown	12",
+			"3	E-3	GoToFloor	20",
+			"3	E-3	GoToFloor	21"
+	);
+
+
+	private File writeText(List<String> lines)
+			throws IOException
+	{
+		File text = File.createTempFile("events", ".sim");
+		text.deleteOnExit();
+		Files.write(text.toPath(), lines);
+		return text;
+	}
+
+
+	@Test
+	public void convertAndRead()
+			throws Exception
+	{
+		File text = this.writeText(LINES);
+		File trace = File.createTempFile("events", ".trace");
+		trace.deleteOnExit();
+
+		assertThat(EventTrace.convert(text.getPath(), trace.getPath()), is(4L));
+		assertThat(EventTrace.isTraceFile(trace.getPath()), is(true));
+		assertThat(EventTrace.isTraceFile(text.getPath()), is(false));
+
+		try (EventTrace.Reader reader = EventTrace.Reader.open(trace.getPath())) {
+			Stimulus stimulus = new Stimulus();
+			assertThat(reader.getRecordCount(), is(4L));
+			assertThat(reader.isSorted(), is(true));
+			for (String line: LINES) {
+				Stimulus expected = Stimulus.createFromString(line);
+				assertThat(reader.next(stimulus), is(true));
+				assertThat(stimulus.timestamp, is(expected.timestamp));
+				assertThat(stimulus.deviceIdentity, is(expected.deviceIdentity));
+				assertThat(stimulus.type, is(expected.type));
+				assertThat(stimulus.floor, is(expected.floor));
+			}
+			assertThat(reader.next(stimulus), is(false));
+		}
+	}
+
+
+	@Test
+	public void unsorted()
+			throws Exception
+	{
+		File text = this.writeText(Arrays.asList(
+				"5	E-1	GoToFloor	3",
+				"2	E-1	GoToFloor	4"
+		));
+		File trace = File.createTempFile("events", ".trace");
+		trace.deleteOnExit();
+
+		EventTrace.convert(text.getPath(), trace.getPath());
+		try (EventTrace.Reader reader = EventTrace.Reader.open(trace.getPath())) {
+			assertThat(reader.isSorted(), is(false));
+		}
+	}
+
+
+	@Test
+	public void bindDevices()
+			throws Exception
+	{
+		File text = this.writeText(LINES);
+		File trace = File.createTempFile("events", ".trace");
+		trace.deleteOnExit();
+		Building building = new Building(20, 2, new CalendarStimulusQueue());
+		DeviceRegistry registry = building.controlSystem.deviceRegistry;
+
+		EventTrace.convert(text.getPath(), trace.getPath());
+		try (EventTrace.Reader reader = EventTrace.Reader.open(trace.getPath())) {
+			Stimulus stimulus = new Stimulus();
+			reader.bindDevices(registry);
+			assertThat(reader.next(stimulus), is(true));
+			assertThat(registry.get(stimulus.deviceHandle), is((StandaloneDevice)building.controlSystem.getFloorCallButton(10)));
+			assertThat(reader.next(stimulus), is(true));
+			assertThat(stimulus.deviceHandle, is(registry.resolve("FCB-12")));
+
+			/* E-3 is not in a two-car building.
+			 */
+			assertThat(reader.next(stimulus), is(true));
+			assertThat(stimulus.deviceHandle, is(DeviceRegistry.NONE));
+		}
+	}
+}
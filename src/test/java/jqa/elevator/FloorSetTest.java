@@ -0,0 +1,65 @@
+package jqa.elevator;
+
+
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+
+public class FloorSetTest
+{
+	/**
+	 * Checks the searches and counts against {@link BitSet}, across
+	 * several words.
+	 */
+	@Test
+	public void matchesBitSet()
+			throws Exception
+	{
+		int top = 200;
+		FloorSet floors = new FloorSet(top);
+		BitSet expected = new BitSet();
+		Random random = new Random(11);
+
+		for (int j = 0; j < 2000; ++j) {
+			int floor = random.nextInt(top + 1);
+			if (random.nextBoolean()) {
+				assertThat(floors.add(floor), is(!expected.get(floor)));
+				expected.set(floor);
+			}
+			else {
+				assertThat(floors.remove(floor), is(expected.get(floor)));
+				expected.clear(floor);
+			}
+			assertThat(floors.size(), is(expected.cardinality()));
+
+			int from = random.nextInt(top + 1);
+			int to = random.nextInt(top + 1);
+			assertThat(floors.next(from), is(expected.nextSetBit(from)));
+			assertThat(floors.previous(from), is(expected.previousSetBit(from)));
+			assertThat(floors.count(from, to),
+					is(from > to ? 0 : expected.get(from, to + 1).cardinality()));
+		}
+	}
+
+
+	@Test
+	public void forEach()
+			throws Exception
+	{
+		FloorSet floors = new FloorSet(130);
+		StringBuilder visited = new StringBuilder();
+
+		floors.add(1);
+		floors.add(64);
+		floors.add(130);
+		floors.forEach(floor -> visited.append(floor).append(' '));
+		assertThat(visited.toString(), is("1 64 130 "));
+		assertThat(floors.next(131), is(-1));
+		assertThat(floors.previous(500), is(130));
+	}
+}
@@ -0,0 +1,121 @@
+package jqa.elevator;
+
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+
+public class MetricsTest
+{
+	@Test
+	public void histogram()
+	{
+		Histogram histogram = new Histogram();
+
+		for (long value = 0; value < 128; ++value) {
+			assertThat(Histogram.indexOf(value), is((int)value));
+			assertThat(Histogram.highestValueOf((int)value), is(value));
+		}
+		for (long value = 128; value < 1 << 20; value += 7) {
+			int index = Histogram.indexOf(value);
+			long highest = Histogram.highestValueOf(index);
+			assertThat(highest >= value, is(true));
+			assertThat(highest - value < value >> Histogram.PRECISION_BITS, is(true));
+			assertThat(Histogram.indexOf(highest + 1), is(index + 1));
+		}
+		assertThat(Histogram.highestValueOf(Histogram.indexOf(Long.MAX_VALUE)), is(Long.MAX_VALUE));
+
+		for (long value = 1; value <= 1000; ++value) {
+			histogram.record(value * 1000);
+		}
+		assertThat(histogram.getCount(), is(1000L));
+		assertThat(histogram.getMax(), is(1000000L));
+		assertThat(histogram.getMean(), is(500500.0));
+		assertThat(Math.abs(histogram.getPercentile(50) - 500000) < 500000 >> Histogram.PRECISION_BITS, is(true));
+		assertThat(histogram.getPercentile(100), is(1000000L));
+
+		Histogram other = new Histogram();
+		other.record(5);
+		other.merge(histogram);
+		assertThat(other.getCount(), is(1001L));
+		assertThat(other.getPercentile(0), is(5L));
+		histogram.reset();
+		assertThat(histogram.getCount(), is(0L));
+		assertThat(histogram.getPercentile(50), is(0L));
+	}
+
+
+	@Test
+	public void attach()
+			throws Exception
+	{
+		BuildingDescription description = BuildingDescription.parse(new BufferedReader(new StringReader(
+				"floors 10\nfloor-height 3000\nbank E 2\n")));
+		ElevatorControlSystem controlSystem = description.createControlSystem(new CalendarStimulusQueue());
+		Metrics metrics = new Metrics(controlSystem);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(bytes, true);
+
+		controlSystem.setVerbose(false);
+		metrics.attach();
+		metrics.setReportInterval(100);
+		controlSystem.passengerArrived(6, 9);
+		while (controlSystem.isActive()) {
+			controlSystem.tickToNextEvent();
+			if (metrics.isReportDue()) {
+				metrics.printReport(out);
+			}
+		}
+
+		/* E-0 goes up 5 floors to the passenger, and 3 more with them.
+		 */
+		assertThat(metrics.getAssignmentLatencies().getCount(), is(1L));
+		assertThat(metrics.getStopCount(0), is(2L));
+		assertThat(metrics.getDistance(0), is(8 * 3000L));
+		assertThat(metrics.getStopCount(1), is(0L));
+		assertThat(metrics.getJourneyTimes().getCount(), is(1L));
+		assertThat(metrics.getJourneyTimes().getMax(),
+				is(metrics.getPassengerWaitTimes().getMax() + metrics.getRideTimes().getMax()));
+		assertThat(bytes.toString(), containsString("=== metrics: time"));
+
+		metrics.printSummary(out);
+		assertThat(bytes.toString(), containsString("journey"));
+		assertThat(bytes.toString(), containsString("E-0"));
+	}
+
+
+	@Test
+	public void unservedCallsAreNotTimed()
+	{
+		ElevatorControlSystem controlSystem = BuildingDescription.create(10, 2)
+				.createControlSystem(new CalendarStimulusQueue());
+		Metrics metrics = new Metrics(controlSystem);
+
+		/* The dispatcher takes at least a millisecond to find no car for
+		 * floor 5, and no time to give floor 3 to E-0.
+		 */
+		controlSystem.setDispatcher((floor, direction) -> {
+			if (floor != 5) {
+				return controlSystem.elevators.get(0);
+			}
+			long until = System.nanoTime() + 1000000;
+			while (System.nanoTime() < until) {
+			}
+			return null;
+		});
+		metrics.attach();
+		controlSystem.pickup(5, Direction.kUP);
+		controlSystem.pickup(3, Direction.kUP);
+
+		assertThat(controlSystem.getAssignmentCount(), is(1L));
+		assertThat(metrics.getAssignmentLatencies().getCount(), is(1L));
+		assertThat(controlSystem.getMeanAssignmentNanos() <= metrics.getAssignmentLatencies().getMax(), is(true));
+	}
+}
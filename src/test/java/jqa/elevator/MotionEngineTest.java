@@ -0,0 +1,192 @@
+package jqa.elevator;
+
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+
+public class MotionEngineTest
+{
+	private static final int FLOORS = 10;
+
+	private ElevatorControlSystem controlSystem;
+	private Elevator              elevator;
+
+
+	@Before
+	public void setUp()
+	{
+		this.controlSystem = new ElevatorControlSystem(FLOORS);
+		this.elevator = new Elevator(this.controlSystem);
+		this.elevator.setDeviceIdentity("E-0");
+		this.elevator.setMotionProfile(new MotionProfile(100, 50, 25, 2, 3, 2));
+		this.controlSystem.addElevator(this.elevator);
+		for (int floor = 1; floor <= FLOORS; ++floor) {
+			FloorCallButton button = new FloorCallButton(this.controlSystem, floor);
+			button.setDeviceIdentity("FCB-" + floor);
+			this.controlSystem.addFloorCallButton(button);
+		}
+	}
+
+
+	private int runUntilIdle()
+	{
+		int limit = 1000;
+
+		while (this.controlSystem.isActive()) {
+			assertTrue("simulation did not settle", --limit > 0);
+			this.controlSystem.tick();
+		}
+		return this.controlSystem.getCurrentTime();
+	}
+
+
+	@Test
+	public void kinematics()
+			throws Exception
+	{
+		MotionProfile profile = new MotionProfile(3500, 251, 10, 20, 30, 20);
+
+		assertThat(profile.maxSpeed, is(250));
+		assertThat(profile.brakingDistance(0), is(0));
+		assertThat(profile.brakingDistance(30), is(30));
+		assertThat(profile.nextSpeed(0, 3500), is(10));
+		assertThat(profile.nextSpeed(250, 100000), is(250));
+
+		/* Never overshoot: the speed always allows stopping in time.
+		 */
+		int position = 0;
+		int speed = 0;
+		while (position < 3500) {
+			speed = profile.nextSpeed(speed, 3500 - position);
+			assertThat(speed > 0, is(true));
+			assertThat(profile.brakingDistance(speed) <= 3500 - position, is(true));
+			position += speed;
+		}
+		assertThat(position, is(3500));
+	}
+
+
+	@Test
+	public void answerCall()
+			throws Exception
+	{
+		FloorCallButton button = this.controlSystem.getFloorCallButton(4);
+
+		button.setUp(true);
+		assertThat(this.controlSystem.getAssignedElevator(4, Direction.kUP), is(this.elevator));
+
+		this.controlSystem.tick();
+		assertThat(this.elevator.getCarState(), is(CarState.kMOVING));
+
+		this.runUntilIdle();
+		assertThat(this.elevator.getCurrentFloor(), is(4));
+		assertThat(this.elevator.getCarState(), is(CarState.kIDLE));
+		assertThat(this.elevator.getStopCount(), is(0));
+		assertThat(button.isUp(), is(false));
+		assertThat(this.controlSystem.getAssignedElevator(4, Direction.kUP), is(nullValue()));
+	}
+
+
+	@Test
+	public void deferOppositeCall()
+			throws Exception
+	{
+		FloorCallButton button = this.controlSystem.getFloorCallButton(4);
+
+		this.elevator.setIsFloorSchedule(8, true);
+		this.controlSystem.tick();
+		button.setDown(true);
+
+		/* The car stops at 4 on its way up, but leaves the down call
+		 * lit, and comes back for it after floor 8.
+		 */
+		int highest = 0;
+		int limit = 1000;
+		while (this.controlSystem.isActive()) {
+			assertTrue("simulation did not settle", --limit > 0);
+			this.controlSystem.tick();
+			highest = Math.max(highest, this.elevator.getCurrentFloor());
+			if (highest < 8 && this.elevator.getCurrentFloor() == 4) {
+				assertThat(button.isDown(), is(true));
+			}
+		}
+		assertThat(highest, is(8));
+		assertThat(this.elevator.getCurrentFloor(), is(4));
+		assertThat(button.isDown(), is(false));
+	}
+
+
+	/**
+	 * Runs a random scenario, stepping every tick or jumping from event
+	 * to event, and gives a transcript of the state after each tick that
+	 * handled stimuli, then of the floors each car passed.  Skipping
+	 * moves one car at a time, so only each car's own floors keep their
+	 * order.
+	 */
+	private static String runScenario(boolean isFixedStep)
+	{
+		Building building = new Building(20, 4, new CalendarStimulusQueue());
+		ElevatorControlSystem controlSystem = building.controlSystem;
+		Random random = new Random(7);
+		StringBuilder transcript = new StringBuilder();
+		StringBuilder[] floors = new StringBuilder[controlSystem.elevators.size()];
+
+		for (int j = 0; j < 60; ++j) {
+			Stimulus stimulus = new Stimulus(random.nextInt(5000), Stimulus.StimulusType.ButtonUp);
+			stimulus.floor = 1 + random.nextInt(19);
+			if (random.nextBoolean()) {
+				stimulus.deviceIdentity = "FCB-" + stimulus.floor;
+				if (stimulus.floor > 1 && random.nextBoolean()) {
+					stimulus.type = Stimulus.StimulusType.ButtonDown;
+				}
+			}
+			else {
+				stimulus.deviceIdentity = "E-" + random.nextInt(4);
+				stimulus.type = Stimulus.StimulusType.GoToFloor;
+			}
+			controlSystem.addStimulus(stimulus);
+		}
+		for (int j = 0; j < floors.length; ++j) {
+			floors[j] = new StringBuilder();
+		}
+		controlSystem.eventBus.subscribe(new BuildingListener() {
+			@Override
+			public void carFloorChanged(Elevator car, int floor)
+			{
+				floors[car.getIndex()].append(' ').append(floor);
+			}
+		});
+		while (controlSystem.isActive()) {
+			int handled = isFixedStep ? controlSystem.tick() : controlSystem.tickToNextEvent();
+			if (handled > 0) {
+				transcript.append(controlSystem.getCurrentTime());
+				for (Elevator elevator : controlSystem.elevators) {
+					transcript.append(' ').append(elevator.getCurrentFloor())
+							.append(elevator.currentDirection.status)
+							.append(elevator.getCarState().status)
+							.append(elevator.getStopCount());
+				}
+				transcript.append('\n');
+			}
+		}
+		transcript.append(controlSystem.getCurrentTime());
+		for (StringBuilder passed : floors) {
+			transcript.append('\n').append(passed);
+		}
+		return transcript.toString();
+	}
+
+
+	@Test
+	public void nextEventMatchesTicks()
+			throws Exception
+	{
+		assertThat(runScenario(false), is(runScenario(true)));
+	}
+}
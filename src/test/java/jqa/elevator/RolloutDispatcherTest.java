@@ -0,0 +1,181 @@
+package jqa.elevator;
+
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+
+public class RolloutDispatcherTest
+{
+	private static final BuildingDescription DESCRIPTION = BuildingDescription.create(20, 4);
+
+
+	/**
+	 * Creates a busy controller dispatching by rollouts: a call every
+	 * few ticks at floors spread over the building.
+	 */
+	private static ElevatorControlSystem createControlSystem(int threadCount)
+			throws IOException
+	{
+		ElevatorControlSystem controlSystem = DESCRIPTION.createControlSystem(new CalendarStimulusQueue());
+		RolloutDispatcher dispatcher = new RolloutDispatcher(controlSystem, DESCRIPTION, threadCount);
+
+		controlSystem.setVerbose(false);
+		dispatcher.setHorizon(300);
+		controlSystem.setDispatcher(dispatcher);
+		for (int j = 0; j < 40; ++j) {
+			int floor = 2 + (j * 7) % 18;
+			String button = j % 2 == 0 ? "ButtonUp" : "ButtonDown";
+			controlSystem.addStimulus(Stimulus.createFromString(
+					String.format("%d FCB-%d %s %d", 5 * j, floor, button, floor)));
+		}
+		return controlSystem;
+	}
+
+
+	private static byte[] save(ElevatorControlSystem controlSystem)
+			throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		Checkpoint.capture(controlSystem).write(bytes);
+		return bytes.toByteArray();
+	}
+
+
+	@Test
+	public void everyCallIsServed()
+			throws IOException
+	{
+		ElevatorControlSystem controlSystem = createControlSystem(2);
+		RolloutDispatcher dispatcher = getDispatcher(controlSystem);
+
+		while (controlSystem.isActive()) {
+			controlSystem.tickToNextEvent();
+		}
+		dispatcher.close();
+		assertThat(dispatcher.getCallCount(), is(controlSystem.getAssignmentCount()));
+		assertThat(dispatcher.getRolloutCount() > dispatcher.getCallCount(), is(true));
+		for (int floor = 1; floor <= 20; ++floor) {
+			assertThat(controlSystem.getAssignedElevator(floor, Direction.kUP), is(nullValue()));
+			assertThat(controlSystem.getAssignedElevator(floor, Direction.kDOWN), is(nullValue()));
+		}
+	}
+
+
+	@Test
+	public void rolloutsLeaveTheControllerAlone()
+			throws IOException
+	{
+		ElevatorControlSystem controlSystem = createControlSystem(2);
+
+		for (int j = 0; j < 50; ++j) {
+			controlSystem.tick();
+		}
+		byte[] before = save(controlSystem);
+		getDispatcher(controlSystem).assignCall(17, Direction.kDOWN);
+		assertThat(save(controlSystem), is(before));
+	}
+
+
+	@Test
+	public void choiceDoesNotDependOnThreads()
+			throws IOException
+	{
+		ElevatorControlSystem single = createControlSystem(1);
+		ElevatorControlSystem parallel = createControlSystem(4);
+
+		while (single.isActive()) {
+			single.tickToNextEvent();
+		}
+		while (parallel.isActive()) {
+			parallel.tickToNextEvent();
+		}
+		assertThat(parallel.getCurrentTime(), is(single.getCurrentTime()));
+		assertThat(getDispatcher(parallel).getChangedCount(), is(getDispatcher(single).getChangedCount()));
+		for (int j = 0; j < 4; ++j) {
+			assertThat(parallel.elevators.get(j).getCurrentFloor(), is(single.elevators.get(j).getCurrentFloor()));
+		}
+	}
+
+
+	/**
+	 * Tries a call that a car reaches one tick after the horizon, and
+	 * one tick before it: the call is measured at the end of the
+	 * horizon, still waiting, or as served.
+	 */
+	@Test
+	public void rolloutsStopAtTheHorizon()
+	{
+		BuildingDescription description = BuildingDescription.create(20, 2);
+		ElevatorControlSystem plain = description.createControlSystem(new CalendarStimulusQueue());
+		int[] wait = { -1 };
+
+		plain.setServiceListener(new ServiceListener() {
+			@Override
+			public void callServed(int timestamp, int floor, Direction direction, Elevator elevator, int waitTicks)
+			{
+				wait[0] = waitTicks;
+			}
+
+
+			@Override
+			public void stopServed(int timestamp, Elevator elevator, int floor, int travelTicks)
+			{
+			}
+		});
+		plain.getFloorCallButton(15).setUp(true);
+		while (plain.isActive()) {
+			plain.tickToNextEvent();
+		}
+		assertThat(wait[0] > 1, is(true));
+
+		for (int horizon: new int[] { wait[0] - 1, wait[0] }) {
+			ElevatorControlSystem controlSystem = description.createControlSystem(new CalendarStimulusQueue());
+			RolloutDispatcher dispatcher = new RolloutDispatcher(controlSystem, description, 1);
+
+			dispatcher.setHorizon(horizon);
+			controlSystem.setDispatcher(dispatcher);
+			controlSystem.getFloorCallButton(15).setUp(true);
+			dispatcher.close();
+			assertThat(dispatcher.getRolloutCount(), is(2L));
+			for (Elevator car: controlSystem.elevators) {
+				assertThat(dispatcher.getAverageWait(car), is((double)horizon));
+			}
+		}
+	}
+
+
+	@Test
+	public void settingsMustBePositive()
+	{
+		ElevatorControlSystem controlSystem = DESCRIPTION.createControlSystem(new CalendarStimulusQueue());
+		RolloutDispatcher dispatcher = new RolloutDispatcher(controlSystem, DESCRIPTION, 1);
+
+		try {
+			dispatcher.setCandidateCount(0);
+			fail("no candidates");
+		}
+		catch (IllegalArgumentException e) {
+			assertThat(e.getMessage(), is("Bad candidate count: 0"));
+		}
+		try {
+			dispatcher.setHorizon(0);
+			fail("no horizon");
+		}
+		catch (IllegalArgumentException e) {
+			assertThat(e.getMessage(), is("Bad horizon: 0"));
+		}
+	}
+
+
+	private static RolloutDispatcher getDispatcher(ElevatorControlSystem controlSystem)
+	{
+		return (RolloutDispatcher)controlSystem.getDispatcher();
+	}
+}
@@ -0,0 +1,51 @@
+package jqa.elevator;
+
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+
+public class ScenarioRunnerTest
+{
+	@Test
+	public void distribution()
+			throws Exception
+	{
+		ServiceStatistics statistics = new ServiceStatistics();
+		ServiceStatistics other = new ServiceStatistics();
+
+		for (int ticks = 1; ticks <= 50; ++ticks) {
+			statistics.callServed(0, 1, Direction.kUP, null, ticks);
+			other.callServed(0, 1, Direction.kUP, null, ticks + 50);
+		}
+		other.callServed(0, 1, Direction.kUP, null, 1000);
+		statistics.merge(other);
+
+		Histogram waits = statistics.getWaitTimes();
+		assertThat(waits.getCount(), is(101L));
+		assertThat(waits.getPercentile(50), is(51L));
+		assertThat(waits.getPercentile(99), is(100L));
+		assertThat(waits.getPercentile(100), is(1000L));
+		assertThat(waits.getMax(), is(1000L));
+		assertThat(statistics.getTravelTimes().getCount(), is(0L));
+	}
+
+
+	@Test
+	public void sweepIndependentOfThreads()
+			throws Exception
+	{
+		ScenarioRunner runner = new ScenarioRunner(20, 3, 40, 3000);
+		ServiceStatistics serial = runner.runSweep(11, 6, 1);
+		ServiceStatistics parallel = runner.runSweep(11, 6, 3);
+
+		assertThat(serial.getPassengerWaitTimes().getCount(), is(6L * 40));
+		assertThat(serial.getRideTimes().getCount(), is(6L * 40));
+		assertThat(serial.getTravelTimes().getCount() > 0, is(true));
+		assertThat(parallel.getWaitTimes().getCount(), is(serial.getWaitTimes().getCount()));
+		assertThat(parallel.getPassengerWaitTimes().getMean(), is(serial.getPassengerWaitTimes().getMean()));
+		assertThat(parallel.getRideTimes().getPercentile(90), is(serial.getRideTimes().getPercentile(90)));
+	}
+}
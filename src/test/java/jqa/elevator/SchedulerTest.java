@@ -0,0 +1,160 @@
+package jqa.elevator;
+
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+
+public class SchedulerTest
+{
+	private ElevatorControlSystem controlSystem;
+	private int                   doorOpenings;
+
+
+	@Before
+	public void setUp()
+	{
+		Building building = new Building(20, 2, new CalendarStimulusQueue());
+
+		this.controlSystem = building.controlSystem;
+		this.controlSystem.setVerbose(false);
+		this.controlSystem.elevators.get(0).setCurrentFloor(12);
+		this.controlSystem.elevators.get(1).setCurrentFloor(17);
+		this.doorOpenings = 0;
+		this.controlSystem.getEventBus().subscribe(new BuildingListener()
+		{
+			@Override
+			public void carStateChanged(Elevator car, CarState state)
+			{
+				if (state == CarState.kDOORS_OPENING) {
+					++doorOpenings;
+				}
+			}
+		});
+	}
+
+
+	private void runUntilIdle()
+	{
+		while (this.controlSystem.isActive()) {
+			this.controlSystem.tickToNextEvent();
+		}
+	}
+
+
+	private int floorOf(int elevator)
+	{
+		return this.controlSystem.elevators.get(elevator).currentFloor;
+	}
+
+
+	@Test
+	public void lobby()
+	{
+		this.controlSystem.setScheduler(new LobbyScheduler(1));
+		this.runUntilIdle();
+
+		assertThat(this.floorOf(0), is(1));
+		assertThat(this.floorOf(1), is(1));
+		assertThat(this.doorOpenings, is(0));
+		assertThat(this.controlSystem.elevators.get(0).parkingFloor, is(Scheduler.NONE));
+
+		/* After answering a call, the car goes back down.
+		 */
+		this.controlSystem.getFloorCallButton(9).setDown(true);
+		this.runUntilIdle();
+		assertThat(this.doorOpenings, is(1));
+		assertThat(this.floorOf(0), is(1));
+		assertThat(this.floorOf(1), is(1));
+	}
+
+
+	@Test
+	public void callCancelsParking()
+	{
+		Elevator car = this.controlSystem.elevators.get(0);
+
+		this.controlSystem.setScheduler(new LobbyScheduler(1));
+		this.controlSystem.elevators.get(1).setIsFloorEnabled(14, false);
+		this.controlSystem.tickToNextEvent();
+		assertThat(car.parkingFloor, is(1));
+
+		this.controlSystem.getFloorCallButton(14).setUp(true);
+		assertThat(car.parkingFloor, is(Scheduler.NONE));
+		assertThat(car.isFloorScheduled(1), is(false));
+		this.runUntilIdle();
+		assertThat(this.doorOpenings, is(1));
+		assertThat(this.controlSystem.getFloorCallButton(14).isUp(), is(false));
+	}
+
+
+	@Test
+	public void zoned()
+	{
+		Scheduler scheduler = new ZonedScheduler(1, 20, 4);
+
+		assertThat(scheduler.getPreferredFloor(0), is(3));
+		assertThat(scheduler.getPreferredFloor(1), is(8));
+		assertThat(scheduler.getPreferredFloor(2), is(13));
+		assertThat(scheduler.getPreferredFloor(3), is(18));
+		assertThat(scheduler.getPreferredFloor(4), is(Scheduler.NONE));
+	}
+
+
+	@Test
+	public void demand()
+	{
+		Scheduler scheduler = new DemandScheduler(20, 2, 100);
+
+		assertThat(scheduler.getPreferredFloor(0), is(Scheduler.NONE));
+		scheduler.callPlaced(0, 10, Direction.kUP);
+		scheduler.callPlaced(0, 10, Direction.kDOWN);
+		scheduler.callPlaced(0, 10, Direction.kUP);
+		scheduler.callPlaced(0, 2, Direction.kUP);
+		assertThat(scheduler.getPreferredFloor(0), is(2));
+		assertThat(scheduler.getPreferredFloor(1), is(10));
+
+		/* Ten half-lives on, one call outweighs all the old ones.
+		 */
+		scheduler.callPlaced(1000, 15, Direction.kDOWN);
+		assertThat(scheduler.getPreferredFloor(0), is(15));
+		assertThat(scheduler.getPreferredFloor(1), is(15));
+
+		/* The weights are rescaled without changing their ratios.
+		 */
+		scheduler.callPlaced(10_000, 4, Direction.kUP);
+		scheduler.callPlaced(10_000, 4, Direction.kUP);
+		scheduler.callPlaced(10_000, 6, Direction.kUP);
+		assertThat(scheduler.getPreferredFloor(0), is(4));
+		assertThat(scheduler.getPreferredFloor(1), is(6));
+	}
+
+
+	@Test
+	public void timeOfDay()
+	{
+		Scheduler morning = new LobbyScheduler(1);
+		Scheduler evening = new ZonedScheduler(1, 20, 2);
+		int noon = ElevatorControlSystem.TICKS_PER_DAY / 2;
+
+		this.controlSystem.setScheduler(0, morning);
+		this.controlSystem.setScheduler(noon, evening);
+		assertThat(this.controlSystem.getScheduler(), is(morning));
+		this.runUntilIdle();
+		assertThat(this.floorOf(0), is(1));
+		assertThat(this.floorOf(1), is(1));
+
+		/* The clock jumps to noon, and the cars spread out.
+		 */
+		this.controlSystem.tickToNextEvent();
+		assertThat(this.controlSystem.getScheduler(), is(evening));
+		this.runUntilIdle();
+		assertThat(this.floorOf(0), is(6));
+		assertThat(this.floorOf(1), is(16));
+		assertThat(this.controlSystem.getNextSchedulerChange(), is(ElevatorControlSystem.TICKS_PER_DAY));
+		assertThat(this.doorOpenings, is(0));
+	}
+}
@@ -0,0 +1,170 @@
+package jqa.elevator;
+
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+
+public class StatusFeedTest
+{
+	private static ElevatorControlSystem createControlSystem()
+			throws IOException
+	{
+		ElevatorControlSystem controlSystem = BuildingDescription.create(20, 3)
+				.createControlSystem(new CalendarStimulusQueue());
+
+		controlSystem.setVerbose(false);
+		controlSystem.addStimulus(Stimulus.createFromString("0 FCB-12 ButtonDown 12"));
+		controlSystem.addStimulus(Stimulus.createFromString("5 FCB-7 ButtonUp 7"));
+		return controlSystem;
+	}
+
+
+	private static void runAndPublish(ElevatorControlSystem controlSystem, StatusFeed feed)
+	{
+		while (controlSystem.isActive()) {
+			controlSystem.tick();
+			feed.publish();
+		}
+	}
+
+
+	/**
+	 * Splits a stream into its events, giving the type and data of each.
+	 */
+	private static List<String[]> parseEvents(String text)
+	{
+		List<String[]> events = new ArrayList<>();
+
+		for (String block: text.split("\n\n")) {
+			String type = null;
+			String data = null;
+			for (String line: block.split("\n")) {
+				if (line.startsWith("event: ")) {
+					type = line.substring(7);
+				}
+				else if (line.startsWith("data: ")) {
+					data = line.substring(6);
+				}
+			}
+			if (type != null) {
+				events.add(new String[] {type, data});
+			}
+		}
+		return events;
+	}
+
+
+	@Test
+	public void deltasFollowStatus()
+			throws IOException, InterruptedException
+	{
+		ElevatorControlSystem controlSystem = createControlSystem();
+		StatusFeed feed = new StatusFeed(controlSystem);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		feed.attach();
+		feed.subscribe(out);
+		runAndPublish(controlSystem, feed);
+		long ticks = controlSystem.getTickCount();
+		while (feed.getFrameCount() > 0 && out.toString(StandardCharsets.UTF_8).split("event: delta").length
+				<= feed.getFrameCount()) {
+			Thread.sleep(1);
+		}
+		feed.close();
+		while (feed.getSubscriberCount() > 0) {
+			Thread.sleep(1);
+		}
+
+		List<String[]> events = parseEvents(out.toString(StandardCharsets.UTF_8));
+		assertThat(events.get(0)[0], is("status"));
+		assertThat(((Map<?, ?>)Json.parse(events.get(0)[1])).get("time"), is(0L));
+		assertThat((long)events.size() - 1, is(feed.getFrameCount()));
+		assertThat(feed.getFrameCount() <= ticks, is(true));
+
+		Set<Object> callsServed = new HashSet<>();
+		Map<?, ?> last = null;
+		for (String[] event: events.subList(1, events.size())) {
+			assertThat(event[0], is("delta"));
+			Map<?, ?> delta = (Map<?, ?>)Json.parse(event[1]);
+			Set<Object> cars = new HashSet<>();
+			for (Object car: (List<?>)delta.get("elevators")) {
+				assertThat("one entry per car per tick", cars.add(((Map<?, ?>)car).get("index")), is(true));
+			}
+			for (Object call: (List<?>)delta.get("calls")) {
+				if (((Map<?, ?>)call).get("car") == null) {
+					callsServed.add(((Map<?, ?>)call).get("floor"));
+				}
+			}
+			last = delta;
+		}
+		assertThat(callsServed, is((Set<Object>)new HashSet<Object>(List.of(12L, 7L))));
+		for (Object car: (List<?>)last.get("elevators")) {
+			assertThat(((Map<?, ?>)car).get("state"), is("idle"));
+		}
+	}
+
+
+	@Test
+	public void nothingIsFormattedWithoutSubscribers()
+			throws IOException
+	{
+		ElevatorControlSystem controlSystem = createControlSystem();
+		StatusFeed feed = new StatusFeed(controlSystem);
+
+		feed.attach();
+		runAndPublish(controlSystem, feed);
+		assertThat(feed.getFrameCount(), is(0L));
+		feed.close();
+	}
+
+
+	@Test
+	public void slowSubscriberIsDropped()
+			throws IOException, InterruptedException
+	{
+		ElevatorControlSystem controlSystem = createControlSystem();
+		StatusFeed feed = new StatusFeed(controlSystem, 2);
+		CountDownLatch gate = new CountDownLatch(1);
+		ByteArrayOutputStream stuck = new ByteArrayOutputStream() {
+			private int writes;
+
+			@Override
+			public synchronized void write(byte[] bytes, int offset, int length)
+			{
+				if (++this.writes == 2) {
+					try {
+						gate.await();
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				super.write(bytes, offset, length);
+			}
+		};
+
+		feed.attach();
+		feed.subscribe(stuck);
+		runAndPublish(controlSystem, feed);
+		assertThat(feed.getFrameCount() > 4, is(true));
+		gate.countDown();
+		while (feed.getSubscriberCount() > 0) {
+			Thread.sleep(1);
+		}
+		assertThat(parseEvents(stuck.toString(StandardCharsets.UTF_8)).size() < feed.getFrameCount(), is(true));
+		feed.close();
+	}
+}
@@ -0,0 +1,110 @@
+package jqa.elevator;
+
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+
+public class StimulusQueueTest
+{
+	private static Stimulus create(int timestamp, Stimulus.StimulusType type, int floor)
+	{
+		Stimulus stimulus = new Stimulus(timestamp, type);
+		stimulus.floor = floor;
+		return stimulus;
+	}
+
+
+	@Test
+	public void typeTieBreak()
+			throws Exception
+	{
+		StimulusQueue queue = new CalendarStimulusQueue();
+
+		queue.add(create(5, Stimulus.StimulusType.GoToFloor, 1));
+		queue.add(create(5, Stimulus.StimulusType.ButtonUp, 2));
+		queue.add(create(5, Stimulus.StimulusType.ButtonDown, 3));
+		queue.add(create(5, Stimulus.StimulusType.GoToFloor, 4));
+		queue.add(create(4, Stimulus.StimulusType.Nop, 5));
+
+		assertThat(queue.size(), is(5));
+		assertThat(queue.peek().floor, is(5));
+		assertThat(queue.poll().floor, is(5));
+		assertThat(queue.poll().floor, is(3));
+		assertThat(queue.poll().floor, is(2));
+		assertThat(queue.poll().floor, is(1));
+		assertThat(queue.poll().floor, is(4));
+		assertThat(queue.poll(), is(nullValue()));
+		assertThat(queue.size(), is(0));
+	}
+
+
+	/**
+	 * Runs the same random mix of additions and removals through the
+	 * calendar and the heap, with timestamps that spill over both ends
+	 * of the calendar window.
+	 */
+	@Test
+	public void matchesHeap()
+			throws Exception
+	{
+		StimulusQueue calendar = new CalendarStimulusQueue(64);
+		StimulusQueue heap = new HeapStimulusQueue();
+		Stimulus.StimulusType[] types = Stimulus.StimulusType.values();
+		Random random = new Random(17);
+		int now = 0;
+
+		for (int j = 0; j < 20000; ++j) {
+			if (random.nextInt(3) > 0) {
+				int timestamp = now + random.nextInt(200) - 10;
+				Stimulus stimulus = create(timestamp, types[random.nextInt(types.length)], j);
+				calendar.add(stimulus);
+				heap.add(stimulus);
+			}
+			else if (heap.size() > 0) {
+				Stimulus expected = heap.poll();
+				Stimulus actual = calendar.poll();
+				assertThat(actual.compareTo(expected), is(0));
+				now = actual.timestamp;
+			}
+			assertThat(calendar.size(), is(heap.size()));
+		}
+		while (heap.size() > 0) {
+			assertThat(calendar.poll().compareTo(heap.poll()), is(0));
+		}
+		assertThat(calendar.poll(), is(nullValue()));
+	}
+
+
+	/**
+	 * Adds to an empty calendar a stimulus that ties with one in the
+	 * overflow, which was added first and so must come out first.
+	 */
+	@Test
+	public void overflowGoesFirstOnTies()
+			throws Exception
+	{
+		for (StimulusQueue queue: new StimulusQueue[] { new CalendarStimulusQueue(64), new HeapStimulusQueue() }) {
+			Stimulus[] stimuli = {
+				create(0, Stimulus.StimulusType.ButtonUp, 1),
+				create(2000, Stimulus.StimulusType.ButtonUp, 2),
+				create(2000, Stimulus.StimulusType.ButtonUp, 3),
+			};
+			for (int j = 0; j < stimuli.length; ++j) {
+				stimuli[j].sequence = j;
+			}
+
+			queue.add(stimuli[0]);
+			queue.add(stimuli[1]);
+			assertThat(queue.poll().floor, is(1));
+			queue.add(stimuli[2]);
+			assertThat(queue.poll().floor, is(2));
+			assertThat(queue.poll().floor, is(3));
+			assertThat(queue.poll(), is(nullValue()));
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package jqa.elevator;
+
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+
+public class StimulusSourceTest
+{
+	private ElevatorControlSystem controlSystem;
+
+	/**
+	 * The floors whose up lamps came on, in the order the presses were
+	 * handled.
+	 */
+	private List<Integer> pressed;
+
+
+	/**
+	 * Creates a controller that streams the given lines from a text
+	 * file through a look-ahead window.
+	 */
+	private void createControlSystem(int window, String... lines)
+			throws IOException
+	{
+		File text = File.createTempFile("events", ".sim");
+		text.deleteOnExit();
+		Files.write(text.toPath(), Arrays.asList(lines));
+
+		this.controlSystem = new Building(20, 1, new CalendarStimulusQueue()).controlSystem;
+		this.pressed = new ArrayList<>();
+		this.controlSystem.eventBus.subscribe(new BuildingListener() {
+			@Override
+			public void callLampChanged(FloorCallButton button, Direction direction, boolean isOn)
+			{
+				if (isOn && direction == Direction.kUP) {
+					pressed.add(button.getFloor());
+				}
+			}
+		});
+		this.controlSystem.setStimulusSource(new TextStimulusSource(text.getPath()), window);
+	}
+
+
+	private void run()
+	{
+		while (this.controlSystem.isActive()) {
+			this.controlSystem.tickToNextEvent();
+		}
+	}
+
+
+	@Test
+	public void windowPutsStimuliInOrder()
+			throws IOException
+	{
+		this.createControlSystem(4,
+				"30	FCB-3	ButtonUp	3",
+				"10	FCB-5	ButtonUp	5",
+				"20	FCB-7	ButtonUp	7",
+				"15	FCB-9	ButtonUp	9");
+		this.run();
+		assertThat(this.pressed, is(Arrays.asList(5, 9, 7, 3)));
+	}
+
+
+	@Test
+	public void queueGoesFirstOnTies()
+			throws IOException
+	{
+		this.createControlSystem(4, "5	FCB-4	ButtonUp	4");
+
+		/* The file is read first, so its stimulus has the lower sequence.
+		 */
+		this.controlSystem.tick();
+		this.controlSystem.addStimulus(Stimulus.createFromString("5 FCB-6 ButtonUp 6"));
+		this.run();
+		assertThat(this.pressed, is(Arrays.asList(6, 4)));
+	}
+
+
+	@Test
+	public void lateStimulusIsReportedAndHandled()
+			throws IOException
+	{
+		ByteArrayOutputStream errors = new ByteArrayOutputStream();
+		PrintStream err = System.err;
+
+		this.createControlSystem(2,
+				"10	FCB-3	ButtonUp	3",
+				"20	FCB-5	ButtonUp	5",
+				"30	FCB-7	ButtonUp	7",
+				"12	FCB-9	ButtonUp	9");
+		System.setErr(new PrintStream(errors, true));
+		try {
+			this.run();
+		}
+		finally {
+			System.setErr(err);
+		}
+		assertThat(errors.toString(), containsString("*** Out of order beyond look-ahead: t 12, id FCB-9"));
+		assertThat(this.pressed, is(Arrays.asList(3, 5, 9, 7)));
+	}
+}
@@ -33,6 +33,12 @@ public class StimulusTest
 		one.type = Stimulus.StimulusType.ButtonDown;
 		two.type = Stimulus.StimulusType.ButtonUp;
 		assertThat(one.compareTo(two), lessThan(0));
+
+		two.type = Stimulus.StimulusType.ButtonDown;
+		one.sequence = 8;
+		two.sequence = 7;
+		assertThat(one.compareTo(two), greaterThan(0));
+		assertThat(one.compareTime(two), is(0));
 	}
 
 	@Test
@@ -58,6 +64,16 @@ public class StimulusTest
 		two.type = Stimulus.StimulusType.ButtonUp;
 		assertThat(one.equals(two), is(false));
 
+		two.type = Stimulus.StimulusType.ButtonDown;
+		one.sequence = 1;
+		assertThat(one.equals(two), is(true));
+		assertThat(one.hashCode(), is(two.hashCode()));
+		two.deviceIdentity = "FCB-3";
+		assertThat(one.equals(two), is(false));
+		one.deviceIdentity = "FCB-3";
+		two.floor = 3;
+		assertThat(one.equals(two), is(false));
+
 		assertThat(one.equals(null), is(false));
 		assertThat(one.equals(new Object()), is(false));
 	}
@@ -0,0 +1,93 @@
+package jqa.elevator;
+
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+
+public class TraceTest
+{
+	@Test
+	public void levels()
+			throws Exception
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Stimulus stimulus = Stimulus.createFromString("7 FCB-4 ButtonUp 4");
+		String expected = stimulus.deviceIdentity + ": trigger " + stimulus + System.lineSeparator();
+
+		try (Trace trace = new Trace(bytes, 4)) {
+			assertThat(trace.isEnabled(Trace.Level.kSTEP), is(false));
+			trace.flush();
+
+			trace.setLevel(Trace.Level.kEVENT);
+			assertThat(trace.isEnabled(Trace.Level.kEVENT), is(true));
+			assertThat(trace.isEnabled(Trace.Level.kSTATUS), is(false));
+
+			/* More messages than the buffer holds, and the stimulus
+			 * reused as soon as it is logged.
+			 */
+			for (int j = 0; j < 10; ++j) {
+				trace.stimulus("FCB-4", stimulus);
+			}
+			stimulus.floor = 5;
+			trace.step(7);
+			trace.assigned("DK-1", 9, "E-2");
+			trace.flush();
+
+			StringBuilder log = new StringBuilder();
+			for (int j = 0; j < 10; ++j) {
+				log.append(expected);
+			}
+			log.append("=== time 7").append(System.lineSeparator());
+			log.append("DK-1: floor 9, take E-2").append(System.lineSeparator());
+			assertThat(bytes.toString(), is(log.toString()));
+
+			trace.text("end");
+		}
+		assertThat(bytes.toString(), endsWith("end" + System.lineSeparator()));
+	}
+
+
+	@Test
+	public void controlSystemLogsNothingByDefault()
+	{
+		ElevatorControlSystem controlSystem = new Building(10, 1, new CalendarStimulusQueue()).controlSystem;
+
+		assertThat(controlSystem.isVerbose(), is(false));
+		assertThat(controlSystem.getTrace(), is(nullValue()));
+		controlSystem.setVerbose(false);
+		assertThat(controlSystem.getTrace(), is(nullValue()));
+	}
+
+
+	@Test
+	public void controlSystem()
+			throws Exception
+	{
+		Building building = new Building(10, 1, new CalendarStimulusQueue());
+		ElevatorControlSystem controlSystem = building.controlSystem;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try (Trace trace = new Trace(bytes)) {
+			controlSystem.setTrace(trace);
+			trace.setLevel(Trace.Level.kSTATUS);
+			assertThat(controlSystem.isVerbose(), is(true));
+
+			controlSystem.addStimulus(Stimulus.createFromString("1 FCB-3 ButtonUp 3"));
+			controlSystem.tickToNextEvent();
+			building.traceStatus();
+			trace.flush();
+			assertThat(bytes.toString(), startsWith("=== time 1\nFCB-3: trigger t 1, id FCB-3, t ButtonUp, f 3"));
+			assertThat(bytes.toString(), containsString("Calls        1:     2:     3: U"));
+
+			controlSystem.setVerbose(false);
+			assertThat(trace.getLevel(), is(Trace.Level.kOFF));
+			controlSystem.setVerbose(true);
+			assertThat(trace.getLevel(), is(Trace.Level.kEVENT));
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package jqa.elevator;
+
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+
+public class TrafficGeneratorTest
+{
+	private static ElevatorControlSystem createControlSystem(String text)
+			throws Exception
+	{
+		BuildingDescription description = BuildingDescription.parse(new BufferedReader(new StringReader(text)));
+		ElevatorControlSystem controlSystem = description.createControlSystem(new CalendarStimulusQueue());
+
+		controlSystem.setVerbose(false);
+		return controlSystem;
+	}
+
+
+	private static void runUntilIdle(ElevatorControlSystem controlSystem)
+	{
+		while (controlSystem.isActive()) {
+			controlSystem.tickToNextEvent();
+		}
+	}
+
+
+	@Test
+	public void stream()
+	{
+		TrafficGenerator generator = new TrafficGenerator(10, 5000, 0.5, 7);
+		TrafficGenerator again = new TrafficGenerator(10, 5000, 0.5, 7);
+		Stimulus stimulus = new Stimulus();
+		Stimulus other = new Stimulus();
+		int last = 0;
+		int count = 0;
+
+		while (generator.next(stimulus)) {
+			assertThat(again.next(other), is(true));
+			assertThat(other.timestamp, is(stimulus.timestamp));
+			assertThat(other.floor, is(stimulus.floor));
+			assertThat(stimulus.type, is(Stimulus.StimulusType.PassengerArrived));
+			assertThat(stimulus.timestamp >= last, is(true));
+			int origin = Integer.parseInt(stimulus.deviceIdentity.substring("FCB-".length()));
+			assertThat(stimulus.floor, not(origin));
+			assertThat(origin != 1 && stimulus.floor != 1, is(true));
+			last = stimulus.timestamp;
+			++count;
+		}
+		assertThat(count, is(5000));
+		assertThat(generator.getGeneratedCount(), is(5000L));
+
+		/* Two ticks apart on average.
+		 */
+		assertThat(last > 9000 && last < 11000, is(true));
+	}
+
+
+	@Test
+	public void mix()
+	{
+		TrafficGenerator upPeak = new TrafficGenerator(10, 200, 1.0, 3);
+		TrafficGenerator downPeak = new TrafficGenerator(10, 200, 1.0, 3);
+		Stimulus stimulus = new Stimulus();
+
+		upPeak.setMix(1.0, 0.0);
+		upPeak.setPopulation(5, 0);
+		upPeak.setDestinationMode(true);
+		while (upPeak.next(stimulus)) {
+			assertThat(stimulus.type, is(Stimulus.StimulusType.DestinationCall));
+			assertThat(stimulus.deviceIdentity, is("DK-1"));
+			assertThat(stimulus.floor, not(5));
+		}
+
+		downPeak.setMix(0.0, 1.0);
+		for (int floor = 2; floor <= 10; ++floor) {
+			downPeak.setPopulation(floor, floor == 8 ? 100 : 0);
+		}
+		while (downPeak.next(stimulus)) {
+			assertThat(stimulus.deviceIdentity, is("FCB-8"));
+			assertThat(stimulus.floor, is(1));
+		}
+	}
+
+
+	@Test
+	public void fullCar()
+			throws Exception
+	{
+		ElevatorControlSystem controlSystem = createControlSystem("floors 10\nbank E 1 capacity 2\n");
+		ServiceStatistics statistics = new ServiceStatistics();
+		Elevator car = controlSystem.elevators.get(0);
+
+		controlSystem.setServiceListener(statistics);
+		controlSystem.passengerArrived(5, 9);
+		controlSystem.passengerArrived(5, 8);
+		controlSystem.passengerArrived(5, 9);
+		while (car.getLoad() == 0) {
+			controlSystem.tickToNextEvent();
+		}
+
+		/* Two get in; the third calls again once the car has gone, and
+		 * the car comes back for them.
+		 */
+		assertThat(car.getLoad(), is(2));
+		assertThat(car.isFull(), is(true));
+		assertThat(statistics.getLeftBehindCount(), is(1L));
+		runUntilIdle(controlSystem);
+		assertThat(car.getLoad(), is(0));
+		assertThat(car.currentFloor, is(9));
+		assertThat(statistics.getPassengerWaitTimes().getCount(), is(3L));
+		assertThat(statistics.getRideTimes().getCount(), is(3L));
+		assertThat(controlSystem.getFloorCallButton(5).isUp(), is(false));
+	}
+
+
+	@Test
+	public void fullCarAtKiosk()
+			throws Exception
+	{
+		ElevatorControlSystem controlSystem = createControlSystem("floors 10\nbank E 2 capacity 1\nkiosks 1\n");
+		ServiceStatistics statistics = new ServiceStatistics();
+		DestinationKiosk kiosk = controlSystem.getDestinationKiosk(1);
+
+		controlSystem.setServiceListener(statistics);
+		controlSystem.elevators.get(1).setIsFloorEnabled(1, false);
+		assertThat(kiosk.enterDestination(6).getDeviceIdentity(), is("E-0"));
+		assertThat(kiosk.enterDestination(7).getDeviceIdentity(), is("E-0"));
+		runUntilIdle(controlSystem);
+
+		assertThat(statistics.getLeftBehindCount(), is(1L));
+		assertThat(statistics.getRideTimes().getCount(), is(2L));
+		assertThat(controlSystem.elevators.get(0).waitingPassengers.size(), is(0));
+		assertThat(controlSystem.elevators.get(0).currentFloor, is(7));
+	}
+
+
+	@Test
+	public void scenario()
+			throws Exception
+	{
+		ElevatorControlSystem controlSystem = createControlSystem("floors 12\nbank E 3 capacity 4\n");
+		ServiceStatistics statistics = new ServiceStatistics();
+		TrafficGenerator generator = new TrafficGenerator(12, 2000, 0.05, 11);
+
+		generator.setMix(0.6, 0.2);
+		controlSystem.setServiceListener(statistics);
+		controlSystem.setStimulusSource(generator, 1);
+		runUntilIdle(controlSystem);
+
+		assertThat(statistics.getPassengerWaitTimes().getCount(), is(2000L));
+		assertThat(statistics.getRideTimes().getCount(), is(2000L));
+		for (Elevator car: controlSystem.elevators) {
+			assertThat(car.getLoad(), is(0));
+		}
+	}
+}